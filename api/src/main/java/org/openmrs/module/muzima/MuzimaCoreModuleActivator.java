@@ -15,15 +15,24 @@ package org.openmrs.module.muzima;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.DaemonTokenAware;
 import org.openmrs.module.ModuleActivator;
+import org.openmrs.module.muzima.task.BulkDataJob;
+import org.openmrs.module.muzima.task.ContinuousQueueDataProcessor;
+import org.openmrs.module.muzima.task.DataSearchIndexer;
+import org.openmrs.module.muzima.task.DuplicateSubmissionFilter;
+import org.openmrs.module.muzima.task.PatientMatchIndexer;
 
 /**
  * This class contains the logic that is run every time this module is either started or stopped.
  */
-public class MuzimaCoreModuleActivator implements ModuleActivator {
+public class MuzimaCoreModuleActivator implements ModuleActivator, DaemonTokenAware {
 
     protected Log log = LogFactory.getLog(getClass());
 
+    private DaemonToken daemonToken;
+
     /**
      * @see ModuleActivator#willRefreshContext()
      */
@@ -50,6 +59,11 @@ public class MuzimaCoreModuleActivator implements ModuleActivator {
      */
     public void started() {
         log.info("Muzima Core Module started");
+        if (daemonToken != null) {
+            DuplicateSubmissionFilter.loadInBackground(daemonToken);
+            PatientMatchIndexer.indexInBackground(daemonToken);
+            DataSearchIndexer.indexInBackground(daemonToken);
+        }
     }
 
     /**
@@ -63,7 +77,18 @@ public class MuzimaCoreModuleActivator implements ModuleActivator {
      * @see ModuleActivator#stopped()
      */
     public void stopped() {
+        ContinuousQueueDataProcessor.setDaemonToken(null);
+        BulkDataJob.setDaemonToken(null);
         log.info("Muzima Core Module stopped");
     }
 
+    /**
+     * @see DaemonTokenAware#setDaemonToken(DaemonToken)
+     */
+    public void setDaemonToken(final DaemonToken token) {
+        daemonToken = token;
+        ContinuousQueueDataProcessor.setDaemonToken(token);
+        BulkDataJob.setDaemonToken(token);
+    }
+
 }
@@ -0,0 +1,83 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.advice;
+
+import org.openmrs.Concept;
+import org.openmrs.EncounterRole;
+import org.openmrs.Form;
+import org.openmrs.Location;
+import org.openmrs.Provider;
+import org.openmrs.User;
+import org.openmrs.VisitAttributeType;
+import org.openmrs.VisitType;
+import org.openmrs.module.muzima.model.MuzimaForm;
+import org.openmrs.module.muzima.model.handler.MetadataCache;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+
+/**
+ * Invalidates the {@link MetadataCache}s whenever metadata cached by them is saved, retired or purged through the
+ * services this advice is registered on (see config.xml).
+ */
+public class MetadataChangeAdvice implements AfterReturningAdvice {
+
+    private static final String[] CHANGE_METHOD_PREFIXES = {
+            "save", "create", "update", "import", "retire", "unretire", "purge", "void", "unvoid", "delete"
+    };
+
+    private static final Class<?>[] CACHED_TYPES = {
+            Concept.class, Location.class, Provider.class, User.class, EncounterRole.class, Form.class,
+            MuzimaForm.class, VisitType.class, VisitAttributeType.class
+    };
+
+    @Override
+    public void afterReturning(final Object returnValue, final Method method, final Object[] args,
+                               final Object target) throws Throwable {
+        if (isChangeMethod(method) && (isCachedType(returnValue) || anyCachedType(args))) {
+            MetadataCache.invalidateAll();
+        }
+    }
+
+    private boolean isChangeMethod(final Method method) {
+        for (String prefix : CHANGE_METHOD_PREFIXES) {
+            if (method.getName().startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean anyCachedType(final Object[] args) {
+        if (args != null) {
+            for (Object arg : args) {
+                if (isCachedType(arg)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isCachedType(final Object object) {
+        if (object != null) {
+            for (Class<?> cachedType : CACHED_TYPES) {
+                if (cachedType.isInstance(object)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
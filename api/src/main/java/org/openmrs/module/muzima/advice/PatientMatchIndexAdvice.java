@@ -0,0 +1,103 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.advice;
+
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.api.service.CoreService;
+import org.openmrs.module.muzima.task.PatientMatchIndexer;
+import org.springframework.aop.AfterReturningAdvice;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the patient match index up to date whenever patients are saved, voided, merged or purged through the patient
+ * service, and whenever persons or their names are changed through the person service (see config.xml).
+ */
+public class PatientMatchIndexAdvice implements AfterReturningAdvice {
+
+    private static final String[] CHANGE_METHOD_PREFIXES = {"save", "void", "unvoid", "merge"};
+
+    @Override
+    public void afterReturning(final Object returnValue, final Method method, final Object[] args,
+                               final Object target) throws Throwable {
+        boolean purge = method.getName().startsWith("purge");
+        if (!purge && !isChangeMethod(method)) {
+            return;
+        }
+        Set<Patient> patients = new LinkedHashSet<Patient>();
+        // persons which may be patients, and patients whose names changed, are indexed again from the database.
+        Set<Integer> personIds = new LinkedHashSet<Integer>();
+        addPatient(patients, personIds, returnValue, purge);
+        if (args != null) {
+            for (Object arg : args) {
+                addPatient(patients, personIds, arg, purge);
+            }
+        }
+        CoreService coreService = Context.getService(CoreService.class);
+        for (Patient patient : patients) {
+            if (PatientMatchIndexer.isIndexed(patient.getPatientId())) {
+                if (purge) {
+                    coreService.deletePatientMatchKeys(patient.getPatientId());
+                } else {
+                    coreService.updatePatientMatchKeys(patient);
+                }
+            }
+        }
+        List<Integer> patientIds = new ArrayList<Integer>();
+        for (Integer personId : personIds) {
+            if (PatientMatchIndexer.isIndexed(personId)) {
+                patientIds.add(personId);
+            }
+        }
+        if (!patientIds.isEmpty()) {
+            coreService.reindexPatientMatchKeys(patientIds);
+        }
+    }
+
+    private boolean isChangeMethod(final Method method) {
+        for (String prefix : CHANGE_METHOD_PREFIXES) {
+            if (method.getName().startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addPatient(final Set<Patient> patients, final Set<Integer> personIds, final Object object,
+                            final boolean purge) {
+        if (object instanceof Patient || (purge && object instanceof Person)) {
+            Person person = (Person) object;
+            if (person.getPersonId() != null) {
+                patients.add(object instanceof Patient ? (Patient) object : new Patient(person.getPersonId()));
+            }
+        } else if (object instanceof Person) {
+            addPersonId(personIds, (Person) object);
+        } else if (object instanceof PersonName) {
+            addPersonId(personIds, ((PersonName) object).getPerson());
+        }
+    }
+
+    private void addPersonId(final Set<Integer> personIds, final Person person) {
+        if (person != null && person.getPersonId() != null) {
+            personIds.add(person.getPersonId());
+        }
+    }
+}
@@ -16,8 +16,10 @@ package org.openmrs.module.muzima.api.db;
 import org.openmrs.Encounter;
 import org.openmrs.Obs;
 import org.openmrs.api.db.DAOException;
+import org.openmrs.module.muzima.model.PatientMatchKey;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -40,4 +42,82 @@ public interface CoreDao {
 
     @Transactional(readOnly = true)
     Number countEncounters(final List<String> patientUuids, final int maxEncounterResultsPerPatient, final Date syncDate) throws DAOException;
+
+    /**
+     * Return the ids of the patients with an entry in the patient match index for one of the name keys, with the given
+     * gender and birth year.
+     */
+    List<Integer> getPatientMatchCandidateIds(final String gender, final Integer birthYear,
+                                              final Collection<String> nameKeys) throws DAOException;
+
+    /**
+     * Add entries to the patient match index.
+     */
+    void savePatientMatchKeys(final List<PatientMatchKey> patientMatchKeys) throws DAOException;
+
+    /**
+     * Remove all entries of the patient from the patient match index.
+     */
+    void deletePatientMatchKeys(final Integer patientId) throws DAOException;
+
+    /**
+     * Remove all entries of the patients with an id in the given range from the patient match index.
+     *
+     * @param fromPatientId the lower bound of the range, exclusive.
+     * @param toPatientId   the upper bound of the range, inclusive.
+     */
+    void deletePatientMatchKeys(final Integer fromPatientId, final Integer toPatientId) throws DAOException;
+
+    /**
+     * Remove all entries of the patients from the patient match index.
+     */
+    void deletePatientMatchKeys(final Collection<Integer> patientIds) throws DAOException;
+
+    /**
+     * @return the highest patient id in the patient match index, or null when the index is empty.
+     */
+    Integer getMaxIndexedPatientId() throws DAOException;
+
+    /**
+     * @return the date of the latest entry of the patient match index, or null when no entry has a date.
+     */
+    Date getLastPatientMatchIndexDate() throws DAOException;
+
+    /**
+     * Return the ids of the patients in the given range whose gender, birth date, names or voided state changed since
+     * the given date, in ascending order.
+     *
+     * @param since         the date from which on changes are of interest, inclusive.
+     * @param fromPatientId the lower bound of the range, exclusive.
+     * @param toPatientId   the upper bound of the range, inclusive.
+     * @param maxResults    the maximum number of patient ids to return.
+     * @return the ids of the changed patients.
+     */
+    List<Integer> getPatientIdsChangedSince(final Date since, final Integer fromPatientId, final Integer toPatientId,
+                                            final int maxResults) throws DAOException;
+
+    /**
+     * @return the highest patient id, or null when there are no patients.
+     */
+    Integer getMaxPatientId() throws DAOException;
+
+    /**
+     * Return the entries of the patient match index for the patients with an id in the given range, read straight from
+     * the names of the patients without loading the patients.
+     *
+     * @param fromPatientId the lower bound of the range, exclusive.
+     * @param toPatientId   the upper bound of the range, inclusive.
+     * @return the entries of the patient match index for the range.
+     */
+    List<PatientMatchKey> createPatientMatchKeys(final Integer fromPatientId, final Integer toPatientId)
+            throws DAOException;
+
+    /**
+     * Return the entries of the patient match index for the given patients, read straight from the names of the
+     * patients without loading the patients.
+     *
+     * @param patientIds the ids of the patients.
+     * @return the entries of the patient match index for the patients.
+     */
+    List<PatientMatchKey> createPatientMatchKeys(final Collection<Integer> patientIds) throws DAOException;
 }
@@ -14,8 +14,12 @@
 package org.openmrs.module.muzima.api.db;
 
 import org.openmrs.module.muzima.model.Data;
+import org.openmrs.module.muzima.model.DataSummary;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  */
@@ -51,6 +55,25 @@ public interface DataDao<T extends Data> extends SingleClassDao<T> {
      */
     List<T> getAllDataByFormDataUuid(final String formDataUuid);
 
+    /**
+     * Return which of the given form data uuids are used by saved data, without loading the data themselves.
+     *
+     * @param formDataUuids the form data uuids.
+     * @return the form data uuids used by saved data.
+     * @should return only the form data uuids used by saved data
+     */
+    List<String> getFormDataUuids(final Collection<String> formDataUuids);
+
+    /**
+     * Return the form data uuids of the next batch of data, ordered by id, with an id greater than the given id. The
+     * data without form data uuid are skipped.
+     *
+     * @param lastId    the id of the last data in the previous batch, or null for the first batch.
+     * @param batchSize the maximum number of form data uuids in the batch.
+     * @return the form data uuids keyed by the id of their data, empty when there are no more data.
+     */
+    Map<Integer, String> getFormDataUuidsAfter(final Integer lastId, final Integer batchSize);
+
     /**
      * Return all saved data.
      *
@@ -58,6 +81,94 @@ public interface DataDao<T extends Data> extends SingleClassDao<T> {
      */
     List<T> getAllData();
 
+    /**
+     * Return the next batch of data, ordered by id, with an id greater than the given id. Paging on the id instead of
+     * an offset keeps the batches stable while the data of the previous batches are being deleted.
+     *
+     * @param lastId    the id of the last data in the previous batch, or null for the first batch.
+     * @param batchSize the maximum number of data in the batch.
+     * @return the batch of data, empty when there are no more data.
+     * @should return data with id greater than the given id ordered by id.
+     * @should return at most batch size data.
+     */
+    List<T> getDataAfter(final Integer lastId, final Integer batchSize);
+
+    /**
+     * Return the saved data of a patient, newest first, using the patient uuid column instead of a search on the
+     * payload.
+     *
+     * @param patientUuid   the uuid of the patient.
+     * @param discriminator the discriminator of the data, or null for data with any discriminator.
+     * @return the data of the patient.
+     * @should return the data with matching patient uuid and discriminator.
+     */
+    List<T> getDataByPatientUuid(final String patientUuid, final String discriminator);
+
+    /**
+     * Return the uuids of the saved data of several patients at once, e.g. to show the registration of the patient of
+     * every error data on a page. Of the data of a patient only the newest one is returned.
+     *
+     * @param patientUuids  the uuids of the patients.
+     * @param discriminator the discriminator of the data.
+     * @return the uuid of the newest data of each patient, keyed by the patient uuid.
+     * @should return the uuid of the newest data with matching discriminator of every patient.
+     */
+    Map<String, String> getUuidsByPatientUuids(final Collection<String> patientUuids, final String discriminator);
+
+    /**
+     * Count the data per discriminator.
+     *
+     * @return the number of data keyed by their discriminator.
+     * @should count the data of every discriminator
+     */
+    Map<String, Number> countDataByDiscriminator();
+
+    /**
+     * Get the summaries of the data with matching search term for a particular page, without their payload.
+     *
+     * @param search     the search term.
+     * @param pageNumber the page number.
+     * @param pageSize   the size of the page.
+     * @return the summaries of the data of the page, ordered like {@link #getPagedData(String, Integer, Integer)}.
+     * @should return the list columns of the data without the payload
+     */
+    List<DataSummary> getPagedDataSummaries(final String search, final Integer pageNumber, final Integer pageSize);
+
+    /**
+     * Add the next batch of data which are not in the search index yet to the search index, ordered by id.
+     *
+     * @param lastId    the id of the last data in the previous batch, or null for the first batch.
+     * @param batchSize the maximum number of data in the batch.
+     * @return the ids of the data added to the index, empty when there are no more data to add.
+     */
+    List<Integer> indexSearchTerms(final Integer lastId, final Integer batchSize);
+
+    /**
+     * Return the ids of the next batch of data, ordered by id, with an id greater than the given id.
+     *
+     * @param lastId    the id of the last data in the previous batch, or null for the first batch.
+     * @param batchSize the maximum number of ids in the batch.
+     * @return the ids, empty when there are no more data.
+     */
+    List<Integer> getIdsAfter(final Integer lastId, final Integer batchSize);
+
+    /**
+     * Return the saved data with the given ids, ordered by id. The ids without data are skipped.
+     *
+     * @param ids the ids of the data.
+     * @return the data with the given ids.
+     */
+    List<T> getDataByIds(final Collection<Integer> ids);
+
+    /**
+     * Iterate over all saved data, fetching them in batches using {@link #getDataAfter(Integer, Integer)}. Only one
+     * batch is held at a time, the data of a batch are evicted from the session when the next batch is fetched.
+     *
+     * @param batchSize the number of data fetched at a time.
+     * @return the iterator over all saved data.
+     */
+    Iterator<T> iterateData(final Integer batchSize);
+
     /**
      * Save data into the database.
      *
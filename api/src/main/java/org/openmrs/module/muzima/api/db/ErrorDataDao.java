@@ -15,8 +15,20 @@ package org.openmrs.module.muzima.api.db;
 
 import org.openmrs.module.muzima.model.ErrorData;
 
+import java.util.List;
+
 /**
  */
 public interface ErrorDataDao extends DataDao<ErrorData> {
 
+    /**
+     * Move error data back to the queue: insert queue data copied from the error data and delete the error data with
+     * their error messages. The rows are copied inside the database, the search index entries of the requeued data are
+     * replaced in the same transaction.
+     *
+     * @param uuids the uuids of the error data.
+     * @return the number of error data moved back to the queue.
+     * @should move the error data with matching uuid back to the queue.
+     */
+    int requeueData(final List<String> uuids);
 }
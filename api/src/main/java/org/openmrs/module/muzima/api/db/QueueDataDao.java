@@ -1,8 +1,137 @@
 package org.openmrs.module.muzima.api.db;
 
+import org.openmrs.module.muzima.model.ArchiveData;
+import org.openmrs.module.muzima.model.ErrorData;
 import org.openmrs.module.muzima.model.QueueData;
 
+import java.sql.Savepoint;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
 /**
  */
 public interface QueueDataDao extends DataDao<QueueData> {
+
+    /**
+     * Return the queue data, ordered by id, with an id greater than the given id for the given patient uuids and
+     * discriminators.
+     *
+     * @param lastId         the id after which the queue data are returned, or null for all queue data.
+     * @param patientUuids   the patient uuids.
+     * @param discriminators the discriminators.
+     * @return the matching queue data.
+     * @should return the queue data of the patients with the given discriminators after the given id.
+     */
+    List<QueueData> getDataByPatientUuids(final Integer lastId, final Collection<String> patientUuids,
+                                          final Collection<String> discriminators);
+
+    /**
+     * Claim the next batch of queue data, ordered by id, with an id greater than the given id. Queue data claimed by
+     * another claimant under a lease which hasn't expired yet are skipped, queue data with an expired lease are
+     * claimed again.
+     *
+     * @param lastId      the id of the last queue data in the previous batch, or null for the first batch.
+     * @param batchSize   the maximum number of queue data in the batch.
+     * @param claimant    the claimant.
+     * @param leaseExpiry the time until which the claim is held.
+     * @return the claimed queue data, empty when there are no more queue data to claim.
+     * @should claim the unclaimed queue data after the given id.
+     * @should skip the queue data claimed by another claimant.
+     * @should claim the queue data with an expired lease.
+     */
+    List<QueueData> claimDataAfter(final Integer lastId, final Integer batchSize, final String claimant,
+                                   final Date leaseExpiry);
+
+    /**
+     * Claim the queue data with the given ids. Each queue data is claimed with a single conditional update, so when
+     * several claimants race for the same queue data only one of them gets it.
+     *
+     * @param ids         the ids of the queue data.
+     * @param claimant    the claimant.
+     * @param leaseExpiry the time until which the claim is held.
+     * @return the queue data claimed by the claimant, ordered by id.
+     * @should not claim the queue data claimed by another claimant.
+     */
+    List<QueueData> claimData(final Collection<Integer> ids, final String claimant, final Date leaseExpiry);
+
+    /**
+     * Extend the lease of all queue data held by the claimant.
+     *
+     * @param claimant    the claimant.
+     * @param leaseExpiry the new time until which the claims are held.
+     * @return the number of queue data held by the claimant.
+     */
+    int renewClaims(final String claimant, final Date leaseExpiry);
+
+    /**
+     * Release all queue data held by the claimant, so any claimant can claim them right away.
+     *
+     * @param claimant the claimant.
+     * @return the number of queue data released.
+     * @should release the queue data held by the claimant.
+     */
+    int releaseClaims(final String claimant);
+
+    /**
+     * Delete the queue data with the given uuids with a single statement, without loading them.
+     *
+     * @param uuids the uuids of the queue data.
+     * @return the number of queue data deleted.
+     * @should delete the queue data with matching uuid.
+     */
+    int purgeDataByUuids(final List<String> uuids);
+
+    /**
+     * Insert new queue data using a jdbc batch. When the batch fails, the queue data are inserted one by one, each
+     * within its own savepoint, so a single bad queue data doesn't prevent the others from being queued.
+     *
+     * @param queueDataList the new queue data.
+     * @return the reason each queue data which couldn't be inserted failed, keyed by the uuid of the queue data.
+     * @should insert all queue data.
+     */
+    Map<String, String> insertData(final List<QueueData> queueDataList);
+
+    /**
+     * Move queue data out of the queue: save the archive data and error data created from them and delete the queue
+     * data. The discriminator, data source, payload and form data uuid are copied from the queue data inside the
+     * database with insert ... select statements, only the remaining fields are taken from the archive data and error
+     * data. The rows are written using jdbc batches. When a batch fails, the queue data are moved one by one, each
+     * within its own savepoint, and the queue data which still can't be moved are left in the queue. A queue data
+     * which is already gone, e.g. moved by another processor, or which is held by another claimant, e.g. after the
+     * lease of the claimant expired, is reported as not moved and nothing is written for it.
+     *
+     * @param archiveData the archive data keyed by the id of the queue data they were created from.
+     * @param errorData   the error data keyed by the id of the queue data they were created from.
+     * @param claimant    the claimant holding the queue data, or null for queue data which aren't claimed.
+     * @return the id of the queue data which couldn't be moved.
+     * @should save the archive data and error data and delete the queue data.
+     * @should leave the queue data which can't be moved in the queue.
+     */
+    List<Integer> moveQueueData(final Map<Integer, ArchiveData> archiveData, final Map<Integer, ErrorData> errorData,
+                                final String claimant);
+
+    /**
+     * Set a savepoint in the current transaction, so the changes made afterwards can be rolled back without the ones
+     * made before. The pending changes of the session are written first, they belong to the work before the savepoint.
+     *
+     * @return the savepoint.
+     */
+    Savepoint setSavepoint();
+
+    /**
+     * Write the pending changes of the session and release the savepoint, keeping the changes made since it was set.
+     *
+     * @param savepoint the savepoint.
+     */
+    void releaseSavepoint(final Savepoint savepoint);
+
+    /**
+     * Roll the changes made since the savepoint was set back. The session is cleared, the entities it holds may carry
+     * changes which were rolled back, so every entity loaded before is detached afterwards.
+     *
+     * @param savepoint the savepoint.
+     */
+    void rollbackToSavepoint(final Savepoint savepoint);
 }
@@ -30,4 +30,14 @@ public class HibernateArchiveDataDao extends HibernateDataDao<ArchiveData> imple
     protected HibernateArchiveDataDao() {
         super(ArchiveData.class);
     }
+
+    /**
+     * The queue, error and archive data are searched through the search index.
+     *
+     * @see HibernateDataDao#isSearchIndexed()
+     */
+    @Override
+    protected boolean isSearchIndexed() {
+        return true;
+    }
 }
@@ -29,19 +29,29 @@ import org.openmrs.Patient;
 import org.openmrs.api.db.DAOException;
 import org.openmrs.api.db.hibernate.DbSessionFactory;
 import org.openmrs.module.muzima.api.db.CoreDao;
+import org.openmrs.module.muzima.model.PatientMatchKey;
+import org.openmrs.module.muzima.utils.PatientSearchUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * TODO: Write brief description about the class here.
  */
 public class HibernateCoreDao implements CoreDao {
 
+    // one row per unvoided name of the unvoided patients, with the gender and birth date of the patient.
+    private static final String PATIENT_MATCH_NAMES_QUERY = "select patient.patientId, patient.gender, "
+            + "patient.birthdate, name.givenName, name.familyName from Patient patient, PersonName name "
+            + "where name.person.personId = patient.patientId and patient.voided = false and name.voided = false ";
+
     @Autowired
     protected DbSessionFactory sessionFactory;
 
@@ -194,4 +204,197 @@ public class HibernateCoreDao implements CoreDao {
         }
         return encountersCount;
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see CoreDao#getPatientMatchCandidateIds(String, Integer, java.util.Collection)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Integer> getPatientMatchCandidateIds(final String gender, final Integer birthYear,
+                                                     final Collection<String> nameKeys) throws DAOException {
+        if (nameKeys.isEmpty()) {
+            return new ArrayList<Integer>();
+        }
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(PatientMatchKey.class);
+        criteria.add(Restrictions.in("nameKey", nameKeys));
+        criteria.add(Restrictions.eq("birthYear", birthYear));
+        criteria.add(Restrictions.eq("gender", gender));
+        criteria.setProjection(Projections.distinct(Projections.property("patientId")));
+        return criteria.list();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see CoreDao#savePatientMatchKeys(java.util.List)
+     */
+    @Override
+    public void savePatientMatchKeys(final List<PatientMatchKey> patientMatchKeys) throws DAOException {
+        for (PatientMatchKey patientMatchKey : patientMatchKeys) {
+            getSessionFactory().getCurrentSession().save(patientMatchKey);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see CoreDao#deletePatientMatchKeys(Integer)
+     */
+    @Override
+    public void deletePatientMatchKeys(final Integer patientId) throws DAOException {
+        getSessionFactory().getCurrentSession()
+                .createQuery("delete from PatientMatchKey where patientId = :patientId")
+                .setInteger("patientId", patientId)
+                .executeUpdate();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see CoreDao#deletePatientMatchKeys(Integer, Integer)
+     */
+    @Override
+    public void deletePatientMatchKeys(final Integer fromPatientId, final Integer toPatientId) throws DAOException {
+        getSessionFactory().getCurrentSession()
+                .createQuery("delete from PatientMatchKey where patientId > :fromPatientId "
+                        + "and patientId <= :toPatientId")
+                .setInteger("fromPatientId", fromPatientId)
+                .setInteger("toPatientId", toPatientId)
+                .executeUpdate();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see CoreDao#deletePatientMatchKeys(java.util.Collection)
+     */
+    @Override
+    public void deletePatientMatchKeys(final Collection<Integer> patientIds) throws DAOException {
+        if (patientIds.isEmpty()) {
+            return;
+        }
+        getSessionFactory().getCurrentSession()
+                .createQuery("delete from PatientMatchKey where patientId in (:patientIds)")
+                .setParameterList("patientIds", patientIds)
+                .executeUpdate();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see CoreDao#getMaxIndexedPatientId()
+     */
+    @Override
+    public Integer getMaxIndexedPatientId() throws DAOException {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(PatientMatchKey.class);
+        criteria.setProjection(Projections.max("patientId"));
+        return (Integer) criteria.uniqueResult();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see CoreDao#getLastPatientMatchIndexDate()
+     */
+    @Override
+    public Date getLastPatientMatchIndexDate() throws DAOException {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(PatientMatchKey.class);
+        criteria.setProjection(Projections.max("dateIndexed"));
+        return (Date) criteria.uniqueResult();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see CoreDao#getPatientIdsChangedSince(java.util.Date, Integer, Integer, int)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Integer> getPatientIdsChangedSince(final Date since, final Integer fromPatientId,
+                                                   final Integer toPatientId, final int maxResults)
+            throws DAOException {
+        return getSessionFactory().getCurrentSession()
+                .createQuery("select distinct patient.patientId from Patient patient, PersonName name "
+                        + "where name.person.personId = patient.patientId and patient.patientId > :fromPatientId "
+                        + "and patient.patientId <= :toPatientId and (patient.personDateChanged >= :since "
+                        + "or patient.personDateVoided >= :since or patient.dateChanged >= :since "
+                        + "or patient.dateVoided >= :since or name.dateCreated >= :since "
+                        + "or name.dateChanged >= :since or name.dateVoided >= :since) "
+                        + "order by patient.patientId")
+                .setTimestamp("since", since)
+                .setInteger("fromPatientId", fromPatientId)
+                .setInteger("toPatientId", toPatientId)
+                .setMaxResults(maxResults)
+                .list();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see CoreDao#getMaxPatientId()
+     */
+    @Override
+    public Integer getMaxPatientId() throws DAOException {
+        return (Integer) getSessionFactory().getCurrentSession()
+                .createQuery("select max(patient.patientId) from Patient patient")
+                .uniqueResult();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see CoreDao#createPatientMatchKeys(Integer, Integer)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<PatientMatchKey> createPatientMatchKeys(final Integer fromPatientId, final Integer toPatientId)
+            throws DAOException {
+        List<Object[]> rows = getSessionFactory().getCurrentSession()
+                .createQuery(PATIENT_MATCH_NAMES_QUERY + "and patient.patientId > :fromPatientId "
+                        + "and patient.patientId <= :toPatientId")
+                .setInteger("fromPatientId", fromPatientId)
+                .setInteger("toPatientId", toPatientId)
+                .list();
+        return toPatientMatchKeys(rows);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see CoreDao#createPatientMatchKeys(java.util.Collection)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<PatientMatchKey> createPatientMatchKeys(final Collection<Integer> patientIds) throws DAOException {
+        if (patientIds.isEmpty()) {
+            return new ArrayList<PatientMatchKey>();
+        }
+        List<Object[]> rows = getSessionFactory().getCurrentSession()
+                .createQuery(PATIENT_MATCH_NAMES_QUERY + "and patient.patientId in (:patientIds)")
+                .setParameterList("patientIds", patientIds)
+                .list();
+        return toPatientMatchKeys(rows);
+    }
+
+    private List<PatientMatchKey> toPatientMatchKeys(final List<Object[]> rows) {
+        List<PatientMatchKey> patientMatchKeys = new ArrayList<PatientMatchKey>();
+        Set<String> added = new HashSet<String>();
+        for (Object[] row : rows) {
+            Integer patientId = (Integer) row[0];
+            String gender = StringUtils.upperCase((String) row[1]);
+            Integer birthYear = PatientSearchUtils.getBirthYear((Date) row[2]);
+            if (StringUtils.isBlank(gender) || birthYear == null) {
+                continue;
+            }
+            for (int i = 3; i < row.length; i++) {
+                String nameKey = PatientSearchUtils.getSoundex((String) row[i]);
+                if (nameKey != null && added.add(patientId + ":" + nameKey)) {
+                    patientMatchKeys.add(new PatientMatchKey(patientId, gender, birthYear, nameKey));
+                }
+            }
+        }
+        return patientMatchKeys;
+    }
 }
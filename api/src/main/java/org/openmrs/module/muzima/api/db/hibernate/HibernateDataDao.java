@@ -17,21 +17,43 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.Criteria;
+import org.hibernate.Hibernate;
+import org.hibernate.criterion.Conjunction;
 import org.hibernate.criterion.CriteriaSpecification;
+import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Disjunction;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.ProjectionList;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.criterion.Subqueries;
+import org.hibernate.jdbc.Work;
+import org.hibernate.type.Type;
 import org.openmrs.api.db.hibernate.DbSessionFactory;
 import org.openmrs.module.muzima.api.db.DataDao;
+import org.openmrs.module.muzima.model.AuditableData;
 import org.openmrs.module.muzima.model.Data;
+import org.openmrs.module.muzima.model.DataSearchTerm;
+import org.openmrs.module.muzima.model.DataSummary;
 import org.openmrs.module.muzima.model.handler.DataHandler;
+import org.openmrs.module.muzima.task.DataSearchIndexer;
+import org.openmrs.module.muzima.utils.DataSearchUtils;
 import org.openmrs.util.HandlerUtil;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  */
@@ -39,6 +61,11 @@ public abstract class HibernateDataDao<T extends Data> extends HibernateSingleCl
 
     private final Log log = LogFactory.getLog(HibernateDataDao.class);
 
+    private static final String DELETE_SEARCH_TERMS = "DELETE FROM muzima_data_search_term WHERE data_uuid = ?";
+
+    private static final String INSERT_SEARCH_TERM = "INSERT INTO muzima_data_search_term (data_uuid, term) "
+            + "VALUES (?, ?)";
+
     /**
      * Default constructor.
      *
@@ -115,6 +142,46 @@ public abstract class HibernateDataDao<T extends Data> extends HibernateSingleCl
         return criteria.list();
     }
 
+    /**
+     * {@inheritDoc}
+     * @see DataDao#getFormDataUuids(Collection)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<String> getFormDataUuids(final Collection<String> formDataUuids) {
+        if (formDataUuids.isEmpty()) {
+            return new ArrayList<String>();
+        }
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.in("formDataUuid", formDataUuids));
+        criteria.setProjection(Projections.distinct(Projections.property("formDataUuid")));
+        return criteria.list();
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see DataDao#getFormDataUuidsAfter(Integer, Integer)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<Integer, String> getFormDataUuidsAfter(final Integer lastId, final Integer batchSize) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        if (lastId != null) {
+            criteria.add(Restrictions.gt("id", lastId));
+        }
+        criteria.add(Restrictions.isNotNull("formDataUuid"));
+        criteria.setProjection(Projections.projectionList()
+                .add(Projections.property("id"))
+                .add(Projections.property("formDataUuid")));
+        criteria.addOrder(Order.asc("id"));
+        criteria.setMaxResults(batchSize);
+        Map<Integer, String> formDataUuids = new LinkedHashMap<Integer, String>();
+        for (Object[] row : (List<Object[]>) criteria.list()) {
+            formDataUuids.put((Integer) row[0], (String) row[1]);
+        }
+        return formDataUuids;
+    }
+
     /**
      * Return all saved data.
      *
@@ -137,6 +204,121 @@ public abstract class HibernateDataDao<T extends Data> extends HibernateSingleCl
         return list;
     }
 
+    /**
+     * {@inheritDoc}
+     * @see DataDao#getDataAfter(Integer, Integer)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<T> getDataAfter(final Integer lastId, final Integer batchSize) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        if (lastId != null) {
+            criteria.add(Restrictions.gt("id", lastId));
+        }
+        criteria.addOrder(Order.asc("id"));
+        criteria.setMaxResults(batchSize);
+        return handleGet((List<T>) criteria.list());
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see DataDao#getDataByPatientUuid(String, String)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<T> getDataByPatientUuid(final String patientUuid, final String discriminator) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.eq("patientUuid", patientUuid));
+        if (discriminator != null) {
+            criteria.add(Restrictions.eq("discriminator", discriminator));
+        }
+        criteria.addOrder(Order.desc("dateCreated"));
+        criteria.addOrder(Order.desc("id"));
+        return handleGet((List<T>) criteria.list());
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see DataDao#getUuidsByPatientUuids(Collection, String)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, String> getUuidsByPatientUuids(final Collection<String> patientUuids,
+                                                      final String discriminator) {
+        Map<String, String> uuids = new LinkedHashMap<String, String>();
+        if (patientUuids.isEmpty()) {
+            return uuids;
+        }
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.in("patientUuid", patientUuids));
+        criteria.add(Restrictions.eq("discriminator", discriminator));
+        criteria.setProjection(Projections.projectionList()
+                .add(Projections.property("patientUuid"))
+                .add(Projections.property("uuid")));
+        criteria.addOrder(Order.desc("dateCreated"));
+        criteria.addOrder(Order.desc("id"));
+        for (Object[] row : (List<Object[]>) criteria.list()) {
+            if (!uuids.containsKey(row[0])) {
+                uuids.put((String) row[0], (String) row[1]);
+            }
+        }
+        return uuids;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see DataDao#getIdsAfter(Integer, Integer)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Integer> getIdsAfter(final Integer lastId, final Integer batchSize) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        if (lastId != null) {
+            criteria.add(Restrictions.gt("id", lastId));
+        }
+        criteria.setProjection(Projections.property("id"));
+        criteria.addOrder(Order.asc("id"));
+        criteria.setMaxResults(batchSize);
+        return criteria.list();
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see DataDao#getDataByIds(Collection)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<T> getDataByIds(final Collection<Integer> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<T>();
+        }
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.add(Restrictions.in("id", ids));
+        criteria.addOrder(Order.asc("id"));
+        return handleGet((List<T>) criteria.list());
+    }
+
+    private List<T> handleGet(final List<T> list) {
+        for (T data : list) {
+            List<DataHandler> handlers = HandlerUtil.getHandlersForType(DataHandler.class, data.getClass());
+            for (DataHandler handler : handlers) {
+                if (handler.accept(data)) {
+                    handler.handleGet(data);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see DataDao#iterateData(Integer)
+     */
+    @Override
+    public Iterator<T> iterateData(final Integer batchSize) {
+        return new BatchIterator(batchSize);
+    }
+
     /**
      * Save data into the database.
      *
@@ -147,6 +329,7 @@ public abstract class HibernateDataDao<T extends Data> extends HibernateSingleCl
     @Override
     @Transactional
     public T saveData(final T data) {
+        boolean isNew = data.getId() == null;
         List<DataHandler> handlers = HandlerUtil.getHandlersForType(DataHandler.class, data.getClass());
         for (DataHandler handler : handlers) {
             if (handler.accept(data)) {
@@ -154,6 +337,10 @@ public abstract class HibernateDataDao<T extends Data> extends HibernateSingleCl
             }
             saveOrUpdate(data);
         }
+        if (isSearchIndexed() && data.getId() != null
+                && (!isNew || !keepsSearchTermsOnMove() || !hasSearchTerms(((AuditableData) data).getUuid()))) {
+            saveSearchTerms(Collections.singletonList(data));
+        }
         return data;
     }
 
@@ -186,25 +373,7 @@ public abstract class HibernateDataDao<T extends Data> extends HibernateSingleCl
     @Override
     @SuppressWarnings("unchecked")
     public List<T> getPagedData(final String search, final Integer pageNumber, final Integer pageSize) {
-        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
-        criteria.createAlias("location", "location", CriteriaSpecification.LEFT_JOIN);
-        criteria.createAlias("provider", "provider", CriteriaSpecification.LEFT_JOIN);
-
-        if (StringUtils.isNotEmpty(search)) {
-            Disjunction disjunction = Restrictions.disjunction();
-            disjunction.add(Restrictions.ilike("payload", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("discriminator", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("location.name", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("patientUuid", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("formName", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("provider.identifier", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("provider.name", search, MatchMode.ANYWHERE));
-            if(StringUtils.isNumeric(search)) {
-                disjunction.add(Restrictions.eq("location.locationId", Integer.parseInt(search)));
-            }
-            criteria.add(disjunction);
-
-        }
+        Criteria criteria = createSearchCriteria(search);
         if (pageNumber != null) {
             criteria.setFirstResult((pageNumber - 1) * pageSize);
         }
@@ -215,6 +384,77 @@ public abstract class HibernateDataDao<T extends Data> extends HibernateSingleCl
         return criteria.list();
     }
 
+    /**
+     * {@inheritDoc}
+     * @see DataDao#getPagedDataSummaries(String, Integer, Integer)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<DataSummary> getPagedDataSummaries(final String search, final Integer pageNumber,
+                                                   final Integer pageSize) {
+        Criteria criteria = createSearchCriteria(search);
+        criteria.createAlias("dataSource", "dataSource", CriteriaSpecification.LEFT_JOIN);
+        ProjectionList projections = Projections.projectionList()
+                .add(Projections.property("uuid"))
+                .add(Projections.property("discriminator"))
+                .add(Projections.property("dataSource.name"))
+                .add(Projections.property("formName"))
+                .add(Projections.property("patientUuid"))
+                .add(Projections.property("location.locationId"))
+                .add(Projections.property("location.name"))
+                .add(Projections.property("provider.identifier"))
+                .add(Projections.property("provider.name"))
+                .add(Projections.property("dateCreated"))
+                .add(Projections.sqlProjection("substring({alias}.payload, 1, " + DataSummary.PAYLOAD_PREVIEW_LENGTH
+                        + ") as payload_preview", new String[]{"payload_preview"}, new Type[]{Hibernate.STRING}));
+        addSummaryProjections(projections);
+        criteria.setProjection(projections);
+        if (pageNumber != null) {
+            criteria.setFirstResult((pageNumber - 1) * pageSize);
+        }
+        if (pageSize != null) {
+            criteria.setMaxResults(pageSize);
+        }
+        criteria.addOrder(Order.desc("dateCreated"));
+
+        List<DataSummary> summaries = new ArrayList<DataSummary>();
+        for (Object[] row : (List<Object[]>) criteria.list()) {
+            DataSummary summary = new DataSummary();
+            summary.setUuid((String) row[0]);
+            summary.setDiscriminator((String) row[1]);
+            summary.setDataSourceName((String) row[2]);
+            summary.setFormName((String) row[3]);
+            summary.setPatientUuid((String) row[4]);
+            summary.setLocationId((Integer) row[5]);
+            summary.setLocationName((String) row[6]);
+            summary.setProviderIdentifier((String) row[7]);
+            summary.setProviderName((String) row[8]);
+            summary.setDateCreated((Date) row[9]);
+            summary.setPayloadPreview((String) row[10]);
+            readSummaryProjections(summary, row, 11);
+            summaries.add(summary);
+        }
+        return summaries;
+    }
+
+    /**
+     * Add the columns only this kind of data has to the projections of the summaries.
+     *
+     * @param projections the projections of the columns all data have.
+     */
+    protected void addSummaryProjections(final ProjectionList projections) {
+    }
+
+    /**
+     * Read the columns added by {@link #addSummaryProjections(ProjectionList)} into the summary.
+     *
+     * @param summary the summary.
+     * @param row     the row of the projections.
+     * @param index   the index of the first added column in the row.
+     */
+    protected void readSummaryProjections(final DataSummary summary, final Object[] row, final int index) {
+    }
+
     /**
      * Get the total number of data with matching search term.
      *
@@ -224,30 +464,259 @@ public abstract class HibernateDataDao<T extends Data> extends HibernateSingleCl
      */
     @Override
     public Number countData(final String search) {
-        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(mappedClass);
+        Criteria criteria = createSearchCriteria(search);
+        criteria.setProjection(Projections.rowCount());
+        return (Number) criteria.uniqueResult();
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see DataDao#countDataByDiscriminator()
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Number> countDataByDiscriminator() {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
+        criteria.setProjection(Projections.projectionList()
+                .add(Projections.groupProperty("discriminator"))
+                .add(Projections.rowCount()));
+        Map<String, Number> counts = new LinkedHashMap<String, Number>();
+        for (Object[] row : (List<Object[]>) criteria.list()) {
+            counts.put((String) row[0], (Number) row[1]);
+        }
+        return counts;
+    }
+
+    /**
+     * @param search the search term, may be empty.
+     * @return the criteria of the data matching the search, with the location and provider aliases.
+     */
+    protected Criteria createSearchCriteria(final String search) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(mappedClass);
         criteria.createAlias("location", "location", CriteriaSpecification.LEFT_JOIN);
         criteria.createAlias("provider", "provider", CriteriaSpecification.LEFT_JOIN);
 
         if (StringUtils.isNotEmpty(search)) {
-            Disjunction disjunction = Restrictions.disjunction();
-            disjunction.add(Restrictions.ilike("payload", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("discriminator", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("location.name", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("patientUuid", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("formName", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("provider.identifier", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("provider.name", search, MatchMode.ANYWHERE));
-            if(StringUtils.isNumeric(search)) {
-                disjunction.add(Restrictions.eq("location.locationId", Integer.parseInt(search)));
+            addSearchRestriction(criteria, search);
+        }
+        return criteria;
+    }
+
+    /**
+     * Restrict the data to the data matching the search. Once the search index is built the search terms are looked
+     * up in the index as word prefixes, until then the metadata and the payload of the data are searched for the search
+     * anywhere, see {@link DataSearchUtils}.
+     *
+     * @param criteria the criteria, with the location and provider aliases.
+     * @param search   the search term.
+     */
+    protected void addSearchRestriction(final Criteria criteria, final String search) {
+        List<String> terms = DataSearchUtils.getSearchTerms(search);
+        if (!isSearchIndexed() || terms.isEmpty() || !DataSearchIndexer.isComplete()) {
+            criteria.add(createSearchDisjunction(criteria, search));
+            return;
+        }
+        Conjunction conjunction = Restrictions.conjunction();
+        for (String term : terms) {
+            DetachedCriteria termCriteria = DetachedCriteria.forClass(DataSearchTerm.class);
+            termCriteria.add(Restrictions.like("term", term, MatchMode.START));
+            termCriteria.setProjection(Projections.property("dataUuid"));
+            conjunction.add(Subqueries.propertyIn("uuid", termCriteria));
+        }
+        if (StringUtils.isNumeric(search)) {
+            criteria.add(Restrictions.or(conjunction, Restrictions.eq("location.locationId", Integer.parseInt(search))));
+        } else {
+            criteria.add(conjunction);
+        }
+    }
+
+    /**
+     * @param criteria the criteria, with the location and provider aliases.
+     * @param search   the search term.
+     * @return the restriction matching the data whose metadata or payload contain the search.
+     */
+    protected Disjunction createSearchDisjunction(final Criteria criteria, final String search) {
+        Disjunction disjunction = Restrictions.disjunction();
+        disjunction.add(Restrictions.ilike("payload", search, MatchMode.ANYWHERE));
+        disjunction.add(Restrictions.ilike("discriminator", search, MatchMode.ANYWHERE));
+        disjunction.add(Restrictions.ilike("location.name", search, MatchMode.ANYWHERE));
+        disjunction.add(Restrictions.ilike("patientUuid", search, MatchMode.ANYWHERE));
+        disjunction.add(Restrictions.ilike("formName", search, MatchMode.ANYWHERE));
+        disjunction.add(Restrictions.ilike("provider.identifier", search, MatchMode.ANYWHERE));
+        disjunction.add(Restrictions.ilike("provider.name", search, MatchMode.ANYWHERE));
+        if(StringUtils.isNumeric(search)) {
+            disjunction.add(Restrictions.eq("location.locationId", Integer.parseInt(search)));
+        }
+        return disjunction;
+    }
+
+    /**
+     * @return true when the data of this dao are in the search index, see {@link DataSearchTerm}.
+     */
+    protected boolean isSearchIndexed() {
+        return false;
+    }
+
+    /**
+     * @return true when data moved here from another table keep the entries they already have in the search index.
+     */
+    protected boolean keepsSearchTermsOnMove() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see DataDao#indexSearchTerms(Integer, Integer)
+     */
+    @Override
+    @Transactional
+    @SuppressWarnings("unchecked")
+    public List<Integer> indexSearchTerms(final Integer lastId, final Integer batchSize) {
+        if (!isSearchIndexed()) {
+            return new ArrayList<Integer>();
+        }
+        List<Integer> ids = getSessionFactory().getCurrentSession()
+                .createQuery("select data.id from " + mappedClass.getName() + " data where data.id > :lastId "
+                        + "and not exists (select term.id from DataSearchTerm term where term.dataUuid = data.uuid) "
+                        + "order by data.id")
+                .setInteger("lastId", lastId == null ? 0 : lastId)
+                .setMaxResults(batchSize)
+                .list();
+        if (!ids.isEmpty()) {
+            saveSearchTerms(getDataByIds(ids));
+            getSessionFactory().getCurrentSession().flush();
+            getSessionFactory().getCurrentSession().clear();
+        }
+        return ids;
+    }
+
+    // the terms are written in jdbc batches, saving them as entities takes a statement per term.
+    private void saveSearchTerms(final List<T> dataList) {
+        final List<AuditableData> auditableDataList = new ArrayList<AuditableData>();
+        for (T data : dataList) {
+            auditableDataList.add((AuditableData) data);
+        }
+        getSessionFactory().getCurrentSession().doWork(new Work() {
+            @Override
+            public void execute(final Connection connection) throws SQLException {
+                replaceSearchTerms(connection, auditableDataList);
             }
-            criteria.add(disjunction);
+        });
+    }
+
+    /**
+     * Replace the entries of the data in the search index, in a batch of deletes and a batch of inserts.
+     *
+     * @param connection the connection of the current session.
+     * @param dataList   the data.
+     * @throws SQLException when the entries can't be written.
+     */
+    protected void replaceSearchTerms(final Connection connection, final Collection<? extends AuditableData> dataList)
+            throws SQLException {
+        if (dataList.isEmpty()) {
+            return;
         }
-        criteria.setProjection(Projections.rowCount());
-        return (Number) criteria.uniqueResult();
+        PreparedStatement delete = connection.prepareStatement(DELETE_SEARCH_TERMS);
+        try {
+            for (AuditableData data : dataList) {
+                delete.setString(1, data.getUuid());
+                delete.addBatch();
+            }
+            delete.executeBatch();
+        } finally {
+            delete.close();
+        }
+        PreparedStatement insert = connection.prepareStatement(INSERT_SEARCH_TERM);
+        try {
+            for (AuditableData data : dataList) {
+                for (String term : DataSearchUtils.getSearchTerms(data)) {
+                    insert.setString(1, data.getUuid());
+                    insert.setString(2, term);
+                    insert.addBatch();
+                }
+            }
+            insert.executeBatch();
+        } finally {
+            insert.close();
+        }
+    }
+
+    private boolean hasSearchTerms(final String uuid) {
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(DataSearchTerm.class);
+        criteria.add(Restrictions.eq("dataUuid", uuid));
+        criteria.setProjection(Projections.id());
+        criteria.setMaxResults(1);
+        return criteria.uniqueResult() != null;
+    }
+
+    /**
+     * Remove data from the search index, for the data which are deleted for good. The data which move to another
+     * table keep their uuid and their entries.
+     *
+     * @param uuids the uuids of the data.
+     */
+    protected void deleteSearchTerms(final Collection<String> uuids) {
+        if (uuids.isEmpty()) {
+            return;
+        }
+        getSessionFactory().getCurrentSession()
+                .createQuery("delete from DataSearchTerm where dataUuid in (:uuids)")
+                .setParameterList("uuids", uuids)
+                .executeUpdate();
     }
 
     public void detachDataFromHibernateSession(final T data){
         getSessionFactory().getCurrentSession().evict(data);
         getSessionFactory().getCurrentSession().flush();
     }
+
+    private class BatchIterator implements Iterator<T> {
+
+        private final Integer batchSize;
+
+        private List<T> batch = new ArrayList<T>();
+
+        private int position;
+
+        private Integer lastId;
+
+        private boolean exhausted;
+
+        private BatchIterator(final Integer batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (position < batch.size()) {
+                return true;
+            }
+            if (exhausted) {
+                return false;
+            }
+            for (T data : batch) {
+                getSessionFactory().getCurrentSession().evict(data);
+            }
+            batch = getDataAfter(lastId, batchSize);
+            position = 0;
+            exhausted = batch.size() < batchSize;
+            if (!batch.isEmpty()) {
+                lastId = batch.get(batch.size() - 1).getId();
+            }
+            return !batch.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.get(position++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Removing data through the iterator is not supported.");
+        }
+    }
 }
@@ -13,19 +13,32 @@
  */
 package org.openmrs.module.muzima.api.db.hibernate;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
+import org.hibernate.Hibernate;
+import org.hibernate.SQLQuery;
 import org.hibernate.criterion.CriteriaSpecification;
 import org.hibernate.criterion.Disjunction;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.ProjectionList;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.jdbc.Work;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.db.DAOException;
 import org.openmrs.module.muzima.api.db.ErrorDataDao;
+import org.openmrs.module.muzima.model.DataSummary;
 import org.openmrs.module.muzima.model.ErrorData;
+import org.openmrs.module.muzima.model.QueueData;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -41,6 +54,93 @@ public class HibernateErrorDataDao extends HibernateDataDao<ErrorData> implement
         super(ErrorData.class);
     }
 
+    /**
+     * The queue, error and archive data are searched through the search index.
+     *
+     * @see HibernateDataDao#isSearchIndexed()
+     */
+    @Override
+    protected boolean isSearchIndexed() {
+        return true;
+    }
+
+    /**
+     * The error messages of the error data are terms of their own, the entries of the queue data aren't enough.
+     *
+     * @see HibernateDataDao#keepsSearchTermsOnMove()
+     */
+    @Override
+    protected boolean keepsSearchTermsOnMove() {
+        return false;
+    }
+
+    /**
+     * Move error data back to the queue: insert queue data copied from the error data and delete the error data with
+     * their error messages. The rows are copied inside the database, the requeued data are loaded afterwards only to
+     * replace their entries in the search index, the error messages aren't terms of the queue data.
+     *
+     * @param uuids the uuids of the error data.
+     * @return the number of error data moved back to the queue.
+     * @throws DAOException when the error data can't all be deleted, e.g. when they are requeued at the same time.
+     */
+    @Override
+    public int requeueData(final List<String> uuids) {
+        if (uuids == null || uuids.isEmpty()) {
+            return 0;
+        }
+        // the rows are deleted behind hibernate's back, write out pending changes and forget the loaded error data.
+        getSessionFactory().getCurrentSession().flush();
+        getSessionFactory().getCurrentSession().clear();
+        User user = Context.getAuthenticatedUser();
+        // the queue data keeps the uuid of the error data, it is unique in the queue as long as the error data exists.
+        SQLQuery insertQuery = getSessionFactory().getCurrentSession().createSQLQuery(
+                "INSERT INTO muzima_queue_data (discriminator, data_source, payload, creator, date_created, uuid, "
+                        + "location, provider, form_name, patient_uuid, form_data_uuid) "
+                        + "SELECT discriminator, data_source, payload, "
+                        + (user != null ? ":creator" : "creator") + ", :dateCreated, uuid, "
+                        + "location, provider, form_name, patient_uuid, form_data_uuid "
+                        + "FROM muzima_error_data WHERE uuid IN (:uuids)");
+        if (user != null) {
+            insertQuery.setParameter("creator", user.getUserId(), Hibernate.INTEGER);
+        }
+        insertQuery.setParameter("dateCreated", new Date(), Hibernate.TIMESTAMP);
+        insertQuery.setParameterList("uuids", uuids);
+        int requeued = insertQuery.executeUpdate();
+
+        getSessionFactory().getCurrentSession().createSQLQuery(
+                "DELETE FROM muzima_error_message WHERE muzima_error_data_id IN "
+                        + "(SELECT id FROM muzima_error_data WHERE uuid IN (:uuids))")
+                .setParameterList("uuids", uuids)
+                .executeUpdate();
+        int deleted = getSessionFactory().getCurrentSession().createSQLQuery(
+                "DELETE FROM muzima_error_data WHERE uuid IN (:uuids)")
+                .setParameterList("uuids", uuids)
+                .executeUpdate();
+        if (deleted != requeued) {
+            // the copies of the error data which are already gone would be processed twice.
+            throw new DAOException("Requeued " + requeued + " error data but deleted " + deleted + " of them.");
+        }
+        replaceQueueDataSearchTerms(uuids);
+        return deleted;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void replaceQueueDataSearchTerms(final List<String> uuids) {
+        final List<QueueData> queueDataList = getSessionFactory().getCurrentSession()
+                .createQuery("from " + QueueData.class.getName() + " data where data.uuid in (:uuids)")
+                .setParameterList("uuids", uuids)
+                .list();
+        getSessionFactory().getCurrentSession().doWork(new Work() {
+            @Override
+            public void execute(final Connection connection) throws SQLException {
+                replaceSearchTerms(connection, queueDataList);
+            }
+        });
+        for (QueueData queueData : queueDataList) {
+            getSessionFactory().getCurrentSession().evict(queueData);
+        }
+    }
+
     /**
      * Get ErrorData with matching search term for particular page.
      *
@@ -52,7 +152,7 @@ public class HibernateErrorDataDao extends HibernateDataDao<ErrorData> implement
     @Override
     @SuppressWarnings("unchecked")
     public List<ErrorData> getPagedData(final String search, final Integer pageNumber, final Integer pageSize) {
-        Criteria criteria = createCriteria(search);
+        Criteria criteria = createSearchCriteria(search);
         if (pageNumber != null) {
             criteria.setFirstResult((pageNumber - 1) * pageSize);
         }
@@ -60,45 +160,61 @@ public class HibernateErrorDataDao extends HibernateDataDao<ErrorData> implement
             criteria.setMaxResults(pageSize);
         }
         criteria.addOrder(Order.desc("dateCreated"));
-        return criteria.list();
+        criteria.setFetchMode("dataSource", FetchMode.JOIN);
+        List<ErrorData> errorDataList = criteria.list();
+        fetchErrorMessages(errorDataList);
+        return errorDataList;
     }
 
     /**
-     * Get the total number of ErrorData with matching search term.
-     *
+     * Load the error messages of all error data of a page with a single query, instead of one query per error data
+     * when the messages are read. The error data are already in the session, the query only fills their messages.
+     */
+    private void fetchErrorMessages(final List<ErrorData> errorDataList) {
+        if (errorDataList.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = new ArrayList<Integer>();
+        for (ErrorData errorData : errorDataList) {
+            ids.add(errorData.getId());
+        }
+        getSessionFactory().getCurrentSession().createQuery(
+                "select distinct errorData from ErrorData errorData left join fetch errorData.errorMessages "
+                        + "where errorData.id in (:ids)")
+                .setParameterList("ids", ids)
+                .list();
+    }
+
+    /**
+     * The error data show when and why they failed in the lists as well.
      *
-     * @param search the search term.
-     * @return total number of data in the database.
+     * @see HibernateDataDao#addSummaryProjections(ProjectionList)
      */
     @Override
-    public Number countData(final String search) {
-        Criteria criteria = createCriteria(search);
-        criteria.setProjection(Projections.rowCount());
-        return (Number) criteria.uniqueResult();
+    protected void addSummaryProjections(final ProjectionList projections) {
+        projections.add(Projections.property("message"));
+        projections.add(Projections.property("dateProcessed"));
     }
 
-    private Criteria createCriteria(String search) {
-        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(ErrorData.class);
-        criteria.createAlias("location", "location", CriteriaSpecification.LEFT_JOIN);
-        criteria.createAlias("provider", "provider", CriteriaSpecification.LEFT_JOIN);
-
-        if (StringUtils.isNotEmpty(search)) {
-            criteria.createAlias("errorMessages", "errorMessages", CriteriaSpecification.LEFT_JOIN);
-            Disjunction disjunction = Restrictions.disjunction();
-            disjunction.add(Restrictions.ilike("payload", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("discriminator", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("location.name", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("patientUuid", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("formName", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("provider.identifier", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("provider.name", search, MatchMode.ANYWHERE));
-            disjunction.add(Restrictions.ilike("errorMessages.message", search, MatchMode.ANYWHERE));
-            if(StringUtils.isNumeric(search)) {
-                disjunction.add(Restrictions.eq("location.locationId", Integer.parseInt(search)));
-            }
-            criteria.add(disjunction);
-        }
+    /**
+     * @see HibernateDataDao#readSummaryProjections(DataSummary, Object[], int)
+     */
+    @Override
+    protected void readSummaryProjections(final DataSummary summary, final Object[] row, final int index) {
+        summary.setMessage((String) row[index]);
+        summary.setDateProcessed((Date) row[index + 1]);
+    }
 
-        return criteria;
+    /**
+     * Search the error messages of the error data as well, the search index holds them as terms of the error data.
+     *
+     * @see HibernateDataDao#createSearchDisjunction(Criteria, String)
+     */
+    @Override
+    protected Disjunction createSearchDisjunction(final Criteria criteria, final String search) {
+        criteria.createAlias("errorMessages", "errorMessages", CriteriaSpecification.LEFT_JOIN);
+        Disjunction disjunction = super.createSearchDisjunction(criteria, search);
+        disjunction.add(Restrictions.ilike("errorMessages.message", search, MatchMode.ANYWHERE));
+        return disjunction;
     }
 }
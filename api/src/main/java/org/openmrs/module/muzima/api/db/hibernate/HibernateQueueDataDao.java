@@ -15,19 +15,567 @@ package org.openmrs.module.muzima.api.db.hibernate;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.Criteria;
+import org.hibernate.Hibernate;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.jdbc.Work;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.muzima.api.db.QueueDataDao;
+import org.openmrs.module.muzima.model.ArchiveData;
+import org.openmrs.module.muzima.model.AuditableData;
+import org.openmrs.module.muzima.model.ErrorData;
+import org.openmrs.module.muzima.model.ErrorMessage;
 import org.openmrs.module.muzima.model.QueueData;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  */
 public class HibernateQueueDataDao extends HibernateDataDao<QueueData> implements QueueDataDao {
 
     private final Log log = LogFactory.getLog(HibernateQueueDataDao.class);
 
+    // the payload is copied inside the database, it never travels back and forth to the jvm.
+    private static final String INSERT_ARCHIVE_DATA = "INSERT INTO muzima_archive_data (discriminator, data_source, "
+            + "payload, message, date_archived, creator, date_created, uuid, patient_uuid, form_data_uuid) "
+            + "SELECT discriminator, data_source, payload, ?, ?, ?, ?, ?, ?, form_data_uuid "
+            + "FROM muzima_queue_data WHERE id = ?";
+
+    private static final String INSERT_ERROR_DATA = "INSERT INTO muzima_error_data (discriminator, data_source, "
+            + "payload, message, date_processed, creator, date_created, uuid, location, provider, form_name, "
+            + "patient_uuid, form_data_uuid) "
+            + "SELECT discriminator, data_source, payload, ?, ?, ?, ?, ?, ?, ?, ?, ?, form_data_uuid "
+            + "FROM muzima_queue_data WHERE id = ?";
+
+    private static final String INSERT_QUEUE_DATA = "INSERT INTO muzima_queue_data (discriminator, data_source, "
+            + "payload, creator, date_created, uuid, location, provider, form_name, patient_uuid, form_data_uuid) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_ERROR_MESSAGE = "INSERT INTO muzima_error_message (muzima_error_data_id, "
+            + "message, creator, date_created, uuid) VALUES (?, ?, ?, ?, ?)";
+
+    private static final String SELECT_ERROR_DATA_ID = "SELECT id FROM muzima_error_data WHERE uuid = ?";
+
+    // a queue data is only deleted by its claimant, the one whose lease expired must not move it a second time.
+    private static final String DELETE_QUEUE_DATA = "DELETE FROM muzima_queue_data WHERE id = ? AND claimed_by = ?";
+
+    private static final String DELETE_UNCLAIMED_QUEUE_DATA = "DELETE FROM muzima_queue_data WHERE id = ? "
+            + "AND claimed_by IS NULL";
+
+    // a row is only claimed when it is free or its lease expired, the database serializes concurrent claims per row.
+    private static final String CLAIM_QUEUE_DATA = "UPDATE muzima_queue_data SET claimed_by = :claimant, "
+            + "lease_expiry = :leaseExpiry WHERE id IN (:ids) AND (claimed_by IS NULL OR lease_expiry < :now)";
+
+    private static final String RENEW_CLAIMS = "UPDATE muzima_queue_data SET lease_expiry = :leaseExpiry "
+            + "WHERE claimed_by = :claimant";
+
+    private static final String RELEASE_CLAIMS = "UPDATE muzima_queue_data SET claimed_by = NULL, lease_expiry = NULL "
+            + "WHERE claimed_by = :claimant";
+
     /**
      * Default constructor.
      */
     protected HibernateQueueDataDao() {
         super(QueueData.class);
     }
+
+    /**
+     * The queue, error and archive data are searched through the search index.
+     *
+     * @see HibernateDataDao#isSearchIndexed()
+     */
+    @Override
+    protected boolean isSearchIndexed() {
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see QueueDataDao#getDataByPatientUuids(Integer, java.util.Collection, java.util.Collection)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<QueueData> getDataByPatientUuids(final Integer lastId, final Collection<String> patientUuids,
+                                                 final Collection<String> discriminators) {
+        if (patientUuids.isEmpty() || discriminators.isEmpty()) {
+            return new ArrayList<QueueData>();
+        }
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(QueueData.class);
+        if (lastId != null) {
+            criteria.add(Restrictions.gt("id", lastId));
+        }
+        criteria.add(Restrictions.in("patientUuid", patientUuids));
+        criteria.add(Restrictions.in("discriminator", discriminators));
+        criteria.addOrder(Order.asc("id"));
+        return criteria.list();
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see QueueDataDao#claimDataAfter(Integer, Integer, String, java.util.Date)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<QueueData> claimDataAfter(final Integer lastId, final Integer batchSize, final String claimant,
+                                          final Date leaseExpiry) {
+        Integer fromId = lastId;
+        while (true) {
+            Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(QueueData.class);
+            if (fromId != null) {
+                criteria.add(Restrictions.gt("id", fromId));
+            }
+            criteria.add(Restrictions.or(Restrictions.isNull("claimedBy"), Restrictions.lt("leaseExpiry", new Date())));
+            criteria.setProjection(Projections.id());
+            criteria.addOrder(Order.asc("id"));
+            criteria.setMaxResults(batchSize);
+            List<Integer> candidateIds = criteria.list();
+            if (candidateIds.isEmpty()) {
+                return new ArrayList<QueueData>();
+            }
+            List<QueueData> claimed = claimData(candidateIds, claimant, leaseExpiry);
+            if (!claimed.isEmpty()) {
+                return claimed;
+            }
+            // another claimant got all of them first, move on to the next candidates.
+            fromId = candidateIds.get(candidateIds.size() - 1);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see QueueDataDao#claimData(java.util.Collection, String, java.util.Date)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<QueueData> claimData(final Collection<Integer> ids, final String claimant, final Date leaseExpiry) {
+        if (ids.isEmpty()) {
+            return new ArrayList<QueueData>();
+        }
+        int claimed = getSessionFactory().getCurrentSession().createSQLQuery(CLAIM_QUEUE_DATA)
+                .setParameter("claimant", claimant, Hibernate.STRING)
+                .setParameter("leaseExpiry", leaseExpiry, Hibernate.TIMESTAMP)
+                .setParameterList("ids", ids)
+                .setParameter("now", new Date(), Hibernate.TIMESTAMP)
+                .executeUpdate();
+        if (claimed == 0) {
+            return new ArrayList<QueueData>();
+        }
+        Criteria criteria = getSessionFactory().getCurrentSession().createCriteria(QueueData.class);
+        criteria.add(Restrictions.in("id", ids));
+        criteria.add(Restrictions.eq("claimedBy", claimant));
+        criteria.addOrder(Order.asc("id"));
+        List<QueueData> queueDataList = criteria.list();
+        if (claimed < ids.size()) {
+            log.debug("Claimed " + claimed + " of " + ids.size() + " queue data, the others are held by other claimants.");
+        }
+        return queueDataList;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see QueueDataDao#renewClaims(String, java.util.Date)
+     */
+    @Override
+    public int renewClaims(final String claimant, final Date leaseExpiry) {
+        return getSessionFactory().getCurrentSession().createSQLQuery(RENEW_CLAIMS)
+                .setParameter("leaseExpiry", leaseExpiry, Hibernate.TIMESTAMP)
+                .setParameter("claimant", claimant, Hibernate.STRING)
+                .executeUpdate();
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see QueueDataDao#releaseClaims(String)
+     */
+    @Override
+    public int releaseClaims(final String claimant) {
+        return getSessionFactory().getCurrentSession().createSQLQuery(RELEASE_CLAIMS)
+                .setParameter("claimant", claimant, Hibernate.STRING)
+                .executeUpdate();
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see QueueDataDao#purgeDataByUuids(List)
+     */
+    @Override
+    public int purgeDataByUuids(final List<String> uuids) {
+        if (uuids == null || uuids.isEmpty()) {
+            return 0;
+        }
+        // the rows are deleted behind hibernate's back, write out pending changes and forget the loaded queue data.
+        getSessionFactory().getCurrentSession().flush();
+        getSessionFactory().getCurrentSession().clear();
+        deleteSearchTerms(uuids);
+        return getSessionFactory().getCurrentSession().createSQLQuery(
+                "DELETE FROM muzima_queue_data WHERE uuid IN (:uuids)")
+                .setParameterList("uuids", uuids)
+                .executeUpdate();
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see QueueDataDao#moveQueueData(java.util.Map, java.util.Map, String)
+     */
+    @Override
+    public List<Integer> moveQueueData(final Map<Integer, ArchiveData> archiveData,
+                                       final Map<Integer, ErrorData> errorData, final String claimant) {
+        final List<Integer> unmovedIds = new ArrayList<Integer>();
+        if (archiveData.isEmpty() && errorData.isEmpty()) {
+            return unmovedIds;
+        }
+        // the rows are deleted behind hibernate's back, make sure the session won't try to write them afterwards.
+        for (Integer queueDataId : queueDataIds(archiveData, errorData)) {
+            getSessionFactory().getCurrentSession().evict(
+                    getSessionFactory().getCurrentSession().load(QueueData.class, queueDataId));
+        }
+        getSessionFactory().getCurrentSession().flush();
+        final User creator = Context.getAuthenticatedUser();
+        getSessionFactory().getCurrentSession().doWork(new Work() {
+            @Override
+            public void execute(final Connection connection) throws SQLException {
+                Savepoint savepoint = connection.setSavepoint();
+                try {
+                    if (insertArchiveData(connection, archiveData, creator)
+                            && insertErrorData(connection, errorData, creator)
+                            && deleteQueueData(connection, queueDataIds(archiveData, errorData), claimant)) {
+                        connection.releaseSavepoint(savepoint);
+                        return;
+                    }
+                    // some queue data are already gone or held by another claimant, find out which ones.
+                    log.warn("Unable to move all of " + (archiveData.size() + errorData.size()) + " queue data in "
+                            + "batch, moving them one by one.");
+                    connection.rollback(savepoint);
+                } catch (SQLException e) {
+                    log.warn("Unable to move " + (archiveData.size() + errorData.size()) + " queue data in batch, "
+                            + "moving them one by one.", e);
+                    connection.rollback(savepoint);
+                }
+                for (Map.Entry<Integer, ArchiveData> entry : archiveData.entrySet()) {
+                    if (!moveOne(connection, Collections.singletonMap(entry.getKey(), entry.getValue()),
+                            Collections.<Integer, ErrorData>emptyMap(), claimant, creator)) {
+                        unmovedIds.add(entry.getKey());
+                    }
+                }
+                for (Map.Entry<Integer, ErrorData> entry : errorData.entrySet()) {
+                    if (!moveOne(connection, Collections.<Integer, ArchiveData>emptyMap(),
+                            Collections.singletonMap(entry.getKey(), entry.getValue()), claimant, creator)) {
+                        unmovedIds.add(entry.getKey());
+                    }
+                }
+            }
+        });
+        return unmovedIds;
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see QueueDataDao#setSavepoint()
+     */
+    @Override
+    public Savepoint setSavepoint() {
+        getSessionFactory().getCurrentSession().flush();
+        final Savepoint[] savepoint = new Savepoint[1];
+        getSessionFactory().getCurrentSession().doWork(new Work() {
+            @Override
+            public void execute(final Connection connection) throws SQLException {
+                savepoint[0] = connection.setSavepoint();
+            }
+        });
+        return savepoint[0];
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see QueueDataDao#releaseSavepoint(java.sql.Savepoint)
+     */
+    @Override
+    public void releaseSavepoint(final Savepoint savepoint) {
+        getSessionFactory().getCurrentSession().flush();
+        getSessionFactory().getCurrentSession().doWork(new Work() {
+            @Override
+            public void execute(final Connection connection) throws SQLException {
+                connection.releaseSavepoint(savepoint);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see QueueDataDao#rollbackToSavepoint(java.sql.Savepoint)
+     */
+    @Override
+    public void rollbackToSavepoint(final Savepoint savepoint) {
+        getSessionFactory().getCurrentSession().doWork(new Work() {
+            @Override
+            public void execute(final Connection connection) throws SQLException {
+                connection.rollback(savepoint);
+            }
+        });
+        getSessionFactory().getCurrentSession().clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     * @see QueueDataDao#insertData(java.util.List)
+     */
+    @Override
+    public Map<String, String> insertData(final List<QueueData> queueDataList) {
+        final Map<String, String> failures = new LinkedHashMap<String, String>();
+        if (queueDataList.isEmpty()) {
+            return failures;
+        }
+        final User creator = Context.getAuthenticatedUser();
+        getSessionFactory().getCurrentSession().doWork(new Work() {
+            @Override
+            public void execute(final Connection connection) throws SQLException {
+                Savepoint savepoint = connection.setSavepoint();
+                try {
+                    insertQueueData(connection, queueDataList, creator);
+                    connection.releaseSavepoint(savepoint);
+                } catch (SQLException e) {
+                    log.warn("Unable to insert " + queueDataList.size() + " queue data in batch, inserting them one "
+                            + "by one.", e);
+                    connection.rollback(savepoint);
+                    for (QueueData queueData : queueDataList) {
+                        Savepoint itemSavepoint = connection.setSavepoint();
+                        try {
+                            insertQueueData(connection, Collections.singletonList(queueData), creator);
+                            connection.releaseSavepoint(itemSavepoint);
+                        } catch (SQLException itemException) {
+                            log.error("Unable to insert queue data " + queueData.getUuid() + ".", itemException);
+                            connection.rollback(itemSavepoint);
+                            failures.put(queueData.getUuid(), itemException.getMessage());
+                        }
+                    }
+                }
+            }
+        });
+        return failures;
+    }
+
+    private void insertQueueData(final Connection connection, final List<QueueData> queueDataList,
+                                 final User creator) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(INSERT_QUEUE_DATA);
+        try {
+            for (QueueData data : queueDataList) {
+                statement.setString(1, data.getDiscriminator());
+                setInteger(statement, 2, data.getDataSource() != null ? data.getDataSource().getId() : null);
+                statement.setString(3, data.getPayload());
+                setAuditParameters(statement, 4, data, creator);
+                setInteger(statement, 7, data.getLocation() != null ? data.getLocation().getLocationId() : null);
+                setInteger(statement, 8, data.getProvider() != null ? data.getProvider().getProviderId() : null);
+                statement.setString(9, data.getFormName());
+                statement.setString(10, data.getPatientUuid());
+                statement.setString(11, data.getFormDataUuid());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } finally {
+            statement.close();
+        }
+        replaceSearchTerms(connection, queueDataList);
+    }
+
+    private boolean moveOne(final Connection connection, final Map<Integer, ArchiveData> archiveData,
+                            final Map<Integer, ErrorData> errorData, final String claimant,
+                            final User creator) throws SQLException {
+        Savepoint savepoint = connection.setSavepoint();
+        try {
+            if (insertArchiveData(connection, archiveData, creator)
+                    && insertErrorData(connection, errorData, creator)
+                    && deleteQueueData(connection, queueDataIds(archiveData, errorData), claimant)) {
+                connection.releaseSavepoint(savepoint);
+                return true;
+            }
+            log.error("Unable to move queue data " + queueDataIds(archiveData, errorData) + " out of the queue, "
+                    + "the queue data is already gone or held by another claimant.");
+            connection.rollback(savepoint);
+            return false;
+        } catch (SQLException e) {
+            log.error("Unable to move queue data " + queueDataIds(archiveData, errorData) + " out of the queue.", e);
+            connection.rollback(savepoint);
+            return false;
+        }
+    }
+
+    private Set<Integer> queueDataIds(final Map<Integer, ArchiveData> archiveData,
+                                      final Map<Integer, ErrorData> errorData) {
+        Set<Integer> queueDataIds = new LinkedHashSet<Integer>(archiveData.keySet());
+        queueDataIds.addAll(errorData.keySet());
+        return queueDataIds;
+    }
+
+    /**
+     * @return true when an archive data was inserted for every queue data, false when some queue data are gone.
+     */
+    private boolean insertArchiveData(final Connection connection, final Map<Integer, ArchiveData> archiveData,
+                                      final User creator) throws SQLException {
+        if (archiveData.isEmpty()) {
+            return true;
+        }
+        PreparedStatement statement = connection.prepareStatement(INSERT_ARCHIVE_DATA);
+        try {
+            for (Map.Entry<Integer, ArchiveData> entry : archiveData.entrySet()) {
+                ArchiveData data = entry.getValue();
+                statement.setString(1, data.getMessage());
+                statement.setTimestamp(2, toTimestamp(data.getDateArchived()));
+                setAuditParameters(statement, 3, data, creator);
+                statement.setString(6, data.getPatientUuid());
+                statement.setInt(7, entry.getKey());
+                statement.addBatch();
+            }
+            return isOneRowEach(statement.executeBatch());
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * @return true when an error data was inserted for every queue data, false when some queue data are gone.
+     */
+    private boolean insertErrorData(final Connection connection, final Map<Integer, ErrorData> errorData,
+                                    final User creator) throws SQLException {
+        if (errorData.isEmpty()) {
+            return true;
+        }
+        PreparedStatement statement = connection.prepareStatement(INSERT_ERROR_DATA);
+        try {
+            for (Map.Entry<Integer, ErrorData> entry : errorData.entrySet()) {
+                ErrorData data = entry.getValue();
+                statement.setString(1, data.getMessage());
+                statement.setTimestamp(2, toTimestamp(data.getDateProcessed()));
+                setAuditParameters(statement, 3, data, creator);
+                setInteger(statement, 6, data.getLocation() != null ? data.getLocation().getLocationId() : null);
+                setInteger(statement, 7, data.getProvider() != null ? data.getProvider().getProviderId() : null);
+                statement.setString(8, data.getFormName());
+                statement.setString(9, data.getPatientUuid());
+                statement.setInt(10, entry.getKey());
+                statement.addBatch();
+            }
+            if (!isOneRowEach(statement.executeBatch())) {
+                return false;
+            }
+        } finally {
+            statement.close();
+        }
+        insertErrorMessages(connection, errorData, creator);
+        return true;
+    }
+
+    private void insertErrorMessages(final Connection connection, final Map<Integer, ErrorData> errorData,
+                                     final User creator) throws SQLException {
+        Map<String, Integer> errorDataIds = new HashMap<String, Integer>();
+        PreparedStatement select = connection.prepareStatement(SELECT_ERROR_DATA_ID);
+        try {
+            for (ErrorData data : errorData.values()) {
+                select.setString(1, data.getUuid());
+                ResultSet resultSet = select.executeQuery();
+                try {
+                    if (resultSet.next()) {
+                        errorDataIds.put(data.getUuid(), resultSet.getInt(1));
+                    }
+                } finally {
+                    resultSet.close();
+                }
+            }
+        } finally {
+            select.close();
+        }
+        PreparedStatement statement = connection.prepareStatement(INSERT_ERROR_MESSAGE);
+        try {
+            for (ErrorData data : errorData.values()) {
+                // no error data is inserted when the queue data is already gone.
+                if (data.getErrorMessages() == null || !errorDataIds.containsKey(data.getUuid())) {
+                    continue;
+                }
+                for (ErrorMessage errorMessage : data.getErrorMessages()) {
+                    statement.setInt(1, errorDataIds.get(data.getUuid()));
+                    statement.setString(2, errorMessage.getMessage());
+                    setAuditParameters(statement, 3, errorMessage, creator);
+                    statement.addBatch();
+                }
+            }
+            statement.executeBatch();
+        } finally {
+            statement.close();
+        }
+        // the error messages are searchable as well, see DataSearchUtils.
+        List<ErrorData> movedErrorData = new ArrayList<ErrorData>();
+        for (ErrorData data : errorData.values()) {
+            if (errorDataIds.containsKey(data.getUuid())) {
+                movedErrorData.add(data);
+            }
+        }
+        replaceSearchTerms(connection, movedErrorData);
+    }
+
+    /**
+     * @return true when every queue data was deleted, false when some queue data are gone or held by another claimant.
+     */
+    private boolean deleteQueueData(final Connection connection, final Set<Integer> queueDataIds,
+                                    final String claimant) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(
+                claimant == null ? DELETE_UNCLAIMED_QUEUE_DATA : DELETE_QUEUE_DATA);
+        try {
+            for (Integer queueDataId : queueDataIds) {
+                statement.setInt(1, queueDataId);
+                if (claimant != null) {
+                    statement.setString(2, claimant);
+                }
+                statement.addBatch();
+            }
+            return isOneRowEach(statement.executeBatch());
+        } finally {
+            statement.close();
+        }
+    }
+
+    private boolean isOneRowEach(final int[] updateCounts) {
+        for (int updateCount : updateCounts) {
+            if (updateCount != 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setAuditParameters(final PreparedStatement statement, final int index, final AuditableData data,
+                                    final User creator) throws SQLException {
+        User dataCreator = data.getCreator() != null ? data.getCreator() : creator;
+        setInteger(statement, index, dataCreator != null ? dataCreator.getUserId() : null);
+        statement.setTimestamp(index + 1, toTimestamp(data.getDateCreated() != null ? data.getDateCreated() : new Date()));
+        statement.setString(index + 2, data.getUuid());
+    }
+
+    private void setInteger(final PreparedStatement statement, final int index, final Integer value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.INTEGER);
+        } else {
+            statement.setInt(index, value);
+        }
+    }
+
+    private Timestamp toTimestamp(final Date date) {
+        return date == null ? null : new Timestamp(date.getTime());
+    }
 }
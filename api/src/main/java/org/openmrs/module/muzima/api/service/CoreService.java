@@ -19,7 +19,9 @@ import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.api.APIException;
 import org.openmrs.api.OpenmrsService;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -53,4 +55,75 @@ public interface CoreService extends OpenmrsService {
 
     Number countPatientsRemovedFromCohort(final String cohortUuid, final Date syncDate) throws APIException;
     boolean hasCohortChangedSinceDate(final String cohortUuid, final Date syncDate) throws APIException;
+
+    /**
+     * Return the saved patients which might be the given patient: the patients sharing the gender, the birth year and
+     * the phonetic key of a given or family name with the patient, according to the patient match index.
+     *
+     * @param patient the submitted patient.
+     * @return the candidate patients, empty when the patient has no name, gender or birth date.
+     */
+    @Transactional(readOnly = true)
+    List<Patient> getPatientMatchCandidates(final Patient patient) throws APIException;
+
+    /**
+     * Bring the entries of the saved patient in the patient match index up to date.
+     *
+     * @param patient the saved patient.
+     */
+    @Transactional
+    void updatePatientMatchKeys(final Patient patient) throws APIException;
+
+    /**
+     * Remove a patient from the patient match index, e.g. after the patient was purged.
+     *
+     * @param patientId the id of the patient.
+     */
+    @Transactional
+    void deletePatientMatchKeys(final Integer patientId) throws APIException;
+
+    /**
+     * (Re)build the patient match index for the patients with an id in the given range.
+     *
+     * @param fromPatientId the lower bound of the range, exclusive.
+     * @param toPatientId   the upper bound of the range, inclusive.
+     * @return the number of entries added to the index.
+     */
+    @Transactional
+    int indexPatientMatchKeys(final Integer fromPatientId, final Integer toPatientId) throws APIException;
+
+    /**
+     * (Re)build the patient match index for the given patients, from their saved names.
+     *
+     * @param patientIds the ids of the patients.
+     * @return the number of entries added to the index.
+     */
+    @Transactional
+    int reindexPatientMatchKeys(final Collection<Integer> patientIds) throws APIException;
+
+    @Transactional(readOnly = true)
+    Integer getMaxIndexedPatientId() throws APIException;
+
+    /**
+     * @return the date of the latest entry of the patient match index, or null when no entry has a date.
+     */
+    @Transactional(readOnly = true)
+    Date getLastPatientMatchIndexDate() throws APIException;
+
+    /**
+     * Return the ids of the patients in the given range whose gender, birth date, names or voided state changed since
+     * the given date, in ascending order.
+     *
+     * @param since         the date from which on changes are of interest, inclusive.
+     * @param fromPatientId the lower bound of the range, exclusive.
+     * @param toPatientId   the upper bound of the range, inclusive.
+     * @param maxResults    the maximum number of patient ids to return.
+     * @return the ids of the changed patients.
+     */
+    @Transactional(readOnly = true)
+    List<Integer> getPatientIdsChangedSince(final Date since, final Integer fromPatientId, final Integer toPatientId,
+                                            final int maxResults) throws APIException;
+
+    @Transactional(readOnly = true)
+    Integer getMaxPatientId() throws APIException;
 }
@@ -5,15 +5,25 @@ import org.openmrs.Role;
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.muzima.model.ArchiveData;
 import org.openmrs.module.muzima.model.DataSource;
+import org.openmrs.module.muzima.model.DataSummary;
 import org.openmrs.module.muzima.model.ErrorData;
+import org.openmrs.module.muzima.model.ErrorDataValidation;
 import org.openmrs.module.muzima.model.ErrorMessage;
 import org.openmrs.module.muzima.model.FormDataStatus;
 import org.openmrs.module.muzima.model.NotificationData;
 import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.model.handler.MetadataCache;
+import org.openmrs.module.muzima.model.handler.QueueDataContext;
+import org.openmrs.module.muzima.model.handler.QueueDataDispatcher;
+import org.openmrs.module.muzima.model.handler.QueueDataHandler;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.validation.constraints.NotNull;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  */
@@ -48,6 +58,75 @@ public interface DataService extends OpenmrsService {
      */
     List<QueueData> getAllQueueData();
 
+    /**
+     * Return the next batch of queue data, ordered by id, with an id greater than the given id.
+     *
+     * @param lastId    the id of the last queue data in the previous batch, or null for the first batch.
+     * @param batchSize the maximum number of queue data in the batch.
+     * @return the batch of queue data, empty when there are no more queue data.
+     * @should return queue data with id greater than the given id ordered by id.
+     * @should return at most batch size queue data.
+     */
+    List<QueueData> getQueueDataAfter(final Integer lastId, final Integer batchSize);
+
+    /**
+     * Return the queue data, ordered by id, with an id greater than the given id for the given patient uuids and
+     * discriminators.
+     *
+     * @param lastId         the id after which the queue data are returned, or null for all queue data.
+     * @param patientUuids   the patient uuids.
+     * @param discriminators the discriminators.
+     * @return the matching queue data.
+     * @should return the queue data of the patients with the given discriminators after the given id.
+     */
+    List<QueueData> getQueueDataByPatientUuids(final Integer lastId, final Collection<String> patientUuids,
+                                               final Collection<String> discriminators);
+
+    /**
+     * Claim the next batch of queue data, ordered by id, with an id greater than the given id. Queue data held by
+     * another claimant are skipped until their lease expires.
+     *
+     * @param lastId      the id of the last queue data in the previous batch, or null for the first batch.
+     * @param batchSize   the maximum number of queue data in the batch.
+     * @param claimant    the claimant.
+     * @param leaseExpiry the time until which the claim is held.
+     * @return the claimed queue data, empty when there are no more queue data to claim.
+     * @should claim the unclaimed queue data after the given id.
+     * @should skip the queue data claimed by another claimant.
+     * @should claim the queue data with an expired lease.
+     */
+    List<QueueData> claimQueueDataAfter(final Integer lastId, final Integer batchSize, final String claimant,
+                                        final Date leaseExpiry);
+
+    /**
+     * Claim the queue data with the given ids, the queue data held by another claimant are left out.
+     *
+     * @param ids         the ids of the queue data.
+     * @param claimant    the claimant.
+     * @param leaseExpiry the time until which the claim is held.
+     * @return the queue data claimed by the claimant, ordered by id.
+     * @should not claim the queue data claimed by another claimant.
+     */
+    List<QueueData> claimQueueData(final Collection<Integer> ids, final String claimant, final Date leaseExpiry);
+
+    /**
+     * Extend the lease of all queue data held by the claimant.
+     *
+     * @param claimant    the claimant.
+     * @param leaseExpiry the new time until which the claims are held.
+     * @return the number of queue data held by the claimant.
+     */
+    int renewQueueDataClaims(final String claimant, final Date leaseExpiry);
+
+    /**
+     * Release all queue data held by the claimant.
+     *
+     * @param claimant the claimant.
+     * @return the number of queue data released.
+     * @should release the queue data held by the claimant.
+     */
+    int releaseQueueDataClaims(final String claimant);
+
     /**
      * Save queue data into the database.
      *
@@ -57,6 +136,17 @@ public interface DataService extends OpenmrsService {
      */
     QueueData saveQueueData(final QueueData queueData);
 
+    /**
+     * Save new queue data into the database in a single transaction, using jdbc batches. The queue data which can't be
+     * saved don't prevent the others from being saved.
+     *
+     * @param queueDataList the new queue data.
+     * @return the reason each queue data which couldn't be saved failed, keyed by the uuid of the queue data.
+     * @should save all queue data into the database.
+     * @should save the other queue data when a queue data can't be saved.
+     */
+    Map<String, String> saveQueueDataInBulk(final List<QueueData> queueDataList);
+
     /**
      * Delete queue data from the database.
      *
@@ -65,6 +155,68 @@ public interface DataService extends OpenmrsService {
      */
     void purgeQueueData(final QueueData queueData);
 
+    /**
+     * Delete the queue data with the given uuids inside the database, without loading them.
+     *
+     * @param uuids the uuids of the queue data.
+     * @return the number of queue data deleted.
+     * @should remove the queue data with matching uuid from the database.
+     */
+    int purgeQueueData(final List<String> uuids);
+
+    /**
+     * Move processed queue data out of the queue in a single transaction: save the archive data and error data
+     * created from them and delete the queue data.
+     *
+     * @param archiveData the archive data keyed by the id of the queue data they were created from.
+     * @param errorData   the error data keyed by the id of the queue data they were created from.
+     * @param claimant    the claimant holding the queue data, or null for queue data which aren't claimed.
+     * @return the id of the queue data which couldn't be moved and are left in the queue, or which are already gone.
+     * @should save the archive data and error data and delete the queue data.
+     * @should leave out the queue data which are already gone.
+     * @should leave the queue data held by another claimant in the queue.
+     */
+    List<Integer> moveQueueData(final Map<Integer, ArchiveData> archiveData, final Map<Integer, ErrorData> errorData,
+                                final String claimant);
+
+    /**
+     * Process the queue data with the handler and archive it in a single transaction, so the work of the handler is
+     * committed together with the archiving of the queue data and a queue data left in the queue was never processed.
+     * The transaction is rolled back when the handler fails or the queue data can't be moved out of the queue.
+     *
+     * @param queueDataHandler the handler registered for the discriminator of the queue data.
+     * @param context          the processing context of the queue data.
+     * @param claimant         the claimant holding the queue data, or null when the queue data isn't claimed.
+     * @return the archive data created from the queue data.
+     * @should archive the queue data processed by the handler.
+     * @should leave the queue data in the queue when the handler fails.
+     */
+    @Transactional
+    ArchiveData processQueueData(final QueueDataHandler queueDataHandler, final QueueDataContext context,
+                                 final String claimant);
+
+    /**
+     * Process a chunk of queue data with their handlers and archive the ones processed in a single transaction. The
+     * handler of every queue data runs within its own savepoint, the work of a failed handler is rolled back to it and
+     * the other queue data of the chunk are committed. The processed queue data are archived together, using jdbc
+     * batches.
+     * <p/>
+     * The whole transaction is rolled back when a failed handler left it marked for rollback, e.g. when the failure
+     * was raised by a service it called, or when the processed queue data can't be moved out of the queue. The queue
+     * data of the chunk are then still in the queue, see
+     * {@link #processQueueData(QueueDataHandler, QueueDataContext, String)} to process them one by one.
+     *
+     * @param dispatcher the dispatcher of the queue data to their handlers, every queue data must have a handler.
+     * @param contexts   the processing contexts of the queue data, in processing order.
+     * @param claimant   the claimant holding the queue data, or null when the queue data aren't claimed.
+     * @return the failure of every queue data whose handler failed, keyed by the id of the queue data.
+     * @should archive the queue data processed by their handlers.
+     * @should leave the queue data whose handler failed in the queue.
+     */
+    @Transactional
+    Map<Integer, Exception> processQueueData(final QueueDataDispatcher dispatcher,
+                                             final List<QueueDataContext> contexts, final String claimant);
+
     /**
      * Get the total number of the queue data in the database with partial matching search term on the payload.
      *
@@ -74,6 +226,17 @@ public interface DataService extends OpenmrsService {
      */
     Number countQueueData(final String search);
 
+    /**
+     * Get the approximate number of the queue data with matching search term, for the pagination of the admin screens.
+     * The number of all queue data is kept up to date as queue data are saved and deleted, the number of queue data matching a
+     * search is kept for a short while. {@link #countQueueData(String)} counts them again.
+     *
+     * @param search the search term, may be empty.
+     * @return the approximate number of the queue data.
+     */
+    @Transactional(readOnly = true)
+    Number getApproximateQueueDataCount(final String search);
+
     /**
      * Get queue data with matching search term for a particular page.
      *
@@ -84,6 +247,19 @@ public interface DataService extends OpenmrsService {
      */
     List<QueueData> getPagedQueueData(final String search, final Integer pageNumber, final Integer pageSize);
 
+    /**
+     * Get the summaries of the queue data with matching search term for a particular page, the list columns of the
+     * queue data without their payload.
+     *
+     * @param search     the search term.
+     * @param pageNumber the page number.
+     * @param pageSize   the size of the page.
+     * @return the summaries of the queue data of the page.
+     */
+    @Transactional(readOnly = true)
+    List<DataSummary> getPagedQueueDataSummaries(final String search, final Integer pageNumber,
+                                                 final Integer pageSize);
+
     /**
      * Return the error data with the given id.
      *
@@ -114,6 +290,25 @@ public interface DataService extends OpenmrsService {
      */
     ErrorData getRegistrationErrorDataByPatientUuid(final String patientUuid);
 
+    /**
+     * Return the error data of a patient, ordered by id. The error data are looked up on their patient uuid, not with
+     * a search on the payload.
+     *
+     * @param patientUuid the uuid of the patient.
+     * @return the error data of the patient.
+     * @should return the error data with matching patient uuid.
+     */
+    List<ErrorData> getErrorDataByPatientUuid(final String patientUuid);
+
+    /**
+     * Return the uuids of the registration error data of several patients with a single query.
+     *
+     * @param patientUuids the uuids of the patients.
+     * @return the uuid of the registration error data of the patients which have one, keyed by the patient uuid.
+     * @should return the uuid of the registration error data of every patient.
+     */
+    Map<String, String> getRegistrationErrorDataUuids(final Collection<String> patientUuids);
+
     /**
      * Return all saved error data.
      *
@@ -140,6 +335,17 @@ public interface DataService extends OpenmrsService {
      */
     void purgeErrorData(final ErrorData ErrorData);
 
+    /**
+     * Move error data back to the queue. The error data are copied to the queue inside the database and deleted
+     * together with their error messages.
+     *
+     * @param uuids the uuids of the error data.
+     * @return the number of error data moved back to the queue.
+     * @should move the error data with matching uuid back to the queue.
+     * @should index the requeued data in the search index right away.
+     */
+    int requeueErrorData(final List<String> uuids);
+
     /**
      * Get the total number of the error data in the database with partial matching search term on the payload.
      *
@@ -149,6 +355,17 @@ public interface DataService extends OpenmrsService {
      */
     Number countErrorData(final String search);
 
+    /**
+     * Get the approximate number of the error data with matching search term, for the pagination of the admin screens.
+     * The number of all error data is kept up to date as error data are saved and deleted, the number of error data matching a
+     * search is kept for a short while. {@link #countErrorData(String)} counts them again.
+     *
+     * @param search the search term, may be empty.
+     * @return the approximate number of the error data.
+     */
+    @Transactional(readOnly = true)
+    Number getApproximateErrorDataCount(final String search);
+
     /**
      * Get error data with matching search term for a particular page.
      *
@@ -159,6 +376,19 @@ public interface DataService extends OpenmrsService {
      */
     List<ErrorData> getPagedErrorData(final String search, final Integer pageNumber, final Integer pageSize);
 
+    /**
+     * Get the summaries of the error data with matching search term for a particular page, the list columns of the
+     * error data without their payload and error messages.
+     *
+     * @param search     the search term.
+     * @param pageNumber the page number.
+     * @param pageSize   the size of the page.
+     * @return the summaries of the error data of the page.
+     */
+    @Transactional(readOnly = true)
+    List<DataSummary> getPagedErrorDataSummaries(final String search, final Integer pageNumber,
+                                                 final Integer pageSize);
+
     /**
      * Return the archive data with the given id.
      *
@@ -209,6 +439,60 @@ public interface DataService extends OpenmrsService {
      */
     List<QueueData> getQueueDataByFormDataUuid(final String formDataUuid);
 
+    /**
+     * Return which of the given form data uuids were already submitted, i.e. are used by queue data, archive data or
+     * error data.
+     *
+     * @param formDataUuids the form data uuids.
+     * @return the form data uuids which were already submitted.
+     * @should return the form data uuids used by queue, archive or error data
+     */
+    Set<String> getSubmittedFormDataUuids(final Collection<String> formDataUuids);
+
+    /**
+     * Return which of the given form data uuids are used by archive data, i.e. were already processed successfully.
+     *
+     * @param formDataUuids the form data uuids.
+     * @return the form data uuids used by archive data.
+     */
+    Set<String> getArchivedFormDataUuids(final Collection<String> formDataUuids);
+
+    /**
+     * Return the form data uuids of the next batch of queue data, ordered by id, with an id greater than the given id.
+     *
+     * @param lastId    the id of the last queue data in the previous batch, or null for the first batch.
+     * @param batchSize the maximum number of form data uuids in the batch.
+     * @return the form data uuids keyed by the id of their queue data.
+     */
+    Map<Integer, String> getQueueDataFormDataUuidsAfter(final Integer lastId, final Integer batchSize);
+
+    /**
+     * Return the form data uuids of the next batch of archive data, ordered by id, with an id greater than the given id.
+     *
+     * @param lastId    the id of the last archive data in the previous batch, or null for the first batch.
+     * @param batchSize the maximum number of form data uuids in the batch.
+     * @return the form data uuids keyed by the id of their archive data.
+     */
+    Map<Integer, String> getArchiveDataFormDataUuidsAfter(final Integer lastId, final Integer batchSize);
+
+    /**
+     * Return the form data uuids of the next batch of error data, ordered by id, with an id greater than the given id.
+     *
+     * @param lastId    the id of the last error data in the previous batch, or null for the first batch.
+     * @param batchSize the maximum number of form data uuids in the batch.
+     * @return the form data uuids keyed by the id of their error data.
+     */
+    Map<Integer, String> getErrorDataFormDataUuidsAfter(final Integer lastId, final Integer batchSize);
+
+    /**
+     * Return the ids of the next batch of error data, ordered by id, with an id greater than the given id.
+     *
+     * @param lastId    the id of the last error data in the previous batch, or null for the first batch.
+     * @param batchSize the maximum number of ids in the batch.
+     * @return the ids of the error data, empty when there are no more error data.
+     */
+    List<Integer> getErrorDataIdsAfter(final Integer lastId, final Integer batchSize);
+
     /**
      * Return all saved archive data.
      *
@@ -244,6 +528,17 @@ public interface DataService extends OpenmrsService {
      */
     Number countArchiveData(final String search);
 
+    /**
+     * Get the approximate number of the archive data with matching search term, for the pagination of the admin screens.
+     * The number of all archive data is kept up to date as archive data are saved and deleted, the number of archive data matching a
+     * search is kept for a short while. {@link #countArchiveData(String)} counts them again.
+     *
+     * @param search the search term, may be empty.
+     * @return the approximate number of the archive data.
+     */
+    @Transactional(readOnly = true)
+    Number getApproximateArchiveDataCount(final String search);
+
     /**
      * Get archive data with matching search term for a particular page.
      *
@@ -499,6 +794,60 @@ public interface DataService extends OpenmrsService {
 
     List<ErrorMessage> validateData(String uuid, String formData);
 
+    /**
+     * Validate the error data with the given ids again against the handlers of their discriminators, e.g. after the
+     * metadata they failed on were fixed. Each error data is validated with its stored payload the same way
+     * {@link #validateData(String, String)} validates an edited payload.
+     * <p/>
+     * Nothing is written to the database: the validation runs in a read only transaction which is rolled back, whatever
+     * the handlers changed in the session.
+     *
+     * @param errorDataIds  the ids of the error data.
+     * @param metadataCache the cache of the metadata looked up by the handlers, may be shared by concurrent calls.
+     * @return the outcome of the validation of every error data found, ordered by id.
+     * @should not change the validated error data
+     */
+    @Transactional(readOnly = true)
+    List<ErrorDataValidation> validateErrorData(final Collection<Integer> errorDataIds,
+                                                final MetadataCache metadataCache);
+
+    /**
+     * Add the next batch of queue data which are not in the search index yet to the search index.
+     *
+     * @param lastId    the id of the last queue data in the previous batch, or null for the first batch.
+     * @param batchSize the maximum number of queue data in the batch.
+     * @return the ids of the queue data added to the index, empty when there are no more queue data to add.
+     */
+    @Transactional
+    List<Integer> indexQueueDataSearchTerms(final Integer lastId, final Integer batchSize);
+
+    /**
+     * Add the next batch of error data which are not in the search index yet to the search index.
+     *
+     * @param lastId    the id of the last error data in the previous batch, or null for the first batch.
+     * @param batchSize the maximum number of error data in the batch.
+     * @return the ids of the error data added to the index, empty when there are no more error data to add.
+     */
+    @Transactional
+    List<Integer> indexErrorDataSearchTerms(final Integer lastId, final Integer batchSize);
+
+    /**
+     * Add the next batch of archive data which are not in the search index yet to the search index.
+     *
+     * @param lastId    the id of the last archive data in the previous batch, or null for the first batch.
+     * @param batchSize the maximum number of archive data in the batch.
+     * @return the ids of the archive data added to the index, empty when there are no more archive data to add.
+     */
+    @Transactional
+    List<Integer> indexArchiveDataSearchTerms(final Integer lastId, final Integer batchSize);
+
+    /**
+     * @return the approximate number of the queue, error and archive data per discriminator, keyed by "queue", "error"
+     * and "archive".
+     */
+    @Transactional(readOnly = true)
+    Map<String, Map<String, Long>> getApproximateDataCountsByDiscriminator();
+
     List<String> getDiscriminatorTypes();
 
     /**
@@ -13,6 +13,7 @@
  */
 package org.openmrs.module.muzima.api.service.impl;
 
+import org.apache.commons.lang.StringUtils;
 import org.openmrs.Cohort;
 import org.openmrs.Encounter;
 import org.openmrs.Obs;
@@ -23,9 +24,14 @@ import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.muzima.api.db.CoreDao;
 import org.openmrs.module.muzima.api.db.MuzimaCohortDao;
 import org.openmrs.module.muzima.api.service.CoreService;
+import org.openmrs.module.muzima.model.PatientMatchKey;
+import org.openmrs.module.muzima.utils.PatientSearchUtils;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 /**
  * TODO: Write brief description about the class here.
@@ -106,4 +112,82 @@ public class CoreServiceImpl extends BaseOpenmrsService implements CoreService {
     public  boolean hasCohortChangedSinceDate(final String cohortUuid, final Date syncDate) throws APIException{
         return getMuzimaCohortDao().hasCohortChangedSinceDate(cohortUuid, syncDate);
     }
+
+    @Override
+    public List<Patient> getPatientMatchCandidates(final Patient patient) throws APIException {
+        List<Patient> patients = new ArrayList<Patient>();
+        String gender = StringUtils.upperCase(patient.getGender());
+        Integer birthYear = PatientSearchUtils.getBirthYear(patient.getBirthdate());
+        Set<String> nameKeys = PatientSearchUtils.getNameKeys(patient);
+        if (StringUtils.isBlank(gender) || birthYear == null || nameKeys.isEmpty()) {
+            return patients;
+        }
+        for (Integer patientId : getCoreDao().getPatientMatchCandidateIds(gender, birthYear, nameKeys)) {
+            Patient candidate = Context.getPatientService().getPatient(patientId);
+            if (candidate != null && !candidate.isVoided()) {
+                patients.add(candidate);
+            }
+        }
+        return patients;
+    }
+
+    @Override
+    public void updatePatientMatchKeys(final Patient patient) throws APIException {
+        if (patient.getPatientId() == null) {
+            return;
+        }
+        List<PatientMatchKey> patientMatchKeys = new ArrayList<PatientMatchKey>();
+        String gender = StringUtils.upperCase(patient.getGender());
+        Integer birthYear = PatientSearchUtils.getBirthYear(patient.getBirthdate());
+        if (!patient.isVoided() && StringUtils.isNotBlank(gender) && birthYear != null) {
+            for (String nameKey : PatientSearchUtils.getNameKeys(patient)) {
+                patientMatchKeys.add(new PatientMatchKey(patient.getPatientId(), gender, birthYear, nameKey));
+            }
+        }
+        getCoreDao().deletePatientMatchKeys(patient.getPatientId());
+        getCoreDao().savePatientMatchKeys(patientMatchKeys);
+    }
+
+    @Override
+    public void deletePatientMatchKeys(final Integer patientId) throws APIException {
+        getCoreDao().deletePatientMatchKeys(patientId);
+    }
+
+    @Override
+    public int indexPatientMatchKeys(final Integer fromPatientId, final Integer toPatientId) throws APIException {
+        getCoreDao().deletePatientMatchKeys(fromPatientId, toPatientId);
+        List<PatientMatchKey> patientMatchKeys = getCoreDao().createPatientMatchKeys(fromPatientId, toPatientId);
+        getCoreDao().savePatientMatchKeys(patientMatchKeys);
+        return patientMatchKeys.size();
+    }
+
+    @Override
+    public int reindexPatientMatchKeys(final Collection<Integer> patientIds) throws APIException {
+        getCoreDao().deletePatientMatchKeys(patientIds);
+        List<PatientMatchKey> patientMatchKeys = getCoreDao().createPatientMatchKeys(patientIds);
+        getCoreDao().savePatientMatchKeys(patientMatchKeys);
+        return patientMatchKeys.size();
+    }
+
+    @Override
+    public Integer getMaxIndexedPatientId() throws APIException {
+        return getCoreDao().getMaxIndexedPatientId();
+    }
+
+    @Override
+    public Date getLastPatientMatchIndexDate() throws APIException {
+        return getCoreDao().getLastPatientMatchIndexDate();
+    }
+
+    @Override
+    public List<Integer> getPatientIdsChangedSince(final Date since, final Integer fromPatientId,
+                                                   final Integer toPatientId, final int maxResults)
+            throws APIException {
+        return getCoreDao().getPatientIdsChangedSince(since, fromPatientId, toPatientId, maxResults);
+    }
+
+    @Override
+    public Integer getMaxPatientId() throws APIException {
+        return getCoreDao().getMaxPatientId();
+    }
 }
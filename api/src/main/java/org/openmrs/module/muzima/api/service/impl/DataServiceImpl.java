@@ -13,7 +13,6 @@
  */
 package org.openmrs.module.muzima.api.service.impl;
 
-import org.apache.commons.lang.StringUtils;
 import org.openmrs.Person;
 import org.openmrs.Role;
 import org.openmrs.api.context.Context;
@@ -29,20 +28,36 @@ import org.openmrs.module.muzima.api.service.RegistrationDataService;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.ArchiveData;
 import org.openmrs.module.muzima.model.DataSource;
+import org.openmrs.module.muzima.model.DataSummary;
 import org.openmrs.module.muzima.model.ErrorData;
+import org.openmrs.module.muzima.model.ErrorDataValidation;
 import org.openmrs.module.muzima.model.ErrorMessage;
 import org.openmrs.module.muzima.model.FormDataStatus;
 import org.openmrs.module.muzima.model.NotificationData;
 import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzima.model.RegistrationData;
+import org.openmrs.module.muzima.model.handler.MetadataCache;
+import org.openmrs.module.muzima.model.handler.QueueDataContext;
+import org.openmrs.module.muzima.model.handler.QueueDataDispatcher;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
-import org.openmrs.util.HandlerUtil;
+import org.openmrs.module.muzima.utils.DataCountCache;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.validation.constraints.NotNull;
+import java.sql.Savepoint;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  */
@@ -60,6 +75,46 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
 
     private ErrorMessageDao errorMessageDao;
 
+    private static final long RECOUNT_MILLIS = 10 * 60 * 1000L;
+
+    private static final long SEARCH_COUNT_TIME_TO_LIVE_MILLIS = 30 * 1000L;
+
+    private final DataCountCache queueDataCounts = new DataCountCache(new DataCountCache.Counter() {
+        @Override
+        public Map<String, Number> countByDiscriminator() {
+            return getQueueDataDao().countDataByDiscriminator();
+        }
+
+        @Override
+        public Number count(final String search) {
+            return getQueueDataDao().countData(search);
+        }
+    }, RECOUNT_MILLIS, SEARCH_COUNT_TIME_TO_LIVE_MILLIS);
+
+    private final DataCountCache errorDataCounts = new DataCountCache(new DataCountCache.Counter() {
+        @Override
+        public Map<String, Number> countByDiscriminator() {
+            return getErrorDataDao().countDataByDiscriminator();
+        }
+
+        @Override
+        public Number count(final String search) {
+            return getErrorDataDao().countData(search);
+        }
+    }, RECOUNT_MILLIS, SEARCH_COUNT_TIME_TO_LIVE_MILLIS);
+
+    private final DataCountCache archiveDataCounts = new DataCountCache(new DataCountCache.Counter() {
+        @Override
+        public Map<String, Number> countByDiscriminator() {
+            return getArchiveDataDao().countDataByDiscriminator();
+        }
+
+        @Override
+        public Number count(final String search) {
+            return getArchiveDataDao().countData(search);
+        }
+    }, RECOUNT_MILLIS, SEARCH_COUNT_TIME_TO_LIVE_MILLIS);
+
     public QueueDataDao getQueueDataDao() {
         return queueDataDao;
     }
@@ -145,6 +200,84 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
         return getQueueDataDao().getAllData();
     }
 
+    /**
+     * Return the next batch of queue data, ordered by id, with an id greater than the given id.
+     *
+     * @param lastId    the id of the last queue data in the previous batch, or null for the first batch.
+     * @param batchSize the maximum number of queue data in the batch.
+     * @return the batch of queue data, empty when there are no more queue data.
+     */
+    @Override
+    public List<QueueData> getQueueDataAfter(final Integer lastId, final Integer batchSize) {
+        return getQueueDataDao().getDataAfter(lastId, batchSize);
+    }
+
+    /**
+     * Return the queue data, ordered by id, with an id greater than the given id for the given patient uuids and
+     * discriminators.
+     *
+     * @param lastId         the id after which the queue data are returned, or null for all queue data.
+     * @param patientUuids   the patient uuids.
+     * @param discriminators the discriminators.
+     * @return the matching queue data.
+     */
+    @Override
+    public List<QueueData> getQueueDataByPatientUuids(final Integer lastId, final Collection<String> patientUuids,
+                                                      final Collection<String> discriminators) {
+        return getQueueDataDao().getDataByPatientUuids(lastId, patientUuids, discriminators);
+    }
+
+    /**
+     * Claim the next batch of queue data, ordered by id, with an id greater than the given id.
+     *
+     * @param lastId      the id of the last queue data in the previous batch, or null for the first batch.
+     * @param batchSize   the maximum number of queue data in the batch.
+     * @param claimant    the claimant.
+     * @param leaseExpiry the time until which the claim is held.
+     * @return the claimed queue data, empty when there are no more queue data to claim.
+     */
+    @Override
+    public List<QueueData> claimQueueDataAfter(final Integer lastId, final Integer batchSize, final String claimant,
+                                               final Date leaseExpiry) {
+        return getQueueDataDao().claimDataAfter(lastId, batchSize, claimant, leaseExpiry);
+    }
+
+    /**
+     * Claim the queue data with the given ids.
+     *
+     * @param ids         the ids of the queue data.
+     * @param claimant    the claimant.
+     * @param leaseExpiry the time until which the claim is held.
+     * @return the queue data claimed by the claimant, ordered by id.
+     */
+    @Override
+    public List<QueueData> claimQueueData(final Collection<Integer> ids, final String claimant, final Date leaseExpiry) {
+        return getQueueDataDao().claimData(ids, claimant, leaseExpiry);
+    }
+
+    /**
+     * Extend the lease of all queue data held by the claimant.
+     *
+     * @param claimant    the claimant.
+     * @param leaseExpiry the new time until which the claims are held.
+     * @return the number of queue data held by the claimant.
+     */
+    @Override
+    public int renewQueueDataClaims(final String claimant, final Date leaseExpiry) {
+        return getQueueDataDao().renewClaims(claimant, leaseExpiry);
+    }
+
+    /**
+     * Release all queue data held by the claimant.
+     *
+     * @param claimant the claimant.
+     * @return the number of queue data released.
+     */
+    @Override
+    public int releaseQueueDataClaims(final String claimant) {
+        return getQueueDataDao().releaseClaims(claimant);
+    }
+
     /**
      * Save form data into the database.
      *
@@ -154,7 +287,31 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
      */
     @Override
     public QueueData saveQueueData(final QueueData formData) {
-        return getQueueDataDao().saveData(formData);
+        boolean created = formData.getId() == null;
+        QueueData queueData = getQueueDataDao().saveData(formData);
+        if (created) {
+            adjustAfterCommit(queueDataCounts, queueData.getDiscriminator(), 1);
+        }
+        return queueData;
+    }
+
+    /**
+     * Save new queue data into the database in a single transaction, using jdbc batches.
+     *
+     * @param queueDataList the new queue data.
+     * @return the reason each queue data which couldn't be saved failed, keyed by the uuid of the queue data.
+     */
+    @Override
+    public Map<String, String> saveQueueDataInBulk(final List<QueueData> queueDataList) {
+        Map<String, String> failures = getQueueDataDao().insertData(queueDataList);
+        Map<String, Long> added = new HashMap<String, Long>();
+        for (QueueData queueData : queueDataList) {
+            if (!failures.containsKey(queueData.getUuid())) {
+                addDelta(added, queueData.getDiscriminator(), 1);
+            }
+        }
+        adjustAfterCommit(queueDataCounts, added);
+        return failures;
     }
 
     /**
@@ -166,6 +323,124 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
     @Override
     public void purgeQueueData(final QueueData formData) {
         getQueueDataDao().purgeData(formData);
+        adjustAfterCommit(queueDataCounts, formData.getDiscriminator(), -1);
+    }
+
+    /**
+     * Delete the queue data with the given uuids inside the database, without loading them.
+     *
+     * @param uuids the uuids of the queue data.
+     * @return the number of queue data deleted.
+     */
+    @Override
+    public int purgeQueueData(final List<String> uuids) {
+        int purged = getQueueDataDao().purgeDataByUuids(uuids);
+        adjustAfterCommit(queueDataCounts, null, -purged);
+        return purged;
+    }
+
+    /**
+     * Move processed queue data out of the queue in a single transaction: save the archive data and error data
+     * created from them and delete the queue data.
+     *
+     * @param archiveData the archive data keyed by the id of the queue data they were created from.
+     * @param errorData   the error data keyed by the id of the queue data they were created from.
+     * @param claimant    the claimant holding the queue data, or null for queue data which aren't claimed.
+     * @return the id of the queue data which couldn't be moved and are left in the queue.
+     */
+    @Override
+    public List<Integer> moveQueueData(final Map<Integer, ArchiveData> archiveData,
+                                       final Map<Integer, ErrorData> errorData, final String claimant) {
+        List<Integer> unmovedIds = getQueueDataDao().moveQueueData(archiveData, errorData, claimant);
+        Set<Integer> unmoved = new HashSet<Integer>(unmovedIds);
+        Map<String, Long> removed = new HashMap<String, Long>();
+        Map<String, Long> archived = new HashMap<String, Long>();
+        Map<String, Long> errored = new HashMap<String, Long>();
+        for (Map.Entry<Integer, ArchiveData> entry : archiveData.entrySet()) {
+            if (!unmoved.contains(entry.getKey())) {
+                addDelta(removed, entry.getValue().getDiscriminator(), -1);
+                addDelta(archived, entry.getValue().getDiscriminator(), 1);
+            }
+        }
+        for (Map.Entry<Integer, ErrorData> entry : errorData.entrySet()) {
+            if (!unmoved.contains(entry.getKey())) {
+                addDelta(removed, entry.getValue().getDiscriminator(), -1);
+                addDelta(errored, entry.getValue().getDiscriminator(), 1);
+            }
+        }
+        adjustAfterCommit(queueDataCounts, removed);
+        adjustAfterCommit(archiveDataCounts, archived);
+        adjustAfterCommit(errorDataCounts, errored);
+        return unmovedIds;
+    }
+
+    /**
+     * Process the queue data with the handler and archive it in a single transaction.
+     *
+     * @param queueDataHandler the handler registered for the discriminator of the queue data.
+     * @param context          the processing context of the queue data.
+     * @param claimant         the claimant holding the queue data, or null when the queue data isn't claimed.
+     * @return the archive data created from the queue data.
+     */
+    @Override
+    public ArchiveData processQueueData(final QueueDataHandler queueDataHandler, final QueueDataContext context,
+                                        final String claimant) {
+        queueDataHandler.process(context);
+        QueueData queueData = context.getQueueData();
+        ArchiveData archiveData = new ArchiveData(queueData);
+        archiveData.setMessage("Queue data processed successfully!");
+        archiveData.setDateArchived(new Date());
+        List<Integer> unmovedIds = moveQueueData(Collections.singletonMap(queueData.getId(), archiveData),
+                Collections.<Integer, ErrorData>emptyMap(), claimant);
+        if (!unmovedIds.isEmpty()) {
+            // roll the work of the handler back, the queue data would be processed again otherwise.
+            throw new QueueProcessorException("Unable to move queue data " + queueData.getId() + " out of the queue.");
+        }
+        return archiveData;
+    }
+
+    /**
+     * Process a chunk of queue data with their handlers, each within its own savepoint, and archive the ones processed
+     * in a single transaction.
+     *
+     * @param dispatcher the dispatcher of the queue data to their handlers.
+     * @param contexts   the processing contexts of the queue data, in processing order.
+     * @param claimant   the claimant holding the queue data, or null when the queue data aren't claimed.
+     * @return the failure of every queue data whose handler failed, keyed by the id of the queue data.
+     */
+    @Override
+    public Map<Integer, Exception> processQueueData(final QueueDataDispatcher dispatcher,
+                                                    final List<QueueDataContext> contexts, final String claimant) {
+        Map<Integer, Exception> failures = new LinkedHashMap<Integer, Exception>();
+        Map<Integer, ArchiveData> archiveData = new LinkedHashMap<Integer, ArchiveData>();
+        for (QueueDataContext context : contexts) {
+            QueueData queueData = context.getQueueData();
+            Savepoint savepoint = getQueueDataDao().setSavepoint();
+            try {
+                dispatcher.getHandler(queueData).process(context);
+                getQueueDataDao().releaseSavepoint(savepoint);
+                ArchiveData processed = new ArchiveData(queueData);
+                processed.setMessage("Queue data processed successfully!");
+                processed.setDateArchived(new Date());
+                archiveData.put(queueData.getId(), processed);
+            } catch (Exception e) {
+                getQueueDataDao().rollbackToSavepoint(savepoint);
+                if (TransactionAspectSupport.currentTransactionStatus().isRollbackOnly()) {
+                    // the savepoint can't keep the other queue data of the chunk, the transaction won't be committed.
+                    throw new QueueProcessorException("Unable to process queue data " + queueData.getId()
+                            + " without rolling the whole chunk back.", e);
+                }
+                // the visits created by the rolled back work are gone.
+                context.getVisitResolver().clear();
+                failures.put(queueData.getId(), e);
+            }
+        }
+        List<Integer> unmovedIds = moveQueueData(archiveData, Collections.<Integer, ErrorData>emptyMap(), claimant);
+        if (!unmovedIds.isEmpty()) {
+            // roll the work of the handlers back, the queue data would be processed again otherwise.
+            throw new QueueProcessorException("Unable to move queue data " + unmovedIds + " out of the queue.");
+        }
+        return failures;
     }
 
     /**
@@ -177,7 +452,18 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
      */
     @Override
     public Number countQueueData(final String search) {
-        return queueDataDao.countData(search);
+        return queueDataCounts.getExactCount(search);
+    }
+
+    /**
+     * Get the approximate number of the queue data with matching search term, for the pagination of the admin screens.
+     *
+     * @param search the search term, may be empty.
+     * @return the approximate number of the queue data.
+     */
+    @Override
+    public Number getApproximateQueueDataCount(final String search) {
+        return queueDataCounts.getCount(search);
     }
 
     /**
@@ -193,6 +479,12 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
         return queueDataDao.getPagedData(search, pageNumber, pageSize);
     }
 
+    @Override
+    public List<DataSummary> getPagedQueueDataSummaries(final String search, final Integer pageNumber,
+                                                        final Integer pageSize) {
+        return queueDataDao.getPagedDataSummaries(search, pageNumber, pageSize);
+    }
+
     /**
      * Return the error data with the given id.
      *
@@ -229,14 +521,18 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
      */
     @Override
     public ErrorData getRegistrationErrorDataByPatientUuid(String patientUuid) {
+        List<ErrorData> errors = getErrorDataDao().getDataByPatientUuid(patientUuid, "json-registration");
+        return errors.isEmpty() ? null : errors.get(0);
+    }
 
-        List<ErrorData> errors = getErrorDataDao().getPagedData(patientUuid, null, null);
-        for(ErrorData errorData : errors){
-            if(StringUtils.equals("json-registration", errorData.getDiscriminator())){
-                return errorData;
-            }
-        }
-        return null;
+    @Override
+    public List<ErrorData> getErrorDataByPatientUuid(final String patientUuid) {
+        return getErrorDataDao().getDataByPatientUuid(patientUuid, null);
+    }
+
+    @Override
+    public Map<String, String> getRegistrationErrorDataUuids(final Collection<String> patientUuids) {
+        return getErrorDataDao().getUuidsByPatientUuids(patientUuids, "json-registration");
     }
 
     /**
@@ -260,7 +556,12 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
      */
     @Override
     public ErrorData saveErrorData(final ErrorData errorData) {
-        return getErrorDataDao().saveData(errorData);
+        boolean created = errorData.getId() == null;
+        ErrorData savedErrorData = getErrorDataDao().saveData(errorData);
+        if (created) {
+            adjustAfterCommit(errorDataCounts, savedErrorData.getDiscriminator(), 1);
+        }
+        return savedErrorData;
     }
 
     /**
@@ -272,6 +573,22 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
     @Override
     public void purgeErrorData(final ErrorData errorData) {
         getErrorDataDao().purgeData(errorData);
+        adjustAfterCommit(errorDataCounts, errorData.getDiscriminator(), -1);
+    }
+
+    /**
+     * Move error data back to the queue. The error data are copied to the queue inside the database and deleted
+     * together with their error messages.
+     *
+     * @param uuids the uuids of the error data.
+     * @return the number of error data moved back to the queue.
+     */
+    @Override
+    public int requeueErrorData(final List<String> uuids) {
+        int requeued = getErrorDataDao().requeueData(uuids);
+        adjustAfterCommit(errorDataCounts, null, -requeued);
+        adjustAfterCommit(queueDataCounts, null, requeued);
+        return requeued;
     }
 
     /**
@@ -283,7 +600,18 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
      */
     @Override
     public Number countErrorData(final String search) {
-        return errorDataDao.countData(search);
+        return errorDataCounts.getExactCount(search);
+    }
+
+    /**
+     * Get the approximate number of the error data with matching search term, for the pagination of the admin screens.
+     *
+     * @param search the search term, may be empty.
+     * @return the approximate number of the error data.
+     */
+    @Override
+    public Number getApproximateErrorDataCount(final String search) {
+        return errorDataCounts.getCount(search);
     }
 
     /**
@@ -299,6 +627,12 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
         return errorDataDao.getPagedData(search, pageNumber, pageSize);
     }
 
+    @Override
+    public List<DataSummary> getPagedErrorDataSummaries(final String search, final Integer pageNumber,
+                                                        final Integer pageSize) {
+        return errorDataDao.getPagedDataSummaries(search, pageNumber, pageSize);
+    }
+
     /**
      * Return the archive data with the given id.
      *
@@ -339,6 +673,43 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
     public List<QueueData> getQueueDataByFormDataUuid(final String formDataUuid){
         return getQueueDataDao().getAllDataByFormDataUuid(formDataUuid);
     }
+
+    @Override
+    public Set<String> getSubmittedFormDataUuids(final Collection<String> formDataUuids) {
+        Set<String> submitted = new HashSet<String>(getArchiveDataDao().getFormDataUuids(formDataUuids));
+        if (submitted.size() < formDataUuids.size()) {
+            submitted.addAll(getQueueDataDao().getFormDataUuids(formDataUuids));
+        }
+        if (submitted.size() < formDataUuids.size()) {
+            submitted.addAll(getErrorDataDao().getFormDataUuids(formDataUuids));
+        }
+        return submitted;
+    }
+
+    @Override
+    public Set<String> getArchivedFormDataUuids(final Collection<String> formDataUuids) {
+        return new HashSet<String>(getArchiveDataDao().getFormDataUuids(formDataUuids));
+    }
+
+    @Override
+    public Map<Integer, String> getQueueDataFormDataUuidsAfter(final Integer lastId, final Integer batchSize) {
+        return getQueueDataDao().getFormDataUuidsAfter(lastId, batchSize);
+    }
+
+    @Override
+    public Map<Integer, String> getArchiveDataFormDataUuidsAfter(final Integer lastId, final Integer batchSize) {
+        return getArchiveDataDao().getFormDataUuidsAfter(lastId, batchSize);
+    }
+
+    @Override
+    public Map<Integer, String> getErrorDataFormDataUuidsAfter(final Integer lastId, final Integer batchSize) {
+        return getErrorDataDao().getFormDataUuidsAfter(lastId, batchSize);
+    }
+
+    @Override
+    public List<Integer> getErrorDataIdsAfter(final Integer lastId, final Integer batchSize) {
+        return getErrorDataDao().getIdsAfter(lastId, batchSize);
+    }
     /**
      * Return all saved archive data.
      *
@@ -360,7 +731,12 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
      */
     @Override
     public ArchiveData saveArchiveData(final ArchiveData archiveData) {
-        return getArchiveDataDao().saveData(archiveData);
+        boolean created = archiveData.getId() == null;
+        ArchiveData savedArchiveData = getArchiveDataDao().saveData(archiveData);
+        if (created) {
+            adjustAfterCommit(archiveDataCounts, savedArchiveData.getDiscriminator(), 1);
+        }
+        return savedArchiveData;
     }
 
     /**
@@ -372,6 +748,7 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
     @Override
     public void purgeArchiveData(final ArchiveData archiveData) {
         getArchiveDataDao().purgeData(archiveData);
+        adjustAfterCommit(archiveDataCounts, archiveData.getDiscriminator(), -1);
     }
 
     /**
@@ -383,7 +760,18 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
      */
     @Override
     public Number countArchiveData(final String search) {
-        return archiveDataDao.countData(search);
+        return archiveDataCounts.getExactCount(search);
+    }
+
+    /**
+     * Get the approximate number of the archive data with matching search term, for the pagination of the admin screens.
+     *
+     * @param search the search term, may be empty.
+     * @return the approximate number of the archive data.
+     */
+    @Override
+    public Number getApproximateArchiveDataCount(final String search) {
+        return archiveDataCounts.getCount(search);
     }
 
     /**
@@ -681,14 +1069,14 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
 
         QueueData queueData = new QueueData(errorData);
 
-        List<QueueDataHandler> queueDataHandlers =
-                HandlerUtil.getHandlersForType(QueueDataHandler.class, QueueData.class);
-        for(QueueDataHandler queueDataHandler : queueDataHandlers){
-
+        QueueDataHandler queueDataHandler = QueueDataDispatcher.create().getHandler(queueData);
+        if (queueDataHandler == null) {
+            ErrorMessage error = new ErrorMessage();
+            error.setMessage("No handler registered for discriminator: " + queueData.getDiscriminator());
+            errorMessages.add(error);
+        } else {
             try {
-                if (queueDataHandler.accept(queueData)) {
-                    queueDataHandler.validate(queueData);
-                }
+                queueDataHandler.validate(new QueueDataContext(queueData));
             } catch (Exception ex) {
                 errorMessages = createErrorMessageList((QueueProcessorException)ex);
             }
@@ -698,15 +1086,65 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
     }
 
     @Override
-    public List<String> getDiscriminatorTypes() {
-        List<String> discriminatorTypes = new ArrayList<String>();
-        List<QueueDataHandler> queueDataHandlers = HandlerUtil.getHandlersForType(QueueDataHandler.class, QueueData.class);
-        for (QueueDataHandler queueDataHandler : queueDataHandlers) {
-            String discriminator = queueDataHandler.getDiscriminator();
-            // collect all discriminator value and return it to the web interface
-            discriminatorTypes.add(discriminator);
+    public List<Integer> indexQueueDataSearchTerms(final Integer lastId, final Integer batchSize) {
+        return getQueueDataDao().indexSearchTerms(lastId, batchSize);
+    }
+
+    @Override
+    public List<Integer> indexErrorDataSearchTerms(final Integer lastId, final Integer batchSize) {
+        return getErrorDataDao().indexSearchTerms(lastId, batchSize);
+    }
+
+    @Override
+    public List<Integer> indexArchiveDataSearchTerms(final Integer lastId, final Integer batchSize) {
+        return getArchiveDataDao().indexSearchTerms(lastId, batchSize);
+    }
+
+    @Override
+    public List<ErrorDataValidation> validateErrorData(final Collection<Integer> errorDataIds,
+                                                       final MetadataCache metadataCache) {
+        // the handlers may touch the entities they look up, none of it may reach the database.
+        TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+        List<ErrorDataValidation> validations = new ArrayList<ErrorDataValidation>();
+        QueueDataDispatcher dispatcher = QueueDataDispatcher.create();
+        for (ErrorData errorData : getErrorDataDao().getDataByIds(errorDataIds)) {
+            ErrorDataValidation validation = new ErrorDataValidation(errorData);
+            QueueData queueData = new QueueData(errorData);
+            QueueDataHandler queueDataHandler = dispatcher.getHandler(queueData);
+            if (queueDataHandler == null) {
+                validation.addMessage("No handler registered for discriminator: " + queueData.getDiscriminator());
+            } else {
+                try {
+                    queueDataHandler.validate(new QueueDataContext(queueData, metadataCache));
+                } catch (QueueProcessorException e) {
+                    for (Exception exception : e.getAllException()) {
+                        validation.addMessage(exception.getMessage());
+                    }
+                    if (validation.isValid()) {
+                        validation.addMessage(e.getMessage());
+                    }
+                } catch (Exception e) {
+                    validation.addMessage(e.getMessage());
+                }
+            }
+            validations.add(validation);
         }
-        return discriminatorTypes;
+        return validations;
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> getApproximateDataCountsByDiscriminator() {
+        Map<String, Map<String, Long>> counts = new LinkedHashMap<String, Map<String, Long>>();
+        counts.put("queue", queueDataCounts.getCountsByDiscriminator());
+        counts.put("error", errorDataCounts.getCountsByDiscriminator());
+        counts.put("archive", archiveDataCounts.getCountsByDiscriminator());
+        return counts;
+    }
+
+    @Override
+    public List<String> getDiscriminatorTypes() {
+        // collect all discriminator value and return it to the web interface
+        return new ArrayList<String>(QueueDataDispatcher.create().getDiscriminators());
     }
 
     private List<ErrorMessage> createErrorMessageList(QueueProcessorException ex){
@@ -738,8 +1176,7 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
         requeued.add(queueData);
 
         // Fetch all ErrorData associated with the patient UUID (the one determined to be of a duplicate patient).
-        int countOfErrors = this.countErrorData(submittedPatientUuid).intValue();
-        List<ErrorData> allToRequeue = this.getPagedErrorData(submittedPatientUuid, 1, countOfErrors);
+        List<ErrorData> allToRequeue = this.getErrorDataByPatientUuid(submittedPatientUuid);
         for(ErrorData errorData1: allToRequeue) {
             queueData = new QueueData(errorData1);
             queueData = this.saveQueueData(queueData);
@@ -749,6 +1186,43 @@ public class DataServiceImpl extends BaseOpenmrsService implements DataService {
         return requeued;
     }
 
+    private static void addDelta(final Map<String, Long> deltas, final String discriminator, final long delta) {
+        Long current = deltas.get(discriminator);
+        deltas.put(discriminator, (current == null ? 0 : current) + delta);
+    }
+
+    private static void adjustAfterCommit(final DataCountCache counts, final String discriminator, final long delta) {
+        adjustAfterCommit(counts, Collections.singletonMap(discriminator, delta));
+    }
+
+    /**
+     * Report the changes to the counts once the current transaction, if any, is committed, so data saved or deleted
+     * in a transaction which is rolled back are not counted.
+     */
+    private static void adjustAfterCommit(final DataCountCache counts, final Map<String, Long> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        final Runnable adjustment = new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<String, Long> entry : deltas.entrySet()) {
+                    counts.adjust(entry.getKey(), entry.getValue());
+                }
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    adjustment.run();
+                }
+            });
+        } else {
+            adjustment.run();
+        }
+    }
+
     private void registerTemporaryUuid(final String temporaryUuid, final String permanentUuid) {
         RegistrationDataService registrationDataService = Context.getService(RegistrationDataService.class);
         RegistrationData registrationData = registrationDataService.getRegistrationDataByTemporaryUuid(temporaryUuid);
@@ -35,6 +35,7 @@ import org.openmrs.module.muzima.api.service.RegistrationDataService;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzima.model.RegistrationData;
+import org.openmrs.module.muzima.model.handler.QueueDataContext;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
 import org.openmrs.module.muzima.utils.JsonUtils;
 import org.openmrs.module.muzima.utils.PatientSearchUtils;
@@ -56,41 +57,43 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
 
     private static final String DISCRIMINATOR_VALUE = "json-demographics-update";
 
-    private final Log log = LogFactory.getLog(DemographicsUpdateQueueDataHandler.class);
+    private static final String UNSAVED_PATIENT = "unsavedPatient";
+
+    private static final String SAVED_PATIENT = "savedPatient";
 
-    private Patient unsavedPatient;
-    private Patient savedPatient;
-    private String payload;
-    private QueueProcessorException queueProcessorException;
+    private final Log log = LogFactory.getLog(DemographicsUpdateQueueDataHandler.class);
 
     @Override
-    public void process(final QueueData queueData) throws QueueProcessorException {
-        log.info("Processing demographics update form data: " + queueData.getUuid());
+    public void process(final QueueDataContext context) throws QueueProcessorException {
+        log.info("Processing demographics update form data: " + context.getQueueData().getUuid());
         try {
-            if (validate(queueData)) {
-                updateSavedPatientDemographics();
+            if (validate(context)) {
+                Patient unsavedPatient = context.getAttribute(UNSAVED_PATIENT, Patient.class);
+                Patient savedPatient = context.getAttribute(SAVED_PATIENT, Patient.class);
+                updateSavedPatientDemographics(unsavedPatient, savedPatient);
                 Context.getPatientService().savePatient(savedPatient);
-                String temporaryUuid = getTemporaryPatientUuidFromPayload();
+                String temporaryUuid = getTemporaryPatientUuidFromPayload(context);
                 if(StringUtils.isNotEmpty(temporaryUuid)) {
-                    saveRegistrationData(temporaryUuid);
+                    saveRegistrationData(savedPatient, temporaryUuid);
                 }
             }
         } catch (Exception e) {
             if (!e.getClass().equals(QueueProcessorException.class)) {
-                queueProcessorException.addException(e);
+                context.addException(e);
             }
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
     }
 
-    private String getTemporaryPatientUuidFromPayload(){
+    private String getTemporaryPatientUuidFromPayload(final QueueDataContext context){
+        Object payload = context.getJsonPayload();
         return JsonUtils.readAsString(payload, "$['demographicsupdate']['demographicsupdate.temporal_patient_uuid']");
     }
 
-    private void saveRegistrationData(String temporaryUuid){
+    private void saveRegistrationData(final Patient savedPatient, String temporaryUuid){
         RegistrationDataService registrationDataService = Context.getService(RegistrationDataService.class);
         RegistrationData registrationData = registrationDataService.getRegistrationDataByTemporaryUuid(temporaryUuid);
         if (registrationData == null) {
@@ -102,7 +105,7 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         }
     }
 
-    private void updateSavedPatientDemographics(){
+    private void updateSavedPatientDemographics(final Patient unsavedPatient, final Patient savedPatient){
         if(unsavedPatient.getIdentifiers() != null){
             for(final PatientIdentifier identifier : unsavedPatient.getIdentifiers() ) {
                 boolean identifierExists = false;
@@ -144,27 +147,27 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
     }
 
     @Override
-    public boolean validate(QueueData queueData) {
-        log.info("Processing demographics Update form data: " + queueData.getUuid());
-        queueProcessorException = new QueueProcessorException();
+    public boolean validate(final QueueDataContext context) {
+        log.info("Processing demographics Update form data: " + context.getQueueData().getUuid());
         try {
-            payload = queueData.getPayload();
-            Patient candidatePatient = getCandidatePatientFromPayload();
-            savedPatient = PatientSearchUtils.findSavedPatient(candidatePatient,true);
+            Patient candidatePatient = getCandidatePatientFromPayload(context);
+            Patient savedPatient = PatientSearchUtils.findSavedPatient(candidatePatient,true);
+            context.setAttribute(SAVED_PATIENT, savedPatient);
             if(savedPatient == null){
-                queueProcessorException.addException(new Exception("Unable to uniquely identify patient for this " +
+                context.addException(new Exception("Unable to uniquely identify patient for this " +
                         "demographic update form data. "));
             } else {
-                unsavedPatient = new Patient();
-                populateUnsavedPatientDemographicsFromPayload();
+                Patient unsavedPatient = new Patient();
+                context.setAttribute(UNSAVED_PATIENT, unsavedPatient);
+                populateUnsavedPatientDemographicsFromPayload(context, unsavedPatient);
             }
             return true;
         } catch (Exception e) {
-            queueProcessorException.addException(e);
+            context.addException(e);
             return false;
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
     }
@@ -174,40 +177,43 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         return DISCRIMINATOR_VALUE;
     }
 
-    private Patient getCandidatePatientFromPayload(){
+    private Patient getCandidatePatientFromPayload(final QueueDataContext context){
         Patient candidatePatient = new Patient();
 
-        String uuid = getCandidatePatientUuidFromPayload();
+        String uuid = getCandidatePatientUuidFromPayload(context);
         candidatePatient.setUuid(uuid);
 
-        PatientIdentifier medicalRecordNumber = getMedicalRecordNumberFromPayload();
+        PatientIdentifier medicalRecordNumber = getMedicalRecordNumberFromPayload(context);
         if(medicalRecordNumber != null) {
             medicalRecordNumber.setPreferred(true);
             candidatePatient.addIdentifier(medicalRecordNumber);
         }
 
-        PersonName personName = getCandidatePatientPersonNameFromPayload();
+        PersonName personName = getCandidatePatientPersonNameFromPayload(context);
         candidatePatient.addName(personName);
 
-        String gender = getCandidatePatientGenderFromPayload();
+        String gender = getCandidatePatientGenderFromPayload(context);
         candidatePatient.setGender(gender);
 
-        Date birthDate = getCandidatePatientBirthDateFromPayload();
+        Date birthDate = getCandidatePatientBirthDateFromPayload(context);
         candidatePatient.setBirthdate(birthDate);
 
         return candidatePatient;
     }
 
-    private String getCandidatePatientUuidFromPayload(){
+    private String getCandidatePatientUuidFromPayload(final QueueDataContext context){
+        Object payload = context.getJsonPayload();
         return JsonUtils.readAsString(payload, "$['patient']['patient.uuid']");
     }
 
-    private PatientIdentifier getMedicalRecordNumberFromPayload() {
+    private PatientIdentifier getMedicalRecordNumberFromPayload(final QueueDataContext context) {
+        Object payload = context.getJsonPayload();
         JSONObject medicalRecordNumberObject = (JSONObject) JsonUtils.readAsObject(payload, "$['patient']['patient.medical_record_number']");
-        return createPatientIdentifier(medicalRecordNumberObject);
+        return createPatientIdentifier(context, medicalRecordNumberObject);
     }
 
-    private PersonName getCandidatePatientPersonNameFromPayload(){
+    private PersonName getCandidatePatientPersonNameFromPayload(final QueueDataContext context){
+        Object payload = context.getJsonPayload();
         PersonName personName = new PersonName();
         String givenName = JsonUtils.readAsString(payload, "$['patient']['patient.given_name']");
         if(StringUtils.isNotBlank(givenName)){
@@ -226,59 +232,62 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         return personName;
     }
 
-    private String getCandidatePatientGenderFromPayload(){
+    private String getCandidatePatientGenderFromPayload(final QueueDataContext context){
+        Object payload = context.getJsonPayload();
         return JsonUtils.readAsString(payload, "$['patient']['patient.sex']");
     }
 
-    private Date getCandidatePatientBirthDateFromPayload(){
+    private Date getCandidatePatientBirthDateFromPayload(final QueueDataContext context){
+        Object payload = context.getJsonPayload();
         return JsonUtils.readAsDate(payload, "$['patient']['patient.birth_date']");
     }
 
-    private void populateUnsavedPatientDemographicsFromPayload() {
-        setUnsavedPatientIdentifiersFromPayload();
-        setUnsavedPatientBirthDateFromPayload();
-        setUnsavedPatientBirthDateEstimatedFromPayload();
-        setUnsavedPatientGenderFromPayload();
-        setUnsavedPatientNameFromPayload();
-        setUnsavedPatientAddressesFromPayload();
-        setUnsavedPatientPersonAttributesFromPayload();
-        setUnsavedPatientChangedByFromPayload();
+    private void populateUnsavedPatientDemographicsFromPayload(final QueueDataContext context, final Patient unsavedPatient) {
+        setUnsavedPatientIdentifiersFromPayload(context, unsavedPatient);
+        setUnsavedPatientBirthDateFromPayload(context, unsavedPatient);
+        setUnsavedPatientBirthDateEstimatedFromPayload(context, unsavedPatient);
+        setUnsavedPatientGenderFromPayload(context, unsavedPatient);
+        setUnsavedPatientNameFromPayload(context, unsavedPatient);
+        setUnsavedPatientAddressesFromPayload(context, unsavedPatient);
+        setUnsavedPatientPersonAttributesFromPayload(context, unsavedPatient);
+        setUnsavedPatientChangedByFromPayload(context, unsavedPatient);
     }
 
-    private void setUnsavedPatientIdentifiersFromPayload() {
-        List<PatientIdentifier> demographicsUpdateIdentifiers = getDemographicsUpdatePatientIdentifiersFromPayload();
+    private void setUnsavedPatientIdentifiersFromPayload(final QueueDataContext context, final Patient unsavedPatient) {
+        List<PatientIdentifier> demographicsUpdateIdentifiers = getDemographicsUpdatePatientIdentifiersFromPayload(context);
         if (!demographicsUpdateIdentifiers.isEmpty()) {
             Set<PatientIdentifier> patientIdentifiers = new HashSet<PatientIdentifier>();
             patientIdentifiers.addAll(demographicsUpdateIdentifiers);
-            setIdentifierTypeLocation(patientIdentifiers);
+            setIdentifierTypeLocation(context, patientIdentifiers);
             unsavedPatient.addIdentifiers(patientIdentifiers);
         }
     }
 
-    private List<PatientIdentifier> getDemographicsUpdatePatientIdentifiersFromPayload() {
+    private List<PatientIdentifier> getDemographicsUpdatePatientIdentifiersFromPayload(final QueueDataContext context) {
         List<PatientIdentifier> identifiers = new ArrayList<PatientIdentifier>();
-        PatientIdentifier demographicsUpdateMedicalRecordNumberIdentifier = getDemographicsUpdateMedicalRecordNumberIdentifierFromPayload();
+        PatientIdentifier demographicsUpdateMedicalRecordNumberIdentifier = getDemographicsUpdateMedicalRecordNumberIdentifierFromPayload(context);
         if(demographicsUpdateMedicalRecordNumberIdentifier != null){
             identifiers.add(demographicsUpdateMedicalRecordNumberIdentifier);
         }
 
-        identifiers.addAll(getOtherDemographicsUpdatePatientIdentifiersFromPayload());
-        identifiers.addAll(getLegacyOtherDemographicsUpdatePatientIdentifiersFromPayload());
+        identifiers.addAll(getOtherDemographicsUpdatePatientIdentifiersFromPayload(context));
+        identifiers.addAll(getLegacyOtherDemographicsUpdatePatientIdentifiersFromPayload(context));
         return identifiers;
     }
 
-    private PatientIdentifier getDemographicsUpdateMedicalRecordNumberIdentifierFromPayload(){
+    private PatientIdentifier getDemographicsUpdateMedicalRecordNumberIdentifierFromPayload(final QueueDataContext context){
+        Object payload = context.getJsonPayload();
         PatientIdentifier medicalRecordNumber = null;
         Object medicalRecordNumberObject = JsonUtils.readAsObject(payload, "$['demographicsupdate']['demographicsupdate.medical_record_number']");
         if(medicalRecordNumberObject instanceof JSONObject) {
-            medicalRecordNumber = createPatientIdentifier((JSONObject)medicalRecordNumberObject);
+            medicalRecordNumber = createPatientIdentifier(context, (JSONObject)medicalRecordNumberObject);
         } else if (medicalRecordNumberObject instanceof String){
 
             //process as legacy demographics update medical record number
             String medicalRecordNumberValueString = (String)medicalRecordNumberObject;
             if(StringUtils.isNotEmpty(medicalRecordNumberValueString)) {
                 String identifierTypeName = "AMRS Universal ID";
-                PatientIdentifier preferredPatientIdentifier = createPatientIdentifier(identifierTypeName, medicalRecordNumberValueString);
+                PatientIdentifier preferredPatientIdentifier = createPatientIdentifier(context, identifierTypeName, medicalRecordNumberValueString);
                 if (preferredPatientIdentifier != null) {
                     preferredPatientIdentifier.setPreferred(true);
                     medicalRecordNumber = preferredPatientIdentifier;
@@ -288,19 +297,20 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         return medicalRecordNumber;
     }
 
-    private List<PatientIdentifier> getOtherDemographicsUpdatePatientIdentifiersFromPayload() {
+    private List<PatientIdentifier> getOtherDemographicsUpdatePatientIdentifiersFromPayload(final QueueDataContext context) {
+        Object payload = context.getJsonPayload();
         List<PatientIdentifier> otherIdentifiers = new ArrayList<PatientIdentifier>();
         try {
             Object otheridentifierObject = JsonUtils.readAsObject(payload, "$['demographicsupdate']['demographicsupdate.otheridentifier']");
             if (JsonUtils.isJSONArrayObject(otheridentifierObject)) {
                 for (Object otherIdentifier : (JSONArray) otheridentifierObject) {
-                    PatientIdentifier identifier = createPatientIdentifier((JSONObject) otherIdentifier);
+                    PatientIdentifier identifier = createPatientIdentifier(context, (JSONObject) otherIdentifier);
                     if (identifier != null) {
                         otherIdentifiers.add(identifier);
                     }
                 }
             } else {
-                PatientIdentifier identifier = createPatientIdentifier((JSONObject) otheridentifierObject);
+                PatientIdentifier identifier = createPatientIdentifier(context, (JSONObject) otheridentifierObject);
                 if (identifier != null) {
                     otherIdentifiers.add(identifier);
                 }
@@ -310,7 +320,7 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
             Set keys = patientObject.keySet();
             for(Object key:keys){
                 if(((String)key).startsWith("demographicsupdate.otheridentifier^")){
-                    PatientIdentifier identifier = createPatientIdentifier((JSONObject) patientObject.get(key));
+                    PatientIdentifier identifier = createPatientIdentifier(context, (JSONObject) patientObject.get(key));
                     if (identifier != null) {
                         otherIdentifiers.add(identifier);
                     }
@@ -322,7 +332,8 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         return otherIdentifiers;
     }
 
-    private List<PatientIdentifier> getLegacyOtherDemographicsUpdatePatientIdentifiersFromPayload() {
+    private List<PatientIdentifier> getLegacyOtherDemographicsUpdatePatientIdentifiersFromPayload(final QueueDataContext context) {
+        Object payload = context.getJsonPayload();
         List<PatientIdentifier> legacyIdentifiers = new ArrayList<PatientIdentifier>();
         Object identifierTypeNameObject = JsonUtils.readAsObject(payload, "$['demographicsupdate']['demographicsupdate.other_identifier_type']");
         Object identifierValueObject = JsonUtils.readAsObject(payload, "$['demographicsupdate']['demographicsupdate.other_identifier_value']");
@@ -331,7 +342,7 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
             JSONArray identifierTypeName = (JSONArray) identifierTypeNameObject;
             JSONArray identifierValue = (JSONArray) identifierValueObject;
             for (int i = 0; i < identifierTypeName.size(); i++) {
-                PatientIdentifier identifier = createPatientIdentifier(identifierTypeName.get(i).toString(),
+                PatientIdentifier identifier = createPatientIdentifier(context, identifierTypeName.get(i).toString(),
                         identifierValue.get(i).toString());
                 if (identifier != null) {
                     legacyIdentifiers.add(identifier);
@@ -340,7 +351,7 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         } else if (identifierTypeNameObject instanceof String) {
             String identifierTypeName = (String) identifierTypeNameObject;
             String identifierValue = (String) identifierValueObject;
-            PatientIdentifier identifier = createPatientIdentifier(identifierTypeName, identifierValue);
+            PatientIdentifier identifier = createPatientIdentifier(context, identifierTypeName, identifierValue);
             if (identifier != null) {
                 legacyIdentifiers.add(identifier);
             }
@@ -349,7 +360,7 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         return legacyIdentifiers;
     }
 
-    private PatientIdentifier createPatientIdentifier(JSONObject identifierObject) {
+    private PatientIdentifier createPatientIdentifier(final QueueDataContext context, JSONObject identifierObject) {
         if(identifierObject == null){
             return null;
         }
@@ -358,20 +369,20 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         String identifierUuid = (String) getElementFromJsonObject(identifierObject,"identifier_type_uuid");
         String identifierValue = (String) getElementFromJsonObject(identifierObject,"identifier_value");
 
-        return createPatientIdentifier(identifierUuid,identifierTypeName, identifierValue);
+        return createPatientIdentifier(context, identifierUuid,identifierTypeName, identifierValue);
     }
 
-    private PatientIdentifier createPatientIdentifier(String identifierTypeName, String identifierValue) {
-        return createPatientIdentifier(null, identifierTypeName, identifierValue);
+    private PatientIdentifier createPatientIdentifier(final QueueDataContext context, String identifierTypeName, String identifierValue) {
+        return createPatientIdentifier(context, null, identifierTypeName, identifierValue);
     }
-    private PatientIdentifier createPatientIdentifier(String identifierTypeUuid, String identifierTypeName, String identifierValue) {
+    private PatientIdentifier createPatientIdentifier(final QueueDataContext context, String identifierTypeUuid, String identifierTypeName, String identifierValue) {
         if(StringUtils.isBlank(identifierTypeUuid) && StringUtils.isBlank(identifierTypeName)) {
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Cannot create identifier. Identifier type name or uuid must be supplied"));
         }
 
         if(StringUtils.isBlank(identifierValue)) {
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Cannot create identifier. Supplied identifier value is blank for identifier type name:'"
                             + identifierTypeName + "', uuid:'" + identifierTypeUuid + "'"));
         }
@@ -383,7 +394,7 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
                     .getPatientIdentifierTypeByName(identifierTypeName);
         }
         if (identifierType == null) {
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Unable to find identifier type with name:'"
                             + identifierTypeName + "', uuid:'" + identifierTypeUuid + "'"));
         } else {
@@ -395,18 +406,19 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         return null;
     }
 
-    private void setIdentifierTypeLocation(final Set<PatientIdentifier> patientIdentifiers) {
+    private void setIdentifierTypeLocation(final QueueDataContext context, final Set<PatientIdentifier> patientIdentifiers) {
+        Object payload = context.getJsonPayload();
         String locationIdString = JsonUtils.readAsString(payload, "$['encounter']['encounter.location_id']");
         Location location = null;
         int locationId;
 
         if (locationIdString != null) {
             locationId = Integer.parseInt(locationIdString);
-            location = Context.getLocationService().getLocation(locationId);
+            location = context.getMetadataCache().getLocation(locationId);
         }
 
         if (location == null) {
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Unable to find encounter location using the id: " + locationIdString));
         } else {
             Iterator<PatientIdentifier> iterator = patientIdentifiers.iterator();
@@ -417,37 +429,41 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         }
     }
 
-    private void setUnsavedPatientBirthDateFromPayload(){
+    private void setUnsavedPatientBirthDateFromPayload(final QueueDataContext context, final Patient unsavedPatient){
+        Object payload = context.getJsonPayload();
         Date birthDate = JsonUtils.readAsDate(payload, "$['demographicsupdate']['demographicsupdate.birth_date']");
         if(birthDate != null){
-            if(isBirthDateChangeValidated()){
+            if(isBirthDateChangeValidated(context)){
                 unsavedPatient.setBirthdate(birthDate);
             }else{
-                queueProcessorException.addException(
+                context.addException(
                         new Exception("Change of Birth Date requires manual review"));
             }
         }
     }
 
-    private void setUnsavedPatientBirthDateEstimatedFromPayload(){
+    private void setUnsavedPatientBirthDateEstimatedFromPayload(final QueueDataContext context, final Patient unsavedPatient){
+        Object payload = context.getJsonPayload();
         boolean birthdateEstimated = JsonUtils.readAsBoolean(payload,
                 "$['demographicsupdate']['demographicsupdate.birthdate_estimated']");
         unsavedPatient.setBirthdateEstimated(birthdateEstimated);
     }
 
-    private void setUnsavedPatientGenderFromPayload(){
+    private void setUnsavedPatientGenderFromPayload(final QueueDataContext context, final Patient unsavedPatient){
+        Object payload = context.getJsonPayload();
         String gender = JsonUtils.readAsString(payload, "$['demographicsupdate']['demographicsupdate.sex']");
         if(StringUtils.isNotBlank(gender)){
-            if(isGenderChangeValidated()){
+            if(isGenderChangeValidated(context)){
                 unsavedPatient.setGender(gender);
             }else{
-                queueProcessorException.addException(
+                context.addException(
                         new Exception("Change of Gender requires manual review"));
             }
         }
     }
 
-    private void setUnsavedPatientNameFromPayload(){
+    private void setUnsavedPatientNameFromPayload(final QueueDataContext context, final Patient unsavedPatient){
+        Object payload = context.getJsonPayload();
         PersonName personName = new PersonName();
         String givenName = JsonUtils.readAsString(payload, "$['demographicsupdate']['demographicsupdate.given_name']");
         if(StringUtils.isNotBlank(givenName)){
@@ -468,7 +484,8 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         }
     }
 
-    private void setUnsavedPatientAddressesFromPayload() {
+    private void setUnsavedPatientAddressesFromPayload(final QueueDataContext context, final Patient unsavedPatient) {
+        Object payload = context.getJsonPayload();
         Set<PersonAddress> addresses = new TreeSet<PersonAddress>();
 
         try {
@@ -498,7 +515,7 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
                 }
             }
 
-            PersonAddress legacyPersonAddress = getLegacyPatientAddressFromPayload();
+            PersonAddress legacyPersonAddress = getLegacyPatientAddressFromPayload(context);
             if(legacyPersonAddress != null){
                 addresses.add(legacyPersonAddress);
             }
@@ -540,7 +557,8 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         }
     }
 
-    private PersonAddress getLegacyPatientAddressFromPayload(){
+    private PersonAddress getLegacyPatientAddressFromPayload(final QueueDataContext context){
+        Object payload = context.getJsonPayload();
         PersonAddress personAddress = null;
 
         String county = JsonUtils.readAsString(payload, "$['demographicsupdate']['demographicsupdate.county']");
@@ -569,19 +587,20 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         return personAddress;
     }
 
-    private void setUnsavedPatientPersonAttributesFromPayload() {
+    private void setUnsavedPatientPersonAttributesFromPayload(final QueueDataContext context, final Patient unsavedPatient) {
+        Object payload = context.getJsonPayload();
         Set<PersonAttribute> attributes = new TreeSet<PersonAttribute>();
         try {
             Object patientAttributeObject = JsonUtils.readAsObject(payload, "$['demographicsupdate']['demographicsupdate.personattribute']");
             if (JsonUtils.isJSONArrayObject(patientAttributeObject)) {
                 for (Object personAdttributeJSONObject:(JSONArray) patientAttributeObject) {
-                    PersonAttribute personAttribute = getPatientAdttributeFromJsonObject((JSONObject) personAdttributeJSONObject);
+                    PersonAttribute personAttribute = getPatientAdttributeFromJsonObject(context, (JSONObject) personAdttributeJSONObject);
                     if(personAttribute != null){
                         attributes.add(personAttribute);
                     }
                 }
             } else {
-                PersonAttribute personAttribute = getPatientAdttributeFromJsonObject((JSONObject) patientAttributeObject);
+                PersonAttribute personAttribute = getPatientAdttributeFromJsonObject(context, (JSONObject) patientAttributeObject);
                 if(personAttribute != null){
                     attributes.add(personAttribute);
                 }
@@ -591,14 +610,14 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
             Set keys = patientObject.keySet();
             for(Object key:keys){
                 if(((String)key).startsWith("demographicsupdate.personattribute^")){
-                    PersonAttribute personAttribute = getPatientAdttributeFromJsonObject((JSONObject) patientObject.get(key));
+                    PersonAttribute personAttribute = getPatientAdttributeFromJsonObject(context, (JSONObject) patientObject.get(key));
                     if(personAttribute != null){
                         attributes.add(personAttribute);
                     }
                 }
             }
 
-            attributes.addAll(getLegacyPersonAttributes());
+            attributes.addAll(getLegacyPersonAttributes(context));
         } catch (InvalidPathException ex) {
             log.error("Error while parsing person attribute", ex);
         }
@@ -608,7 +627,7 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         }
     }
 
-    private PersonAttribute getPatientAdttributeFromJsonObject(JSONObject attributeJsonObject){
+    private PersonAttribute getPatientAdttributeFromJsonObject(final QueueDataContext context, JSONObject attributeJsonObject){
         if(attributeJsonObject == null){
             return null;
         }
@@ -621,22 +640,23 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         String attributeTypeName = (String) getElementFromJsonObject(attributeJsonObject,"attribute_type_name");
         String attributeTypeUuid = (String) getElementFromJsonObject(attributeJsonObject,"attribute_type_uuid");
 
-        return createPersonAttribute(attributeTypeName, attributeTypeUuid, attributeValue);
+        return createPersonAttribute(context, attributeTypeName, attributeTypeUuid, attributeValue);
     }
 
-    private Set<PersonAttribute> getLegacyPersonAttributes(){
+    private Set<PersonAttribute> getLegacyPersonAttributes(final QueueDataContext context){
+        Object payload = context.getJsonPayload();
         Set<PersonAttribute> attributes = new TreeSet<PersonAttribute>();
         String mothersName = JsonUtils.readAsString(payload, "$['demographicsupdate']['demographicsupdate.mothers_name']");
         if(StringUtils.isNotEmpty(mothersName))
-            attributes.add(createPersonAttribute("Mother's Name",null,mothersName));
+            attributes.add(createPersonAttribute(context, "Mother's Name",null,mothersName));
 
         String phoneNumber = JsonUtils.readAsString(payload, "$['demographicsupdate']['demographicsupdate.phone_number']");
         if(StringUtils.isNotEmpty(phoneNumber))
-            attributes.add(createPersonAttribute("Contact Phone Number",null, phoneNumber));
+            attributes.add(createPersonAttribute(context, "Contact Phone Number",null, phoneNumber));
         return attributes;
     }
 
-    private PersonAttribute createPersonAttribute(String attributeTypeName, String attributeTypeUuid,String attributeValue){
+    private PersonAttribute createPersonAttribute(final QueueDataContext context, String attributeTypeName, String attributeTypeUuid,String attributeValue){
         PersonService personService = Context.getPersonService();
         PersonAttributeType attributeType = null;
 
@@ -649,7 +669,7 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         }
 
         if (attributeType == null) {
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Unable to find Person Attribute Type by name: '" + attributeTypeName
                             + "' , uuid: '" +attributeTypeUuid + "'")
             );
@@ -661,27 +681,30 @@ public class DemographicsUpdateQueueDataHandler implements QueueDataHandler {
         return personAttribute;
     }
 
-    private  void setUnsavedPatientChangedByFromPayload(){
+    private  void setUnsavedPatientChangedByFromPayload(final QueueDataContext context, final Patient unsavedPatient){
+        Object payload = context.getJsonPayload();
         String userString = JsonUtils.readAsString(payload, "$['encounter']['encounter.user_system_id']");
         String providerString = JsonUtils.readAsString(payload, "$['encounter']['encounter.provider_id']");
 
-        User user = Context.getUserService().getUserByUsername(userString);
+        User user = context.getMetadataCache().getUserByUsername(userString);
         if (user == null) {
             providerString = JsonUtils.readAsString(payload, "$['encounter']['encounter.provider_id']");
-            user = Context.getUserService().getUserByUsername(providerString);
+            user = context.getMetadataCache().getUserByUsername(providerString);
         }
         if (user == null) {
-            queueProcessorException.addException(new Exception("Unable to find user using the User Id: " + userString + " or Provider Id: "+providerString));
+            context.addException(new Exception("Unable to find user using the User Id: " + userString + " or Provider Id: "+providerString));
         } else {
             unsavedPatient.setChangedBy(user);
         }
     }
 
-    private boolean isBirthDateChangeValidated(){
+    private boolean isBirthDateChangeValidated(final QueueDataContext context){
+        Object payload = context.getJsonPayload();
         return JsonUtils.readAsBoolean(payload, "$['demographicsupdate']['demographicsupdate.birthdate_change_validated']");
     }
 
-    private boolean isGenderChangeValidated(){
+    private boolean isGenderChangeValidated(final QueueDataContext context){
+        Object payload = context.getJsonPayload();
         return JsonUtils.readAsBoolean(payload, "$['demographicsupdate']['demographicsupdate.gender_change_validated']");
     }
 
@@ -38,23 +38,23 @@ import org.openmrs.annotation.Handler;
 import org.openmrs.api.LocationService;
 import org.openmrs.api.PatientService;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.muzima.api.service.MuzimaFormService;
 import org.openmrs.module.muzima.api.service.RegistrationDataService;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.MuzimaForm;
 import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzima.model.RegistrationData;
+import org.openmrs.module.muzima.model.handler.MetadataCache;
+import org.openmrs.module.muzima.model.handler.QueueDataContext;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
+import org.openmrs.module.muzima.model.handler.VisitResolver;
 import org.openmrs.module.muzima.utils.JsonUtils;
 import org.openmrs.module.muzima.utils.PatientSearchUtils;
 import org.openmrs.util.OpenmrsUtil;
 import org.springframework.stereotype.Component;
 
-import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -69,48 +69,45 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
 
     private static final String DISCRIMINATOR_VALUE = "json-encounter";
 
-    private static final DateFormat dateFormat = new SimpleDateFormat("dd-MM-yyyy");
+    private static final String DATE_PATTERN = "dd-MM-yyyy";
 
-    private static final DateFormat dateTimeFormat = new SimpleDateFormat("dd-MM-yyyy HH:mm");
+    private static final String DATE_TIME_PATTERN = "dd-MM-yyyy HH:mm";
+
+    private static final String ENCOUNTER = "encounter";
 
     private final Log log = LogFactory.getLog(JsonEncounterQueueDataHandler.class);
 
     private static final String DEFAULT_ENCOUNTER_ROLE_UUID = "a0b03050-c99b-11e0-9572-0800200c9a66";
 
-    private QueueProcessorException queueProcessorException;
-
-    private Encounter encounter;
-
     /**
      *
-     * @param queueData
+     * @param context
      * @return
      */
     @Override
-    public boolean validate(QueueData queueData) {
+    public boolean validate(final QueueDataContext context) {
         try {
-            queueProcessorException = new QueueProcessorException();
+            QueueData queueData = context.getQueueData();
             log.info("Processing encounter form data: " + queueData.getUuid());
-            encounter = new Encounter();
-            String payload = queueData.getPayload();
+            Encounter encounter = new Encounter();
+            context.setAttribute(ENCOUNTER, encounter);
+            Object payload = queueData.getJsonPayload();
 
-            //Object encounterObject = JsonUtils.readAsObject(queueData.getPayload(), "$['encounter']");
-            processEncounter(encounter, payload);
+            processEncounter(context, encounter, payload);
 
-            //Object patientObject = JsonUtils.readAsObject(queueData.getPayload(), "$['patient']");
-            processPatient(encounter, payload);
+            processPatient(context, encounter, payload);
 
-            Object obsObject = JsonUtils.readAsObject(queueData.getPayload(), "$['observation']");
-            processObs(encounter, null, obsObject);
+            Object obsObject = JsonUtils.readAsObject(queueData.getJsonPayload(), "$['observation']");
+            processObs(context, encounter, null, obsObject);
 
             return true;
 
         } catch (Exception e) {
-            queueProcessorException.addException(e);
+            context.addException(e);
             return false;
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
     }
@@ -121,31 +118,33 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
     }
 
     @Override
-    public void process(final QueueData queueData) throws QueueProcessorException {
+    public void process(final QueueDataContext context) throws QueueProcessorException {
 
         try {
-            if (validate(queueData)) {
-                assignToVisit(encounter);
+            if (validate(context)) {
+                Encounter encounter = context.getAttribute(ENCOUNTER, Encounter.class);
+                assignToVisit(context.getMetadataCache(), context.getVisitResolver(), encounter);
                 Context.getEncounterService().saveEncounter(encounter);
             }
         } catch (Exception e) {
             if (!e.getClass().equals(QueueProcessorException.class))
-                queueProcessorException.addException(e);
+                context.addException(e);
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
     }
 
     /**
      *
+     * @param context
      * @param encounter
      * @param patientObject
      */
-    private void processPatient(final Encounter encounter, final Object patientObject) {
+    private void processPatient(final QueueDataContext context, final Encounter encounter, final Object patientObject) {
         Patient unsavedPatient = new Patient();
-        String patientPayload = patientObject.toString();
+        Object patientPayload = patientObject;
 
         String uuid = JsonUtils.readAsString(patientPayload, "$['patient']['patient.uuid']");
         unsavedPatient.setUuid(uuid);
@@ -203,12 +202,11 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
             List<Patient> patients = Context.getPatientService().getPatients(patientIdentifier.getIdentifier());
             candidatePatient = PatientSearchUtils.findSimilarPatientByNameAndGender(patients, unsavedPatient);
         } else {
-            List<Patient> patients = Context.getPatientService().getPatients(unsavedPatient.getPersonName().getFullName());
-            candidatePatient = PatientSearchUtils.findSimilarPatientByNameAndGender(patients, unsavedPatient);
+            candidatePatient = PatientSearchUtils.findSimilarPatient(unsavedPatient);
         }
 
         if (candidatePatient == null) {
-            queueProcessorException.addException(new Exception("Unable to uniquely identify patient for this encounter form data. "));
+            context.addException(new Exception("Unable to uniquely identify patient for this encounter form data. "));
             //+ ToStringBuilder.reflectionToString(unsavedPatient)));
         } else {
             encounter.setPatient(candidatePatient);
@@ -217,11 +215,12 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
 
     /**
      *
+     * @param context - QueueDataContext
      * @param encounter - Encounter
      * @param parentObs - Obs
      * @param obsObject - Object
      */
-    private void processObs(final Encounter encounter, final Obs parentObs, final Object obsObject) {
+    private void processObs(final QueueDataContext context, final Encounter encounter, final Obs parentObs, final Object obsObject) {
         if (obsObject instanceof JSONObject) {
             JSONObject obsJsonObject = (JSONObject) obsObject;
             for (String conceptQuestion : obsJsonObject.keySet()) {
@@ -229,15 +228,15 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
                 if (conceptElements.length < 3)
                     continue;
                 int conceptId = Integer.parseInt(conceptElements[0]);
-                Concept concept = Context.getConceptService().getConcept(conceptId);
+                Concept concept = context.getMetadataCache().getConcept(conceptId);
                 if (concept == null) {
-                    queueProcessorException.addException(new Exception("Unable to find Concept for Question with ID: " + conceptId));
+                    context.addException(new Exception("Unable to find Concept for Question with ID: " + conceptId));
                 } else {
                     if (concept.isSet()) {
                         Obs obsGroup = new Obs();
                         obsGroup.setConcept(concept);
                         Object childObsObject = obsJsonObject.get(conceptQuestion);
-                        processObsObject(encounter, obsGroup, childObsObject);
+                        processObsObject(context, encounter, obsGroup, childObsObject);
                         if (parentObs != null) {
                             parentObs.addGroupMember(obsGroup);
                         }
@@ -246,28 +245,29 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
                         if (valueObject instanceof JSONArray) {
                             JSONArray jsonArray = (JSONArray) valueObject;
                             for (Object arrayElement : jsonArray) {
-                                createObs(encounter, parentObs, concept, arrayElement);
+                                createObs(context, encounter, parentObs, concept, arrayElement);
                             }
                         } else {
-                            createObs(encounter, parentObs, concept, valueObject);
+                            createObs(context, encounter, parentObs, concept, valueObject);
                         }
                     }
                 }
             }
         }else if(obsObject instanceof LinkedHashMap){
             Object obsAsJsonObject = new JSONObject((Map<String,?>)obsObject);
-            processObs(encounter, parentObs, obsAsJsonObject);
+            processObs(context, encounter, parentObs, obsAsJsonObject);
         }
     }
 
     /**
      *
+     * @param context - QueueDataContext
      * @param encounter - Encounter
      * @param parentObs - Obs
      * @param concept - Concept
      * @param o - java.lang.Object
      */
-    private void createObs(final Encounter encounter, final Obs parentObs, final Concept concept, final Object o) {
+    private void createObs(final QueueDataContext context, final Encounter encounter, final Obs parentObs, final Concept concept, final Object o) {
         String value=null;
         Obs obs = new Obs();
         obs.setConcept(concept);
@@ -296,9 +296,9 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
         } else if (concept.getDatatype().isCoded() || concept.getDatatype().isBoolean()) {
             String[] valueCodedElements = StringUtils.split(value, "\\^");
             int valueCodedId = Integer.parseInt(valueCodedElements[0]);
-            Concept valueCoded = Context.getConceptService().getConcept(valueCodedId);
+            Concept valueCoded = context.getMetadataCache().getConcept(valueCodedId);
             if (valueCoded == null) {
-                queueProcessorException.addException(new Exception("Unable to find concept for value coded with id: " + valueCodedId));
+                context.addException(new Exception("Unable to find concept for value coded with id: " + valueCodedId));
             } else {
                 obs.setValueCoded(valueCoded);
             }
@@ -314,46 +314,47 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
 
     /**
      *
+     * @param context - QueueDataContext
      * @param encounter - Encounter
      * @param parentObs Obs
      * @param childObsObject - java.lang.Object
      */
-    private void processObsObject(final Encounter encounter, final Obs parentObs, final Object childObsObject) {
+    private void processObsObject(final QueueDataContext context, final Encounter encounter, final Obs parentObs, final Object childObsObject) {
         //Object o = JsonUtils.readAsObject(childObsObject.toString(), "$");
         if (childObsObject instanceof JSONArray) {
             JSONArray jsonArray = (JSONArray) childObsObject;
             for (Object arrayElement : jsonArray) {
                 Obs obsGroup = new Obs();
                 obsGroup.setConcept(parentObs.getConcept());
-                processObs(encounter, obsGroup, arrayElement);
+                processObs(context, encounter, obsGroup, arrayElement);
                 encounter.addObs(obsGroup);
             }
         } else if (childObsObject instanceof JSONObject) {
-            processObs(encounter, parentObs, childObsObject);
+            processObs(context, encounter, parentObs, childObsObject);
             encounter.addObs(parentObs);
         }else if (childObsObject instanceof LinkedHashMap) {
             Object childObsAsJsonObject = new JSONObject((Map<String,?>)childObsObject);
-            processObs(encounter, parentObs, childObsAsJsonObject);
+            processObs(context, encounter, parentObs, childObsAsJsonObject);
             encounter.addObs(parentObs);
         }
     }
 
     /**
      *
+     * @param context - QueueDataContext
      * @param encounter - Encounter
      * @param encounterObject - java.lang.Object
      * @throws QueueProcessorException
      */
-    private void processEncounter(final Encounter encounter, final Object encounterObject) throws QueueProcessorException {
-        String encounterPayload = encounterObject.toString();
+    private void processEncounter(final QueueDataContext context, final Encounter encounter, final Object encounterObject) throws QueueProcessorException {
+        Object encounterPayload = encounterObject;
 
         String formUuid = JsonUtils.readAsString(encounterPayload, "$['encounter']['encounter.form_uuid']");
-        Form form = Context.getFormService().getFormByUuid(formUuid);
+        Form form = context.getMetadataCache().getFormByUuid(formUuid);
         if (form == null) {
-            MuzimaFormService muzimaFormService = Context.getService(MuzimaFormService.class);
-            MuzimaForm muzimaForm = muzimaFormService.getFormByUuid(formUuid);
+            MuzimaForm muzimaForm = context.getMetadataCache().getMuzimaFormByUuid(formUuid);
             if (muzimaForm != null) {
-                Form formDefinition = Context.getFormService().getFormByUuid(muzimaForm.getForm());
+                Form formDefinition = context.getMetadataCache().getFormByUuid(muzimaForm.getForm());
                 encounter.setForm(formDefinition);
                 encounter.setEncounterType(formDefinition.getEncounterType());
             } else {
@@ -362,7 +363,7 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
                 int encounterTypeId = NumberUtils.toInt(encounterTypeString, -999);
                 EncounterType encounterType = Context.getEncounterService().getEncounterType(encounterTypeId);
                 if (encounterType == null) {
-                    queueProcessorException.addException(new Exception("Unable to find encounter type using the id: " + encounterTypeString));
+                    context.addException(new Exception("Unable to find encounter type using the id: " + encounterTypeString));
                 } else {
                     encounter.setEncounterType(encounterType);
                 }
@@ -376,47 +377,48 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
         EncounterRole encounterRole = null;
 
         if(StringUtils.isBlank(encounterRoleString)){
-            encounterRole = Context.getEncounterService().getEncounterRoleByUuid(DEFAULT_ENCOUNTER_ROLE_UUID);
+            encounterRole = context.getMetadataCache().getEncounterRoleByUuid(DEFAULT_ENCOUNTER_ROLE_UUID);
         } else {
-            encounterRole = Context.getEncounterService().getEncounterRoleByUuid(encounterRoleString);
+            encounterRole = context.getMetadataCache().getEncounterRoleByUuid(encounterRoleString);
         }
 
         if(encounterRole == null){
-            queueProcessorException.addException(new Exception("Unable to find encounter role using the uuid: ["
+            context.addException(new Exception("Unable to find encounter role using the uuid: ["
                     + encounterRoleString + "] or the default role [" + DEFAULT_ENCOUNTER_ROLE_UUID +"]"));
         }
 
         String providerString = JsonUtils.readAsString(encounterPayload, "$['encounter']['encounter.provider_id']");
-        Provider provider = Context.getProviderService().getProviderByIdentifier(providerString);
+        Provider provider = context.getMetadataCache().getProviderByIdentifier(providerString);
         if (provider == null) {
-            queueProcessorException.addException(new Exception("Unable to find provider using the id: " + providerString));
+            context.addException(new Exception("Unable to find provider using the id: " + providerString));
         } else {
             encounter.setProvider(encounterRole,provider);
         }
 
         String userString = JsonUtils.readAsString(encounterPayload, "$['encounter']['encounter.user_system_id']");
-        User user = Context.getUserService().getUserByUsername(userString);
+        User user = context.getMetadataCache().getUserByUsername(userString);
 
         if(user == null ){
-            user = Context.getUserService().getUserByUsername(providerString);
+            user = context.getMetadataCache().getUserByUsername(providerString);
         }
         if(user == null) {
-            queueProcessorException.addException(new Exception("Unable to find user using the User Id: " + userString + " or Provider Id: "+providerString));
+            context.addException(new Exception("Unable to find user using the User Id: " + userString + " or Provider Id: "+providerString));
         } else {
             encounter.setCreator(user);
         }
 
         String locationString = JsonUtils.readAsString(encounterPayload, "$['encounter']['encounter.location_id']");
         int locationId = NumberUtils.toInt(locationString, -999);
-        Location location = Context.getLocationService().getLocation(locationId);
+        Location location = context.getMetadataCache().getLocation(locationId);
         if (location == null) {
-            queueProcessorException.addException(new Exception("Unable to find encounter location using the id: " + locationString));
+            context.addException(new Exception("Unable to find encounter location using the id: " + locationString));
         } else {
             encounter.setLocation(location);
         }
 
         String jsonPayloadTimezone = JsonUtils.readAsString(encounterPayload, "$['encounter']['encounter.device_time_zone']");
-        Date encounterDatetime = JsonUtils.readAsDateTime(encounterPayload, "$['encounter']['encounter.encounter_datetime']",dateTimeFormat,jsonPayloadTimezone);
+        Date encounterDatetime = JsonUtils.readAsDateTime(encounterPayload, "$['encounter']['encounter.encounter_datetime']",
+                new SimpleDateFormat(DATE_TIME_PATTERN), jsonPayloadTimezone);
         encounter.setEncounterDatetime(encounterDatetime);
     }
 
@@ -428,7 +430,7 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
     private Date parseDate(final String dateValue) {
         Date date = null;
         try {
-            date = dateFormat.parse(dateValue);
+            date = new SimpleDateFormat(DATE_PATTERN).parse(dateValue);
         } catch (ParseException e) {
             log.error("Unable to parse date data for encounter!", e);
         }
@@ -440,22 +442,23 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
         return StringUtils.equals(DISCRIMINATOR_VALUE, queueData.getDiscriminator());
     }
 
-    protected static void useNewVisit(Encounter encounter) {
+    protected static void useNewVisit(MetadataCache metadataCache, VisitResolver visitResolver, Encounter encounter) {
         String VISIT_SOURCE_FORM = "8bfab185-6947-4958-b7ab-dfafae1a3e3d";
         Visit visit = new Visit();
         visit.setStartDatetime(OpenmrsUtil.firstSecondOfDay(encounter.getEncounterDatetime()));
         visit.setStopDatetime(OpenmrsUtil.getLastMomentOfDay(encounter.getEncounterDatetime()));
         visit.setLocation(encounter.getLocation());
         visit.setPatient(encounter.getPatient());
-        visit.setVisitType(Context.getVisitService().getVisitTypeByUuid("3371a4d4-f66f-4454-a86d-92c7b3da990c"));
+        visit.setVisitType(metadataCache.getVisitTypeByUuid("3371a4d4-f66f-4454-a86d-92c7b3da990c"));
 
         VisitAttribute sourceAttr = new VisitAttribute();
-        sourceAttr.setAttributeType(Context.getVisitService().getVisitAttributeTypeByUuid(VISIT_SOURCE_FORM));
+        sourceAttr.setAttributeType(metadataCache.getVisitAttributeTypeByUuid(VISIT_SOURCE_FORM));
         sourceAttr.setOwner(visit);
         sourceAttr.setValue(encounter.getForm());
         visit.addAttribute(sourceAttr);
 
         Context.getVisitService().saveVisit(visit);
+        visitResolver.addVisit(visit);
 
         setVisitOfEncounter(visit, encounter);
     }
@@ -488,51 +491,34 @@ public class JsonEncounterQueueDataHandler implements QueueDataHandler {
 
     /**
      * Uses an existing visit for the given encounter
+     * @param visitResolver the resolver of the visits looked up or created earlier in the batch
      * @param encounter the encounter
      * @return true if a suitable visit was found
      */
-    protected boolean useExistingVisit(Encounter encounter) {
-        // If encounter has time, then we need an exact fit for an existing visit
-        List<Visit> visits = Context.getVisitService().getVisits(null, Collections.singletonList(encounter.getPatient()), null, null, null,
-                encounter.getEncounterDatetime(), null, null, null, true, false);
-
-        for (Visit visit : visits) {
-            // Skip visits which ended before the encounter date
-            if (visit.getStopDatetime() != null && visit.getStopDatetime().before(encounter.getEncounterDatetime())) {
-                continue;
-            }
-
-            if (checkLocations(visit, encounter)) {
-                setVisitOfEncounter(visit, encounter);
-                return true;
-            }
+    protected boolean useExistingVisit(VisitResolver visitResolver, Encounter encounter) {
+        Visit visit = visitResolver.getVisit(encounter);
+        if (visit != null) {
+            setVisitOfEncounter(visit, encounter);
+            return true;
         }
         return false;
     }
 
-    /**
-     * Convenience method to check whether the location of a visit and an encounter are compatible
-     * @param visit the visit
-     * @param encounter the encounter
-     * @return true if locations won't conflict
-     */
-    protected boolean checkLocations(Visit visit, Encounter encounter) {
-        return visit.getLocation() == null || Location.isInHierarchy(encounter.getLocation(), visit.getLocation());
-    }
-
     /**
      * Does the actual assignment of the encounter to a visit
+     * @param metadataCache the metadata cache
+     * @param visitResolver the resolver of the visits looked up or created earlier in the batch
      * @param encounter the encounter
      */
-    protected void assignToVisit(Encounter encounter) {
+    protected void assignToVisit(MetadataCache metadataCache, VisitResolver visitResolver, Encounter encounter) {
         // Do nothing if the encounter already belongs to a visit and can't be moved
         if (encounter.getVisit() != null) {
             return;
         }
 
         // Try using an existing visit
-        if (!useExistingVisit(encounter)) {
-            useNewVisit(encounter);
+        if (!useExistingVisit(visitResolver, encounter)) {
+            useNewVisit(metadataCache, visitResolver, encounter);
 
         }
     }
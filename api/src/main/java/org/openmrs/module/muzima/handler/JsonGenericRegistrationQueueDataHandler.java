@@ -35,6 +35,7 @@ import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.MuzimaSetting;
 import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzima.model.RegistrationData;
+import org.openmrs.module.muzima.model.handler.QueueDataContext;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
 import org.openmrs.module.muzima.utils.Constants;
 import org.openmrs.module.muzima.utils.JsonUtils;
@@ -44,8 +45,6 @@ import org.openmrs.PersonAttributeType;
 import org.openmrs.PatientIdentifierType;
 import org.openmrs.module.muzima.utils.PatientSearchUtils;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
@@ -62,52 +61,45 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
     private static final String TAG = "JsonGenericRegistrationQueueDataHandler";
     private static final String DISCRIMINATOR_VALUE = "json-generic-registration";
 
-    private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private static final String UNSAVED_PATIENT = "unsavedPatient";
 
     private final Log log = LogFactory.getLog(JsonGenericRegistrationQueueDataHandler.class);
 
-    private Patient unsavedPatient;
-    private String payload;
-    Set<PersonAttribute> personAttributes;
-    private QueueProcessorException queueProcessorException;
-
     @Override
-    public void process(final QueueData queueData) throws QueueProcessorException {
-        log.info("Processing registration form data: " + queueData.getUuid());
-        queueProcessorException = new QueueProcessorException();
+    public void process(final QueueDataContext context) throws QueueProcessorException {
+        log.info("Processing registration form data: " + context.getQueueData().getUuid());
         try {
-            if (validate(queueData)) {
-                registerUnsavedPatient();
+            if (validate(context)) {
+                registerUnsavedPatient(context, context.getAttribute(UNSAVED_PATIENT, Patient.class));
             }
         } catch (Exception e) {
             /*Custom exception thrown by the validate function should not be added again into @queueProcessorException.
              It should add the runtime dao Exception while saving the data into @queueProcessorException collection */
             if (!e.getClass().equals(QueueProcessorException.class)) {
-                queueProcessorException.addException(e);
+                context.addException(e);
             }
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
     }
 
     @Override
-    public boolean validate(QueueData queueData) {
-        log.info("Processing registration form data: " + queueData.getUuid());
-        queueProcessorException = new QueueProcessorException();
+    public boolean validate(final QueueDataContext context) {
+        log.info("Processing registration form data: " + context.getQueueData().getUuid());
         try {
-            payload = queueData.getPayload();
-            unsavedPatient = new Patient();
-            populateUnsavedPatientFromPayload();
-            validateUnsavedPatient();
+            Patient unsavedPatient = new Patient();
+            context.setAttribute(UNSAVED_PATIENT, unsavedPatient);
+            populateUnsavedPatientFromPayload(context, unsavedPatient);
+            validateUnsavedPatient(context, unsavedPatient);
             return true;
         } catch (Exception e) {
-            queueProcessorException.addException(e);
+            context.addException(e);
             return false;
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
     }
@@ -117,11 +109,12 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
         return DISCRIMINATOR_VALUE;
     }
 
-    private void validateUnsavedPatient() {
+    private void validateUnsavedPatient(final QueueDataContext context, final Patient unsavedPatient) {
+        Object payload = context.getJsonPayload();
         if(!JsonUtils.readAsBoolean(payload, "$['skipPatientMatching']")) {
-            Patient savedPatient = findSimilarSavedPatient();
+            Patient savedPatient = findSimilarSavedPatient(unsavedPatient);
             if (savedPatient != null) {
-                queueProcessorException.addException(
+                context.addException(
                         new Exception(
                                 "Found a patient with similar characteristic :  patientId = " + savedPatient.getPatientId()
                                         + " Identifier Id = " + savedPatient.getPatientIdentifier().getIdentifier()
@@ -131,18 +124,19 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
         }
     }
 
-    private void populateUnsavedPatientFromPayload() {
-        setPatientIdentifiersFromPayload();
-        setPatientBirthDateFromPayload();
-        setPatientBirthDateEstimatedFromPayload();
-        setPatientGenderFromPayload();
-        setPatientNameFromPayload();
-        setPatientAddressesFromPayload();
-        setPersonAttributesFromPayload();
-        setUnsavedPatientCreatorFromPayload();
+    private void populateUnsavedPatientFromPayload(final QueueDataContext context, final Patient unsavedPatient) {
+        setPatientIdentifiersFromPayload(context, unsavedPatient);
+        setPatientBirthDateFromPayload(context, unsavedPatient);
+        setPatientBirthDateEstimatedFromPayload(context, unsavedPatient);
+        setPatientGenderFromPayload(context, unsavedPatient);
+        setPatientNameFromPayload(context, unsavedPatient);
+        setPatientAddressesFromPayload(context, unsavedPatient);
+        setPersonAttributesFromPayload(context, unsavedPatient);
+        setUnsavedPatientCreatorFromPayload(context, unsavedPatient);
     }
 
-    private void setPatientIdentifiersFromPayload() {
+    private void setPatientIdentifiersFromPayload(final QueueDataContext context, final Patient unsavedPatient) {
+        Object payload = context.getJsonPayload();
         Set<PatientIdentifier> patientIdentifiers = new TreeSet<PatientIdentifier>();
 
         //get setting for identifier autogeneration
@@ -154,15 +148,15 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
 
         PatientIdentifier preferredIdentifier;
         if(shouldAutogenerateIdentifier){
-            preferredIdentifier = getAutogeneratedIdentifier();
-            PatientIdentifier medicalRecordNumberFromPayload = getMedicalRecordNumberFromPayload();
+            preferredIdentifier = getAutogeneratedIdentifier(context);
+            PatientIdentifier medicalRecordNumberFromPayload = getMedicalRecordNumberFromPayload(context);
             if(medicalRecordNumberFromPayload != null){
                 patientIdentifiers.add(medicalRecordNumberFromPayload);
             }
         } else {
-            preferredIdentifier = getMedicalRecordNumberFromPayload();
+            preferredIdentifier = getMedicalRecordNumberFromPayload(context);
             if(preferredIdentifier == null){
-                queueProcessorException.addException(
+                context.addException(
                         new Exception("Could not retrieve medical record number from payload"));
             }
         }
@@ -171,20 +165,20 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
             patientIdentifiers.add(preferredIdentifier);
         }
 
-        List<PatientIdentifier> otherIdentifiers = getOtherPatientIdentifiersFromPayload();
+        List<PatientIdentifier> otherIdentifiers = getOtherPatientIdentifiersFromPayload(context);
         if (!otherIdentifiers.isEmpty()) {
             patientIdentifiers.addAll(otherIdentifiers);
         }
-        setIdentifierTypeLocation(patientIdentifiers);
+        setIdentifierTypeLocation(context, patientIdentifiers);
         unsavedPatient.setIdentifiers(patientIdentifiers);
     }
 
-    private PatientIdentifier getAutogeneratedIdentifier(){
+    private PatientIdentifier getAutogeneratedIdentifier(final QueueDataContext context){
         MuzimaSettingService settingService = Context.getService(MuzimaSettingService.class);
         MuzimaSetting autoGenerationSourceSetting = settingService.getMuzimaSettingByProperty(
                 Constants.MuzimaSettings.PATIENT_IDENTIFIER_AUTOGENERATTION_SOURCE_NAME);
         if(autoGenerationSourceSetting == null){
-            queueProcessorException.addException(
+            context.addException(
                 new Exception("Could not auto-generate patient identifier. mUzima setting for idgen source is not defined.")
             );
             return null;
@@ -202,7 +196,7 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
                     }
                 }
                 if (source == null) {
-                    queueProcessorException.addException(
+                    context.addException(
                             new Exception("Could not auto-generate patient identifier." +
                                     " Could not find idgen source with name: "+ autoGenerationSource)
                     );
@@ -216,31 +210,33 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
                 return identifier;
             }
         }catch (NoClassDefFoundError e){
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Could not auto-generate patient identifier. Idgen module is not running.")
             );
         }
         return null;
     }
 
-    private PatientIdentifier getMedicalRecordNumberFromPayload() {
+    private PatientIdentifier getMedicalRecordNumberFromPayload(final QueueDataContext context) {
+        Object payload = context.getJsonPayload();
         JSONObject medicalRecordNumberObject = (JSONObject) JsonUtils.readAsObject(payload, "$['patient']['patient.medical_record_number']");
-        return createPatientIdentifier(medicalRecordNumberObject);
+        return createPatientIdentifier(context, medicalRecordNumberObject);
     }
 
-    private List<PatientIdentifier> getOtherPatientIdentifiersFromPayload() {
+    private List<PatientIdentifier> getOtherPatientIdentifiersFromPayload(final QueueDataContext context) {
+        Object payload = context.getJsonPayload();
         List<PatientIdentifier> otherIdentifiers = new ArrayList<PatientIdentifier>();
         try {
             Object otheridentifierObject = JsonUtils.readAsObject(payload, "$['patient']['patient.otheridentifier']");
             if (JsonUtils.isJSONArrayObject(otheridentifierObject)) {
                 for (Object otherIdentifier : (JSONArray) otheridentifierObject) {
-                    PatientIdentifier identifier = createPatientIdentifier((JSONObject) otherIdentifier);
+                    PatientIdentifier identifier = createPatientIdentifier(context, (JSONObject) otherIdentifier);
                     if (identifier != null) {
                         otherIdentifiers.add(identifier);
                     }
                 }
             } else {
-                PatientIdentifier identifier = createPatientIdentifier((JSONObject) otheridentifierObject);
+                PatientIdentifier identifier = createPatientIdentifier(context, (JSONObject) otheridentifierObject);
                 if (identifier != null) {
                     otherIdentifiers.add(identifier);
                 }
@@ -250,7 +246,7 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
             Set keys = patientObject.keySet();
             for(Object key:keys){
                 if(((String)key).startsWith("patient.otheridentifier^")){
-                    PatientIdentifier identifier = createPatientIdentifier((JSONObject) patientObject.get(key));
+                    PatientIdentifier identifier = createPatientIdentifier(context, (JSONObject) patientObject.get(key));
                     if (identifier != null) {
                         otherIdentifiers.add(identifier);
                     }
@@ -262,7 +258,7 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
         return otherIdentifiers;
     }
 
-    private PatientIdentifier createPatientIdentifier(JSONObject identifierObject) {
+    private PatientIdentifier createPatientIdentifier(final QueueDataContext context, JSONObject identifierObject) {
         if(identifierObject == null){
             return null;
         }
@@ -271,17 +267,17 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
         String identifierUuid = (String) getElementFromJsonObject(identifierObject,"identifier_type_uuid");
         String identifierValue = (String) getElementFromJsonObject(identifierObject,"identifier_value");
 
-        return createPatientIdentifier(identifierUuid,identifierTypeName, identifierValue);
+        return createPatientIdentifier(context, identifierUuid,identifierTypeName, identifierValue);
     }
 
-    private PatientIdentifier createPatientIdentifier(String identifierTypeUuid, String identifierTypeName, String identifierValue) {
+    private PatientIdentifier createPatientIdentifier(final QueueDataContext context, String identifierTypeUuid, String identifierTypeName, String identifierValue) {
         if(StringUtils.isBlank(identifierTypeUuid) && StringUtils.isBlank(identifierTypeName)) {
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Cannot create identifier. Identifier type name or uuid must be supplied"));
         }
 
         if(StringUtils.isBlank(identifierValue)) {
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Cannot create identifier. Supplied identifier value is blank for identifier type name:'"
                             + identifierTypeName + "', uuid:'" + identifierTypeUuid + "'"));
         }
@@ -293,7 +289,7 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
                     .getPatientIdentifierTypeByName(identifierTypeName);
         }
         if (identifierType == null) {
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Unable to find identifier type with name:'"
                             + identifierTypeName + "', uuid:'" + identifierTypeUuid + "'"));
         } else {
@@ -305,18 +301,19 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
         return null;
     }
 
-    private void setIdentifierTypeLocation(final Set<PatientIdentifier> patientIdentifiers) {
+    private void setIdentifierTypeLocation(final QueueDataContext context, final Set<PatientIdentifier> patientIdentifiers) {
+        Object payload = context.getJsonPayload();
         String locationIdString = JsonUtils.readAsString(payload, "$['encounter']['encounter.location_id']");
         Location location = null;
         int locationId;
 
         if (locationIdString != null) {
             locationId = Integer.parseInt(locationIdString);
-            location = Context.getLocationService().getLocation(locationId);
+            location = context.getMetadataCache().getLocation(locationId);
         }
 
         if (location == null) {
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Unable to find encounter location using the id: " + locationIdString));
         } else {
             Iterator<PatientIdentifier> iterator = patientIdentifiers.iterator();
@@ -327,22 +324,26 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
         }
     }
 
-    private void setPatientBirthDateFromPayload() {
+    private void setPatientBirthDateFromPayload(final QueueDataContext context, final Patient unsavedPatient) {
+        Object payload = context.getJsonPayload();
         Date birthDate = JsonUtils.readAsDate(payload, "$['patient']['patient.birth_date']");
         unsavedPatient.setBirthdate(birthDate);
     }
 
-    private void setPatientBirthDateEstimatedFromPayload() {
+    private void setPatientBirthDateEstimatedFromPayload(final QueueDataContext context, final Patient unsavedPatient) {
+        Object payload = context.getJsonPayload();
         boolean birthdateEstimated = JsonUtils.readAsBoolean(payload, "$['patient']['patient.birthdate_estimated']");
         unsavedPatient.setBirthdateEstimated(birthdateEstimated);
     }
 
-    private void setPatientGenderFromPayload() {
+    private void setPatientGenderFromPayload(final QueueDataContext context, final Patient unsavedPatient) {
+        Object payload = context.getJsonPayload();
         String gender = JsonUtils.readAsString(payload, "$['patient']['patient.sex']");
         unsavedPatient.setGender(gender);
     }
 
-    private void setPatientNameFromPayload() {
+    private void setPatientNameFromPayload(final QueueDataContext context, final Patient unsavedPatient) {
+        Object payload = context.getJsonPayload();
         String givenName = JsonUtils.readAsString(payload, "$['patient']['patient.given_name']");
         String familyName = JsonUtils.readAsString(payload, "$['patient']['patient.family_name']");
         String middleName = "";
@@ -359,9 +360,9 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
         unsavedPatient.addName(personName);
     }
 
-    private void registerUnsavedPatient() {
+    private void registerUnsavedPatient(final QueueDataContext context, final Patient unsavedPatient) {
         RegistrationDataService registrationDataService = Context.getService(RegistrationDataService.class);
-        String temporaryUuid = getPatientUuidFromPayload();
+        String temporaryUuid = getPatientUuidFromPayload(context);
         RegistrationData registrationData = registrationDataService.getRegistrationDataByTemporaryUuid(temporaryUuid);
         if (registrationData == null) {
             registrationData = new RegistrationData();
@@ -373,11 +374,13 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
         }
     }
 
-    private String getPatientUuidFromPayload() {
+    private String getPatientUuidFromPayload(final QueueDataContext context) {
+        Object payload = context.getJsonPayload();
         return JsonUtils.readAsString(payload, "$['patient']['patient.uuid']");
     }
 
-    private void setPatientAddressesFromPayload() {
+    private void setPatientAddressesFromPayload(final QueueDataContext context, final Patient unsavedPatient) {
+        Object payload = context.getJsonPayload();
         Set<PersonAddress> addresses = new TreeSet<PersonAddress>();
 
         try {
@@ -445,19 +448,20 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
         }
     }
 
-    private void setPersonAttributesFromPayload() {
+    private void setPersonAttributesFromPayload(final QueueDataContext context, final Patient unsavedPatient) {
+        Object payload = context.getJsonPayload();
         Set<PersonAttribute> attributes = new TreeSet<PersonAttribute>();
         try {
             Object patientAttributeObject = JsonUtils.readAsObject(payload, "$['patient']['patient.personattribute']");
             if (JsonUtils.isJSONArrayObject(patientAttributeObject)) {
                 for (Object personAdttributeJSONObject:(JSONArray) patientAttributeObject) {
-                    PersonAttribute personAttribute = getPatientAdttributeFromJsonObject((JSONObject) personAdttributeJSONObject);
+                    PersonAttribute personAttribute = getPatientAdttributeFromJsonObject(context, (JSONObject) personAdttributeJSONObject);
                     if(personAttribute != null){
                         attributes.add(personAttribute);
                     }
                 }
             } else {
-                PersonAttribute personAttribute = getPatientAdttributeFromJsonObject((JSONObject) patientAttributeObject);
+                PersonAttribute personAttribute = getPatientAdttributeFromJsonObject(context, (JSONObject) patientAttributeObject);
                 if(personAttribute != null){
                     attributes.add(personAttribute);
                 }
@@ -467,7 +471,7 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
             Set keys = patientObject.keySet();
             for(Object key:keys){
                 if(((String)key).startsWith("patient.personattribute^")){
-                    PersonAttribute personAttribute = getPatientAdttributeFromJsonObject((JSONObject) patientObject.get(key));
+                    PersonAttribute personAttribute = getPatientAdttributeFromJsonObject(context, (JSONObject) patientObject.get(key));
                     if(personAttribute != null){
                         attributes.add(personAttribute);
                     }
@@ -482,7 +486,7 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
         }
     }
 
-    private PersonAttribute getPatientAdttributeFromJsonObject(JSONObject attributeJsonObject){
+    private PersonAttribute getPatientAdttributeFromJsonObject(final QueueDataContext context, JSONObject attributeJsonObject){
         if(attributeJsonObject == null){
             return null;
         }
@@ -503,7 +507,7 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
         }
 
         if (attributeType == null) {
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Unable to find Person Attribute Type by name: '" + attributeTypeName
                             + "' , uuid: '" +attributeTypeUuid + "'")
             );
@@ -515,23 +519,24 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
         return personAttribute;
     }
 
-    private  void setUnsavedPatientCreatorFromPayload(){
+    private  void setUnsavedPatientCreatorFromPayload(final QueueDataContext context, final Patient unsavedPatient){
+        Object payload = context.getJsonPayload();
         String userString = JsonUtils.readAsString(payload, "$['encounter']['encounter.user_system_id']");
         String providerString = JsonUtils.readAsString(payload, "$['encounter']['encounter.provider_id']");
 
-        User user = Context.getUserService().getUserByUsername(userString);
+        User user = context.getMetadataCache().getUserByUsername(userString);
         if (user == null) {
             providerString = JsonUtils.readAsString(payload, "$['encounter']['encounter.provider_id']");
-            user = Context.getUserService().getUserByUsername(providerString);
+            user = context.getMetadataCache().getUserByUsername(providerString);
         }
         if (user == null) {
-            queueProcessorException.addException(new Exception("Unable to find user using the User Id: " + userString + " or Provider Id: "+providerString));
+            context.addException(new Exception("Unable to find user using the User Id: " + userString + " or Provider Id: "+providerString));
         } else {
             unsavedPatient.setCreator(user);
         }
     }
 
-    private Patient findSimilarSavedPatient() {
+    private Patient findSimilarSavedPatient(final Patient unsavedPatient) {
         Patient savedPatient = null;
         if (unsavedPatient.getNames().isEmpty()) {
             PatientIdentifier identifier = unsavedPatient.getPatientIdentifier();
@@ -540,9 +545,7 @@ public class JsonGenericRegistrationQueueDataHandler implements QueueDataHandler
                 savedPatient = PatientSearchUtils.findSimilarPatientByNameAndGender(patients, unsavedPatient);
             }
         } else {
-            PersonName personName = unsavedPatient.getPersonName();
-            List<Patient> patients = Context.getPatientService().getPatients(personName.getFullName());
-            savedPatient = PatientSearchUtils.findSimilarPatientByNameAndGender(patients, unsavedPatient);
+            savedPatient = PatientSearchUtils.findSimilarPatient(unsavedPatient);
         }
         return savedPatient;
     }
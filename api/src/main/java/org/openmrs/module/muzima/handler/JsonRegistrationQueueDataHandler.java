@@ -34,12 +34,11 @@ import org.openmrs.module.muzima.api.service.RegistrationDataService;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzima.model.RegistrationData;
+import org.openmrs.module.muzima.model.handler.QueueDataContext;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
 import org.openmrs.module.muzima.utils.JsonUtils;
 import org.openmrs.module.muzima.utils.PatientSearchUtils;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
@@ -55,15 +54,10 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
 
     private static final String DISCRIMINATOR_VALUE = "json-registration";
 
-    private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private static final String UNSAVED_PATIENT = "unsavedPatient";
 
     private final Log log = LogFactory.getLog(JsonRegistrationQueueDataHandler.class);
 
-    private Patient unsavedPatient;
-    private String payload;
-    Set<PersonAttribute> personAttributes;
-    private QueueProcessorException queueProcessorException;
-
     public static final String NEXT_OF_KIN_ADDRESS = "7cf22bec-d90a-46ad-9f48-035952261294";
     public static final String NEXT_OF_KIN_CONTACT = "342a1d39-c541-4b29-8818-930916f4c2dc";
     public static final String NEXT_OF_KIN_NAME = "830bef6d-b01f-449d-9f8d-ac0fede8dbd3";
@@ -77,42 +71,40 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
     public static final String GUARDIAN_LAST_NAME = "0803abbd-2be4-4091-80b3-80c6940303df";
 
     @Override
-    public void process(final QueueData queueData) throws QueueProcessorException {
-        log.info("Processing registration form data: " + queueData.getUuid());
-        queueProcessorException = new QueueProcessorException();
+    public void process(final QueueDataContext context) throws QueueProcessorException {
+        log.info("Processing registration form data: " + context.getQueueData().getUuid());
         try {
-            if (validate(queueData)) {
-                registerUnsavedPatient();
+            if (validate(context)) {
+                registerUnsavedPatient(context, context.getAttribute(UNSAVED_PATIENT, Patient.class));
             }
         } catch (Exception e) {
             /*Custom exception thrown by the validate function should not be added again into @queueProcessorException.
              It should add the runtime dao Exception while saving the data into @queueProcessorException collection */
             if (!e.getClass().equals(QueueProcessorException.class)) {
-                queueProcessorException.addException(new Exception("Exception while process payload ",e));
+                context.addException(new Exception("Exception while process payload ",e));
             }
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
     }
 
     @Override
-    public boolean validate(QueueData queueData) {
-        log.info("Processing registration form data: " + queueData.getUuid());
-        queueProcessorException = new QueueProcessorException();
+    public boolean validate(final QueueDataContext context) {
+        log.info("Processing registration form data: " + context.getQueueData().getUuid());
         try {
-            payload = queueData.getPayload();
-            unsavedPatient = new Patient();
-            populateUnsavedPatientFromPayload();
-            validateUnsavedPatient();
+            Patient unsavedPatient = new Patient();
+            context.setAttribute(UNSAVED_PATIENT, unsavedPatient);
+            populateUnsavedPatientFromPayload(context, unsavedPatient);
+            validateUnsavedPatient(context, unsavedPatient);
             return true;
         } catch (Exception e) {
-            queueProcessorException.addException(new Exception("Exception while validating payload ",e));
+            context.addException(new Exception("Exception while validating payload ",e));
             return false;
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
     }
@@ -122,11 +114,12 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
         return DISCRIMINATOR_VALUE;
     }
 
-    private void validateUnsavedPatient() {
+    private void validateUnsavedPatient(final QueueDataContext context, final Patient unsavedPatient) {
+        Object payload = context.getJsonPayload();
         if(!JsonUtils.readAsBoolean(payload, "$['skipPatientMatching']")) {
-            Patient savedPatient = findSimilarSavedPatient();
+            Patient savedPatient = findSimilarSavedPatient(unsavedPatient);
             if (savedPatient != null) {
-                queueProcessorException.addException(
+                context.addException(
                         new Exception(
                                 "Found a patient with similar characteristic :  patientId = " + savedPatient.getPatientId()
                                         + " Identifier Id = " + savedPatient.getPatientIdentifier().getIdentifier()
@@ -136,37 +129,38 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
         }
     }
 
-    private void populateUnsavedPatientFromPayload() {
-        setPatientIdentifiersFromPayload();
-        setPatientBirthDateFromPayload();
-        setPatientBirthDateEstimatedFromPayload();
-        setPatientGenderFromPayload();
-        setPatientNameFromPayload();
-        setPatientAddressesFromPayload();
-        setPersonAttributesFromPayload();
-        setUnsavedPatientCreatorFromPayload();
+    private void populateUnsavedPatientFromPayload(final QueueDataContext context, final Patient unsavedPatient) {
+        setPatientIdentifiersFromPayload(context, unsavedPatient);
+        setPatientBirthDateFromPayload(context, unsavedPatient);
+        setPatientBirthDateEstimatedFromPayload(context, unsavedPatient);
+        setPatientGenderFromPayload(context, unsavedPatient);
+        setPatientNameFromPayload(context, unsavedPatient);
+        setPatientAddressesFromPayload(context, unsavedPatient);
+        setPersonAttributesFromPayload(context, unsavedPatient);
+        setUnsavedPatientCreatorFromPayload(context, unsavedPatient);
     }
 
-    private void setPatientIdentifiersFromPayload() {
+    private void setPatientIdentifiersFromPayload(final QueueDataContext context, final Patient unsavedPatient) {
         Set<PatientIdentifier> patientIdentifiers = new TreeSet<PatientIdentifier>();
-        PatientIdentifier preferredIdentifier = getPreferredPatientIdentifierFromPayload();
+        PatientIdentifier preferredIdentifier = getPreferredPatientIdentifierFromPayload(context);
         if (preferredIdentifier != null) {
             patientIdentifiers.add(preferredIdentifier);
         }
-        List<PatientIdentifier> otherIdentifiers = getOtherPatientIdentifiersFromPayload();
+        List<PatientIdentifier> otherIdentifiers = getOtherPatientIdentifiersFromPayload(context);
         if (!otherIdentifiers.isEmpty()) {
             patientIdentifiers.addAll(otherIdentifiers);
         }
-        setIdentifierTypeLocation(patientIdentifiers);
+        setIdentifierTypeLocation(context, patientIdentifiers);
         unsavedPatient.setIdentifiers(patientIdentifiers);
     }
 
-    private PatientIdentifier getPreferredPatientIdentifierFromPayload(){
+    private PatientIdentifier getPreferredPatientIdentifierFromPayload(final QueueDataContext context){
+        Object payload = context.getJsonPayload();
 //        String identifierValue = JsonUtils.readAsString(payload, "$['patient']['patient.medical_record_number']");
 //        String identifierTypeName = "AMRS Universal ID";
 
         // PatientIdentifier preferredPatientIdentifier = createPatientIdentifier(identifierTypeName, identifierValue);
-        PatientIdentifier preferredPatientIdentifier = generateOpenMRSID() ;//createPatientIdentifier(identifierTypeName, identifierValue);
+        PatientIdentifier preferredPatientIdentifier = generateOpenMRSID(context) ;//createPatientIdentifier(identifierTypeName, identifierValue);
         if (preferredPatientIdentifier != null) {
             preferredPatientIdentifier.setPreferred(true);
             return preferredPatientIdentifier;
@@ -175,7 +169,8 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
         }
     }
 
-    private List<PatientIdentifier> getOtherPatientIdentifiersFromPayload() {
+    private List<PatientIdentifier> getOtherPatientIdentifiersFromPayload(final QueueDataContext context) {
+        Object payload = context.getJsonPayload();
         List<PatientIdentifier> otherIdentifiers = new ArrayList<PatientIdentifier>();
         Object identifierTypeNameObject = JsonUtils.readAsObject(payload, "$['observation']['other_identifier_type']");
         Object identifierValueObject = JsonUtils.readAsObject(payload, "$['observation']['other_identifier_value']");
@@ -184,7 +179,7 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
             JSONArray identifierTypeName = (JSONArray) identifierTypeNameObject;
             JSONArray identifierValue = (JSONArray) identifierValueObject;
             for (int i = 0; i < identifierTypeName.size(); i++) {
-                PatientIdentifier identifier = createPatientIdentifier(identifierTypeName.get(i).toString(),
+                PatientIdentifier identifier = createPatientIdentifier(context, identifierTypeName.get(i).toString(),
                         identifierValue.get(i).toString());
                 if (identifier != null) {
                     otherIdentifiers.add(identifier);
@@ -193,7 +188,7 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
         } else if (identifierTypeNameObject instanceof String) {
             String identifierTypeName = (String) identifierTypeNameObject;
             String identifierValue = (String) identifierValueObject;
-            PatientIdentifier identifier = createPatientIdentifier(identifierTypeName, identifierValue);
+            PatientIdentifier identifier = createPatientIdentifier(context, identifierTypeName, identifierValue);
             if (identifier != null) {
                 otherIdentifiers.add(identifier);
             }
@@ -201,14 +196,14 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
         return otherIdentifiers;
     }
 
-    private PatientIdentifier createPatientIdentifier(String identifierTypeName, String identifierValue) {
+    private PatientIdentifier createPatientIdentifier(final QueueDataContext context, String identifierTypeName, String identifierValue) {
         PatientIdentifierType identifierType = Context.getPatientService()
                 .getPatientIdentifierTypeByName(identifierTypeName);
         if (identifierType == null) {
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Unable to find identifier type with name: " + identifierTypeName));
         } else if (identifierValue == null) {
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Identifier value can't be null type: " + identifierTypeName));
         } else {
             PatientIdentifier patientIdentifier = new PatientIdentifier();
@@ -219,18 +214,19 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
         return null;
     }
 
-    private void setIdentifierTypeLocation(final Set<PatientIdentifier> patientIdentifiers) {
+    private void setIdentifierTypeLocation(final QueueDataContext context, final Set<PatientIdentifier> patientIdentifiers) {
+        Object payload = context.getJsonPayload();
         String locationIdString = JsonUtils.readAsString(payload, "$['encounter']['encounter.location_id']");
         Location location = null;
         int locationId;
 
         if(locationIdString != null){
             locationId = Integer.parseInt(locationIdString);
-            location = Context.getLocationService().getLocation(locationId);
+            location = context.getMetadataCache().getLocation(locationId);
         }
 
         if (location == null) {
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Unable to find encounter location using the id: " + locationIdString));
         } else {
             Iterator<PatientIdentifier> iterator = patientIdentifiers.iterator();
@@ -241,22 +237,26 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
         }
     }
 
-    private void setPatientBirthDateFromPayload(){
+    private void setPatientBirthDateFromPayload(final QueueDataContext context, final Patient unsavedPatient){
+        Object payload = context.getJsonPayload();
         Date birthDate = JsonUtils.readAsDate(payload, "$['patient']['patient.birth_date']");
         unsavedPatient.setBirthdate(birthDate);
     }
 
-    private void setPatientBirthDateEstimatedFromPayload(){
+    private void setPatientBirthDateEstimatedFromPayload(final QueueDataContext context, final Patient unsavedPatient){
+        Object payload = context.getJsonPayload();
         boolean birthdateEstimated = JsonUtils.readAsBoolean(payload, "$['patient']['patient.birthdate_estimated']");
         unsavedPatient.setBirthdateEstimated(birthdateEstimated);
     }
 
-    private void setPatientGenderFromPayload(){
+    private void setPatientGenderFromPayload(final QueueDataContext context, final Patient unsavedPatient){
+        Object payload = context.getJsonPayload();
         String gender = JsonUtils.readAsString(payload, "$['patient']['patient.sex']");
         unsavedPatient.setGender(gender);
     }
 
-    private void setPatientNameFromPayload(){
+    private void setPatientNameFromPayload(final QueueDataContext context, final Patient unsavedPatient){
+        Object payload = context.getJsonPayload();
         String givenName = JsonUtils.readAsString(payload, "$['patient']['patient.given_name']");
         String familyName = JsonUtils.readAsString(payload, "$['patient']['patient.family_name']");
         String middleName="";
@@ -273,9 +273,9 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
         unsavedPatient.addName(personName);
     }
 
-    private void registerUnsavedPatient() {
+    private void registerUnsavedPatient(final QueueDataContext context, final Patient unsavedPatient) {
         RegistrationDataService registrationDataService = Context.getService(RegistrationDataService.class);
-        String temporaryUuid = getPatientUuidFromPayload();
+        String temporaryUuid = getPatientUuidFromPayload(context);
         RegistrationData registrationData = registrationDataService.getRegistrationDataByTemporaryUuid(temporaryUuid);
         if (registrationData == null) {
             registrationData = new RegistrationData();
@@ -287,11 +287,13 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
         }
     }
 
-    private String getPatientUuidFromPayload(){
+    private String getPatientUuidFromPayload(final QueueDataContext context){
+        Object payload = context.getJsonPayload();
         return JsonUtils.readAsString(payload, "$['patient']['patient.uuid']");
     }
 
-    private void setPatientAddressesFromPayload(){
+    private void setPatientAddressesFromPayload(final QueueDataContext context, final Patient unsavedPatient){
+        Object payload = context.getJsonPayload();
         PersonAddress patientAddress = new PersonAddress();
 
         String county = JsonUtils.readAsString(payload, "$['patient']['patient.county']");
@@ -311,93 +313,95 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
         unsavedPatient.setAddresses(addresses);
     }
 
-    private void setPersonAttributesFromPayload(){
-        personAttributes = new TreeSet<PersonAttribute>();
+    private void setPersonAttributesFromPayload(final QueueDataContext context, final Patient unsavedPatient){
+        Object payload = context.getJsonPayload();
+        Set<PersonAttribute> personAttributes = new TreeSet<PersonAttribute>();
         PersonService personService = Context.getPersonService();
 
         String mothersName = JsonUtils.readAsString(payload, "$['patient']['patient.mothers_name']");
-        setAsAttribute("Mother's Name",mothersName);
+        setAsAttribute(context, personAttributes, "Mother's Name",mothersName);
 
         String phoneNumber = JsonUtils.readAsString(payload, "$['patient']['patient.phone_number']");
-        setAsAttribute("Telephone contact",phoneNumber);
+        setAsAttribute(context, personAttributes, "Telephone contact",phoneNumber);
 
 //        String phoneNumber = JsonUtils.readAsString(payload, "$['patient']['patient.phone_number']");
 //        setAsAttributeByUUID(TELEPHONE_CONTACT,phoneNumber);
 
         String nearestHealthCenter = JsonUtils.readAsString(payload, "$['patient']['patient.nearest_health_center']");
-        setAsAttributeByUUID(NEAREST_HEALTH_CENTER,nearestHealthCenter);
+        setAsAttributeByUUID(context, personAttributes, NEAREST_HEALTH_CENTER,nearestHealthCenter);
 
         String emailAddress = JsonUtils.readAsString(payload, "$['patient']['patient.email_address']");
-        setAsAttributeByUUID(EMAIL_ADDRESS,emailAddress);
+        setAsAttributeByUUID(context, personAttributes, EMAIL_ADDRESS,emailAddress);
 
         String guardianFirstName = JsonUtils.readAsString(payload, "$['patient']['patient.guardian_first_name']");
-        setAsAttributeByUUID(GUARDIAN_FIRST_NAME,guardianFirstName);
+        setAsAttributeByUUID(context, personAttributes, GUARDIAN_FIRST_NAME,guardianFirstName);
 
         String guardianLastName = JsonUtils.readAsString(payload, "$['patient']['patient.guardian_last_name']");
-        setAsAttributeByUUID(GUARDIAN_LAST_NAME,guardianLastName);
+        setAsAttributeByUUID(context, personAttributes, GUARDIAN_LAST_NAME,guardianLastName);
 
         String alternativePhoneContact = JsonUtils.readAsString(payload, "$['patient']['patient.alternate_phone_contact']");
-        setAsAttributeByUUID(ALTERNATE_PHONE_CONTACT,alternativePhoneContact);
+        setAsAttributeByUUID(context, personAttributes, ALTERNATE_PHONE_CONTACT,alternativePhoneContact);
 
         String nextOfKinName = JsonUtils.readAsString(payload, "$['patient']['patient.next_of_kin_name']");
-        setAsAttributeByUUID(NEXT_OF_KIN_NAME,nextOfKinName);
+        setAsAttributeByUUID(context, personAttributes, NEXT_OF_KIN_NAME,nextOfKinName);
 
         String nextOfKinRelationship = JsonUtils.readAsString(payload, "$['patient']['patient.next_of_kin_relationship']");
-        setAsAttributeByUUID(NEXT_OF_KIN_RELATIONSHIP,nextOfKinRelationship);
+        setAsAttributeByUUID(context, personAttributes, NEXT_OF_KIN_RELATIONSHIP,nextOfKinRelationship);
 
         String nextOfKinContact = JsonUtils.readAsString(payload, "$['patient']['patient.next_of_kin_contact']");
-        setAsAttributeByUUID(NEXT_OF_KIN_CONTACT,nextOfKinContact);
+        setAsAttributeByUUID(context, personAttributes, NEXT_OF_KIN_CONTACT,nextOfKinContact);
 
         String nextOfKinAddress = JsonUtils.readAsString(payload, "$['patient']['patient.next_of_kin_address']");
-        setAsAttributeByUUID(NEXT_OF_KIN_ADDRESS,nextOfKinAddress);
+        setAsAttributeByUUID(context, personAttributes, NEXT_OF_KIN_ADDRESS,nextOfKinAddress);
 
 
         unsavedPatient.setAttributes(personAttributes);
     }
 
-    private void setAsAttributeByUUID(String uuid, String value){
+    private void setAsAttributeByUUID(final QueueDataContext context, final Set<PersonAttribute> personAttributes, String uuid, String value){
         PersonService personService = Context.getPersonService();
         PersonAttributeType attributeType = personService.getPersonAttributeTypeByUuid(uuid);
         if(attributeType !=null && value != null){
             PersonAttribute personAttribute = new PersonAttribute(attributeType, value);
             personAttributes.add(personAttribute);
         } else if(attributeType ==null){
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Unable to find Person Attribute type by uuid '" + uuid + "'")
             );
         }
     }
 
-    private void setAsAttribute(String attributeTypeName, String value){
+    private void setAsAttribute(final QueueDataContext context, final Set<PersonAttribute> personAttributes, String attributeTypeName, String value){
         PersonService personService = Context.getPersonService();
         PersonAttributeType attributeType = personService.getPersonAttributeTypeByName(attributeTypeName);
         if(attributeType !=null && value != null){
             PersonAttribute personAttribute = new PersonAttribute(attributeType, value);
             personAttributes.add(personAttribute);
         } else if(attributeType ==null){
-            queueProcessorException.addException(
+            context.addException(
                     new Exception("Unable to find Person Attribute type by name '" + attributeTypeName + "'")
             );
         }
     }
 
-    private  void setUnsavedPatientCreatorFromPayload(){
+    private  void setUnsavedPatientCreatorFromPayload(final QueueDataContext context, final Patient unsavedPatient){
+        Object payload = context.getJsonPayload();
         String userString = JsonUtils.readAsString(payload, "$['encounter']['encounter.user_system_id']");
         String providerString = JsonUtils.readAsString(payload, "$['encounter']['encounter.provider_id']");
 
-        User user = Context.getUserService().getUserByUsername(userString);
+        User user = context.getMetadataCache().getUserByUsername(userString);
         if (user == null) {
             providerString = JsonUtils.readAsString(payload, "$['encounter']['encounter.provider_id']");
-            user = Context.getUserService().getUserByUsername(providerString);
+            user = context.getMetadataCache().getUserByUsername(providerString);
         }
         if (user == null) {
-            queueProcessorException.addException(new Exception("Unable to find user using the User Id: " + userString + " or Provider Id: "+providerString));
+            context.addException(new Exception("Unable to find user using the User Id: " + userString + " or Provider Id: "+providerString));
         } else {
             unsavedPatient.setCreator(user);
         }
     }
 
-    private Patient findSimilarSavedPatient() {
+    private Patient findSimilarSavedPatient(final Patient unsavedPatient) {
         Patient savedPatient = null;
         if (unsavedPatient.getNames().isEmpty()) {
             PatientIdentifier identifier = unsavedPatient.getPatientIdentifier();
@@ -406,9 +410,7 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
                 savedPatient = PatientSearchUtils.findSimilarPatientByNameAndGender(patients, unsavedPatient);
             }
         } else {
-            PersonName personName = unsavedPatient.getPersonName();
-            List<Patient> patients = Context.getPatientService().getPatients(personName.getFullName());
-            savedPatient = PatientSearchUtils.findSimilarPatientByNameAndGender(patients, unsavedPatient);
+            savedPatient = PatientSearchUtils.findSimilarPatient(unsavedPatient);
         }
         return savedPatient;
     }
@@ -420,7 +422,8 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
     /**
      * Can't save patients unless they have required OpenMRS IDs
      */
-    private PatientIdentifier generateOpenMRSID() {
+    private PatientIdentifier generateOpenMRSID(final QueueDataContext context) {
+        Object payload = context.getJsonPayload();
         PatientIdentifierType openmrsIDType = Context.getPatientService().getPatientIdentifierTypeByUuid("dfacd928-0370-4315-99d7-6ec1c9f7ae76");
 
         String locationIdString = JsonUtils.readAsString(payload, "$['encounter']['encounter.location_id']");
@@ -429,7 +432,7 @@ public class JsonRegistrationQueueDataHandler implements QueueDataHandler {
 
         if(locationIdString != null){
             locationId = Integer.parseInt(locationIdString);
-            location = Context.getLocationService().getLocation(locationId);
+            location = context.getMetadataCache().getLocation(locationId);
         }
 
         String generated = Context.getService(IdentifierSourceService.class).generateIdentifier(openmrsIDType, "Registration");
@@ -34,12 +34,12 @@ import org.openmrs.module.muzima.api.service.RegistrationDataService;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzima.model.RegistrationData;
+import org.openmrs.module.muzima.model.handler.QueueDataContext;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
 import org.openmrs.module.muzima.utils.JsonUtils;
 import org.openmrs.module.muzima.utils.PatientSearchUtils;
 import org.springframework.stereotype.Component;
 
-import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -56,34 +56,35 @@ public class ObsQueueDataHandler implements QueueDataHandler {
 
     public static final String DISCRIMINATOR_VALUE = "json-individual-obs";
 
-    private static final DateFormat dateFormat = new SimpleDateFormat("dd-MM-yyyy");
+    private static final String DATE_PATTERN = "dd-MM-yyyy";
 
-    private static final DateFormat dateTimeFormat = new SimpleDateFormat("dd-MM-yyyy HH:mm");
+    private static final String DATE_TIME_PATTERN = "dd-MM-yyyy HH:mm";
+
+    private static final String INDIVIDUAL_OBS_LIST = "individualObsList";
 
     private final Log log = LogFactory.getLog(ObsQueueDataHandler.class);
-    private QueueProcessorException queueProcessorException;
-    private List<Obs> individualObsList;
 
     /**
      * 
-     * @param queueData - QueueData
+     * @param context - QueueDataContext
      * @throws QueueProcessorException
      */
     @Override
-    public void process(final QueueData queueData) throws QueueProcessorException {
-        log.info("Processing encounter form data: " + queueData.getUuid());
+    public void process(final QueueDataContext context) throws QueueProcessorException {
+        log.info("Processing encounter form data: " + context.getQueueData().getUuid());
         try {
-            if (validate(queueData)) {
+            if (validate(context)) {
+                List<Obs> individualObsList = context.getAttribute(INDIVIDUAL_OBS_LIST, List.class);
                 for(Obs individualObs: individualObsList) {
                     Context.getObsService().saveObs(individualObs, null);
                 }
             }
         } catch (Exception e) {
             if (!e.getClass().equals(QueueProcessorException.class))
-                queueProcessorException.addException(e);
+                context.addException(e);
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
     }
@@ -100,28 +101,30 @@ public class ObsQueueDataHandler implements QueueDataHandler {
 
     /**
      * 
-     * @param queueData - QueueDate
+     * @param context - QueueDataContext
      * @return boolean
      */
     @Override
-    public boolean validate(QueueData queueData) {
+    public boolean validate(final QueueDataContext context) {
         try {
-            queueProcessorException = new QueueProcessorException();
+            QueueData queueData = context.getQueueData();
             log.info("Processing encounter form data: " + queueData.getUuid());
-            String payload = queueData.getPayload();
-            individualObsList = new ArrayList();
+            Object payload = queueData.getJsonPayload();
+            List<Obs> individualObsList = new ArrayList<Obs>();
+            context.setAttribute(INDIVIDUAL_OBS_LIST, individualObsList);
 
-            Object obsObject = JsonUtils.readAsObject(queueData.getPayload(), "$['observation']");
-            processObs(null, obsObject);
+            Object obsObject = JsonUtils.readAsObject(queueData.getJsonPayload(), "$['observation']");
+            processObs(context, individualObsList, null, obsObject);
 
             String userString = JsonUtils.readAsString(payload, "$['encounter']['encounter.user_system_id']");
-            User user = Context.getUserService().getUserByUsername(userString);
+            User user = context.getMetadataCache().getUserByUsername(userString);
             if(user == null) {
-                queueProcessorException.addException(new Exception("Unable to find user using the User Id: " + userString));
+                context.addException(new Exception("Unable to find user using the User Id: " + userString));
             }
 
             String jsonPayloadTimezone = JsonUtils.readAsString(payload, "$['encounter']['encounter.device_time_zone']");
-            Date encounterDatetime = JsonUtils.readAsDateTime(payload, "$['encounter']['encounter.encounter_datetime']",dateTimeFormat,jsonPayloadTimezone);
+            Date encounterDatetime = JsonUtils.readAsDateTime(payload, "$['encounter']['encounter.encounter_datetime']",
+                    new SimpleDateFormat(DATE_TIME_PATTERN), jsonPayloadTimezone);
             for(Obs obs:individualObsList){
                 if(obs.getObsDatetime() == null){
                     obs.setObsDatetime(encounterDatetime);
@@ -129,20 +132,21 @@ public class ObsQueueDataHandler implements QueueDataHandler {
                 obs.setCreator(user);
             }
 
-            processPatient(payload);
+            processPatient(context, individualObsList, payload);
 
             return true;
         } catch (Exception e) {
-            queueProcessorException.addException(e);
+            context.addException(e);
             return false;
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
     }
 
-    private void processObs(final Obs parentObs, final Object obsObject) {
+    private void processObs(final QueueDataContext context, final List<Obs> individualObsList, final Obs parentObs,
+                            final Object obsObject) {
         if (obsObject instanceof JSONObject) {
             JSONObject obsJsonObject = (JSONObject) obsObject;
             for (String conceptQuestion : obsJsonObject.keySet()) {
@@ -150,15 +154,15 @@ public class ObsQueueDataHandler implements QueueDataHandler {
                 if (conceptElements.length < 3)
                     continue;
                 int conceptId = Integer.parseInt(conceptElements[0]);
-                Concept concept = Context.getConceptService().getConcept(conceptId);
+                Concept concept = context.getMetadataCache().getConcept(conceptId);
                 if (concept == null) {
-                    queueProcessorException.addException(new Exception("Unable to find Concept for Question with ID: " + conceptId));
+                    context.addException(new Exception("Unable to find Concept for Question with ID: " + conceptId));
                 } else {
                     if (concept.isSet()) {
                         Obs obsGroup = new Obs();
                         obsGroup.setConcept(concept);
                         Object childObsObject = obsJsonObject.get(conceptQuestion);
-                        processObsObject(obsGroup, childObsObject);
+                        processObsObject(context, individualObsList, obsGroup, childObsObject);
                         if (parentObs != null) {
                             parentObs.addGroupMember(obsGroup);
                         }
@@ -167,25 +171,28 @@ public class ObsQueueDataHandler implements QueueDataHandler {
                         if (valueObject instanceof JSONArray) {
                             JSONArray jsonArray = (JSONArray) valueObject;
                             for (Object arrayElement : jsonArray) {
-                                createObs(parentObs, concept, arrayElement);
+                                createObs(context, individualObsList, parentObs, concept, arrayElement);
                             }
                         } else {
-                            createObs(parentObs, concept, valueObject);
+                            createObs(context, individualObsList, parentObs, concept, valueObject);
                         }
                     }
                 }
             }
         }else if(obsObject instanceof LinkedHashMap){
             Object obsAsJsonObject = new JSONObject((Map<String,?>)obsObject);
-            processObs(parentObs, obsAsJsonObject);
+            processObs(context, individualObsList, parentObs, obsAsJsonObject);
         }
     }
 
     /**
+     * @param context - QueueDataContext
+     * @param individualObsList - the obs being built
      * @param concept - Concept
      * @param o - java.lang.Object
      */
-    private void createObs(final Obs parentObs, final Concept concept, final Object o) {
+    private void createObs(final QueueDataContext context, final List<Obs> individualObsList, final Obs parentObs,
+                           final Concept concept, final Object o) {
         String value=null;
         Obs obs = new Obs();
         obs.setConcept(concept);
@@ -214,9 +221,9 @@ public class ObsQueueDataHandler implements QueueDataHandler {
         } else if (concept.getDatatype().isCoded()) {
             String[] valueCodedElements = StringUtils.split(value, "\\^");
             int valueCodedId = Integer.parseInt(valueCodedElements[0]);
-            Concept valueCoded = Context.getConceptService().getConcept(valueCodedId);
+            Concept valueCoded = context.getMetadataCache().getConcept(valueCodedId);
             if (valueCoded == null) {
-                queueProcessorException.addException(new Exception("Unable to find concept for value coded with id: " + valueCodedId));
+                context.addException(new Exception("Unable to find concept for value coded with id: " + valueCodedId));
             } else {
                 obs.setValueCoded(valueCoded);
             }
@@ -231,25 +238,28 @@ public class ObsQueueDataHandler implements QueueDataHandler {
 
     /**
      *
+     * @param context - QueueDataContext
+     * @param individualObsList - the obs being built
      * @param parentObs Obs
      * @param childObsObject - java.lang.Object
      */
-    private void processObsObject(final Obs parentObs, final Object childObsObject) {
+    private void processObsObject(final QueueDataContext context, final List<Obs> individualObsList,
+                                  final Obs parentObs, final Object childObsObject) {
         //Object o = JsonUtils.readAsObject(childObsObject.toString(), "$");
         if (childObsObject instanceof JSONArray) {
             JSONArray jsonArray = (JSONArray) childObsObject;
             for (Object arrayElement : jsonArray) {
                 Obs obsGroup = new Obs();
                 obsGroup.setConcept(parentObs.getConcept());
-                processObs(obsGroup, arrayElement);
+                processObs(context, individualObsList, obsGroup, arrayElement);
                 individualObsList.add(obsGroup);
             }
         } else if (childObsObject instanceof JSONObject) {
-            processObs(parentObs, childObsObject);
+            processObs(context, individualObsList, parentObs, childObsObject);
             individualObsList.add(parentObs);
         }else if (childObsObject instanceof LinkedHashMap) {
             Object childObsAsJsonObject = new JSONObject((Map<String,?>)childObsObject);
-            processObs(parentObs, childObsAsJsonObject);
+            processObs(context, individualObsList, parentObs, childObsAsJsonObject);
             individualObsList.add(parentObs);
         }
     }
@@ -262,9 +272,10 @@ public class ObsQueueDataHandler implements QueueDataHandler {
         return DISCRIMINATOR_VALUE;
     }
 
-    private void processPatient(final Object patientObject) {
+    private void processPatient(final QueueDataContext context, final List<Obs> individualObsList,
+                                final Object patientObject) {
         Patient unsavedPatient = new Patient();
-        String patientPayload = patientObject.toString();
+        Object patientPayload = patientObject;
 
         String uuid = JsonUtils.readAsString(patientPayload, "$['patient']['patient.uuid']");
         unsavedPatient.setUuid(uuid);
@@ -322,12 +333,11 @@ public class ObsQueueDataHandler implements QueueDataHandler {
             List<Patient> patients = Context.getPatientService().getPatients(patientIdentifier.getIdentifier());
             candidatePatient = PatientSearchUtils.findSimilarPatientByNameAndGender(patients, unsavedPatient);
         } else {
-            List<Patient> patients = Context.getPatientService().getPatients(unsavedPatient.getPersonName().getFullName());
-            candidatePatient = PatientSearchUtils.findSimilarPatientByNameAndGender(patients, unsavedPatient);
+            candidatePatient = PatientSearchUtils.findSimilarPatient(unsavedPatient);
         }
 
         if (candidatePatient == null) {
-            queueProcessorException.addException(new Exception("Unable to uniquely identify patient for this encounter form data. "));
+            context.addException(new Exception("Unable to uniquely identify patient for this encounter form data. "));
         } else {
             for(Obs obs:individualObsList){
                 obs.setPerson(candidatePatient);
@@ -343,7 +353,7 @@ public class ObsQueueDataHandler implements QueueDataHandler {
     private Date parseDate(final String dateValue) {
         Date date = null;
         try {
-            date = dateFormat.parse(dateValue);
+            date = new SimpleDateFormat(DATE_PATTERN).parse(dateValue);
         } catch (ParseException e) {
             log.error("Unable to parse date data for encounter!", e);
         }
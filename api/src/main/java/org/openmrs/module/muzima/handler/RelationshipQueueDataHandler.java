@@ -26,11 +26,10 @@ import org.openmrs.api.PersonService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.model.handler.QueueDataContext;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
 import org.openmrs.module.muzima.utils.JsonUtils;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 /**
@@ -49,69 +48,64 @@ public class RelationshipQueueDataHandler implements QueueDataHandler {
 
     public static final String DISCRIMINATOR_VALUE = "json-relationship";
 
-    private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-
     private final Log log = LogFactory.getLog(RelationshipQueueDataHandler.class);
 
-    private String payload;
-    private QueueProcessorException queueProcessorException;
-    private PersonService personService;
-
     @Override
-    public void process(final QueueData queueData) throws QueueProcessorException {
-        log.info("Processing relationship data: " + queueData.getUuid());
-        queueProcessorException = new QueueProcessorException();
-        personService = Context.getPersonService();
+    public void process(final QueueDataContext context) throws QueueProcessorException {
+        log.info("Processing relationship data: " + context.getQueueData().getUuid());
         try {
-            if (validate(queueData)) {
-                createRelationship();
+            if (validate(context)) {
+                createRelationship(context);
             }
         } catch (Exception e) {
             /*Custom exception thrown by the validate function should not be added again into @queueProcessorException.
              It should add the runtime dao Exception while saving the data into @queueProcessorException collection */
             if (!e.getClass().equals(QueueProcessorException.class)) {
-                queueProcessorException.addException(new Exception("Exception while processing relationship payload ",e));
+                context.addException(new Exception("Exception while processing relationship payload ",e));
                 e.printStackTrace();
             }
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
     }
 
     @Override
-    public boolean validate(QueueData queueData) {
+    public boolean validate(final QueueDataContext context) {
+        QueueData queueData = context.getQueueData();
         log.info("Processing relationship form data: " + queueData.getUuid());
-        queueProcessorException = new QueueProcessorException();
         try {
-            payload = queueData.getPayload();
+            Object payload = queueData.getJsonPayload();
+            PersonService personService = Context.getPersonService();
             if (personService.getPersonByUuid(queueData.getPatientUuid()) == null)
-                queueProcessorException.addException(new Exception("Unable to validate a relationship patient"));
+                context.addException(new Exception("Unable to validate a relationship patient"));
 
-            if (personService.getRelationshipTypeByUuid(getRelationshipTypeUuidFromPayload()) == null)
-                queueProcessorException.addException(new Exception("Unable to validate a relationship type used in a relationship"));
+            if (personService.getRelationshipTypeByUuid(getRelationshipTypeUuidFromPayload(payload)) == null)
+                context.addException(new Exception("Unable to validate a relationship type used in a relationship"));
 
             return true;
         } catch (Exception e) {
-            queueProcessorException.addException(new Exception("Exception while validating payload ",e));
+            context.addException(new Exception("Exception while validating payload ",e));
             return false;
         } finally {
-            if (queueProcessorException.anyExceptions())
-                throw queueProcessorException;
+            if (context.anyExceptions())
+                throw context.getQueueProcessorException();
         }
     }
 
-    private void createRelationship() {
-        Person personA = validateOrCreate(getPersonUuidFromPayload("personA"), "personA");
-        Person personB = validateOrCreate(getPersonUuidFromPayload("personB"), "personB");
+    private void createRelationship(final QueueDataContext context) {
+        Object payload = context.getJsonPayload();
+        PersonService personService = Context.getPersonService();
+        Person personA = validateOrCreate(context, getPersonUuidFromPayload(payload, "personA"), "personA");
+        Person personB = validateOrCreate(context, getPersonUuidFromPayload(payload, "personB"), "personB");
         try {
             if (personA != null && personB !=null) {
-                RelationshipType relationshipType = personService.getRelationshipTypeByUuid(getRelationshipTypeUuidFromPayload());
+                RelationshipType relationshipType = personService.getRelationshipTypeByUuid(getRelationshipTypeUuidFromPayload(payload));
                 Relationship relationship = new Relationship(personA, personB, relationshipType);
 
                 // We reuse the uuid created on the mobile device
-                relationship.setUuid(getRelationshipUuidFromPayload());
+                relationship.setUuid(getRelationshipUuidFromPayload(payload));
 
                 personService.saveRelationship(relationship);
             }
@@ -120,16 +114,18 @@ public class RelationshipQueueDataHandler implements QueueDataHandler {
         }
     }
 
-    private Person validateOrCreate(String personUuid, String root){
+    private Person validateOrCreate(final QueueDataContext context, String personUuid, String root){
+        Object payload = context.getJsonPayload();
+        PersonService personService = Context.getPersonService();
         Person p = personService.getPersonByUuid(personUuid);
         if (p == null) {
             Person person = new Person();
             try {
-                person.addName(getPersonNameFromPayload(root));
-                person.setBirthdate(getPersonBirthDateFromPayload(root));
-                person.setBirthdateEstimated(getPersonBirthDateEstimatedFromPayload(root));
-                person.setGender(getPersonGenderFromPayload(root));
-                person.setCreator(getCreatorFromPayload());
+                person.addName(getPersonNameFromPayload(payload, root));
+                person.setBirthdate(getPersonBirthDateFromPayload(payload, root));
+                person.setBirthdateEstimated(getPersonBirthDateEstimatedFromPayload(payload, root));
+                person.setGender(getPersonGenderFromPayload(payload, root));
+                person.setCreator(getCreatorFromPayload(context, payload));
 
                 // We reuse the person uuid created on the mobile device
                 person.setUuid(personUuid);
@@ -143,19 +139,19 @@ public class RelationshipQueueDataHandler implements QueueDataHandler {
         return p;
     }
 
-    private String getPersonUuidFromPayload(String root){
+    private String getPersonUuidFromPayload(final Object payload, String root){
         return JsonUtils.readAsString(payload, root + "['uuid']");
     }
 
-    private String getRelationshipUuidFromPayload(){
+    private String getRelationshipUuidFromPayload(final Object payload){
         return JsonUtils.readAsString(payload, "$['uuid']");
     }
 
-    private String getRelationshipTypeUuidFromPayload(){
+    private String getRelationshipTypeUuidFromPayload(final Object payload){
         return JsonUtils.readAsString(payload, "$['relationshipType']['uuid']");
     }
 
-    private PersonName getPersonNameFromPayload(String root){
+    private PersonName getPersonNameFromPayload(final Object payload, String root){
         String givenName = JsonUtils.readAsString(payload, root + "['given_name']");
         String familyName = JsonUtils.readAsString(payload, root + "['family_name']");
         String middleName="";
@@ -172,11 +168,11 @@ public class RelationshipQueueDataHandler implements QueueDataHandler {
         return personName;
     }
 
-    private Date getPersonBirthDateFromPayload(String root){
+    private Date getPersonBirthDateFromPayload(final Object payload, String root){
         return JsonUtils.readAsDate(payload, root + "['birth_date']");
     }
 
-    private Boolean getPersonBirthDateEstimatedFromPayload(String root){
+    private Boolean getPersonBirthDateEstimatedFromPayload(final Object payload, String root){
         boolean birthdateEstimated = false;
 
         try{
@@ -188,19 +184,19 @@ public class RelationshipQueueDataHandler implements QueueDataHandler {
         return birthdateEstimated;
     }
 
-    private String getPersonGenderFromPayload(String root){
+    private String getPersonGenderFromPayload(final Object payload, String root){
         return JsonUtils.readAsString(payload, root + "['sex']");
     }
 
-    private  User getCreatorFromPayload(){
+    private  User getCreatorFromPayload(final QueueDataContext context, final Object payload){
         String providerString = JsonUtils.readAsString(payload, "$['encounter']['encounter.provider_id']");
 
         if (StringUtils.isEmpty(providerString))
             providerString = JsonUtils.readAsString(payload, "$['encounter']['encounter.provider_id_select']");
 
-        User user = Context.getUserService().getUserByUsername(providerString);
+        User user = context.getMetadataCache().getUserByUsername(providerString);
         if (user == null) {
-            queueProcessorException.addException(new Exception("Unable to find user using the User Id: " + providerString));
+            context.addException(new Exception("Unable to find user using the User Id: " + providerString));
             return null;
         } else {
             return  user;
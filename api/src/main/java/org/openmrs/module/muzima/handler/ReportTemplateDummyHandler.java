@@ -6,6 +6,7 @@ import org.apache.commons.logging.LogFactory;
 import org.openmrs.annotation.Handler;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.model.handler.QueueDataContext;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
 import org.springframework.stereotype.Component;
 
@@ -16,11 +17,11 @@ public class ReportTemplateDummyHandler implements QueueDataHandler {
 
     /**
      *
-     * @param queueData - QueueData
+     * @param context - QueueDataContext
      * @throws QueueProcessorException
      */
     @Override
-    public void process(final QueueData queueData) throws QueueProcessorException {}
+    public void process(final QueueDataContext context) throws QueueProcessorException {}
 
     /**
      *
@@ -34,11 +35,11 @@ public class ReportTemplateDummyHandler implements QueueDataHandler {
 
     /**
      *
-     * @param queueData - QueueDate
+     * @param context - QueueDataContext
      * @return boolean
      */
     @Override
-    public boolean validate(QueueData queueData) {
+    public boolean validate(final QueueDataContext context) {
         return false;
     }
 
@@ -31,26 +31,19 @@ import org.openmrs.PersonName;
 import org.openmrs.User;
 import org.openmrs.annotation.Handler;
 import org.openmrs.api.context.Context;
-import org.openmrs.module.muzima.api.service.MuzimaFormService;
 import org.openmrs.module.muzima.api.service.RegistrationDataService;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.MuzimaForm;
 import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzima.model.RegistrationData;
+import org.openmrs.module.muzima.model.handler.QueueDataContext;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
 import org.openmrs.module.muzima.utils.ISO8601Util;
 import org.openmrs.module.muzima.utils.PatientSearchUtils;
+import org.openmrs.module.muzima.utils.XmlElement;
+import org.openmrs.module.muzima.utils.XmlSections;
 import org.springframework.stereotype.Component;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.ByteArrayInputStream;
-import java.text.DateFormat;
+
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -66,35 +59,32 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
     
     private static final String DISCRIMINATOR_VALUE = "xml-encounter";
 
-    private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-
-    private final Log log = LogFactory.getLog(XmlEncounterQueueDataHandler.class);
+    private static final String DATE_PATTERN = "yyyy-MM-dd";
 
-    private QueueProcessorException queueProcessorException;
+    private static final String ENCOUNTER = "encounter";
 
-    private Encounter encounter;
+    private final Log log = LogFactory.getLog(XmlEncounterQueueDataHandler.class);
 
     /**
      * 
-     * @param queueData - QueueData
+     * @param context - QueueDataContext
      * @throws QueueProcessorException
      */
     @Override
-    public void process(final QueueData queueData) throws QueueProcessorException {
+    public void process(final QueueDataContext context) throws QueueProcessorException {
 
-        log.info("Processing registration form data: " + queueData.getUuid());
-        encounter = new Encounter();
+        log.info("Processing registration form data: " + context.getQueueData().getUuid());
         try {
-            if (validate(queueData)) {
-                Context.getEncounterService().saveEncounter(encounter);
+            if (validate(context)) {
+                Context.getEncounterService().saveEncounter(context.getAttribute(ENCOUNTER, Encounter.class));
             }
         } catch (Exception e) {
             if (!e.getClass().equals(QueueProcessorException.class)) {
-                queueProcessorException.addException(e);
+                context.addException(e);
             }
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
 
@@ -103,39 +93,35 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
 
     /**
      * 
-     * @param queueData - QueueData
+     * @param context - QueueDataContext
      * @return boolean
      */
     @Override
-    public boolean validate(QueueData queueData) {
+    public boolean validate(final QueueDataContext context) {
 
+        QueueData queueData = context.getQueueData();
         log.info("Processing encounter form data: " + queueData.getUuid());
-        queueProcessorException = new QueueProcessorException();
 
-        String payload = queueData.getPayload();
+        Encounter encounter = new Encounter();
+        context.setAttribute(ENCOUNTER, encounter);
 
         try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document document = db.parse(new InputSource(new ByteArrayInputStream(payload.getBytes("utf-8"))));
-
-            Element element = document.getDocumentElement();
-            element.normalize();
+            XmlSections xmlPayload = context.getXmlPayload();
 
             // we need to get the form id to get the encounter type associated with this form from the form record.
             encounter.setEncounterType(Context.getEncounterService().getEncounterType(1));
 
-            processPatient(encounter, document.getElementsByTagName("patient"));
-            processEncounter(encounter, document.getElementsByTagName("encounter"));
-            processObs(encounter, document.getElementsByTagName("obs"));
+            processPatient(context, encounter, xmlPayload.getSection("patient"));
+            processEncounter(context, encounter, xmlPayload.getSection("encounter"));
+            processObs(context, encounter, xmlPayload.getSection("obs"));
             return true;
 
         } catch (Exception e) {
-            queueProcessorException.addException(e);
+            context.addException(e);
             return false;
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
     }
@@ -151,41 +137,35 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
 
     /**
      * 
+     * @param context - QueueDataContext
      * @param encounter - Encounter
-     * @param patientNodeList NodeList
+     * @param patientSection - XmlElement
      * @throws QueueProcessorException
      */
-    private void processPatient(final Encounter encounter, final NodeList patientNodeList) throws QueueProcessorException {
-        Node patientNode = patientNodeList.item(0);
-        NodeList patientElementNodes = patientNode.getChildNodes();
-
+    private void processPatient(final QueueDataContext context, final Encounter encounter, final XmlElement patientSection) throws QueueProcessorException {
         Patient unsavedPatient = new Patient();
         PersonName personName = new PersonName();
         PatientIdentifier patientIdentifier = new PatientIdentifier();
-        for (int i = 0; i < patientElementNodes.getLength(); i++) {
-            Node patientElementNode = patientElementNodes.item(i);
-            if (patientElementNode.getNodeType() == Node.ELEMENT_NODE) {
-                Element patientElement = (Element) patientElementNode;
-                if (patientElement.getTagName().equals("patient.middle_name")) {
-                    personName.setMiddleName(patientElement.getTextContent());
-                } else if (patientElement.getTagName().equals("patient.given_name")) {
-                    personName.setGivenName(patientElement.getTextContent());
-                } else if (patientElement.getTagName().equals("patient.family_name")) {
-                    personName.setFamilyName(patientElement.getTextContent());
-                } else if (patientElement.getTagName().equals("patient_identifier.identifier_type_id")) {
-                    int identifierTypeId = Integer.parseInt(patientElement.getTextContent());
-                    PatientIdentifierType identifierType = Context.getPatientService().getPatientIdentifierType(identifierTypeId);
-                    patientIdentifier.setIdentifierType(identifierType);
-                } else if (patientElement.getTagName().equals("patient.medical_record_number")) {
-                    patientIdentifier.setIdentifier(patientElement.getTextContent());
-                } else if (patientElement.getTagName().equals("patient.sex")) {
-                    unsavedPatient.setGender(patientElement.getTextContent());
-                } else if (patientElement.getTagName().equals("patient.birthdate")) {
-                    Date dob = parseDate(patientElement.getTextContent());
-                    unsavedPatient.setBirthdate(dob);
-                } else if (patientElement.getTagName().equals("patient.uuid")) {
-                    unsavedPatient.setUuid(patientElement.getTextContent());
-                }
+        for (XmlElement patientElement : patientSection.getChildren()) {
+            if (patientElement.getName().equals("patient.middle_name")) {
+                personName.setMiddleName(patientElement.getTextContent());
+            } else if (patientElement.getName().equals("patient.given_name")) {
+                personName.setGivenName(patientElement.getTextContent());
+            } else if (patientElement.getName().equals("patient.family_name")) {
+                personName.setFamilyName(patientElement.getTextContent());
+            } else if (patientElement.getName().equals("patient_identifier.identifier_type_id")) {
+                int identifierTypeId = Integer.parseInt(patientElement.getTextContent());
+                PatientIdentifierType identifierType = Context.getPatientService().getPatientIdentifierType(identifierTypeId);
+                patientIdentifier.setIdentifierType(identifierType);
+            } else if (patientElement.getName().equals("patient.medical_record_number")) {
+                patientIdentifier.setIdentifier(patientElement.getTextContent());
+            } else if (patientElement.getName().equals("patient.sex")) {
+                unsavedPatient.setGender(patientElement.getTextContent());
+            } else if (patientElement.getName().equals("patient.birthdate")) {
+                Date dob = parseDate(patientElement.getTextContent());
+                unsavedPatient.setBirthdate(dob);
+            } else if (patientElement.getName().equals("patient.uuid")) {
+                unsavedPatient.setUuid(patientElement.getTextContent());
             }
         }
 
@@ -205,12 +185,11 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
             List<Patient> patients = Context.getPatientService().getPatients(patientIdentifier.getIdentifier());
             candidatePatient = PatientSearchUtils.findSimilarPatientByNameAndGender(patients, unsavedPatient);
         } else {
-            List<Patient> patients = Context.getPatientService().getPatients(unsavedPatient.getPersonName().getFullName());
-            candidatePatient = PatientSearchUtils.findSimilarPatientByNameAndGender(patients, unsavedPatient);
+            candidatePatient = PatientSearchUtils.findSimilarPatient(unsavedPatient);
         }
 
         if (candidatePatient == null) {
-            queueProcessorException.addException(new Exception("Unable to uniquely identify patient for this encounter form data. "
+            context.addException(new Exception("Unable to uniquely identify patient for this encounter form data. "
                     + ToStringBuilder.reflectionToString(unsavedPatient)));
         }
 
@@ -219,56 +198,33 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
 
     /**
      * 
-     * @param name - String
-     * @param node - Node
-     * @return Node
-     */
-    private Node findSubNode(final String name, final Node node) {
-        if (!node.hasChildNodes()) {
-            return null;
-        }
-        NodeList list = node.getChildNodes();
-        for (int i = 0; i < list.getLength(); i++) {
-            Node subNode = list.item(i);
-            if (subNode.getNodeType() == Node.ELEMENT_NODE) {
-                if (subNode.getNodeName().equals(name))
-                    return subNode;
-            }
-        }
-        return null;
-    }
-
-    /**
-     * 
+     * @param context - QueueDataContext
      * @param encounter - Encounter
-     * @param obsNodeList - NodeList
+     * @param obsSection - XmlElement
      * @throws QueueProcessorException
      */
-    private void processObs(final Encounter encounter, final NodeList obsNodeList) throws QueueProcessorException {
-        Node obsNode = obsNodeList.item(0);
-        NodeList obsElementNodes = obsNode.getChildNodes();
-        for (int i = 0; i < obsElementNodes.getLength(); i++) {
-            Node obsElementNode = obsElementNodes.item(i);
+    private void processObs(final QueueDataContext context, final Encounter encounter, final XmlElement obsSection) throws QueueProcessorException {
+        for (XmlElement obsElement : obsSection.getChildren()) {
             // skip all top level obs nodes without child element or without attribute
             // no attribute: temporary elements
             // no child: element with no answer
-            if (obsElementNode.hasAttributes() && obsElementNode.hasChildNodes()) {
-                processObsNode(encounter, null, obsElementNode);
+            if (obsElement.hasAttributes() && obsElement.hasContent()) {
+                processObsNode(context, encounter, null, obsElement);
             }
         }
     }
 
     /**
      * 
+     * @param context - QueueDataContext
      * @param encounter -Encounter
      * @param parentObs - Obs
-     * @param obsElementNode -  Node
+     * @param obsElement - XmlElement
      */
-    private void processObsNode(final Encounter encounter, final Obs parentObs, final Node obsElementNode) {
-        Element obsElement = (Element) obsElementNode;
+    private void processObsNode(final QueueDataContext context, final Encounter encounter, final Obs parentObs, final XmlElement obsElement) {
         String[] conceptElements = StringUtils.split(obsElement.getAttribute("concept"), "\\^");
         int conceptId = Integer.parseInt(conceptElements[0]);
-        Concept concept = Context.getConceptService().getConcept(conceptId);
+        Concept concept = context.getMetadataCache().getConcept(conceptId);
 
         if (concept == null) {
             log.info("Skipping obs creation, " + obsElement.getAttribute("concept") + " is not valid or not available.");
@@ -279,20 +235,18 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
             Obs obsGroup = new Obs();
             obsGroup.setConcept(concept);
             obsGroup.setCreator(encounter.getCreator());
-            NodeList nodeList = obsElementNode.getChildNodes();
-            for (int i = 0; i < nodeList.getLength(); i++) {
-                Node subNode = nodeList.item(i);
-                // only process sub node with attribute and it is a tag
-                if (subNode.hasAttributes() && subNode.getNodeType() == Node.ELEMENT_NODE) {
+            for (XmlElement subElement : obsElement.getChildren()) {
+                // only process sub element with attribute
+                if (subElement.hasAttributes()) {
                     // need to do recursive because we might have nested sets structure
                     encounter.addObs(obsGroup);
-                    processObsNode(encounter, obsGroup, subNode);
+                    processObsNode(context, encounter, obsGroup, subElement);
                 }
             }
         } else {
-            Node valueNode = findSubNode("value", obsElementNode);
-            if (valueNode != null) {
-                String value = StringUtils.trim(valueNode.getTextContent());
+            XmlElement valueElement = obsElement.getChild("value");
+            if (valueElement != null) {
+                String value = StringUtils.trim(valueElement.getTextContent());
                 if (StringUtils.isNotEmpty(value)) {
                     Obs obs = new Obs();
                     obs.setConcept(concept);
@@ -311,9 +265,9 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
                     } else if (concept.getDatatype().isCoded()) {
                         String[] valueCodedElements = StringUtils.split(value, "\\^");
                         int valueCodedId = Integer.parseInt(valueCodedElements[0]);
-                        Concept valueCoded = Context.getConceptService().getConcept(valueCodedId);
+                        Concept valueCoded = context.getMetadataCache().getConcept(valueCodedId);
                         if (valueCoded == null) {
-                            queueProcessorException.addException(new Exception("Unable to find concept for value coded with id: " + valueCodedId));
+                            context.addException(new Exception("Unable to find concept for value coded with id: " + valueCodedId));
                         }
                         obs.setValueCoded(valueCoded);
                     } else if (concept.getDatatype().isText()) {
@@ -326,12 +280,12 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
                     }
                 }
             } else {
-                Node xformValuesNode = findSubNode("xforms_value", obsElementNode);
-                if (xformValuesNode != null) {
-                    String[] xformValues = StringUtils.split(StringUtils.trim(xformValuesNode.getTextContent()));
+                XmlElement xformValuesElement = obsElement.getChild("xforms_value");
+                if (xformValuesElement != null) {
+                    String[] xformValues = StringUtils.split(StringUtils.trim(xformValuesElement.getTextContent()));
                     for (String xformValue : xformValues) {
-                        Node xformValueNode = findSubNode(xformValue, obsElementNode);
-                        if (xformValueNode != null && xformValueNode.hasAttributes()) {
+                        XmlElement xformValueElement = obsElement.getChild(xformValue);
+                        if (xformValueElement != null && xformValueElement.hasAttributes()) {
                             Obs obs = new Obs();
                             obs.setConcept(concept);
                             obs.setEncounter(encounter);
@@ -340,12 +294,11 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
                             obs.setLocation(encounter.getLocation());
                             obs.setCreator(encounter.getCreator());
 
-                            Element xformValueElement = (Element) xformValueNode;
                             String[] valueCodedElements = StringUtils.split(xformValueElement.getAttribute("concept"), "\\^");
                             int valueCodedId = Integer.parseInt(valueCodedElements[0]);
-                            Concept valueCoded = Context.getConceptService().getConcept(valueCodedId);
+                            Concept valueCoded = context.getMetadataCache().getConcept(valueCodedId);
                             if (valueCoded == null) {
-                                queueProcessorException.addException(new Exception("Unable to find concept for value coded with id: " + valueCodedId));
+                                context.addException(new Exception("Unable to find concept for value coded with id: " + valueCodedId));
                             }
                             obs.setValueCoded(valueCoded);
 
@@ -363,60 +316,54 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
 
     /**
      * 
+     * @param context - QueueDataContext
      * @param encounter - Encounter
-     * @param encounterNodeList - NodeList
+     * @param encounterSection - XmlElement
      * @throws QueueProcessorException
      */
-    private void processEncounter(final Encounter encounter, final NodeList encounterNodeList) throws QueueProcessorException {
-        Node encounterNode = encounterNodeList.item(0);
-        NodeList encounterElementNodes = encounterNode.getChildNodes();
-        for (int i = 0; i < encounterElementNodes.getLength(); i++) {
-            Node encounterElementNode = encounterElementNodes.item(i);
-            if (encounterElementNode.getNodeType() == Node.ELEMENT_NODE) {
-                Element encounterElement = (Element) encounterElementNode;
-                String encounterElementValue = encounterElement.getTextContent();
-                if (encounterElement.getTagName().equals("encounter.encounter_datetime")) {
-                    Date date = parseDateTime(encounterElementValue);
-                    encounter.setEncounterDatetime(date);
-                } else if (encounterElement.getTagName().equals("encounter.location_id")) {
-                    int locationId = NumberUtils.toInt(encounterElementValue, -999);
-                    Location location = Context.getLocationService().getLocation(locationId);
-                    if (location == null) {
-                        queueProcessorException.addException(new Exception("Unable to find encounter location using the id: " + encounterElementValue));
-                    }
-                    encounter.setLocation(location);
-                } else if (encounterElement.getTagName().equals("encounter.provider_id")) {
-                    User user = Context.getUserService().getUserByUsername(encounterElementValue);
-                    if (user == null) {
-                        queueProcessorException.addException(new Exception("Unable to find user using the id: " + encounterElementValue));
-                    }
-                    encounter.setProvider(user);
-                    encounter.setCreator(user);
-                } else if (encounterElement.getTagName().equals("encounter.form_uuid")) {
-                    Form form = Context.getFormService().getFormByUuid(encounterElementValue);
-                    if (form == null) {
-                        MuzimaFormService muzimaFormService = Context.getService(MuzimaFormService.class);
-                        MuzimaForm muzimaForm = muzimaFormService.getFormByUuid(encounterElementValue);
-                        if (muzimaForm != null) {
-                            Form formDefinition = Context.getFormService().getFormByUuid(muzimaForm.getForm());
-                            encounter.setForm(formDefinition);
-                            encounter.setEncounterType(formDefinition.getEncounterType());
-                        } else {
-                            log.info("Unable to find form using the uuid: " + encounterElementValue + ". Setting the form field to null!");
-                        }
+    private void processEncounter(final QueueDataContext context, final Encounter encounter, final XmlElement encounterSection) throws QueueProcessorException {
+        for (XmlElement encounterElement : encounterSection.getChildren()) {
+            String encounterElementValue = encounterElement.getTextContent();
+            if (encounterElement.getName().equals("encounter.encounter_datetime")) {
+                Date date = parseDateTime(encounterElementValue);
+                encounter.setEncounterDatetime(date);
+            } else if (encounterElement.getName().equals("encounter.location_id")) {
+                int locationId = NumberUtils.toInt(encounterElementValue, -999);
+                Location location = context.getMetadataCache().getLocation(locationId);
+                if (location == null) {
+                    context.addException(new Exception("Unable to find encounter location using the id: " + encounterElementValue));
+                }
+                encounter.setLocation(location);
+            } else if (encounterElement.getName().equals("encounter.provider_id")) {
+                User user = context.getMetadataCache().getUserByUsername(encounterElementValue);
+                if (user == null) {
+                    context.addException(new Exception("Unable to find user using the id: " + encounterElementValue));
+                }
+                encounter.setProvider(user);
+                encounter.setCreator(user);
+            } else if (encounterElement.getName().equals("encounter.form_uuid")) {
+                Form form = context.getMetadataCache().getFormByUuid(encounterElementValue);
+                if (form == null) {
+                    MuzimaForm muzimaForm = context.getMetadataCache().getMuzimaFormByUuid(encounterElementValue);
+                    if (muzimaForm != null) {
+                        Form formDefinition = context.getMetadataCache().getFormByUuid(muzimaForm.getForm());
+                        encounter.setForm(formDefinition);
+                        encounter.setEncounterType(formDefinition.getEncounterType());
                     } else {
-                        encounter.setForm(form);
-                        encounter.setEncounterType(form.getEncounterType());
+                        log.info("Unable to find form using the uuid: " + encounterElementValue + ". Setting the form field to null!");
                     }
-                } else if (encounterElement.getTagName().equals("encounter.encounter_type")) {
-                    if (encounter.getEncounterType() == null) {
-                        int encounterTypeId = NumberUtils.toInt(encounterElementValue, -999);
-                        EncounterType encounterType = Context.getEncounterService().getEncounterType(encounterTypeId);
-                        if (encounterType == null) {
-                            queueProcessorException.addException(new Exception("Unable to find encounter type using the id: " + encounterElementValue));
-                        }
-                        encounter.setEncounterType(encounterType);
+                } else {
+                    encounter.setForm(form);
+                    encounter.setEncounterType(form.getEncounterType());
+                }
+            } else if (encounterElement.getName().equals("encounter.encounter_type")) {
+                if (encounter.getEncounterType() == null) {
+                    int encounterTypeId = NumberUtils.toInt(encounterElementValue, -999);
+                    EncounterType encounterType = Context.getEncounterService().getEncounterType(encounterTypeId);
+                    if (encounterType == null) {
+                        context.addException(new Exception("Unable to find encounter type using the id: " + encounterElementValue));
                     }
+                    encounter.setEncounterType(encounterType);
                 }
             }
         }
@@ -430,7 +377,7 @@ public class XmlEncounterQueueDataHandler implements QueueDataHandler {
     private Date parseDate(final String dateValue) {
         Date date = null;
         try {
-            date = dateFormat.parse(dateValue);
+            date = new SimpleDateFormat(DATE_PATTERN).parse(dateValue);
         } catch (ParseException e) {
             log.error("Unable to parse date data for encounter!", e);
         }
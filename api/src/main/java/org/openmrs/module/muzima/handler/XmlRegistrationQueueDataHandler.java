@@ -32,21 +32,13 @@ import org.openmrs.module.muzima.api.service.RegistrationDataService;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.QueueData;
 import org.openmrs.module.muzima.model.RegistrationData;
+import org.openmrs.module.muzima.model.handler.QueueDataContext;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
 import org.openmrs.module.muzima.utils.PatientSearchUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
+import org.openmrs.module.muzima.utils.XmlElement;
+import org.openmrs.module.muzima.utils.XmlSections;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.text.DateFormat;
+import javax.xml.stream.XMLStreamException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -60,53 +52,51 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
 
     private static final String DISCRIMINATOR_VALUE = "xml-registration";
 
-    private static final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private static final String DATE_PATTERN = "yyyy-MM-dd";
 
-    private final Log log = LogFactory.getLog(XmlRegistrationQueueDataHandler.class);
-
-    private PatientService patientService;
-
-    private String temporaryPatientUuid;
+    private static final String UNSAVED_PATIENT = "unsavedPatient";
 
-    private QueueProcessorException queueProcessorException;
+    private static final String TEMPORARY_PATIENT_UUID = "temporaryPatientUuid";
 
-    private Patient unsavedPatient;
+    private final Log log = LogFactory.getLog(XmlRegistrationQueueDataHandler.class);
 
     /**
      * Implementation of how the queue data should be processed.
      *
-     * @param queueData the queued data.
+     * @param context the processing context of the queued data.
      * @should create new patient from well formed registration data
      * @should skip already processed registration data
      */
     @Override
-    public void process(final QueueData queueData) throws QueueProcessorException {
-        log.info("Processing registration form data: " + queueData.getUuid());
+    public void process(final QueueDataContext context) throws QueueProcessorException {
+        log.info("Processing registration form data: " + context.getQueueData().getUuid());
 
         try {
-            if (validate(queueData)) {
-                saveRegistrationData();
+            if (validate(context)) {
+                saveRegistrationData(context);
             }
         } catch (Exception e) {
             if (!e.getClass().equals(QueueProcessorException.class)) {
-                queueProcessorException.addException(e);
+                context.addException(e);
             }
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
     }
 
-    private void saveRegistrationData() {
+    private void saveRegistrationData(final QueueDataContext context) {
 
+        Patient unsavedPatient = context.getAttribute(UNSAVED_PATIENT, Patient.class);
+        String temporaryPatientUuid = context.getAttribute(TEMPORARY_PATIENT_UUID, String.class);
         RegistrationDataService registrationDataService = Context.getService(RegistrationDataService.class);
         RegistrationData registrationData;
         if (StringUtils.isNotEmpty(unsavedPatient.getUuid())) {
-            registrationData = registrationDataService.getRegistrationDataByTemporaryUuid(getTemporaryPatientUuid());
+            registrationData = registrationDataService.getRegistrationDataByTemporaryUuid(temporaryPatientUuid);
             if (registrationData == null) {
                 // we can't find registration data for this uuid, process the registration form.
-                patientService = Context.getPatientService();
+                PatientService patientService = Context.getPatientService();
 
                 Patient savedPatient = null;
                 // check whether we already have similar patients!
@@ -117,13 +107,11 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
                         savedPatient = PatientSearchUtils.findSimilarPatientByNameAndGender(patients, unsavedPatient);
                     }
                 } else {
-                    PersonName personName = unsavedPatient.getPersonName();
-                    List<Patient> patients = patientService.getPatients(personName.getFullName());
-                    savedPatient = PatientSearchUtils.findSimilarPatientByNameAndGender(patients, unsavedPatient);
+                    savedPatient = PatientSearchUtils.findSimilarPatient(unsavedPatient);
                 }
 
                 registrationData = new RegistrationData();
-                registrationData.setTemporaryUuid(getTemporaryPatientUuid());
+                registrationData.setTemporaryUuid(temporaryPatientUuid);
                 String assignedUuid;
                 // for a new patient we will create mapping:
                 // * temporary uuid --> uuid of the newly created patient
@@ -145,24 +133,23 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
 
     /**
      *
-     * @param queueData - QueueData
+     * @param context - QueueDataContext
      * @return boolean
      */
     @Override
-    public boolean validate(QueueData queueData) {
+    public boolean validate(final QueueDataContext context) {
+        QueueData queueData = context.getQueueData();
         log.info("validating registration form data: " + queueData.getUuid());
-        queueProcessorException = new QueueProcessorException();
 
         try {
-            String payload = queueData.getPayload();
-            unsavedPatient = createPatientFromPayload(payload);
+            context.setAttribute(UNSAVED_PATIENT, createPatientFromPayload(context));
             return true;
         } catch (Exception e) {
-            queueProcessorException.addException(e);
+            context.addException(e);
             return false;
         } finally {
-            if (queueProcessorException.anyExceptions()) {
-                throw queueProcessorException;
+            if (context.anyExceptions()) {
+                throw context.getQueueProcessorException();
             }
         }
     }
@@ -186,7 +173,7 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
     private Date parseDate(final String dateValue) {
         Date date = null;
         try {
-            date = dateFormat.parse(dateValue);
+            date = new SimpleDateFormat(DATE_PATTERN).parse(dateValue);
         } catch (ParseException e) {
             log.error("Unable to parse date data for encounter!", e);
         }
@@ -195,157 +182,118 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
 
     /**
      *
-     * @param payload - String representation of the payload
+     * @param context - QueueDataContext
      * @return Patient
      */
-    private Patient createPatientFromPayload(final String payload) {
+    private Patient createPatientFromPayload(final QueueDataContext context) {
         Patient unsavedPatient = new Patient();
         try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document document = db.parse(new InputSource(new ByteArrayInputStream(payload.getBytes("utf-8"))));
-
-            Element element = document.getDocumentElement();
-            element.normalize();
-
-            Node patientNode = document.getElementsByTagName("patient").item(0);
-            NodeList patientElementNodes = patientNode.getChildNodes();
+            XmlSections xmlPayload = context.getXmlPayload();
 
             PersonName personName = new PersonName();
             PatientIdentifier patientIdentifier = new PatientIdentifier();
-            for (int i = 0; i < patientElementNodes.getLength(); i++) {
-                Node patientElementNode = patientElementNodes.item(i);
-                if (patientElementNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element patientElement = (Element) patientElementNode;
-                    String tagName = patientElement.getTagName();
-                    if (tagName.equals("patient.middle_name")) {
-                        personName.setMiddleName(patientElement.getTextContent());
-                    } else if (tagName.equals("patient.given_name")) {
-                        personName.setGivenName(patientElement.getTextContent());
-                    } else if (tagName.equals("patient.family_name")) {
-                        personName.setFamilyName(patientElement.getTextContent());
-                    } else if (tagName.equals("patient_identifier.identifier_type_id")) {
-                        int identifierTypeId = Integer.parseInt(patientElement.getTextContent());
-                        PatientIdentifierType identifierType = Context.getPatientService().getPatientIdentifierType(identifierTypeId);
-                        if (identifierType == null) {
-                            queueProcessorException.addException(new Exception("Unable to find patient identifier type with id: " + identifierTypeId));
-                        } else {
-                            patientIdentifier.setIdentifierType(identifierType);
-                        }
-                    } else if (tagName.equals("patient.medical_record_number")) {
-                        patientIdentifier.setIdentifier(patientElement.getTextContent());
-                    } else if (tagName.equals("patient.sex")) {
-                        unsavedPatient.setGender(patientElement.getTextContent());
-                    } else if (tagName.equals("patient.birthdate")) {
-                        Date dob = parseDate(patientElement.getTextContent());
-                        unsavedPatient.setBirthdate(dob);
-                    } else if (tagName.equals("patient.uuid")) {
-                        unsavedPatient.setUuid(patientElement.getTextContent());
-                        setTemporaryPatientUuid(patientElement.getTextContent());
-                    } else if (tagName.equals("patient.finger")) {
-                        savePatientsFinger(unsavedPatient, patientElement.getTextContent());
-                    } else if (tagName.equals("patient.fingerprint")) {
-                        savePatientsFingerprint(unsavedPatient, patientElement.getTextContent());
-                    } else if (tagName.equals("amrs_medical_record_number_identifier_type")) {
-                        extractIdentifier(unsavedPatient, patientElement, "AMRS Medical Record Number");
-                    } else if (tagName.equals("ccc_identifier_type")) {
-                        extractIdentifier(unsavedPatient, patientElement, "CCC Number ");
-                    } else if (tagName.equals("hct_identifier_type")) {
-                        extractIdentifier(unsavedPatient, patientElement, "HCT ID");
-                    } else if (tagName.equals("kni_identifier_type")) {
-                        extractIdentifier(unsavedPatient, patientElement, "KENYAN NATIONAL ID NUMBER");
-                    } else if (tagName.equals("mtct_identifier_type")) {
-                        extractIdentifier(unsavedPatient, patientElement, "MTCT Plus ID");
-                    } else if (tagName.equals("mtrh_hospital_number_identifier_type")) {
-                        extractIdentifier(unsavedPatient, patientElement, "MTRH Hospital Number");
-                    } else if (tagName.equals("old_amrs_number_identifier_type")) {
-                        extractIdentifier(unsavedPatient, patientElement, "Old AMPATH Medical Record Number");
-                    } else if (tagName.equals("pmtc_identifier_type")) {
-                        extractIdentifier(unsavedPatient, patientElement, "pMTCT ID");
-                    } else if (tagName.startsWith("person_attribute")) {
-                        PersonService personService = Context.getPersonService();
-
-                        int personAttributeTypeId = NumberUtils.toInt(tagName.replace("person_attribute", ""));
-                        PersonAttributeType personAttributeType = personService.getPersonAttributeType(personAttributeTypeId);
-                        if (personAttributeType == null) {
-                            queueProcessorException.addException(new Exception("Unable to find attribute type with id: " + personAttributeTypeId));
-                        } else {
-                            PersonAttribute personAttribute = new PersonAttribute();
-                            personAttribute.setAttributeType(personAttributeType);
-                            personAttribute.setValue(patientElement.getTextContent());
-                            unsavedPatient.addAttribute(personAttribute);
-                        }
+            for (XmlElement patientElement : xmlPayload.getSection("patient").getChildren()) {
+                String tagName = patientElement.getName();
+                if (tagName.equals("patient.middle_name")) {
+                    personName.setMiddleName(patientElement.getTextContent());
+                } else if (tagName.equals("patient.given_name")) {
+                    personName.setGivenName(patientElement.getTextContent());
+                } else if (tagName.equals("patient.family_name")) {
+                    personName.setFamilyName(patientElement.getTextContent());
+                } else if (tagName.equals("patient_identifier.identifier_type_id")) {
+                    int identifierTypeId = Integer.parseInt(patientElement.getTextContent());
+                    PatientIdentifierType identifierType = Context.getPatientService().getPatientIdentifierType(identifierTypeId);
+                    if (identifierType == null) {
+                        context.addException(new Exception("Unable to find patient identifier type with id: " + identifierTypeId));
+                    } else {
+                        patientIdentifier.setIdentifierType(identifierType);
+                    }
+                } else if (tagName.equals("patient.medical_record_number")) {
+                    patientIdentifier.setIdentifier(patientElement.getTextContent());
+                } else if (tagName.equals("patient.sex")) {
+                    unsavedPatient.setGender(patientElement.getTextContent());
+                } else if (tagName.equals("patient.birthdate")) {
+                    Date dob = parseDate(patientElement.getTextContent());
+                    unsavedPatient.setBirthdate(dob);
+                } else if (tagName.equals("patient.uuid")) {
+                    unsavedPatient.setUuid(patientElement.getTextContent());
+                    context.setAttribute(TEMPORARY_PATIENT_UUID, patientElement.getTextContent());
+                } else if (tagName.equals("patient.finger")) {
+                    savePatientsFinger(unsavedPatient, patientElement.getTextContent());
+                } else if (tagName.equals("patient.fingerprint")) {
+                    savePatientsFingerprint(unsavedPatient, patientElement.getTextContent());
+                } else if (tagName.equals("amrs_medical_record_number_identifier_type")) {
+                    extractIdentifier(context, unsavedPatient, patientElement, "AMRS Medical Record Number");
+                } else if (tagName.equals("ccc_identifier_type")) {
+                    extractIdentifier(context, unsavedPatient, patientElement, "CCC Number ");
+                } else if (tagName.equals("hct_identifier_type")) {
+                    extractIdentifier(context, unsavedPatient, patientElement, "HCT ID");
+                } else if (tagName.equals("kni_identifier_type")) {
+                    extractIdentifier(context, unsavedPatient, patientElement, "KENYAN NATIONAL ID NUMBER");
+                } else if (tagName.equals("mtct_identifier_type")) {
+                    extractIdentifier(context, unsavedPatient, patientElement, "MTCT Plus ID");
+                } else if (tagName.equals("mtrh_hospital_number_identifier_type")) {
+                    extractIdentifier(context, unsavedPatient, patientElement, "MTRH Hospital Number");
+                } else if (tagName.equals("old_amrs_number_identifier_type")) {
+                    extractIdentifier(context, unsavedPatient, patientElement, "Old AMPATH Medical Record Number");
+                } else if (tagName.equals("pmtc_identifier_type")) {
+                    extractIdentifier(context, unsavedPatient, patientElement, "pMTCT ID");
+                } else if (tagName.startsWith("person_attribute")) {
+                    PersonService personService = Context.getPersonService();
+
+                    int personAttributeTypeId = NumberUtils.toInt(tagName.replace("person_attribute", ""));
+                    PersonAttributeType personAttributeType = personService.getPersonAttributeType(personAttributeTypeId);
+                    if (personAttributeType == null) {
+                        context.addException(new Exception("Unable to find attribute type with id: " + personAttributeTypeId));
+                    } else {
+                        PersonAttribute personAttribute = new PersonAttribute();
+                        personAttribute.setAttributeType(personAttributeType);
+                        personAttribute.setValue(patientElement.getTextContent());
+                        unsavedPatient.addAttribute(personAttribute);
                     }
                 }
             }
 
-            Node encounterNode = document.getElementsByTagName("encounter").item(0);
-            NodeList encounterElementNodes = encounterNode.getChildNodes();
-
-            for (int i = 0; i < encounterElementNodes.getLength(); i++) {
-                Node encounterElementNode = encounterElementNodes.item(i);
-                if (encounterElementNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element encounterElement = (Element) encounterElementNode;
-                    if (encounterElement.getTagName().equals("encounter.location_id")) {
-                        int locationId = Integer.parseInt(encounterElement.getTextContent());
-                        Location location = Context.getLocationService().getLocation(locationId);
-                        if (location == null) {
-                            queueProcessorException.addException(new Exception("Unable to find location with id: " + locationId));
-                        } else {
-                            patientIdentifier.setLocation(location);
-                        }
-                        for (PatientIdentifier identifier : unsavedPatient.getIdentifiers()) {
-                            identifier.setLocation(location);
-                        }
+            for (XmlElement encounterElement : xmlPayload.getSection("encounter").getChildren()) {
+                if (encounterElement.getName().equals("encounter.location_id")) {
+                    int locationId = Integer.parseInt(encounterElement.getTextContent());
+                    Location location = context.getMetadataCache().getLocation(locationId);
+                    if (location == null) {
+                        context.addException(new Exception("Unable to find location with id: " + locationId));
+                    } else {
+                        patientIdentifier.setLocation(location);
+                    }
+                    for (PatientIdentifier identifier : unsavedPatient.getIdentifiers()) {
+                        identifier.setLocation(location);
                     }
                 }
             }
 
             unsavedPatient.addName(personName);
             unsavedPatient.addIdentifier(patientIdentifier);
-        } catch (ParserConfigurationException e) {
-            queueProcessorException.addException(new Exception(e.getMessage()));
-        } catch (SAXException e) {
-            queueProcessorException.addException(new Exception(e.getMessage()));
-        } catch (IOException e) {
-            queueProcessorException.addException(new Exception(e.getMessage()));
+        } catch (XMLStreamException e) {
+            context.addException(new Exception(e.getMessage()));
         }
         return unsavedPatient;
     }
 
-    /**
-     * Sets initializes the TemporaryUuid 
-     * 
-     * @param temporaryUuid - String representation of the temporaryUuid
-     */
-    private void setTemporaryPatientUuid(String temporaryUuid) {
-        this.temporaryPatientUuid = temporaryUuid;
-    }
-
-    private String getTemporaryPatientUuid() {
-        return temporaryPatientUuid;
-    }
-
     /**
      * 
+     * @param context - QueueDataContext
      * @param unsavedPatient -Patient
-     * @param patientElement - Element
+     * @param patientElement - XmlElement
      * @param typeName - String type name
      */
-    private void extractIdentifier(final Patient unsavedPatient, final Element patientElement, final String typeName) {
+    private void extractIdentifier(final QueueDataContext context, final Patient unsavedPatient, final XmlElement patientElement, final String typeName) {
         boolean identical = true;
         String identifierValue = StringUtils.EMPTY;
-        NodeList identifierValueNodeList = patientElement.getChildNodes();
-        for (int j = 0; j < identifierValueNodeList.getLength(); j++) {
-            Node identifierValueNode = identifierValueNodeList.item(j);
-            if (identifierValueNode.getNodeType() == Node.ELEMENT_NODE) {
-                if (StringUtils.isEmpty(identifierValue)) {
-                    identifierValue = identifierValueNode.getTextContent();
-                } else {
-                    if (!StringUtils.equalsIgnoreCase(identifierValue, identifierValueNode.getTextContent())) {
-                        identical = false;
-                        break;
-                    }
+        for (XmlElement identifierValueElement : patientElement.getChildren()) {
+            if (StringUtils.isEmpty(identifierValue)) {
+                identifierValue = identifierValueElement.getTextContent();
+            } else {
+                if (!StringUtils.equalsIgnoreCase(identifierValue, identifierValueElement.getTextContent())) {
+                    identical = false;
+                    break;
                 }
             }
         }
@@ -357,7 +305,7 @@ public class XmlRegistrationQueueDataHandler implements QueueDataHandler {
                 patientIdentifier.setIdentifier(identifierValue);
                 unsavedPatient.addIdentifier(patientIdentifier);
             } else {
-                queueProcessorException.addException(new Exception("Unable to find identifier type with name: " + typeName));
+                context.addException(new Exception("Unable to find identifier type with name: " + typeName));
             }
         }
     }/**
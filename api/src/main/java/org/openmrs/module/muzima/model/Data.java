@@ -17,6 +17,13 @@ package org.openmrs.module.muzima.model;
  */
 public interface Data {
 
+    /**
+     * Get the id of this data.
+     *
+     * @return the id of this data.
+     */
+    Integer getId();
+
     /**
      * Get the data payload of this data.
      *
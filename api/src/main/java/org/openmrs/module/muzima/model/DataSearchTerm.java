@@ -0,0 +1,61 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.model;
+
+import java.io.Serializable;
+
+/**
+ * An entry of the index used to search the queue, error and archive data on the admin screens, see
+ * {@link org.openmrs.module.muzima.utils.DataSearchUtils}. A data has an entry for every term of its metadata and
+ * payload. The entries refer to the uuid of the data, which is kept when the data moves between the queue, error and
+ * archive tables, so they stay valid when the data is processed or requeued.
+ */
+public class DataSearchTerm implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private Integer id;
+    private String dataUuid;
+    private String term;
+
+    public DataSearchTerm() {
+    }
+
+    public DataSearchTerm(final String dataUuid, final String term) {
+        this.dataUuid = dataUuid;
+        this.term = term;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public String getDataUuid() {
+        return dataUuid;
+    }
+
+    public void setDataUuid(String dataUuid) {
+        this.dataUuid = dataUuid;
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    public void setTerm(String term) {
+        this.term = term;
+    }
+}
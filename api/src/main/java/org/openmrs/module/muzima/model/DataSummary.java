@@ -0,0 +1,155 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.model;
+
+import java.util.Date;
+
+/**
+ * The columns of a queue, error or archive data shown in the lists of the admin screens. The summaries are read with
+ * a projection, so the payload of the data never leaves the database, only the first characters as a preview.
+ */
+public class DataSummary {
+
+    public static final int PAYLOAD_PREVIEW_LENGTH = 64;
+
+    private String uuid;
+
+    private String discriminator;
+
+    private String dataSourceName;
+
+    private String formName;
+
+    private String patientUuid;
+
+    private Integer locationId;
+
+    private String locationName;
+
+    private String providerIdentifier;
+
+    private String providerName;
+
+    private Date dateCreated;
+
+    private Date dateProcessed;
+
+    private String message;
+
+    private String payloadPreview;
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public void setUuid(final String uuid) {
+        this.uuid = uuid;
+    }
+
+    public String getDiscriminator() {
+        return discriminator;
+    }
+
+    public void setDiscriminator(final String discriminator) {
+        this.discriminator = discriminator;
+    }
+
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    public void setDataSourceName(final String dataSourceName) {
+        this.dataSourceName = dataSourceName;
+    }
+
+    public String getFormName() {
+        return formName;
+    }
+
+    public void setFormName(final String formName) {
+        this.formName = formName;
+    }
+
+    public String getPatientUuid() {
+        return patientUuid;
+    }
+
+    public void setPatientUuid(final String patientUuid) {
+        this.patientUuid = patientUuid;
+    }
+
+    public Integer getLocationId() {
+        return locationId;
+    }
+
+    public void setLocationId(final Integer locationId) {
+        this.locationId = locationId;
+    }
+
+    public String getLocationName() {
+        return locationName;
+    }
+
+    public void setLocationName(final String locationName) {
+        this.locationName = locationName;
+    }
+
+    public String getProviderIdentifier() {
+        return providerIdentifier;
+    }
+
+    public void setProviderIdentifier(final String providerIdentifier) {
+        this.providerIdentifier = providerIdentifier;
+    }
+
+    public String getProviderName() {
+        return providerName;
+    }
+
+    public void setProviderName(final String providerName) {
+        this.providerName = providerName;
+    }
+
+    public Date getDateCreated() {
+        return dateCreated;
+    }
+
+    public void setDateCreated(final Date dateCreated) {
+        this.dateCreated = dateCreated;
+    }
+
+    public Date getDateProcessed() {
+        return dateProcessed;
+    }
+
+    public void setDateProcessed(final Date dateProcessed) {
+        this.dateProcessed = dateProcessed;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(final String message) {
+        this.message = message;
+    }
+
+    public String getPayloadPreview() {
+        return payloadPreview;
+    }
+
+    public void setPayloadPreview(final String payloadPreview) {
+        this.payloadPreview = payloadPreview;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outcome of validating an error data again against the handler of its discriminator. Not persisted.
+ */
+public class ErrorDataValidation {
+
+    private final Integer errorDataId;
+
+    private final String uuid;
+
+    private final String discriminator;
+
+    private final String patientUuid;
+
+    private final String formName;
+
+    private final List<String> messages = new ArrayList<String>();
+
+    public ErrorDataValidation(final ErrorData errorData) {
+        this.errorDataId = errorData.getId();
+        this.uuid = errorData.getUuid();
+        this.discriminator = errorData.getDiscriminator();
+        this.patientUuid = errorData.getPatientUuid();
+        this.formName = errorData.getFormName();
+    }
+
+    public Integer getErrorDataId() {
+        return errorDataId;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public String getDiscriminator() {
+        return discriminator;
+    }
+
+    public String getPatientUuid() {
+        return patientUuid;
+    }
+
+    public String getFormName() {
+        return formName;
+    }
+
+    /**
+     * @return the validation errors, empty when the error data would now pass the validation.
+     */
+    public List<String> getMessages() {
+        return messages;
+    }
+
+    public void addMessage(final String message) {
+        messages.add(message);
+    }
+
+    public boolean isValid() {
+        return messages.isEmpty();
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.model;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * An entry of the index used to find the saved patients a submitted patient might be, see
+ * {@link org.openmrs.module.muzima.utils.PatientSearchUtils#findSimilarPatient(org.openmrs.Patient)}. A patient has
+ * an entry for the phonetic key of every given and family name, together with the gender and birth year. Entries are
+ * stamped with the date they were created, the index is up to date with the patients changed before the latest one.
+ */
+public class PatientMatchKey implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private Integer id;
+    private Integer patientId;
+    private String gender;
+    private Integer birthYear;
+    private String nameKey;
+    private Date dateIndexed;
+
+    public PatientMatchKey() {
+    }
+
+    public PatientMatchKey(final Integer patientId, final String gender, final Integer birthYear, final String nameKey) {
+        this.patientId = patientId;
+        this.gender = gender;
+        this.birthYear = birthYear;
+        this.nameKey = nameKey;
+        this.dateIndexed = new Date();
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public Integer getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(Integer patientId) {
+        this.patientId = patientId;
+    }
+
+    public String getGender() {
+        return gender;
+    }
+
+    public void setGender(String gender) {
+        this.gender = gender;
+    }
+
+    public Integer getBirthYear() {
+        return birthYear;
+    }
+
+    public void setBirthYear(Integer birthYear) {
+        this.birthYear = birthYear;
+    }
+
+    public String getNameKey() {
+        return nameKey;
+    }
+
+    public void setNameKey(String nameKey) {
+        this.nameKey = nameKey;
+    }
+
+    public Date getDateIndexed() {
+        return dateIndexed;
+    }
+
+    public void setDateIndexed(Date dateIndexed) {
+        this.dateIndexed = dateIndexed;
+    }
+}
@@ -13,15 +13,99 @@
  */
 package org.openmrs.module.muzima.model;
 
+import org.openmrs.module.muzima.utils.JsonUtils;
+import org.openmrs.module.muzima.utils.XmlSections;
+
+import javax.xml.stream.XMLStreamException;
+import java.util.Date;
+
 /**
  * It is a model class. It should extend either {@link org.openmrs.BaseOpenmrsObject} or {@link org.openmrs.BaseOpenmrsMetadata}.
  */
 public class QueueData extends AuditableData {
 
+    private static final String[] XML_PAYLOAD_SECTIONS = {"patient", "encounter", "obs"};
+
+    private transient Object jsonPayload;
+
+    private transient XmlSections xmlPayload;
+
+    private String claimedBy;
+
+    private Date leaseExpiry;
+
     public QueueData() {
     }
 
     public QueueData(final AuditableData data) {
         super(data);
     }
-}
\ No newline at end of file
+
+    @Override
+    public void setPayload(final String payload) {
+        super.setPayload(payload);
+        this.jsonPayload = null;
+        this.xmlPayload = null;
+    }
+
+    /**
+     * Get the payload parsed as json. The payload is parsed on the first call only and the same document is returned
+     * afterwards, so the handlers and the queue processor can read as many paths as they need without parsing the
+     * payload again. When the payload is not valid json, the payload string is returned and reading from it will fail
+     * the same way it did before.
+     *
+     * @return the parsed json payload, to be read using {@link JsonUtils}.
+     */
+    public Object getJsonPayload() {
+        if (jsonPayload == null && getPayload() != null) {
+            try {
+                jsonPayload = JsonUtils.parseJson(getPayload());
+            } catch (Exception e) {
+                jsonPayload = getPayload();
+            }
+        }
+        return jsonPayload;
+    }
+
+    /**
+     * Get the patient, encounter and obs sections of the xml payload, see {@link XmlSections}. The payload is parsed on
+     * the first call only and the same sections are returned afterwards.
+     *
+     * @return the sections of the xml payload.
+     * @throws XMLStreamException when the payload is not valid xml.
+     */
+    public XmlSections getXmlPayload() throws XMLStreamException {
+        if (xmlPayload == null) {
+            xmlPayload = XmlSections.parse(getPayload(), XML_PAYLOAD_SECTIONS);
+        }
+        return xmlPayload;
+    }
+
+    /**
+     * Get the queue data processor currently holding the queue data. The claim is written by the queue data processor
+     * directly in the database and is never saved through the queue data.
+     *
+     * @return the claimant, or null when the queue data is not claimed.
+     */
+    public String getClaimedBy() {
+        return claimedBy;
+    }
+
+    public void setClaimedBy(final String claimedBy) {
+        this.claimedBy = claimedBy;
+    }
+
+    /**
+     * Get the time until which the claim of the queue data is held. Once expired, the queue data can be claimed by any
+     * queue data processor again.
+     *
+     * @return the lease expiry, or null when the queue data is not claimed.
+     */
+    public Date getLeaseExpiry() {
+        return leaseExpiry;
+    }
+
+    public void setLeaseExpiry(final Date leaseExpiry) {
+        this.leaseExpiry = leaseExpiry;
+    }
+}
@@ -0,0 +1,325 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.model.handler;
+
+import org.openmrs.Concept;
+import org.openmrs.EncounterRole;
+import org.openmrs.Form;
+import org.openmrs.Location;
+import org.openmrs.Provider;
+import org.openmrs.User;
+import org.openmrs.VisitAttributeType;
+import org.openmrs.VisitType;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.api.service.MuzimaFormService;
+import org.openmrs.module.muzima.model.MuzimaForm;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of the metadata looked up by the {@link QueueDataHandler}s, e.g. the concepts of the observations or the
+ * location of the encounters. A cache is shared by all handlers of a single queue processor run, so every metadata is
+ * looked up, e.g. by uuid or identifier, once per run instead of once per queue data.
+ * <p/>
+ * Only the ids of the metadata are cached, never the metadata themselves. The processor clears the session after
+ * every batch, rolls it back for every failed queue data and each worker thread has its own session, so a cached
+ * entity would be detached and shared across sessions and threads. The metadata are loaded by id in the session of
+ * the caller instead, which is answered from the session until the session is cleared.
+ * <p/>
+ * Concepts and locations are looked up by id already, the session of the caller answers them just as well, so only
+ * the ids which don't exist are cached for them. Their lookups by id are neither hits nor misses of the cache.
+ * <p/>
+ * Missing metadata are cached as well. All caches are invalidated when metadata is changed, see
+ * {@link #invalidateAll()}.
+ */
+public class MetadataCache {
+
+    private static final Object MISSING = new Object();
+
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    private final Set<Integer> missingConcepts = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    private final Set<Integer> missingLocations = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+    private final ConcurrentMap<String, Object> providers = new ConcurrentHashMap<String, Object>();
+
+    private final ConcurrentMap<String, Object> users = new ConcurrentHashMap<String, Object>();
+
+    private final ConcurrentMap<String, Object> encounterRoles = new ConcurrentHashMap<String, Object>();
+
+    private final ConcurrentMap<String, Object> forms = new ConcurrentHashMap<String, Object>();
+
+    private final ConcurrentMap<String, Object> muzimaForms = new ConcurrentHashMap<String, Object>();
+
+    private final ConcurrentMap<String, Object> visitTypes = new ConcurrentHashMap<String, Object>();
+
+    private final ConcurrentMap<String, Object> visitAttributeTypes = new ConcurrentHashMap<String, Object>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private volatile int cachedGeneration = generation.get();
+
+    /**
+     * Invalidate every metadata cache, the next lookup of every cache looks the metadata up in the database again.
+     */
+    public static void invalidateAll() {
+        generation.incrementAndGet();
+    }
+
+    public Concept getConcept(final int conceptId) {
+        if (isMissing(missingConcepts, conceptId)) {
+            return null;
+        }
+        Concept concept = Context.getConceptService().getConcept(conceptId);
+        if (concept == null) {
+            misses.incrementAndGet();
+            missingConcepts.add(conceptId);
+        }
+        return concept;
+    }
+
+    public Location getLocation(final int locationId) {
+        if (isMissing(missingLocations, locationId)) {
+            return null;
+        }
+        Location location = Context.getLocationService().getLocation(locationId);
+        if (location == null) {
+            misses.incrementAndGet();
+            missingLocations.add(locationId);
+        }
+        return location;
+    }
+
+    public Provider getProviderByIdentifier(final String identifier) {
+        return get(providers, identifier, new Loader<String, Provider>() {
+            @Override
+            public Provider find(final String key) {
+                return Context.getProviderService().getProviderByIdentifier(key);
+            }
+
+            @Override
+            public Provider load(final Integer id) {
+                return Context.getProviderService().getProvider(id);
+            }
+
+            @Override
+            public Integer getId(final Provider provider) {
+                return provider.getProviderId();
+            }
+        });
+    }
+
+    public User getUserByUsername(final String username) {
+        return get(users, username, new Loader<String, User>() {
+            @Override
+            public User find(final String key) {
+                return Context.getUserService().getUserByUsername(key);
+            }
+
+            @Override
+            public User load(final Integer id) {
+                return Context.getUserService().getUser(id);
+            }
+
+            @Override
+            public Integer getId(final User user) {
+                return user.getUserId();
+            }
+        });
+    }
+
+    public EncounterRole getEncounterRoleByUuid(final String uuid) {
+        return get(encounterRoles, uuid, new Loader<String, EncounterRole>() {
+            @Override
+            public EncounterRole find(final String key) {
+                return Context.getEncounterService().getEncounterRoleByUuid(key);
+            }
+
+            @Override
+            public EncounterRole load(final Integer id) {
+                return Context.getEncounterService().getEncounterRole(id);
+            }
+
+            @Override
+            public Integer getId(final EncounterRole encounterRole) {
+                return encounterRole.getEncounterRoleId();
+            }
+        });
+    }
+
+    public Form getFormByUuid(final String uuid) {
+        return get(forms, uuid, new Loader<String, Form>() {
+            @Override
+            public Form find(final String key) {
+                return Context.getFormService().getFormByUuid(key);
+            }
+
+            @Override
+            public Form load(final Integer id) {
+                return Context.getFormService().getForm(id);
+            }
+
+            @Override
+            public Integer getId(final Form form) {
+                return form.getFormId();
+            }
+        });
+    }
+
+    public MuzimaForm getMuzimaFormByUuid(final String uuid) {
+        return get(muzimaForms, uuid, new Loader<String, MuzimaForm>() {
+            @Override
+            public MuzimaForm find(final String key) {
+                return Context.getService(MuzimaFormService.class).getFormByUuid(key);
+            }
+
+            @Override
+            public MuzimaForm load(final Integer id) {
+                return Context.getService(MuzimaFormService.class).getFormById(id);
+            }
+
+            @Override
+            public Integer getId(final MuzimaForm muzimaForm) {
+                return muzimaForm.getId();
+            }
+        });
+    }
+
+    public VisitType getVisitTypeByUuid(final String uuid) {
+        return get(visitTypes, uuid, new Loader<String, VisitType>() {
+            @Override
+            public VisitType find(final String key) {
+                return Context.getVisitService().getVisitTypeByUuid(key);
+            }
+
+            @Override
+            public VisitType load(final Integer id) {
+                return Context.getVisitService().getVisitType(id);
+            }
+
+            @Override
+            public Integer getId(final VisitType visitType) {
+                return visitType.getVisitTypeId();
+            }
+        });
+    }
+
+    public VisitAttributeType getVisitAttributeTypeByUuid(final String uuid) {
+        return get(visitAttributeTypes, uuid, new Loader<String, VisitAttributeType>() {
+            @Override
+            public VisitAttributeType find(final String key) {
+                return Context.getVisitService().getVisitAttributeTypeByUuid(key);
+            }
+
+            @Override
+            public VisitAttributeType load(final Integer id) {
+                return Context.getVisitService().getVisitAttributeType(id);
+            }
+
+            @Override
+            public Integer getId(final VisitAttributeType visitAttributeType) {
+                return visitAttributeType.getVisitAttributeTypeId();
+            }
+        });
+    }
+
+    /**
+     * Remove all cached metadata.
+     */
+    public void clear() {
+        missingConcepts.clear();
+        missingLocations.clear();
+        providers.clear();
+        users.clear();
+        encounterRoles.clear();
+        forms.clear();
+        muzimaForms.clear();
+        visitTypes.clear();
+        visitAttributeTypes.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "MetadataCache{hits=" + getHits() + ", misses=" + getMisses() + "}";
+    }
+
+    private boolean isMissing(final Set<Integer> missingIds, final int id) {
+        invalidateIfStale();
+        if (missingIds.contains(id)) {
+            hits.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private <K, V> V get(final ConcurrentMap<K, Object> cache, final K key, final Loader<K, V> loader) {
+        if (key == null) {
+            return null;
+        }
+        invalidateIfStale();
+        Object id = cache.get(key);
+        if (id != null) {
+            hits.incrementAndGet();
+            return id == MISSING ? null : loader.load((Integer) id);
+        }
+        misses.incrementAndGet();
+        V found = loader.find(key);
+        cache.putIfAbsent(key, found == null || loader.getId(found) == null ? MISSING : loader.getId(found));
+        return found;
+    }
+
+    private void invalidateIfStale() {
+        int currentGeneration = generation.get();
+        if (cachedGeneration != currentGeneration) {
+            clear();
+            cachedGeneration = currentGeneration;
+        }
+    }
+
+    /**
+     * Looks the metadata up in the session of the caller.
+     */
+    private interface Loader<K, V> {
+
+        /**
+         * @param key the key of the cache, e.g. the uuid of the metadata.
+         * @return the metadata, or null when there is no such metadata.
+         */
+        V find(final K key);
+
+        /**
+         * @param id the id of metadata found before.
+         * @return the metadata.
+         */
+        V load(final Integer id);
+
+        Integer getId(final V value);
+    }
+}
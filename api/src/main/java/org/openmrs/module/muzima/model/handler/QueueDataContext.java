@@ -0,0 +1,163 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.model.handler;
+
+import org.openmrs.module.muzima.exception.QueueProcessorException;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.utils.XmlSections;
+
+import javax.xml.stream.XMLStreamException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * State of a single validate or process invocation of a {@link QueueDataHandler}. A new context is created for every
+ * queue data, which keeps the handlers free of per-item state and allows them to be called from several threads.
+ */
+public class QueueDataContext {
+
+    private final QueueData queueData;
+
+    private final QueueProcessorException queueProcessorException;
+
+    private final Map<String, Object> attributes;
+
+    private final MetadataCache metadataCache;
+
+    private final VisitResolver visitResolver;
+
+    public QueueDataContext(final QueueData queueData) {
+        this(queueData, new MetadataCache());
+    }
+
+    public QueueDataContext(final QueueData queueData, final MetadataCache metadataCache) {
+        this(queueData, metadataCache, new VisitResolver());
+    }
+
+    public QueueDataContext(final QueueData queueData, final MetadataCache metadataCache,
+                            final VisitResolver visitResolver) {
+        this.queueData = queueData;
+        this.queueProcessorException = new QueueProcessorException();
+        this.attributes = new HashMap<String, Object>();
+        this.metadataCache = metadataCache;
+        this.visitResolver = visitResolver;
+    }
+
+    /**
+     * Get the queue data being handled.
+     *
+     * @return the queue data.
+     */
+    public QueueData getQueueData() {
+        return queueData;
+    }
+
+    /**
+     * Get the payload of the queue data being handled.
+     *
+     * @return the payload.
+     */
+    public String getPayload() {
+        return queueData.getPayload();
+    }
+
+    /**
+     * Get the payload of the queue data being handled parsed as json.
+     *
+     * @return the parsed json payload.
+     * @see QueueData#getJsonPayload()
+     */
+    public Object getJsonPayload() {
+        return queueData.getJsonPayload();
+    }
+
+    /**
+     * Get the patient, encounter and obs sections of the xml payload of the queue data being handled.
+     *
+     * @return the sections of the xml payload.
+     * @throws XMLStreamException when the payload is not valid xml.
+     * @see QueueData#getXmlPayload()
+     */
+    public XmlSections getXmlPayload() throws XMLStreamException {
+        return queueData.getXmlPayload();
+    }
+
+    /**
+     * Get the cache of the metadata looked up while handling the queue data. The cache is shared with the other queue
+     * data handled in the same run.
+     *
+     * @return the metadata cache.
+     */
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * Get the resolver of the visits the encounters are added to. The resolver is shared with the other queue data of
+     * the same patient handled in the same batch.
+     *
+     * @return the visit resolver.
+     */
+    public VisitResolver getVisitResolver() {
+        return visitResolver;
+    }
+
+    /**
+     * Get the exception collecting all errors found while handling the queue data.
+     *
+     * @return the queue processor exception.
+     */
+    public QueueProcessorException getQueueProcessorException() {
+        return queueProcessorException;
+    }
+
+    /**
+     * Record an error found while handling the queue data.
+     *
+     * @param exception the error.
+     */
+    public void addException(final Exception exception) {
+        queueProcessorException.addException(exception);
+    }
+
+    /**
+     * Flag whether any error was found while handling the queue data.
+     *
+     * @return true when at least one error was recorded.
+     */
+    public boolean anyExceptions() {
+        return queueProcessorException.anyExceptions();
+    }
+
+    /**
+     * Store an entity built while handling the queue data, e.g. the encounter or the patient being saved.
+     *
+     * @param name  the name of the entity.
+     * @param value the entity.
+     */
+    public void setAttribute(final String name, final Object value) {
+        attributes.put(name, value);
+    }
+
+    /**
+     * Get an entity stored while handling the queue data.
+     *
+     * @param name the name of the entity.
+     * @param type the expected type of the entity.
+     * @return the entity or null when no entity was stored with the name.
+     */
+    public <T> T getAttribute(final String name, final Class<T> type) {
+        return type.cast(attributes.get(name));
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.model.handler;
+
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.util.HandlerUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dispatch table of the registered {@link QueueDataHandler}s keyed by their discriminator. The table is built once
+ * and every queue data goes straight to the handler of its discriminator instead of asking every handler whether it
+ * accepts the queue data.
+ */
+public class QueueDataDispatcher {
+
+    private final Map<String, QueueDataHandler> handlers;
+
+    public QueueDataDispatcher(final List<QueueDataHandler> queueDataHandlers) {
+        this.handlers = new LinkedHashMap<String, QueueDataHandler>();
+        for (QueueDataHandler queueDataHandler : queueDataHandlers) {
+            // handlers are ordered, the first handler registered for a discriminator wins.
+            if (!handlers.containsKey(queueDataHandler.getDiscriminator())) {
+                handlers.put(queueDataHandler.getDiscriminator(), queueDataHandler);
+            }
+        }
+    }
+
+    /**
+     * Create the dispatch table from the handlers currently registered for {@link QueueData}.
+     *
+     * @return the dispatch table.
+     */
+    public static QueueDataDispatcher create() {
+        return new QueueDataDispatcher(HandlerUtil.getHandlersForType(QueueDataHandler.class, QueueData.class));
+    }
+
+    /**
+     * Get the handler for the queue data.
+     *
+     * @param queueData the queue data.
+     * @return the handler for the discriminator of the queue data or null when no handler accepts the queue data.
+     */
+    public QueueDataHandler getHandler(final QueueData queueData) {
+        QueueDataHandler queueDataHandler = handlers.get(queueData.getDiscriminator());
+        if (queueDataHandler != null && queueDataHandler.accept(queueData)) {
+            return queueDataHandler;
+        }
+        return null;
+    }
+
+    /**
+     * Get the discriminators of the registered handlers, in the order of the handlers.
+     *
+     * @return the discriminators.
+     */
+    public List<String> getDiscriminators() {
+        return Collections.unmodifiableList(new ArrayList<String>(handlers.keySet()));
+    }
+}
@@ -17,14 +17,16 @@ import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.QueueData;
 
 /**
+ * Handlers are shared by every queue data and may be called from several threads at once, all per-item state
+ * belongs in the {@link QueueDataContext}.
  */
 public interface QueueDataHandler {
     /**
      * Implementation of how the queue data should be processed.
      *
-     * @param queueData the queued data.
+     * @param context the processing context of the queued data.
      */
-    void process(final QueueData queueData) throws QueueProcessorException;
+    void process(final QueueDataContext context) throws QueueProcessorException;
 
     /**
      * Flag whether the current queue data handler can handle the queue data.
@@ -37,10 +39,10 @@ public interface QueueDataHandler {
     /**
      * Validating the the payload before processing the data
      *
-     * @param queueData the queue data.
+     * @param context the processing context of the queue data.
      * @return true when payload can be process
      */
-    boolean validate(final QueueData queueData);
+    boolean validate(final QueueDataContext context);
 
     /**
      * Get the discriminator for this handler
@@ -0,0 +1,153 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.model.handler;
+
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+import org.openmrs.api.context.Context;
+import org.openmrs.util.OpenmrsUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the visit an encounter belongs to, remembering the visits of every patient and day it looked up and the
+ * visits created along the way. A device submitting several forms of the same patient and day queries the visits of
+ * that patient and day once instead of once per form, and the forms end up in the same visit.
+ * <p/>
+ * A resolver is meant for the queue data of a single patient within a single batch of the queue processor, i.e. for
+ * the life of one hibernate session. It is not thread safe.
+ */
+public class VisitResolver {
+
+    private final Map<Integer, Map<Date, List<Visit>>> visitsByPatient = new HashMap<Integer, Map<Date, List<Visit>>>();
+
+    private int queries;
+
+    /**
+     * Get the visit the encounter fits in: a visit of the patient of the encounter, started before and not stopped
+     * before the encounter datetime, and at the location of the encounter or one of its parent locations. Of several
+     * matching visits the one started last wins.
+     *
+     * @param encounter the encounter.
+     * @return the visit, or null when there is no matching visit.
+     */
+    public Visit getVisit(final Encounter encounter) {
+        Date encounterDatetime = encounter.getEncounterDatetime();
+        for (Visit visit : getCandidates(encounter.getPatient(), encounterDatetime)) {
+            if (encounterDatetime != null && visit.getStartDatetime().after(encounterDatetime)) {
+                continue;
+            }
+            // Skip visits which ended before the encounter date
+            if (visit.getStopDatetime() != null && encounterDatetime != null
+                    && visit.getStopDatetime().before(encounterDatetime)) {
+                continue;
+            }
+            if (isInHierarchy(visit, encounter)) {
+                return visit;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remember a visit created for an encounter, so the following encounters of the patient can be added to it.
+     *
+     * @param visit the saved visit.
+     */
+    public void addVisit(final Visit visit) {
+        Patient patient = visit.getPatient();
+        if (patient == null || patient.getPatientId() == null) {
+            return;
+        }
+        Map<Date, List<Visit>> visitsByDay = visitsByPatient.get(patient.getPatientId());
+        if (visitsByDay == null) {
+            return;
+        }
+        // the days not looked up yet will find the visit in the database.
+        for (Map.Entry<Date, List<Visit>> entry : visitsByDay.entrySet()) {
+            if (!visit.getStartDatetime().after(OpenmrsUtil.getLastMomentOfDay(entry.getKey()))) {
+                insertByStartDatetime(entry.getValue(), visit);
+            }
+        }
+    }
+
+    /**
+     * Forget the visits looked up and created so far, e.g. after the transaction which created some of them was rolled
+     * back.
+     */
+    public void clear() {
+        visitsByPatient.clear();
+    }
+
+    /**
+     * @return the number of times the visits were looked up in the database.
+     */
+    public int getQueries() {
+        return queries;
+    }
+
+    /**
+     * Get the visits of the patient started on or before the day, most recently started first, querying the database
+     * the first time the patient and day are seen only.
+     */
+    private List<Visit> getCandidates(final Patient patient, final Date encounterDatetime) {
+        if (patient == null || patient.getPatientId() == null || encounterDatetime == null) {
+            return queryVisits(patient, encounterDatetime);
+        }
+        Map<Date, List<Visit>> visitsByDay = visitsByPatient.get(patient.getPatientId());
+        if (visitsByDay == null) {
+            visitsByDay = new HashMap<Date, List<Visit>>();
+            visitsByPatient.put(patient.getPatientId(), visitsByDay);
+        }
+        Date day = OpenmrsUtil.firstSecondOfDay(encounterDatetime);
+        List<Visit> visits = visitsByDay.get(day);
+        if (visits == null) {
+            visits = new ArrayList<Visit>();
+            for (Visit visit : queryVisits(patient, OpenmrsUtil.getLastMomentOfDay(day))) {
+                insertByStartDatetime(visits, visit);
+            }
+            visitsByDay.put(day, visits);
+        }
+        return visits;
+    }
+
+    private List<Visit> queryVisits(final Patient patient, final Date maxStartDatetime) {
+        queries++;
+        List<Patient> patients = patient == null ? null : Collections.singletonList(patient);
+        return Context.getVisitService().getVisits(null, patients, null, null, null, maxStartDatetime, null, null,
+                null, true, false);
+    }
+
+    private void insertByStartDatetime(final List<Visit> visits, final Visit visit) {
+        if (visits.contains(visit)) {
+            return;
+        }
+        int index = 0;
+        while (index < visits.size() && !visits.get(index).getStartDatetime().before(visit.getStartDatetime())) {
+            index++;
+        }
+        visits.add(index, visit);
+    }
+
+    private boolean isInHierarchy(final Visit visit, final Encounter encounter) {
+        return visit.getLocation() == null || Location.isInHierarchy(encounter.getLocation(), visit.getLocation());
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.task;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.User;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.muzima.api.service.DataService;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Moves error data back to the queue or deletes queue data selected on the admin screens, in chunks. Every chunk is a
+ * single set based operation inside the database in a transaction of its own, see
+ * {@link DataService#requeueErrorData(List)} and {@link DataService#purgeQueueData(List)}, so the data are never
+ * loaded and a large selection doesn't end up in one huge transaction.
+ * <p/>
+ * Selections of up to a chunk are handled right away, larger ones run in the background, one job at a time, and their
+ * progress can be followed with {@link #getJob(String)}. Finished jobs are forgotten after an hour.
+ * <p/>
+ * Background jobs run in a daemon thread of the module, see {@link #setDaemonToken(DaemonToken)}, on behalf of the user
+ * who started them. Jobs still waiting when the module stops are failed.
+ */
+public class BulkDataJob implements Runnable {
+
+    private static final Log log = LogFactory.getLog(BulkDataJob.class);
+
+    public static final String REQUEUE_ERROR_DATA = "requeueErrorData";
+
+    public static final String PURGE_QUEUE_DATA = "purgeQueueData";
+
+    public static final String STATUS_WAITING = "waiting";
+
+    public static final String STATUS_RUNNING = "running";
+
+    public static final String STATUS_COMPLETED = "completed";
+
+    public static final String STATUS_FAILED = "failed";
+
+    static final int CHUNK_SIZE = 500;
+
+    private static final long RETENTION_MILLIS = 60 * 60 * 1000L;
+
+    private static final Map<String, BulkDataJob> jobs = new ConcurrentHashMap<String, BulkDataJob>();
+
+    private static final Queue<BulkDataJob> waitingJobs = new ConcurrentLinkedQueue<BulkDataJob>();
+
+    private static final AtomicBoolean isRunning = new AtomicBoolean(false);
+
+    private static volatile DaemonToken daemonToken;
+
+    private final String uuid = UUID.randomUUID().toString();
+
+    private final String operation;
+
+    private final List<String> uuids;
+
+    private final Date dateCreated = new Date();
+
+    private final String creatorUuid;
+
+    private volatile String status = STATUS_WAITING;
+
+    private volatile int processed;
+
+    private volatile int affected;
+
+    private volatile String message;
+
+    private volatile Date dateFinished;
+
+    private BulkDataJob(final String operation, final List<String> uuids) {
+        this.operation = operation;
+        this.uuids = new ArrayList<String>(uuids);
+        User creator = Context.getAuthenticatedUser();
+        this.creatorUuid = creator == null ? null : creator.getUuid();
+    }
+
+    /**
+     * Set the token used to run the background jobs in a daemon thread, handed over by the module activator.
+     *
+     * @param token the daemon token, or null to fail the waiting jobs when the module stops.
+     */
+    public static void setDaemonToken(final DaemonToken token) {
+        daemonToken = token;
+        if (token == null) {
+            failWaitingJobs("The job was cancelled because the module stopped.");
+        }
+    }
+
+    /**
+     * Move the error data with the given uuids back to the queue.
+     *
+     * @param uuids the uuids of the error data.
+     * @return the job, finished unless it runs in the background.
+     */
+    public static BulkDataJob requeueErrorData(final List<String> uuids) {
+        return start(new BulkDataJob(REQUEUE_ERROR_DATA, uuids));
+    }
+
+    /**
+     * Delete the queue data with the given uuids.
+     *
+     * @param uuids the uuids of the queue data.
+     * @return the job, finished unless it runs in the background.
+     */
+    public static BulkDataJob purgeQueueData(final List<String> uuids) {
+        return start(new BulkDataJob(PURGE_QUEUE_DATA, uuids));
+    }
+
+    /**
+     * @param uuid the uuid of the job.
+     * @return the job, or null when there is no such job or it finished more than an hour ago.
+     */
+    public static BulkDataJob getJob(final String uuid) {
+        return uuid == null ? null : jobs.get(uuid);
+    }
+
+    private static BulkDataJob start(final BulkDataJob job) {
+        if (job.uuids.size() <= CHUNK_SIZE) {
+            job.run();
+            return job;
+        }
+        removeFinishedJobs();
+        jobs.put(job.uuid, job);
+        waitingJobs.add(job);
+        startNextJob();
+        return job;
+    }
+
+    /**
+     * Run the next waiting job in a daemon thread of its own, unless a job is running already. The daemon thread
+     * becomes the user who started the job, so it can't be reused for the jobs of other users.
+     */
+    private static void startNextJob() {
+        DaemonToken token = daemonToken;
+        if (token == null) {
+            failWaitingJobs("The job can't run because the module isn't started.");
+            return;
+        }
+        if (waitingJobs.isEmpty() || !isRunning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Daemon.runInDaemonThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        BulkDataJob job = waitingJobs.poll();
+                        if (job != null) {
+                            job.runAsCreator();
+                        }
+                    } finally {
+                        isRunning.set(false);
+                        startNextJob();
+                    }
+                }
+            }, token);
+        } catch (RuntimeException e) {
+            isRunning.set(false);
+            log.error("Unable to start the bulk data job.", e);
+            failWaitingJobs("Unable to start the job: " + e.getMessage());
+        }
+    }
+
+    private static void failWaitingJobs(final String message) {
+        BulkDataJob job = waitingJobs.poll();
+        while (job != null) {
+            job.message = message;
+            job.status = STATUS_FAILED;
+            job.dateFinished = new Date();
+            job = waitingJobs.poll();
+        }
+    }
+
+    private static void removeFinishedJobs() {
+        long now = System.currentTimeMillis();
+        Iterator<BulkDataJob> iterator = jobs.values().iterator();
+        while (iterator.hasNext()) {
+            Date finished = iterator.next().dateFinished;
+            if (finished != null && now - finished.getTime() > RETENTION_MILLIS) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void runAsCreator() {
+        try {
+            User creator = creatorUuid == null ? null : Context.getUserService().getUserByUuid(creatorUuid);
+            if (creator != null) {
+                Context.becomeUser(creator.getSystemId());
+            }
+        } catch (Exception e) {
+            log.error("Unable to run the bulk " + operation + " as user " + creatorUuid + ".", e);
+            message = e.getMessage();
+            status = STATUS_FAILED;
+            dateFinished = new Date();
+            return;
+        }
+        run();
+    }
+
+    @Override
+    public void run() {
+        status = STATUS_RUNNING;
+        DataService dataService = Context.getService(DataService.class);
+        try {
+            for (int from = 0; from < uuids.size(); from += CHUNK_SIZE) {
+                List<String> chunk = uuids.subList(from, Math.min(from + CHUNK_SIZE, uuids.size()));
+                if (REQUEUE_ERROR_DATA.equals(operation)) {
+                    affected += dataService.requeueErrorData(chunk);
+                } else {
+                    affected += dataService.purgeQueueData(chunk);
+                }
+                processed += chunk.size();
+            }
+            status = STATUS_COMPLETED;
+        } catch (Exception e) {
+            log.error("Unable to " + operation + " after " + processed + " of " + uuids.size() + " uuids.", e);
+            message = e.getMessage();
+            status = STATUS_FAILED;
+        } finally {
+            dateFinished = new Date();
+        }
+        if (REQUEUE_ERROR_DATA.equals(operation) && affected > 0) {
+            ContinuousQueueDataProcessor.submitAll();
+        }
+        log.info("Bulk " + operation + " of " + uuids.size() + " uuids " + status + ", " + affected + " data affected in "
+                + (dateFinished.getTime() - dateCreated.getTime()) + " ms.");
+    }
+
+    /**
+     * @return the progress of the job, e.g. to be polled by the admin screens.
+     */
+    public Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("uuid", uuid);
+        snapshot.put("operation", operation);
+        snapshot.put("status", status);
+        snapshot.put("total", uuids.size());
+        snapshot.put("processed", processed);
+        snapshot.put("affected", affected);
+        snapshot.put("message", message);
+        snapshot.put("dateCreated", dateCreated);
+        snapshot.put("dateFinished", dateFinished);
+        return snapshot;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public int getProcessed() {
+        return processed;
+    }
+
+    public int getAffected() {
+        return affected;
+    }
+}
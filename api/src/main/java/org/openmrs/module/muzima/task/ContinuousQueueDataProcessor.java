@@ -0,0 +1,208 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.task;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.muzima.api.service.MuzimaSettingService;
+import org.openmrs.module.muzima.model.MuzimaSetting;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_BATCH_SIZE_DEFAULT_VALUE;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_CONTINUOUS_SETTING_PROPERTY;
+
+/**
+ * Processes queue data as soon as they are submitted, instead of waiting for the next run of the
+ * {@link ProcessQueueDataTask}. The continuous mode is enabled with the
+ * {@link org.openmrs.module.muzima.utils.Constants.MuzimaSettings#QUEUE_PROCESSOR_CONTINUOUS_SETTING_PROPERTY}
+ * setting, the scheduled task keeps sweeping whatever is left in the queue either way.
+ * <p/>
+ * The submitted queue data are processed by a single daemon thread at a time, in batches of the queue data submitted
+ * while the previous batch was processed. The number of queue data waiting for the thread is bounded, once the bound
+ * is reached the whole queue is swept on the next round instead. Since the queue data are claimed before they are
+ * processed, see {@link QueueDataProcessor}, the daemon thread and the scheduled task never process the same queue
+ * data twice.
+ */
+public class ContinuousQueueDataProcessor {
+
+    private static final Log log = LogFactory.getLog(ContinuousQueueDataProcessor.class);
+
+    private static final int MAX_PENDING = 10 * QUEUE_PROCESSOR_BATCH_SIZE_DEFAULT_VALUE;
+
+    private static final long SETTING_TTL_MILLIS = 30000;
+
+    private static final Queue<Integer> pendingIds = new ConcurrentLinkedQueue<Integer>();
+
+    private static final AtomicInteger pendingCount = new AtomicInteger();
+
+    private static final AtomicBoolean sweepRequested = new AtomicBoolean(false);
+
+    private static final AtomicBoolean isRunning = new AtomicBoolean(false);
+
+    private static volatile DaemonToken daemonToken;
+
+    private static volatile boolean enabled;
+
+    private static volatile long enabledReadAt;
+
+    private ContinuousQueueDataProcessor() {
+    }
+
+    /**
+     * Set the token used to run the processing as the daemon user, handed over by the module activator.
+     *
+     * @param token the daemon token, or null to stop processing submitted queue data.
+     */
+    public static void setDaemonToken(final DaemonToken token) {
+        daemonToken = token;
+        // read the setting again on the next submission.
+        enabledReadAt = 0;
+        if (token == null) {
+            pendingIds.clear();
+            pendingCount.set(0);
+            sweepRequested.set(false);
+        }
+    }
+
+    /**
+     * Process the queue data once the current transaction, if any, is committed.
+     *
+     * @param queueDataId the id of the submitted queue data.
+     */
+    public static void submit(final Integer queueDataId) {
+        if (queueDataId == null || !isEnabled()) {
+            return;
+        }
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                if (pendingCount.incrementAndGet() > MAX_PENDING) {
+                    pendingCount.decrementAndGet();
+                    sweepRequested.set(true);
+                } else {
+                    pendingIds.add(queueDataId);
+                }
+                start();
+            }
+        });
+    }
+
+    /**
+     * Sweep the whole queue once the current transaction, if any, is committed, e.g. after error data were moved back
+     * to the queue in bulk.
+     */
+    public static void submitAll() {
+        if (!isEnabled()) {
+            return;
+        }
+        afterCommit(new Runnable() {
+            @Override
+            public void run() {
+                sweepRequested.set(true);
+                start();
+            }
+        });
+    }
+
+    /**
+     * Check whether the continuous processing is turned on. The setting is cached for {@link #SETTING_TTL_MILLIS} and
+     * read again when the daemon token changes.
+     */
+    private static boolean isEnabled() {
+        long now = System.currentTimeMillis();
+        if (now - enabledReadAt > SETTING_TTL_MILLIS) {
+            MuzimaSettingService muzimaSettingService = Context.getService(MuzimaSettingService.class);
+            MuzimaSetting muzimaSetting = muzimaSettingService.getMuzimaSettingByProperty(
+                    QUEUE_PROCESSOR_CONTINUOUS_SETTING_PROPERTY);
+            enabled = muzimaSetting != null && Boolean.TRUE.equals(muzimaSetting.getValueBoolean());
+            enabledReadAt = now;
+        }
+        return daemonToken != null && enabled;
+    }
+
+    private static void afterCommit(final Runnable runnable) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    runnable.run();
+                }
+            });
+        } else {
+            runnable.run();
+        }
+    }
+
+    private static void start() {
+        DaemonToken token = daemonToken;
+        if (token == null || !isRunning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Daemon.runInDaemonThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        drain();
+                    } catch (Exception e) {
+                        log.error("Unable to process the submitted queue data, the scheduled task will pick them up.", e);
+                    } finally {
+                        isRunning.set(false);
+                        // queue data submitted between the last poll and the reset must not wait for the next submit.
+                        if (sweepRequested.get() || !pendingIds.isEmpty()) {
+                            start();
+                        }
+                    }
+                }
+            }, token);
+        } catch (RuntimeException e) {
+            isRunning.set(false);
+            log.error("Unable to start processing the submitted queue data.", e);
+        }
+    }
+
+    private static void drain() {
+        QueueDataProcessor processor = new QueueDataProcessor();
+        while (true) {
+            if (sweepRequested.getAndSet(false)) {
+                pendingIds.clear();
+                pendingCount.set(0);
+                processor.processQueueData();
+                continue;
+            }
+            List<Integer> queueDataIds = new ArrayList<Integer>();
+            Integer queueDataId;
+            while (queueDataIds.size() < QUEUE_PROCESSOR_BATCH_SIZE_DEFAULT_VALUE
+                    && (queueDataId = pendingIds.poll()) != null) {
+                pendingCount.decrementAndGet();
+                queueDataIds.add(queueDataId);
+            }
+            if (queueDataIds.isEmpty()) {
+                return;
+            }
+            processor.processQueueData(queueDataIds);
+        }
+    }
+}
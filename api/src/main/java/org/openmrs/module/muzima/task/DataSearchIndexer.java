@@ -0,0 +1,114 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.task;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.muzima.api.service.DataService;
+
+import java.util.List;
+
+/**
+ * Adds the queue, error and archive data which are not in the search index yet to the search index, see
+ * {@link org.openmrs.module.muzima.model.DataSearchTerm}, in batches ordered by id. The index is built when the module
+ * starts, from then on the data are added to the index when they are saved.
+ * <p/>
+ * The admin screens search the metadata and payload of the data until the index is complete, and the index from
+ * then on.
+ */
+public class DataSearchIndexer {
+
+    private static final Log log = LogFactory.getLog(DataSearchIndexer.class);
+
+    private static final int BATCH_SIZE = 100;
+
+    private static final String QUEUE_DATA = "queue data";
+
+    private static final String ERROR_DATA = "error data";
+
+    private static final String ARCHIVE_DATA = "archive data";
+
+    private static volatile boolean complete = false;
+
+    private DataSearchIndexer() {
+    }
+
+    /**
+     * @return true when all queue, error and archive data are in the search index.
+     */
+    public static boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Build the search index in a daemon thread.
+     *
+     * @param token the daemon token of the module.
+     */
+    public static void indexInBackground(final DaemonToken token) {
+        Daemon.runInDaemonThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    index();
+                } catch (Exception e) {
+                    log.error("Unable to build the search index, the data are searched without the index.", e);
+                }
+            }
+        }, token);
+    }
+
+    /**
+     * Add the data which are not in the search index yet to the search index.
+     */
+    public static void index() {
+        long startTime = System.currentTimeMillis();
+        int added = indexRemaining();
+        complete = true;
+        // data requeued while the index was built may have got an id which was already passed.
+        added += indexRemaining();
+        log.info("Added " + added + " data to the search index in " + (System.currentTimeMillis() - startTime)
+                + " ms.");
+    }
+
+    private static int indexRemaining() {
+        DataService dataService = Context.getService(DataService.class);
+        return indexRemaining(dataService, QUEUE_DATA) + indexRemaining(dataService, ERROR_DATA)
+                + indexRemaining(dataService, ARCHIVE_DATA);
+    }
+
+    private static int indexRemaining(final DataService dataService, final String dataType) {
+        int added = 0;
+        List<Integer> ids = indexBatch(dataService, dataType, null);
+        while (!ids.isEmpty()) {
+            added += ids.size();
+            Context.clearSession();
+            ids = indexBatch(dataService, dataType, ids.get(ids.size() - 1));
+        }
+        return added;
+    }
+
+    private static List<Integer> indexBatch(final DataService dataService, final String dataType,
+                                            final Integer lastId) {
+        if (QUEUE_DATA.equals(dataType)) {
+            return dataService.indexQueueDataSearchTerms(lastId, BATCH_SIZE);
+        } else if (ERROR_DATA.equals(dataType)) {
+            return dataService.indexErrorDataSearchTerms(lastId, BATCH_SIZE);
+        }
+        return dataService.indexArchiveDataSearchTerms(lastId, BATCH_SIZE);
+    }
+}
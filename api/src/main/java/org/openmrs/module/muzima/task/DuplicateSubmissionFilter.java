@@ -0,0 +1,206 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.task;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.muzima.api.service.DataService;
+import org.openmrs.module.muzima.api.service.MuzimaSettingService;
+import org.openmrs.module.muzima.model.MuzimaSetting;
+import org.openmrs.module.muzima.utils.BloomFilter;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_DATA_SHARED_DATABASE_SETTING_PROPERTY;
+
+/**
+ * Detects the form data which a device submits again, e.g. because the response to the first submission got lost on a
+ * flaky network. Form data are identified by the form data uuid generated on the device.
+ * <p/>
+ * The form data uuids of all queue, archive and error data are kept in a bloom filter, loaded when the module starts.
+ * Only the form data uuids the filter might contain are looked up in the database, so the check costs next to nothing
+ * for the vast majority of the submissions, which are new. Until the filter is loaded all form data uuids are looked
+ * up.
+ * <p/>
+ * The filter only knows about the submissions received by this OpenMRS instance. A form data submitted to another
+ * instance sharing the database is missed when the filter says no, so when several instances receive submissions into
+ * the same database every form data uuid is looked up, see
+ * {@link org.openmrs.module.muzima.utils.Constants.MuzimaSettings#QUEUE_DATA_SHARED_DATABASE_SETTING_PROPERTY}.
+ */
+public class DuplicateSubmissionFilter {
+
+    private static final Log log = LogFactory.getLog(DuplicateSubmissionFilter.class);
+
+    private static final int MIN_EXPECTED_INSERTIONS = 1000000;
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    private static final long SETTING_TTL_MILLIS = 30000;
+
+    private static volatile BloomFilter bloomFilter = new BloomFilter(MIN_EXPECTED_INSERTIONS, FALSE_POSITIVE_RATE);
+
+    private static volatile boolean loaded = false;
+
+    private static volatile boolean shared;
+
+    private static volatile long sharedReadAt;
+
+    private DuplicateSubmissionFilter() {
+    }
+
+    /**
+     * Load the form data uuids of all queue, archive and error data into the filter in a daemon thread.
+     *
+     * @param token the daemon token of the module.
+     */
+    public static void loadInBackground(final DaemonToken token) {
+        Daemon.runInDaemonThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load();
+                } catch (Exception e) {
+                    log.error("Unable to load the submitted form data uuids, all form data uuids will be looked up.", e);
+                }
+            }
+        }, token);
+    }
+
+    /**
+     * Load the form data uuids of all queue, archive and error data into a new filter, sized for twice the number of
+     * data saved so far.
+     */
+    public static void load() {
+        long startTime = System.currentTimeMillis();
+        final DataService dataService = Context.getService(DataService.class);
+        long count = dataService.countQueueData(null).longValue() + dataService.countArchiveData(null).longValue()
+                + dataService.countErrorData(null).longValue();
+        int expectedInsertions = (int) Math.min(Math.max(2 * count, MIN_EXPECTED_INSERTIONS), Integer.MAX_VALUE);
+        loaded = false;
+        // submissions received while loading are added to the new filter right away.
+        BloomFilter filter = new BloomFilter(expectedInsertions, FALSE_POSITIVE_RATE);
+        bloomFilter = filter;
+        int loadedCount = load(filter, new FormDataUuidSource() {
+            @Override
+            public Map<Integer, String> getFormDataUuidsAfter(final Integer lastId) {
+                return dataService.getArchiveDataFormDataUuidsAfter(lastId, LOAD_BATCH_SIZE);
+            }
+        });
+        loadedCount += load(filter, new FormDataUuidSource() {
+            @Override
+            public Map<Integer, String> getFormDataUuidsAfter(final Integer lastId) {
+                return dataService.getErrorDataFormDataUuidsAfter(lastId, LOAD_BATCH_SIZE);
+            }
+        });
+        loadedCount += load(filter, new FormDataUuidSource() {
+            @Override
+            public Map<Integer, String> getFormDataUuidsAfter(final Integer lastId) {
+                return dataService.getQueueDataFormDataUuidsAfter(lastId, LOAD_BATCH_SIZE);
+            }
+        });
+        loaded = true;
+        log.info("Loaded " + loadedCount + " submitted form data uuids in " + (System.currentTimeMillis() - startTime)
+                + " ms.");
+    }
+
+    private static int load(final BloomFilter filter, final FormDataUuidSource source) {
+        int loadedCount = 0;
+        Integer lastId = null;
+        Map<Integer, String> formDataUuids = source.getFormDataUuidsAfter(lastId);
+        while (!formDataUuids.isEmpty()) {
+            for (Map.Entry<Integer, String> formDataUuid : formDataUuids.entrySet()) {
+                filter.put(formDataUuid.getValue());
+                lastId = formDataUuid.getKey();
+            }
+            loadedCount += formDataUuids.size();
+            formDataUuids = source.getFormDataUuidsAfter(lastId);
+        }
+        return loadedCount;
+    }
+
+    /**
+     * Check whether several OpenMRS instances receive submissions into the same database. The setting is read again at
+     * most every 30 seconds, so the submissions don't pay for a setting lookup each.
+     *
+     * @return true when the database is shared.
+     */
+    public static boolean isDatabaseShared() {
+        long now = System.currentTimeMillis();
+        if (now - sharedReadAt > SETTING_TTL_MILLIS) {
+            MuzimaSettingService muzimaSettingService = Context.getService(MuzimaSettingService.class);
+            MuzimaSetting muzimaSetting = muzimaSettingService.getMuzimaSettingByProperty(
+                    QUEUE_DATA_SHARED_DATABASE_SETTING_PROPERTY);
+            shared = muzimaSetting != null && Boolean.TRUE.equals(muzimaSetting.getValueBoolean());
+            sharedReadAt = now;
+        }
+        return shared;
+    }
+
+    /**
+     * Find the form data uuids which were already submitted, as queue, archive or error data. All form data uuids are
+     * looked up in the database until the filter is loaded, or when the database is shared with other instances.
+     *
+     * @param formDataUuids the form data uuids of the new submissions, blank ones are ignored.
+     * @return the form data uuids which were already submitted.
+     */
+    public static Set<String> findSubmitted(final Collection<String> formDataUuids) {
+        BloomFilter filter = bloomFilter;
+        boolean complete = loaded && !isDatabaseShared();
+        Set<String> candidates = new HashSet<String>();
+        for (String formDataUuid : formDataUuids) {
+            if (StringUtils.isNotBlank(formDataUuid) && (!complete || filter.mightContain(formDataUuid))) {
+                candidates.add(formDataUuid);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Context.getService(DataService.class).getSubmittedFormDataUuids(candidates);
+    }
+
+    /**
+     * Add the form data uuid of a saved submission to the filter.
+     *
+     * @param formDataUuid the form data uuid, ignored when blank.
+     */
+    public static void add(final String formDataUuid) {
+        if (StringUtils.isNotBlank(formDataUuid)) {
+            bloomFilter.put(formDataUuid);
+        }
+    }
+
+    /**
+     * Drop the loaded filter and the cached setting, used by the tests.
+     */
+    static void reset() {
+        loaded = false;
+        bloomFilter = new BloomFilter(MIN_EXPECTED_INSERTIONS, FALSE_POSITIVE_RATE);
+        sharedReadAt = 0;
+    }
+
+    private interface FormDataUuidSource {
+
+        Map<Integer, String> getFormDataUuidsAfter(final Integer lastId);
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.task;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
+import org.openmrs.module.muzima.api.service.DataService;
+import org.openmrs.module.muzima.model.ErrorDataValidation;
+import org.openmrs.module.muzima.model.handler.MetadataCache;
+import org.openmrs.module.muzima.utils.Constants;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_BATCH_SIZE_DEFAULT_VALUE;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_BATCH_SIZE_SETTING_PROPERTY;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_CHUNK_SIZE_DEFAULT_VALUE;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_CHUNK_SIZE_SETTING_PROPERTY;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_WORKER_THREADS_DEFAULT_VALUE;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_WORKER_THREADS_SETTING_PROPERTY;
+import static org.openmrs.module.muzima.utils.TaskUtils.createWorkerThreadFactory;
+import static org.openmrs.module.muzima.utils.TaskUtils.getSettingValue;
+
+/**
+ * Validates the error data again against the handlers of their discriminators, e.g. to find out which error data
+ * would now be processed after the metadata they failed on were fixed. The error data are left untouched, see
+ * {@link DataService#validateErrorData(Collection, MetadataCache)}.
+ * <p/>
+ * The ids of the error data are read in batches ordered by id, the size of the batches is read from the
+ * {@link Constants.MuzimaSettings#QUEUE_PROCESSOR_BATCH_SIZE_SETTING_PROPERTY} setting. Every batch is split in
+ * chunks, see {@link Constants.MuzimaSettings#QUEUE_PROCESSOR_CHUNK_SIZE_SETTING_PROPERTY}, which are validated
+ * concurrently on a pool of worker threads, each chunk in a session of its own. The size of the pool is read from the
+ * {@link Constants.MuzimaSettings#QUEUE_PROCESSOR_WORKER_THREADS_SETTING_PROPERTY} setting, the same cap the queue
+ * data processor uses.
+ * <p/>
+ * The metadata looked up by the handlers are cached for the whole run, see {@link MetadataCache}.
+ */
+public class ErrorDataValidator {
+
+    private static final Log log = LogFactory.getLog(ErrorDataValidator.class);
+
+    private final int workerThreads;
+
+    private final int batchSize;
+
+    private final int chunkSize;
+
+    public ErrorDataValidator() {
+        this(getSettingValue(QUEUE_PROCESSOR_WORKER_THREADS_SETTING_PROPERTY,
+                        QUEUE_PROCESSOR_WORKER_THREADS_DEFAULT_VALUE),
+                getSettingValue(QUEUE_PROCESSOR_BATCH_SIZE_SETTING_PROPERTY, QUEUE_PROCESSOR_BATCH_SIZE_DEFAULT_VALUE),
+                getSettingValue(QUEUE_PROCESSOR_CHUNK_SIZE_SETTING_PROPERTY, QUEUE_PROCESSOR_CHUNK_SIZE_DEFAULT_VALUE));
+    }
+
+    public ErrorDataValidator(final int workerThreads, final int batchSize, final int chunkSize) {
+        this.workerThreads = Math.max(workerThreads, 1);
+        this.batchSize = Math.max(batchSize, 1);
+        this.chunkSize = Math.max(chunkSize, 1);
+    }
+
+    /**
+     * Validate all error data.
+     *
+     * @return the outcome of the validation of every error data, ordered by id.
+     */
+    public List<ErrorDataValidation> validateErrorData() {
+        return validateErrorData(null);
+    }
+
+    /**
+     * Validate the given error data only.
+     *
+     * @param errorDataIds the ids of the error data, or null to validate all error data.
+     * @return the outcome of the validation of every error data found, ordered by id.
+     */
+    public List<ErrorDataValidation> validateErrorData(final Collection<Integer> errorDataIds) {
+        long startTime = System.currentTimeMillis();
+        DataService dataService = Context.getService(DataService.class);
+        MetadataCache metadataCache = new MetadataCache();
+        Iterator<Integer> selectedIds = errorDataIds == null ? null : new TreeSet<Integer>(errorDataIds).iterator();
+        List<ErrorDataValidation> validations = new ArrayList<ErrorDataValidation>();
+        ExecutorService executorService = Executors.newFixedThreadPool(workerThreads,
+                createWorkerThreadFactory("muzima-validation-worker-"));
+        try {
+            Integer lastId = null;
+            List<Integer> batchIds = getBatchIds(dataService, selectedIds, lastId);
+            while (!batchIds.isEmpty()) {
+                validations.addAll(validateBatch(executorService, metadataCache, batchIds));
+                lastId = batchIds.get(batchIds.size() - 1);
+                batchIds = getBatchIds(dataService, selectedIds, lastId);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        log.info("Validated " + validations.size() + " error data using " + workerThreads + " worker(s) in "
+                + (System.currentTimeMillis() - startTime) + " ms. Metadata lookups: " + metadataCache.getHits()
+                + " hit(s), " + metadataCache.getMisses() + " miss(es).");
+        return validations;
+    }
+
+    private List<Integer> getBatchIds(final DataService dataService, final Iterator<Integer> selectedIds,
+                                      final Integer lastId) {
+        if (selectedIds == null) {
+            return dataService.getErrorDataIdsAfter(lastId, batchSize);
+        }
+        List<Integer> batchIds = new ArrayList<Integer>();
+        while (selectedIds.hasNext() && batchIds.size() < batchSize) {
+            batchIds.add(selectedIds.next());
+        }
+        return batchIds;
+    }
+
+    /**
+     * Validate the chunks of the batch concurrently and wait for all of them, so no more than a batch of error data is
+     * held at a time.
+     */
+    private List<ErrorDataValidation> validateBatch(final ExecutorService executorService,
+                                                    final MetadataCache metadataCache, final List<Integer> batchIds) {
+        final UserContext userContext = Context.getUserContext();
+        List<Future<List<ErrorDataValidation>>> futures = new ArrayList<Future<List<ErrorDataValidation>>>();
+        for (int from = 0; from < batchIds.size(); from += chunkSize) {
+            final List<Integer> chunkIds = new ArrayList<Integer>(
+                    batchIds.subList(from, Math.min(from + chunkSize, batchIds.size())));
+            futures.add(executorService.submit(new Callable<List<ErrorDataValidation>>() {
+                @Override
+                public List<ErrorDataValidation> call() {
+                    Context.openSession();
+                    try {
+                        Context.setUserContext(userContext);
+                        return Context.getService(DataService.class).validateErrorData(chunkIds, metadataCache);
+                    } finally {
+                        Context.closeSession();
+                    }
+                }
+            }));
+        }
+        List<ErrorDataValidation> validations = new ArrayList<ErrorDataValidation>();
+        try {
+            for (Future<List<ErrorDataValidation>> future : futures) {
+                validations.addAll(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new APIException("Unable to validate the error data: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new APIException("Interrupted while waiting for the error data to be validated.", e);
+        }
+        return validations;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.task;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.muzima.api.service.CoreService;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Builds the patient match index, see {@link org.openmrs.module.muzima.utils.PatientSearchUtils}, for the patients
+ * created since the index was last built, in ranges of patient ids. The index is built when the module starts, from
+ * then on it is kept up to date by {@link org.openmrs.module.muzima.advice.PatientMatchIndexAdvice}.
+ * <p/>
+ * The patients changed while the module wasn't running are indexed again first, i.e. the patients changed since the
+ * latest entry was added to the index. An index without entry dates is built again from scratch.
+ * <p/>
+ * The patients saved while the index is built are only indexed by the advice when their range was already indexed,
+ * so the index never holds patients beyond the ranges built so far and an interrupted build resumes where it stopped.
+ */
+public class PatientMatchIndexer {
+
+    private static final Log log = LogFactory.getLog(PatientMatchIndexer.class);
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static volatile boolean complete = false;
+
+    private static volatile int indexedUpTo = 0;
+
+    private PatientMatchIndexer() {
+    }
+
+    /**
+     * @return true when all patients are in the patient match index.
+     */
+    public static boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @param patientId the id of a patient.
+     * @return true when the patient match index covers the patient, i.e. the patient must be kept up to date.
+     */
+    public static boolean isIndexed(final Integer patientId) {
+        return complete || (patientId != null && patientId <= indexedUpTo);
+    }
+
+    /**
+     * Build the patient match index in a daemon thread.
+     *
+     * @param token the daemon token of the module.
+     */
+    public static void indexInBackground(final DaemonToken token) {
+        Daemon.runInDaemonThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    index();
+                } catch (Exception e) {
+                    log.error("Unable to build the patient match index, patients are matched using the patient search.", e);
+                }
+            }
+        }, token);
+    }
+
+    /**
+     * Index the patients changed since the index was last updated again, and add the patients created since the index
+     * was last built to the patient match index.
+     */
+    public static void index() {
+        long startTime = System.currentTimeMillis();
+        CoreService coreService = Context.getService(CoreService.class);
+        Integer maxIndexedPatientId = coreService.getMaxIndexedPatientId();
+        Date lastIndexDate = coreService.getLastPatientMatchIndexDate();
+        indexedUpTo = maxIndexedPatientId == null || lastIndexDate == null ? 0 : maxIndexedPatientId;
+        int added = 0;
+        if (indexedUpTo > 0) {
+            added += indexChanged(coreService, lastIndexDate);
+        }
+        added += indexRemaining(coreService);
+        complete = true;
+        // patients created right before the index was complete weren't seen by the advice.
+        added += indexRemaining(coreService);
+        log.info("Added " + added + " entries to the patient match index in " + (System.currentTimeMillis() - startTime)
+                + " ms.");
+    }
+
+    private static int indexChanged(final CoreService coreService, final Date since) {
+        int added = 0;
+        int changed = 0;
+        List<Integer> patientIds = coreService.getPatientIdsChangedSince(since, 0, indexedUpTo, BATCH_SIZE);
+        while (!patientIds.isEmpty()) {
+            added += coreService.reindexPatientMatchKeys(patientIds);
+            changed += patientIds.size();
+            Integer lastPatientId = patientIds.get(patientIds.size() - 1);
+            Context.clearSession();
+            patientIds = coreService.getPatientIdsChangedSince(since, lastPatientId, indexedUpTo, BATCH_SIZE);
+        }
+        log.info("Indexed " + changed + " patients changed since " + since + " again.");
+        return added;
+    }
+
+    private static int indexRemaining(final CoreService coreService) {
+        int added = 0;
+        Integer maxPatientId = coreService.getMaxPatientId();
+        while (maxPatientId != null && indexedUpTo < maxPatientId) {
+            int toPatientId = (int) Math.min((long) indexedUpTo + BATCH_SIZE, maxPatientId);
+            added += coreService.indexPatientMatchKeys(indexedUpTo, toPatientId);
+            indexedUpTo = toPatientId;
+            Context.clearSession();
+            if (indexedUpTo >= maxPatientId) {
+                maxPatientId = coreService.getMaxPatientId();
+            }
+        }
+        return added;
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.task;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.utils.JsonUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Dependency graph between the queue data of a batch.
+ * <p/>
+ * Registrations provide the (temporary) uuid of the patient they create and demographics updates provide the
+ * temporary uuid they map to an existing patient. Encounters, observations, relationships and demographics updates
+ * depend on the patient (or person) uuids they refer to. Queue data sharing any uuid end up in the same partition and
+ * within a partition the providers of a uuid always come before the queue data depending on it. Queue data without
+ * any dependency between them keep the order in which they were submitted.
+ */
+class QueueDataDependencies {
+
+    static final Set<String> REGISTRATION_DISCRIMINATORS = Collections.unmodifiableSet(new LinkedHashSet<String>(
+            Arrays.asList("json-registration", "json-generic-registration", "xml-registration")));
+
+    private static final String DEMOGRAPHICS_UPDATE_DISCRIMINATOR = "json-demographics-update";
+
+    private static final String RELATIONSHIP_DISCRIMINATOR = "json-relationship";
+
+    private final List<QueueData> queueDataList;
+
+    private final Map<String, String> parents = new HashMap<String, String>();
+
+    QueueDataDependencies(final List<QueueData> queueDataList) {
+        this.queueDataList = queueDataList;
+        for (QueueData queueData : queueDataList) {
+            String first = null;
+            for (String uuid : getUuids(queueData)) {
+                if (first == null) {
+                    first = find(uuid);
+                } else {
+                    union(first, uuid);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the uuids provided by the queue data, i.e. the uuids other queue data can only be resolved with once this
+     * queue data has been processed.
+     *
+     * @param queueData the queue data.
+     * @return the provided uuids.
+     */
+    static Set<String> getProvidedUuids(final QueueData queueData) {
+        Set<String> uuids = new LinkedHashSet<String>();
+        if (REGISTRATION_DISCRIMINATORS.contains(queueData.getDiscriminator())) {
+            addUuid(uuids, queueData.getPatientUuid());
+        } else if (DEMOGRAPHICS_UPDATE_DISCRIMINATOR.equals(queueData.getDiscriminator())) {
+            addUuid(uuids, JsonUtils.readAsString(queueData.getJsonPayload(),
+                    "$['demographicsupdate']['demographicsupdate.temporal_patient_uuid']"));
+        }
+        return uuids;
+    }
+
+    /**
+     * Get the uuids the queue data refers to without providing them.
+     *
+     * @param queueData the queue data.
+     * @return the required uuids.
+     */
+    static Set<String> getRequiredUuids(final QueueData queueData) {
+        Set<String> uuids = new LinkedHashSet<String>();
+        if (!REGISTRATION_DISCRIMINATORS.contains(queueData.getDiscriminator())) {
+            addUuid(uuids, queueData.getPatientUuid());
+        }
+        if (RELATIONSHIP_DISCRIMINATOR.equals(queueData.getDiscriminator())) {
+            addUuid(uuids, JsonUtils.readAsString(queueData.getJsonPayload(), "$['personA']['uuid']"));
+            addUuid(uuids, JsonUtils.readAsString(queueData.getJsonPayload(), "$['personB']['uuid']"));
+        }
+        uuids.removeAll(getProvidedUuids(queueData));
+        return uuids;
+    }
+
+    /**
+     * Get the uuids required by the queue data which are not provided by any queue data of the batch.
+     *
+     * @return the missing uuids.
+     */
+    Set<String> getUnresolvedUuids() {
+        Set<String> provided = new LinkedHashSet<String>();
+        Set<String> required = new LinkedHashSet<String>();
+        for (QueueData queueData : queueDataList) {
+            provided.addAll(getProvidedUuids(queueData));
+            required.addAll(getRequiredUuids(queueData));
+        }
+        required.removeAll(provided);
+        return required;
+    }
+
+    /**
+     * Group the queue data sharing any uuid, each partition keyed by the first uuid of its first queue data. The queue
+     * data of each partition are ordered so the providers of a uuid come before the queue data depending on it. Queue
+     * data without any uuid are grouped together in a single partition keyed by the given key.
+     *
+     * @param unassignedPartition the key of the partition of the queue data without any uuid.
+     * @return the ids of the queue data keyed by the partition key.
+     */
+    Map<String, List<Integer>> partition(final String unassignedPartition) {
+        Map<String, String> partitionKeys = new HashMap<String, String>();
+        Map<String, List<QueueData>> partitions = new LinkedHashMap<String, List<QueueData>>();
+        for (QueueData queueData : queueDataList) {
+            Set<String> uuids = getUuids(queueData);
+            String key = unassignedPartition;
+            if (!uuids.isEmpty()) {
+                String root = find(uuids.iterator().next());
+                key = partitionKeys.get(root);
+                if (key == null) {
+                    key = uuids.iterator().next();
+                    partitionKeys.put(root, key);
+                }
+            }
+            List<QueueData> partition = partitions.get(key);
+            if (partition == null) {
+                partition = new ArrayList<QueueData>();
+                partitions.put(key, partition);
+            }
+            partition.add(queueData);
+        }
+        Map<String, List<Integer>> orderedPartitions = new LinkedHashMap<String, List<Integer>>();
+        for (Map.Entry<String, List<QueueData>> partition : partitions.entrySet()) {
+            orderedPartitions.put(partition.getKey(), order(partition.getValue()));
+        }
+        return orderedPartitions;
+    }
+
+    /**
+     * Order the queue data so the providers of a uuid come first, breaking ties with the submission order. Queue data
+     * caught in a dependency cycle keep their submission order.
+     */
+    private List<Integer> order(final List<QueueData> partition) {
+        int size = partition.size();
+        List<List<Integer>> dependents = new ArrayList<List<Integer>>(size);
+        List<Set<String>> required = new ArrayList<Set<String>>(size);
+        int[] dependencyCounts = new int[size];
+        for (int i = 0; i < size; i++) {
+            dependents.add(new ArrayList<Integer>());
+            required.add(getRequiredUuids(partition.get(i)));
+        }
+        for (int provider = 0; provider < size; provider++) {
+            Set<String> provided = getProvidedUuids(partition.get(provider));
+            if (provided.isEmpty()) {
+                continue;
+            }
+            for (int dependent = 0; dependent < size; dependent++) {
+                if (dependent != provider && !Collections.disjoint(provided, required.get(dependent))) {
+                    dependents.get(provider).add(dependent);
+                    dependencyCounts[dependent]++;
+                }
+            }
+        }
+        PriorityQueue<Integer> ready = new PriorityQueue<Integer>();
+        for (int i = 0; i < size; i++) {
+            if (dependencyCounts[i] == 0) {
+                ready.add(i);
+            }
+        }
+        List<Integer> ordered = new ArrayList<Integer>(size);
+        boolean[] added = new boolean[size];
+        while (ordered.size() < size) {
+            if (ready.isEmpty()) {
+                // a cycle, release the first remaining queue data.
+                for (int i = 0; i < size; i++) {
+                    if (!added[i]) {
+                        ready.add(i);
+                        dependencyCounts[i] = 0;
+                        break;
+                    }
+                }
+            }
+            int next = ready.poll();
+            if (added[next]) {
+                continue;
+            }
+            added[next] = true;
+            ordered.add(partition.get(next).getId());
+            for (Integer dependent : dependents.get(next)) {
+                if (!added[dependent] && --dependencyCounts[dependent] == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        return ordered;
+    }
+
+    private Set<String> getUuids(final QueueData queueData) {
+        Set<String> uuids = new LinkedHashSet<String>();
+        addUuid(uuids, queueData.getPatientUuid());
+        uuids.addAll(getProvidedUuids(queueData));
+        uuids.addAll(getRequiredUuids(queueData));
+        return uuids;
+    }
+
+    private static void addUuid(final Set<String> uuids, final String uuid) {
+        if (StringUtils.isNotBlank(uuid)) {
+            uuids.add(uuid);
+        }
+    }
+
+    private String find(final String uuid) {
+        String parent = parents.get(uuid);
+        if (parent == null) {
+            parents.put(uuid, uuid);
+            return uuid;
+        }
+        if (!parent.equals(uuid)) {
+            parent = find(parent);
+            parents.put(uuid, parent);
+        }
+        return parent;
+    }
+
+    private void union(final String first, final String second) {
+        String firstRoot = find(first);
+        String secondRoot = find(second);
+        if (!firstRoot.equals(secondRoot)) {
+            parents.put(secondRoot, firstRoot);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.task;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.api.service.MuzimaSettingService;
+import org.openmrs.module.muzima.handler.ObsQueueDataHandler;
+import org.openmrs.module.muzima.handler.RelationshipQueueDataHandler;
+import org.openmrs.module.muzima.model.MuzimaForm;
+import org.openmrs.module.muzima.model.MuzimaSetting;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.model.handler.MetadataCache;
+import org.openmrs.module.muzima.utils.JsonUtils;
+
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_DATA_DEFERRED_ENRICHMENT_SETTING_PROPERTY;
+
+/**
+ * Fills the location, provider, form name and patient uuid of submitted queue data from their payload. The queue data
+ * are either enriched when they are submitted, or right before they are processed when the submission only stores the
+ * raw payload, see {@link org.openmrs.module.muzima.utils.Constants.MuzimaSettings#QUEUE_DATA_DEFERRED_ENRICHMENT_SETTING_PROPERTY}.
+ */
+public class QueueDataEnricher {
+
+    private static final long SETTING_TTL_MILLIS = 30000;
+
+    private static volatile boolean deferred;
+
+    private static volatile long deferredReadAt;
+
+    private QueueDataEnricher() {
+    }
+
+    /**
+     * Check whether the submitted queue data are stored right away with their raw payload only, leaving the enrichment
+     * to the queue data processor. The setting is read again at most every 30 seconds, so the submissions don't pay for
+     * a setting lookup each.
+     *
+     * @return true when the enrichment is deferred.
+     */
+    public static boolean isEnrichmentDeferred() {
+        long now = System.currentTimeMillis();
+        if (now - deferredReadAt > SETTING_TTL_MILLIS) {
+            MuzimaSettingService muzimaSettingService = Context.getService(MuzimaSettingService.class);
+            MuzimaSetting muzimaSetting = muzimaSettingService.getMuzimaSettingByProperty(
+                    QUEUE_DATA_DEFERRED_ENRICHMENT_SETTING_PROPERTY);
+            deferred = muzimaSetting != null && Boolean.TRUE.equals(muzimaSetting.getValueBoolean());
+            deferredReadAt = now;
+        }
+        return deferred;
+    }
+
+    /**
+     * Check whether the queue data still has to be enriched. Enriched queue data always have a form name.
+     *
+     * @param queueData the queue data.
+     * @return false when the queue data was stored without being enriched.
+     */
+    public static boolean isEnriched(final QueueData queueData) {
+        return queueData.getFormName() != null;
+    }
+
+    /**
+     * Fill the location, provider, form name and patient uuid of the queue data from its payload.
+     *
+     * @param queueData     the queue data.
+     * @param metadataCache the cache used to look up the metadata.
+     */
+    public static void enrich(final QueueData queueData, final MetadataCache metadataCache) {
+        Object payload = queueData.getJsonPayload();
+        queueData.setPatientUuid(JsonUtils.readAsString(payload, "$['patient']['patient.uuid']"));
+        queueData.setProvider(metadataCache.getProviderByIdentifier(
+                JsonUtils.readAsString(payload, "$['encounter']['encounter.provider_id']")));
+        if (StringUtils.equals(queueData.getDiscriminator(), ObsQueueDataHandler.DISCRIMINATOR_VALUE)) {
+            queueData.setFormName("Individual Obs");
+        } else if (StringUtils.equals(queueData.getDiscriminator(), RelationshipQueueDataHandler.DISCRIMINATOR_VALUE)) {
+            queueData.setFormName("Relationship");
+        } else {
+            int locationId = NumberUtils.toInt(
+                    JsonUtils.readAsString(payload, "$['encounter']['encounter.location_id']"), -999);
+            queueData.setLocation(metadataCache.getLocation(locationId));
+            MuzimaForm muzimaForm = metadataCache.getMuzimaFormByUuid(
+                    JsonUtils.readAsString(payload, "$['encounter']['encounter.form_uuid']"));
+            queueData.setFormName(muzimaForm != null ? muzimaForm.getName() : "Unknown name");
+        }
+    }
+}
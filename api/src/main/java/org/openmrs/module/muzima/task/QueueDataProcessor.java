@@ -14,106 +14,566 @@
 package org.openmrs.module.muzima.task;
 
 import com.jayway.jsonpath.JsonPath;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.Location;
 import org.openmrs.Provider;
 import org.openmrs.api.context.Context;
+import org.openmrs.api.context.UserContext;
 import org.openmrs.module.muzima.api.service.DataService;
-import org.openmrs.module.muzima.api.service.MuzimaFormService;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.ArchiveData;
 import org.openmrs.module.muzima.model.ErrorData;
 import org.openmrs.module.muzima.model.ErrorMessage;
 import org.openmrs.module.muzima.model.MuzimaForm;
 import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.model.handler.MetadataCache;
+import org.openmrs.module.muzima.model.handler.QueueDataContext;
+import org.openmrs.module.muzima.model.handler.QueueDataDispatcher;
 import org.openmrs.module.muzima.model.handler.QueueDataHandler;
-import org.openmrs.util.HandlerUtil;
+import org.openmrs.module.muzima.model.handler.VisitResolver;
+import org.openmrs.module.muzima.utils.Constants;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_BATCH_SIZE_DEFAULT_VALUE;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_BATCH_SIZE_SETTING_PROPERTY;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_CHUNK_SIZE_DEFAULT_VALUE;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_CHUNK_SIZE_SETTING_PROPERTY;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_LEASE_SECONDS_DEFAULT_VALUE;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_LEASE_SECONDS_SETTING_PROPERTY;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_WORKER_THREADS_DEFAULT_VALUE;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_PROCESSOR_WORKER_THREADS_SETTING_PROPERTY;
+import static org.openmrs.module.muzima.utils.TaskUtils.createWorkerThreadFactory;
+import static org.openmrs.module.muzima.utils.TaskUtils.getSettingValue;
 
 /**
+ * Drains muzima_queue_data through the registered {@link QueueDataHandler}s.
+ * <p/>
+ * Queue data is read in batches ordered by id, the size of the batches is read from the
+ * {@link Constants.MuzimaSettings#QUEUE_PROCESSOR_BATCH_SIZE_SETTING_PROPERTY} setting and the session is cleared
+ * after every batch, so the memory used doesn't depend on the size of the backlog.
+ * <p/>
+ * Each batch is partitioned by patient uuid. Items of a single patient are always processed in order by one
+ * worker, while partitions of different patients run concurrently on a pool of worker threads. Registrations run
+ * before the queue data depending on them, see {@link QueueDataDependencies}, and the registrations still waiting
+ * further down the queue are pulled into the batch of the queue data depending on them. The size of the
+ * pool is read from the {@link Constants.MuzimaSettings#QUEUE_PROCESSOR_WORKER_THREADS_SETTING_PROPERTY} setting,
+ * with a single worker processing everything on the scheduler thread.
+ * <p/>
+ * Every queue data goes to the handler registered for its discriminator, see {@link QueueDataDispatcher}. Queue
+ * data with an unknown discriminator are moved to the error data.
+ * <p/>
+ * The metadata looked up by the handlers are cached for the whole run, see {@link MetadataCache}.
+ * <p/>
+ * Queue data is claimed before it is processed, so several processors, within one or several OpenMRS instances
+ * sharing the database, can drain the queue together without processing any queue data twice. A claim is a lease
+ * which is renewed after every chunk, the duration of the lease is read from the
+ * {@link Constants.MuzimaSettings#QUEUE_PROCESSOR_LEASE_SECONDS_SETTING_PROPERTY} setting. The queue data of a
+ * processor which died are claimed again once its lease expired, and the queue data left in the queue at the end of a
+ * run are released right away.
+ * <p/>
+ * Besides the scheduled runs, the queue data can be processed as soon as they are submitted, see
+ * {@link ContinuousQueueDataProcessor}. The latency between the submission and the archiving of the queue data is
+ * tracked by {@link QueueProcessorStatistics}. Queue data stored with their raw payload only are enriched right after
+ * they are claimed, see {@link QueueDataEnricher}.
+ * <p/>
+ * The queue data are processed in chunks, one transaction per chunk, see
+ * {@link DataService#processQueueData(QueueDataDispatcher, List, String)}. The handler of every queue data runs within
+ * its own savepoint and the processed queue data are archived in the transaction of their handlers, so a queue data
+ * left in the queue was never processed and is safe to be processed again. When a chunk can't be committed, its queue
+ * data are processed again one by one, each in its own transaction. The work of the handler of a failed queue data is
+ * rolled back and the failed queue data are moved to the error data after every chunk, in a transaction of their
+ * own. The lease is renewed after every chunk. The size of the chunks is read from the
+ * {@link Constants.MuzimaSettings#QUEUE_PROCESSOR_CHUNK_SIZE_SETTING_PROPERTY} setting.
  */
 public class QueueDataProcessor {
 
-    private final Log log = LogFactory.getLog(QueueDataProcessor.class);
+    private static final Log log = LogFactory.getLog(QueueDataProcessor.class);
 
-    private static Boolean isRunning = false;
+    private static final String UNASSIGNED_PARTITION = "";
 
+    /**
+     * Process all queue data, in batches ordered by id.
+     */
     public void processQueueData() {
-        if (!isRunning) {
-            processAllQueueData();
-        } else {
-            log.info("Queue data processor aborting (another processor already running)!");
+        processQueueData(null);
+    }
+
+    /**
+     * Process the given queue data only, e.g. the queue data which were just submitted, see
+     * {@link ContinuousQueueDataProcessor}. The queue data already claimed by another processor are skipped.
+     *
+     * @param queueDataIds the ids of the queue data, or null to process all queue data.
+     */
+    public void processQueueData(final Collection<Integer> queueDataIds) {
+        log.info("Starting up queue data processor ...");
+        long startTime = System.currentTimeMillis();
+        DataService dataService = Context.getService(DataService.class);
+        QueueDataDispatcher dispatcher = QueueDataDispatcher.create();
+        MetadataCache metadataCache = new MetadataCache();
+        int workerThreads = getSettingValue(QUEUE_PROCESSOR_WORKER_THREADS_SETTING_PROPERTY,
+                QUEUE_PROCESSOR_WORKER_THREADS_DEFAULT_VALUE);
+        int batchSize = Math.max(getSettingValue(QUEUE_PROCESSOR_BATCH_SIZE_SETTING_PROPERTY,
+                QUEUE_PROCESSOR_BATCH_SIZE_DEFAULT_VALUE), 1);
+        int leaseSeconds = Math.max(getSettingValue(QUEUE_PROCESSOR_LEASE_SECONDS_SETTING_PROPERTY,
+                QUEUE_PROCESSOR_LEASE_SECONDS_DEFAULT_VALUE), 1);
+        Lease lease = new Lease(createClaimant(), leaseSeconds);
+        SortedSet<Integer> selectedIds = queueDataIds == null ? null : new TreeSet<Integer>(queueDataIds);
+        ExecutorService executorService = workerThreads > 1 ?
+                Executors.newFixedThreadPool(workerThreads, createWorkerThreadFactory("muzima-queue-worker-")) : null;
+        int processed = 0;
+        int batches = 0;
+        try {
+            List<QueueData> queueDataList = claimQueueData(dataService, lease, selectedIds, null, batchSize);
+            while (!queueDataList.isEmpty()) {
+                Integer lastId = queueDataList.get(queueDataList.size() - 1).getId();
+                enrichQueueData(dataService, metadataCache, queueDataList);
+                queueDataList = archiveDuplicates(dataService, lease, queueDataList);
+                queueDataList = addPendingRegistrations(dataService, lease, queueDataList, lastId);
+                Map<String, List<Integer>> partitions = partitionByPatient(queueDataList);
+                if (executorService == null || partitions.size() <= 1) {
+                    for (Map.Entry<String, List<Integer>> partition : partitions.entrySet()) {
+                        processPartition(dispatcher, metadataCache, lease, partition.getKey(), partition.getValue());
+                    }
+                } else {
+                    processPartitionsConcurrently(executorService, dispatcher, metadataCache, lease, partitions);
+                }
+                processed += queueDataList.size();
+                batches++;
+                // nothing of the processed batch is needed anymore, keep the session from growing with the backlog.
+                Context.clearSession();
+                queueDataList = claimQueueData(dataService, lease, selectedIds, lastId, batchSize);
+            }
+        } finally {
+            if (executorService != null) {
+                executorService.shutdownNow();
+            }
+            // whatever couldn't be moved out of the queue is up for grabs again.
+            int released = dataService.releaseQueueDataClaims(lease.getClaimant());
+            if (released > 0) {
+                log.info("Released " + released + " queue data left in the queue by " + lease.getClaimant() + ".");
+            }
         }
+        log.info("Stopping up queue data processor ... processed " + processed + " queue data in " + batches
+                + " batch(es) of up to " + batchSize + " using " + Math.max(workerThreads, 1) + " worker(s) in "
+                + (System.currentTimeMillis() - startTime) + " ms. Metadata lookups: " + metadataCache.getHits()
+                + " hit(s), " + metadataCache.getMisses() + " miss(es). Submit to archive latency: "
+                + QueueProcessorStatistics.getAverageLatency() + " ms average, " + QueueProcessorStatistics.getMaxLatency()
+                + " ms max.");
     }
 
-    private void processAllQueueData() {
+    /**
+     * Claim the next batch of queue data after the given id, either from the whole queue or from the selected queue
+     * data only.
+     */
+    private List<QueueData> claimQueueData(final DataService dataService, final Lease lease,
+                                           final SortedSet<Integer> selectedIds, final Integer lastId,
+                                           final int batchSize) {
+        if (selectedIds == null) {
+            return dataService.claimQueueDataAfter(lastId, batchSize, lease.getClaimant(), lease.getExpiry());
+        }
+        SortedSet<Integer> remainingIds = lastId == null ? selectedIds : selectedIds.tailSet(lastId + 1);
+        List<Integer> batchIds = new ArrayList<Integer>();
+        for (Integer queueDataId : remainingIds) {
+            batchIds.add(queueDataId);
+            if (batchIds.size() == batchSize) {
+                List<QueueData> claimed = dataService.claimQueueData(batchIds, lease.getClaimant(), lease.getExpiry());
+                if (!claimed.isEmpty()) {
+                    return claimed;
+                }
+                batchIds.clear();
+            }
+        }
+        return dataService.claimQueueData(batchIds, lease.getClaimant(), lease.getExpiry());
+    }
+
+    private void processPartitionsConcurrently(final ExecutorService executorService,
+                                               final QueueDataDispatcher dispatcher,
+                                               final MetadataCache metadataCache, final Lease lease,
+                                               final Map<String, List<Integer>> partitions) {
+        final UserContext userContext = Context.getUserContext();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
         try {
-            isRunning = true;
-            log.info("Starting up queue data processor ...");
-            DataService dataService = Context.getService(DataService.class);
-            List<QueueData> queueDataList = dataService.getAllQueueData();
-            List<QueueDataHandler> queueDataHandlers =
-                    HandlerUtil.getHandlersForType(QueueDataHandler.class, QueueData.class);
-            for (QueueDataHandler queueDataHandler : queueDataHandlers) {
-                Iterator<QueueData> queueDataIterator = queueDataList.iterator();
-                while (queueDataIterator.hasNext()) {
-                    QueueData queueData = queueDataIterator.next();
-                    try {
-                        if (queueDataHandler.accept(queueData)) {
-                            queueDataHandler.process(queueData);
-                            queueDataIterator.remove();
-                            // archive them after we're done processing the queue data.
-                            createArchiveData(queueData, "Queue data processed successfully!");
-                            dataService.purgeQueueData(queueData);
-                        }
-                    } catch (Exception e) {
-                        log.error("Unable to process queue data due to: " + e.getMessage(), e);
-                        if(queueData.getLocation() == null){
-                            Location location = extractLocationFromPayload(queueData.getPayload());
-                            queueData.setLocation(location);
-                        }
-                        if(queueData.getProvider() == null){
-                            Provider provider = extractProviderFromPayload(queueData.getPayload());
-                            queueData.setProvider(provider);
-                        }
-                        if(queueData.getFormName() == null){
-                            String formName = extractFormNameFromPayload(queueData.getPayload());
-                            queueData.setFormName(formName);
+            for (final Map.Entry<String, List<Integer>> partition : partitions.entrySet()) {
+                futures.add(executorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        Context.openSession();
+                        try {
+                            Context.setUserContext(userContext);
+                            processPartition(dispatcher, metadataCache, lease, partition.getKey(),
+                                    partition.getValue());
+                        } finally {
+                            Context.closeSession();
                         }
-                        if(queueData.getPatientUuid() == null){
-                            String patientUuid = extractPatientUuidFromPayload(queueData.getPayload());
-                            if(patientUuid == null){
-                                queueData.setPatientUuid("");
-                            }
-                            queueData.setPatientUuid(patientUuid);
-                        }
-                        createErrorData(queueData, (QueueProcessorException)e);
-                        dataService.purgeQueueData(queueData);
                     }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    log.error("Queue data partition terminated unexpectedly due to: " + e.getCause().getMessage(),
+                            e.getCause());
                 }
             }
+        } catch (InterruptedException e) {
+            log.error("Queue data processor interrupted while waiting for the workers to finish.", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Fill the metadata of the queue data which were stored with their raw payload only, see {@link QueueDataEnricher}.
+     * The patient uuid is needed to partition the queue data, so this has to happen before the partitioning.
+     */
+    private void enrichQueueData(final DataService dataService, final MetadataCache metadataCache,
+                                 final List<QueueData> queueDataList) {
+        for (QueueData queueData : queueDataList) {
+            if (!QueueDataEnricher.isEnriched(queueData)) {
+                QueueDataEnricher.enrich(queueData, metadataCache);
+                dataService.saveQueueData(queueData);
+            }
+        }
+    }
+
+    /**
+     * Archive the queue data whose form data was already processed instead of processing them again. Most resubmitted
+     * form data are turned down when they are submitted, see {@link DuplicateSubmissionFilter}, this catches the ones
+     * submitted concurrently or through another OpenMRS instance. Of the queue data of the batch sharing a form data
+     * uuid only the first one is processed.
+     *
+     * @return the queue data which still have to be processed.
+     */
+    private List<QueueData> archiveDuplicates(final DataService dataService, final Lease lease,
+                                              final List<QueueData> queueDataList) {
+        List<String> formDataUuids = new ArrayList<String>();
+        for (QueueData queueData : queueDataList) {
+            if (StringUtils.isNotBlank(queueData.getFormDataUuid())) {
+                formDataUuids.add(queueData.getFormDataUuid());
+            }
+        }
+        if (formDataUuids.isEmpty()) {
+            return queueDataList;
+        }
+        Set<String> archived = dataService.getArchivedFormDataUuids(formDataUuids);
+        Set<String> seen = new HashSet<String>();
+        List<QueueData> remaining = new ArrayList<QueueData>();
+        Map<Integer, ArchiveData> duplicates = new LinkedHashMap<Integer, ArchiveData>();
+        for (QueueData queueData : queueDataList) {
+            String formDataUuid = queueData.getFormDataUuid();
+            if (StringUtils.isNotBlank(formDataUuid) && (archived.contains(formDataUuid) || !seen.add(formDataUuid))) {
+                duplicates.put(queueData.getId(), createArchiveData(queueData,
+                        "Queue data not processed, the form data " + formDataUuid + " was submitted more than once."));
+            } else {
+                remaining.add(queueData);
+            }
+        }
+        if (!duplicates.isEmpty()) {
+            List<Integer> unmovedIds = dataService.moveQueueData(duplicates, new HashMap<Integer, ErrorData>(),
+                    lease.getClaimant());
+            QueueProcessorStatistics.recordDuplicatesArchived(duplicates.size() - unmovedIds.size());
+            log.info("Archived " + (duplicates.size() - unmovedIds.size()) + " queue data submitted more than once.");
+        }
+        return remaining;
+    }
+
+    /**
+     * Add the registrations still waiting further down the queue for the patients the batch depends on, so the
+     * encounters of a new patient don't fail only because their registration was submitted later. Only the
+     * registrations which could be claimed are added.
+     *
+     * @param dataService   the data service.
+     * @param lease         the lease of the queue data processor.
+     * @param queueDataList the batch of queue data.
+     * @param lastId        the id of the last queue data of the batch.
+     * @return the batch of queue data including the pending registrations.
+     */
+    private List<QueueData> addPendingRegistrations(final DataService dataService, final Lease lease,
+                                                    final List<QueueData> queueDataList, final Integer lastId) {
+        Set<String> unresolvedUuids = new QueueDataDependencies(queueDataList).getUnresolvedUuids();
+        if (unresolvedUuids.isEmpty()) {
+            return queueDataList;
+        }
+        List<Integer> pendingIds = new ArrayList<Integer>();
+        for (QueueData queueData : dataService.getQueueDataByPatientUuids(lastId, unresolvedUuids,
+                QueueDataDependencies.REGISTRATION_DISCRIMINATORS)) {
+            pendingIds.add(queueData.getId());
+        }
+        List<QueueData> pendingRegistrations = dataService.claimQueueData(pendingIds, lease.getClaimant(),
+                lease.getExpiry());
+        if (pendingRegistrations.isEmpty()) {
+            return queueDataList;
+        }
+        log.info("Adding " + pendingRegistrations.size() + " pending registration(s) to the batch.");
+        List<QueueData> batch = new ArrayList<QueueData>(queueDataList);
+        batch.addAll(pendingRegistrations);
+        return batch;
+    }
+
+    /**
+     * Group the queue data by patient, see {@link QueueDataDependencies}. Registrations and demographics updates come
+     * before the encounters, observations and relationships depending on them, otherwise the queue data keep the
+     * order in which they were submitted. Queue data without patient uuid are grouped together in a single partition.
+     *
+     * @param queueDataList the queue data to be partitioned.
+     * @return the ids of the queue data keyed by the patient uuid.
+     */
+    static Map<String, List<Integer>> partitionByPatient(final List<QueueData> queueDataList) {
+        return new QueueDataDependencies(queueDataList).partition(UNASSIGNED_PARTITION);
+    }
+
+    private void processPartition(final QueueDataDispatcher dispatcher, final MetadataCache metadataCache,
+                                  final Lease lease, final String patientUuid, final List<Integer> queueDataIds) {
+        long startTime = System.currentTimeMillis();
+        DataService dataService = Context.getService(DataService.class);
+        List<QueueData> queueDataList = new ArrayList<QueueData>();
+        Map<Integer, Date> submissionDates = new HashMap<Integer, Date>();
+        for (Integer queueDataId : queueDataIds) {
+            QueueData queueData = dataService.getQueueData(queueDataId);
+            if (queueData != null) {
+                queueDataList.add(queueData);
+                submissionDates.put(queueDataId, queueData.getDateCreated());
+            }
+        }
+        int chunkSize = Math.max(getSettingValue(QUEUE_PROCESSOR_CHUNK_SIZE_SETTING_PROPERTY,
+                QUEUE_PROCESSOR_CHUNK_SIZE_DEFAULT_VALUE), 1);
+        Map<Integer, ErrorData> errorDataMap = new LinkedHashMap<Integer, ErrorData>();
+        List<QueueDataContext> chunk = new ArrayList<QueueDataContext>();
+        PartitionOutcome outcome = new PartitionOutcome();
+        // the partition holds all queue data of the patient in the batch, they share the visits of the patient.
+        VisitResolver visitResolver = new VisitResolver();
+        try {
+            // the partition is already in dependency order, e.g. registrations before the encounters of the patient.
+            for (QueueData queueData : queueDataList) {
+                if (dispatcher.getHandler(queueData) == null) {
+                    log.error("Unable to process queue data, no handler registered for discriminator: " + queueData.getDiscriminator());
+                    QueueProcessorException exception = new QueueProcessorException();
+                    exception.addException(new Exception("No handler registered for discriminator: " + queueData.getDiscriminator()));
+                    outcome.unmoved += addErrorData(errorDataMap, queueData, exception, metadataCache);
+                    outcome.failed++;
+                } else {
+                    chunk.add(new QueueDataContext(queueData, metadataCache, visitResolver));
+                }
+                if (chunk.size() + errorDataMap.size() >= chunkSize) {
+                    processChunk(dataService, dispatcher, metadataCache, visitResolver, lease, submissionDates, chunk,
+                            errorDataMap, outcome);
+                    outcome.unmoved += moveErrorData(dataService, lease, errorDataMap);
+                }
+            }
+            processChunk(dataService, dispatcher, metadataCache, visitResolver, lease, submissionDates, chunk,
+                    errorDataMap, outcome);
         } finally {
-            isRunning = false;
-            log.info("Stopping up queue data processor ...");
+            outcome.unmoved += moveErrorData(dataService, lease, errorDataMap);
         }
+        long elapsed = System.currentTimeMillis() - startTime;
+        log.info("Processed partition [" + (UNASSIGNED_PARTITION.equals(patientUuid) ? "no patient" : patientUuid)
+                + "] on " + Thread.currentThread().getName() + ": " + queueDataIds.size() + " queue data ("
+                + outcome.processed + " processed, " + outcome.failed + " failed, " + outcome.unmoved + " left in the queue) in " + elapsed + " ms ("
+                + String.format("%.2f", queueDataIds.size() * 1000.0 / Math.max(elapsed, 1)) + " items/s, "
+                + visitResolver.getQueries() + " visit lookup(s)).");
     }
 
-    private void createArchiveData(final QueueData queueData, final String message) {
+    /**
+     * The number of queue data of a partition processed, failed and left in the queue so far.
+     */
+    private static class PartitionOutcome {
+
+        private int processed;
+
+        private int failed;
+
+        private int unmoved;
+    }
+
+    /**
+     * Create the name under which a run of the processor claims queue data, unique across runs and hosts. The host
+     * name is only there to tell which instance holds the queue data when looking at the database.
+     */
+    private String createClaimant() {
+        String hostName;
+        try {
+            hostName = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            hostName = "unknown";
+        }
+        return StringUtils.left(hostName, 200) + ":" + UUID.randomUUID().toString();
+    }
+
+    /**
+     * Process a chunk of queue data in a single transaction and clear it. When the chunk can't be committed, its queue
+     * data are processed again one by one, each in its own transaction. The error data of the queue data which failed
+     * are added to the error data map.
+     */
+    private void processChunk(final DataService dataService, final QueueDataDispatcher dispatcher,
+                              final MetadataCache metadataCache, final VisitResolver visitResolver, final Lease lease,
+                              final Map<Integer, Date> submissionDates, final List<QueueDataContext> chunk,
+                              final Map<Integer, ErrorData> errorDataMap, final PartitionOutcome outcome) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        Map<Integer, Exception> failures;
+        try {
+            failures = dataService.processQueueData(dispatcher, chunk, lease.getClaimant());
+        } catch (Exception e) {
+            log.warn("Unable to process " + chunk.size() + " queue data in a single transaction, processing them one "
+                    + "by one.", e);
+            // the visits created by the rolled back transaction are gone.
+            visitResolver.clear();
+            failures = processOneByOne(dataService, dispatcher, metadataCache, visitResolver, lease, chunk);
+        }
+        Date dateArchived = new Date();
+        for (QueueDataContext context : chunk) {
+            QueueData queueData = context.getQueueData();
+            Exception failure = failures.get(queueData.getId());
+            if (failure == null) {
+                QueueProcessorStatistics.recordArchived(submissionDates.get(queueData.getId()), dateArchived);
+                outcome.processed++;
+            } else {
+                log.error("Unable to process queue data due to: " + failure.getMessage(), failure);
+                outcome.unmoved += addErrorData(errorDataMap, queueData, toQueueProcessorException(failure),
+                        metadataCache);
+                outcome.failed++;
+            }
+        }
+        chunk.clear();
+    }
+
+    /**
+     * Process the queue data of a chunk which was rolled back one by one, each in its own transaction.
+     *
+     * @return the failure of every queue data whose handler failed, keyed by the id of the queue data.
+     */
+    private Map<Integer, Exception> processOneByOne(final DataService dataService, final QueueDataDispatcher dispatcher,
+                                                    final MetadataCache metadataCache,
+                                                    final VisitResolver visitResolver, final Lease lease,
+                                                    final List<QueueDataContext> chunk) {
+        Map<Integer, Exception> failures = new HashMap<Integer, Exception>();
+        for (QueueDataContext context : chunk) {
+            QueueData queueData = context.getQueueData();
+            try {
+                // the work of the handler is committed together with the archiving of the queue data.
+                dataService.processQueueData(dispatcher.getHandler(queueData),
+                        new QueueDataContext(queueData, metadataCache, visitResolver), lease.getClaimant());
+            } catch (Exception e) {
+                // the visits created by the rolled back transaction are gone.
+                visitResolver.clear();
+                failures.put(queueData.getId(), e);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Create the error data of a queue data which failed. The work of the handler was rolled back, so the queue data is
+     * left in the queue to be processed again when not even the error data can be created.
+     *
+     * @return the number of queue data left in the queue.
+     */
+    private int addErrorData(final Map<Integer, ErrorData> errorDataMap, final QueueData queueData,
+                             final QueueProcessorException exception, final MetadataCache metadataCache) {
+        try {
+            errorDataMap.put(queueData.getId(), createErrorData(queueData, exception, metadataCache));
+            return 0;
+        } catch (Exception e) {
+            log.error("Unable to create the error data of queue data " + queueData.getId() + ", leaving it in the queue.", e);
+            return 1;
+        }
+    }
+
+    private QueueProcessorException toQueueProcessorException(final Exception e) {
+        if (e instanceof QueueProcessorException) {
+            return (QueueProcessorException) e;
+        }
+        QueueProcessorException exception = new QueueProcessorException(e);
+        exception.addException(e);
+        return exception;
+    }
+
+    /**
+     * Move the error data collected so far out of the queue in a single transaction and clear them. The lease on the
+     * queue data still waiting to be processed is renewed afterwards. Nothing of the failed queue data was committed,
+     * so the ones which couldn't be moved are safe to be processed again.
+     *
+     * @return the number of queue data which couldn't be moved and are left in the queue.
+     */
+    private int moveErrorData(final DataService dataService, final Lease lease,
+                              final Map<Integer, ErrorData> errorDataMap) {
+        int unmoved = 0;
+        if (!errorDataMap.isEmpty()) {
+            try {
+                List<Integer> unmovedIds = dataService.moveQueueData(new HashMap<Integer, ArchiveData>(), errorDataMap,
+                        lease.getClaimant());
+                if (!unmovedIds.isEmpty()) {
+                    log.error("Unable to move queue data " + unmovedIds + " to the error data, they will be processed again.");
+                }
+                unmoved = unmovedIds.size();
+            } catch (Exception e) {
+                log.error("Unable to move queue data " + errorDataMap.keySet() + " to the error data, they will be "
+                        + "processed again.", e);
+                unmoved = errorDataMap.size();
+            }
+            errorDataMap.clear();
+        }
+        dataService.renewQueueDataClaims(lease.getClaimant(), lease.getExpiry());
+        return unmoved;
+    }
+
+    private void fillMissingMetadata(final ErrorData errorData, final Object payload,
+                                     final MetadataCache metadataCache) {
+        if(errorData.getLocation() == null){
+            Location location = extractLocationFromPayload(payload, metadataCache);
+            errorData.setLocation(location);
+        }
+        if(errorData.getProvider() == null){
+            Provider provider = extractProviderFromPayload(payload, metadataCache);
+            errorData.setProvider(provider);
+        }
+        if(errorData.getFormName() == null){
+            String formName = extractFormNameFromPayload(payload, metadataCache);
+            errorData.setFormName(formName);
+        }
+        if(errorData.getPatientUuid() == null){
+            String patientUuid = extractPatientUuidFromPayload(payload);
+            if(patientUuid == null){
+                errorData.setPatientUuid("");
+            }
+            errorData.setPatientUuid(patientUuid);
+        }
+    }
+
+    private ArchiveData createArchiveData(final QueueData queueData, final String message) {
         ArchiveData archiveData = new ArchiveData(queueData);
         archiveData.setMessage(message);
         archiveData.setDateArchived(new Date());
-        Context.getService(DataService.class).saveArchiveData(archiveData);
+        return archiveData;
     }
 
-    private void createErrorData(final QueueData queueData, QueueProcessorException exception) {
+    private ErrorData createErrorData(final QueueData queueData, QueueProcessorException exception,
+                                      final MetadataCache metadataCache) {
         ErrorData errorData = new ErrorData(queueData);
+        // fill the metadata on the error data, the queue data is about to be deleted and must stay untouched.
+        fillMissingMetadata(errorData, queueData.getJsonPayload(), metadataCache);
         errorData.setDateProcessed(new Date());
         Set errorMessage = new HashSet();
         for(Exception e : exception.getAllException()){
@@ -127,24 +587,23 @@ public class QueueDataProcessor {
         }
         errorData.setMessage("Unable to process queue data");
         errorData.setErrorMessages(errorMessage);
-        Context.getService(DataService.class).saveErrorData(errorData);
+        return errorData;
     }
 
-    private Provider extractProviderFromPayload(String payload) {
+    private Provider extractProviderFromPayload(final Object payload, final MetadataCache metadataCache) {
         String providerString = readAsString(payload, "$['encounter']['encounter.provider_id']");
-        return Context.getProviderService().getProviderByIdentifier(providerString);
+        return metadataCache.getProviderByIdentifier(providerString);
     }
 
-    private Location extractLocationFromPayload(String payload) {
+    private Location extractLocationFromPayload(final Object payload, final MetadataCache metadataCache) {
         String locationString = readAsString(payload, "$['encounter']['encounter.location_id']");
         int locationId = NumberUtils.toInt(locationString, -999);
-        return Context.getLocationService().getLocation(locationId);
+        return metadataCache.getLocation(locationId);
     }
 
-    private String extractFormNameFromPayload(String payload) {
+    private String extractFormNameFromPayload(final Object payload, final MetadataCache metadataCache) {
         String formUuid = readAsString(payload, "$['encounter']['encounter.form_uuid']");
-        MuzimaFormService muzimaFormService = Context.getService(MuzimaFormService.class);
-        MuzimaForm muzimaForm = muzimaFormService.getFormByUuid(formUuid);
+        MuzimaForm muzimaForm = metadataCache.getMuzimaFormByUuid(formUuid);
         if(muzimaForm != null) {
             return muzimaForm.getName();
         } else {
@@ -152,24 +611,54 @@ public class QueueDataProcessor {
         }
     }
 
-    private String extractPatientUuidFromPayload(String payload){
+    private String extractPatientUuidFromPayload(final Object payload){
         return readAsString(payload, "$['patient']['patient.uuid']");
     }
 
     /**
      * Read string value from the json object.
      *
-     * @param jsonObject the json object.
+     * @param jsonObject the json object, either serialized or parsed.
      * @param path       the path inside the json object.
      * @return the string value in the json object. When the path is invalid, by default will return null.
      */
-    private String readAsString(final String jsonObject, final String path) {
+    private String readAsString(final Object jsonObject, final String path) {
         String returnedString = null;
         try {
-            returnedString = JsonPath.read(jsonObject, path);
+            if (jsonObject instanceof String) {
+                returnedString = JsonPath.read((String) jsonObject, path);
+            } else {
+                returnedString = JsonPath.read(jsonObject, path);
+            }
         } catch (Exception e) {
             log.info("Unable to read string value with path: " + path + " from: " + String.valueOf(jsonObject));
         }
         return returnedString;
     }
+
+    /**
+     * The claim of a processor run on the queue data.
+     */
+    private static class Lease {
+
+        private final String claimant;
+
+        private final long durationMillis;
+
+        Lease(final String claimant, final int durationSeconds) {
+            this.claimant = claimant;
+            this.durationMillis = durationSeconds * 1000L;
+        }
+
+        String getClaimant() {
+            return claimant;
+        }
+
+        /**
+         * @return the expiry of a lease taken or renewed now.
+         */
+        Date getExpiry() {
+            return new Date(System.currentTimeMillis() + durationMillis);
+        }
+    }
 }
@@ -0,0 +1,144 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.task;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of the queue data processed by this OpenMRS instance since it started, most notably the latency between
+ * the submission of queue data and their archiving, and the rate of form data submitted more than once.
+ */
+public class QueueProcessorStatistics {
+
+    private static final AtomicLong archived = new AtomicLong();
+
+    private static final AtomicLong totalLatency = new AtomicLong();
+
+    private static final AtomicLong maxLatency = new AtomicLong();
+
+    private static final AtomicLong lastLatency = new AtomicLong();
+
+    private static final AtomicLong submissions = new AtomicLong();
+
+    private static final AtomicLong duplicateSubmissions = new AtomicLong();
+
+    private static final AtomicLong duplicatesArchived = new AtomicLong();
+
+    private QueueProcessorStatistics() {
+    }
+
+    /**
+     * Record the archiving of queue data.
+     *
+     * @param dateSubmitted the date the queue data was submitted, i.e. the date it was created.
+     * @param dateArchived  the date the queue data was archived.
+     */
+    public static void recordArchived(final Date dateSubmitted, final Date dateArchived) {
+        if (dateSubmitted == null || dateArchived == null) {
+            return;
+        }
+        long latency = Math.max(dateArchived.getTime() - dateSubmitted.getTime(), 0);
+        archived.incrementAndGet();
+        totalLatency.addAndGet(latency);
+        lastLatency.set(latency);
+        long max = maxLatency.get();
+        while (latency > max && !maxLatency.compareAndSet(max, latency)) {
+            max = maxLatency.get();
+        }
+    }
+
+    /**
+     * Record submissions checked for form data submitted before, see {@link DuplicateSubmissionFilter}.
+     *
+     * @param checked    the number of submissions with a form data uuid.
+     * @param duplicates the number of those which were submitted before and weren't queued again.
+     */
+    public static void recordSubmissions(final int checked, final int duplicates) {
+        submissions.addAndGet(checked);
+        duplicateSubmissions.addAndGet(duplicates);
+    }
+
+    /**
+     * Record queue data archived without being processed, because their form data was already processed.
+     *
+     * @param count the number of queue data.
+     */
+    public static void recordDuplicatesArchived(final int count) {
+        duplicatesArchived.addAndGet(count);
+    }
+
+    public static long getArchivedCount() {
+        return archived.get();
+    }
+
+    /**
+     * @return the average submit to archive latency in milliseconds.
+     */
+    public static long getAverageLatency() {
+        long count = archived.get();
+        return count == 0 ? 0 : totalLatency.get() / count;
+    }
+
+    /**
+     * @return the highest submit to archive latency in milliseconds.
+     */
+    public static long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    /**
+     * @return the submit to archive latency of the last archived queue data in milliseconds.
+     */
+    public static long getLastLatency() {
+        return lastLatency.get();
+    }
+
+    /**
+     * @return the percentage of the submissions which were submitted before.
+     */
+    public static double getDuplicateRate() {
+        long count = submissions.get();
+        return count == 0 ? 0 : duplicateSubmissions.get() * 100.0 / count;
+    }
+
+    public static long getDuplicatesArchived() {
+        return duplicatesArchived.get();
+    }
+
+    public static Map<String, Object> getSnapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+        snapshot.put("archived", getArchivedCount());
+        snapshot.put("averageLatency", getAverageLatency());
+        snapshot.put("maxLatency", getMaxLatency());
+        snapshot.put("lastLatency", getLastLatency());
+        snapshot.put("submissions", submissions.get());
+        snapshot.put("duplicateSubmissions", duplicateSubmissions.get());
+        snapshot.put("duplicateRate", getDuplicateRate());
+        snapshot.put("duplicatesArchived", getDuplicatesArchived());
+        return snapshot;
+    }
+
+    static void reset() {
+        archived.set(0);
+        totalLatency.set(0);
+        maxLatency.set(0);
+        lastLatency.set(0);
+        submissions.set(0);
+        duplicateSubmissions.set(0);
+        duplicatesArchived.set(0);
+    }
+}
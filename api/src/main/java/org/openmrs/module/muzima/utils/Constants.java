@@ -7,5 +7,16 @@ public class Constants {
                 = "PatientIdentifier.AutoGenerationSourceName";
         public static final String MAXIMUM_ENCOUNTERS_DOWNLOAD_SETTING_PROPERTY = "Encounter.maxDownloadSize";
         public static final Boolean PATIENT_IDENTIFIER_AUTOGENERATTION_SETTING_DEFAULT_VALUE = false;
+        public static final String QUEUE_PROCESSOR_WORKER_THREADS_SETTING_PROPERTY = "QueueProcessor.workerThreads";
+        public static final int QUEUE_PROCESSOR_WORKER_THREADS_DEFAULT_VALUE = 1;
+        public static final String QUEUE_PROCESSOR_BATCH_SIZE_SETTING_PROPERTY = "QueueProcessor.batchSize";
+        public static final int QUEUE_PROCESSOR_BATCH_SIZE_DEFAULT_VALUE = 500;
+        public static final String QUEUE_PROCESSOR_CHUNK_SIZE_SETTING_PROPERTY = "QueueProcessor.chunkSize";
+        public static final int QUEUE_PROCESSOR_CHUNK_SIZE_DEFAULT_VALUE = 50;
+        public static final String QUEUE_PROCESSOR_LEASE_SECONDS_SETTING_PROPERTY = "QueueProcessor.leaseSeconds";
+        public static final int QUEUE_PROCESSOR_LEASE_SECONDS_DEFAULT_VALUE = 600;
+        public static final String QUEUE_PROCESSOR_CONTINUOUS_SETTING_PROPERTY = "QueueProcessor.continuous";
+        public static final String QUEUE_DATA_DEFERRED_ENRICHMENT_SETTING_PROPERTY = "QueueData.deferredEnrichment";
+        public static final String QUEUE_DATA_SHARED_DATABASE_SETTING_PROPERTY = "QueueData.sharedDatabase";
     }
 }
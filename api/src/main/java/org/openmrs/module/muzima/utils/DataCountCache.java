@@ -0,0 +1,207 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.utils;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Approximate counts of the data in a table, for the pagination of the admin screens. Counting the rows of a large
+ * table takes seconds, so:
+ * <ul>
+ * <li>the number of data per discriminator is counted once and then kept up to date with the changes reported by
+ * {@link #adjust(String, long)}, and counted again after a while to correct the changes which weren't reported or were
+ * rolled back.</li>
+ * <li>the number of data matching a search is kept for a short while.</li>
+ * </ul>
+ * The exact count is available on demand with {@link #getExactCount(String)}. The counts per discriminator and their
+ * total are replaced together, so an adjustment and a recount never leave them out of step.
+ */
+public class DataCountCache {
+
+    /**
+     * Counts the data in the database.
+     */
+    public interface Counter {
+
+        /**
+         * @return the number of data per discriminator.
+         */
+        Map<String, Number> countByDiscriminator();
+
+        /**
+         * @param search the search term.
+         * @return the number of data matching the search.
+         */
+        Number count(final String search);
+    }
+
+    /**
+     * The number of data per discriminator and their total, at one point in time.
+     */
+    private static final class Counts {
+
+        private final Map<String, Long> byDiscriminator;
+
+        private final long total;
+
+        private Counts(final Map<String, Long> byDiscriminator, final long total) {
+            this.byDiscriminator = Collections.unmodifiableMap(byDiscriminator);
+            this.total = total;
+        }
+    }
+
+    private static final int MAX_SEARCHES = 1000;
+
+    private final Counter counter;
+
+    private final long recountMillis;
+
+    private final long searchTimeToLiveMillis;
+
+    private final AtomicReference<Counts> counts =
+            new AtomicReference<Counts>(new Counts(new TreeMap<String, Long>(), 0));
+
+    private volatile long countedAt;
+
+    private volatile boolean counted;
+
+    private final Map<String, long[]> searchCounts = new ConcurrentHashMap<String, long[]>();
+
+    /**
+     * @param counter                the counter of the data in the database.
+     * @param recountMillis          how long the counts per discriminator are kept up to date before they are
+     *                               counted again.
+     * @param searchTimeToLiveMillis how long the count of the data matching a search is kept.
+     */
+    public DataCountCache(final Counter counter, final long recountMillis, final long searchTimeToLiveMillis) {
+        this.counter = counter;
+        this.recountMillis = recountMillis;
+        this.searchTimeToLiveMillis = searchTimeToLiveMillis;
+    }
+
+    /**
+     * @param search the search term, may be empty.
+     * @return the approximate number of data matching the search, or of all data when the search is empty.
+     * @should keep the counts up to date with the adjustments
+     * @should count the data matching a search again once the count expired
+     */
+    public long getCount(final String search) {
+        if (StringUtils.isEmpty(search)) {
+            recountIfStale();
+            return Math.max(counts.get().total, 0);
+        }
+        long[] cached = searchCounts.get(search);
+        if (cached != null && System.currentTimeMillis() - cached[1] < searchTimeToLiveMillis) {
+            return cached[0];
+        }
+        return getExactCount(search);
+    }
+
+    /**
+     * @param search the search term, may be empty.
+     * @return the number of data matching the search, counted in the database.
+     */
+    public long getExactCount(final String search) {
+        if (StringUtils.isEmpty(search)) {
+            recount();
+            return Math.max(counts.get().total, 0);
+        }
+        long count = counter.count(search).longValue();
+        if (searchCounts.size() >= MAX_SEARCHES) {
+            removeExpiredSearches();
+        }
+        searchCounts.put(search, new long[]{count, System.currentTimeMillis()});
+        return count;
+    }
+
+    /**
+     * @return the approximate number of data per discriminator.
+     */
+    public Map<String, Long> getCountsByDiscriminator() {
+        recountIfStale();
+        Map<String, Long> countsByDiscriminator = new TreeMap<String, Long>();
+        for (Map.Entry<String, Long> entry : counts.get().byDiscriminator.entrySet()) {
+            countsByDiscriminator.put(entry.getKey(), Math.max(entry.getValue(), 0));
+        }
+        return countsByDiscriminator;
+    }
+
+    /**
+     * Report data added to or removed from the table.
+     *
+     * @param discriminator the discriminator of the data, or null when unknown.
+     * @param delta         the number of data added, negative for removed data.
+     */
+    public void adjust(final String discriminator, final long delta) {
+        if (delta == 0) {
+            return;
+        }
+        Counts current;
+        Counts adjusted;
+        do {
+            current = counts.get();
+            Map<String, Long> byDiscriminator = new TreeMap<String, Long>(current.byDiscriminator);
+            if (discriminator != null) {
+                Long count = byDiscriminator.get(discriminator);
+                byDiscriminator.put(discriminator, (count == null ? 0 : count) + delta);
+            }
+            adjusted = new Counts(byDiscriminator, current.total + delta);
+        } while (!counts.compareAndSet(current, adjusted));
+    }
+
+    private void recountIfStale() {
+        if (!counted || System.currentTimeMillis() - countedAt >= recountMillis) {
+            synchronized (this) {
+                if (!counted || System.currentTimeMillis() - countedAt >= recountMillis) {
+                    recount();
+                }
+            }
+        }
+    }
+
+    private synchronized void recount() {
+        Map<String, Long> byDiscriminator = new TreeMap<String, Long>();
+        long sum = 0;
+        for (Map.Entry<String, Number> entry : counter.countByDiscriminator().entrySet()) {
+            String discriminator = entry.getKey() == null ? "" : entry.getKey();
+            long count = entry.getValue().longValue();
+            Long previous = byDiscriminator.get(discriminator);
+            byDiscriminator.put(discriminator, (previous == null ? 0 : previous) + count);
+            sum += count;
+        }
+        counts.set(new Counts(byDiscriminator, sum));
+        countedAt = System.currentTimeMillis();
+        counted = true;
+    }
+
+    private void removeExpiredSearches() {
+        long now = System.currentTimeMillis();
+        Iterator<long[]> iterator = searchCounts.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next()[1] >= searchTimeToLiveMillis) {
+                iterator.remove();
+            }
+        }
+        if (searchCounts.size() >= MAX_SEARCHES) {
+            searchCounts.clear();
+        }
+    }
+}
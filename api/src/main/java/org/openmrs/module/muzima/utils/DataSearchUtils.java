@@ -0,0 +1,151 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.utils;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.module.muzima.model.AuditableData;
+import org.openmrs.module.muzima.model.ErrorData;
+import org.openmrs.module.muzima.model.ErrorMessage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Creates the terms of the search index of the queue, error and archive data, see
+ * {@link org.openmrs.module.muzima.model.DataSearchTerm}. The terms are the lower case words and numbers of the
+ * discriminator, patient uuid, form name, location, provider and error messages of the data and of the values in the
+ * payload. The keys of a json payload and the tags of a xml payload are left out, they are the same in most data.
+ * <p/>
+ * The search terms are matched as prefixes of the indexed terms, so a data matches a search when every search term
+ * starts one of its terms. This differs from searching the data before the index is complete, which matches the search
+ * anywhere in the metadata or payload: once the index is complete "12" still finds "AMRS-123", but "23" doesn't. Terms
+ * are cut at {@link #MAX_TERM_LENGTH} characters, both when indexed and when searched.
+ */
+public class DataSearchUtils {
+
+    private static final Log log = LogFactory.getLog(DataSearchUtils.class);
+
+    public static final int MAX_TERM_LENGTH = 64;
+
+    /**
+     * The maximum number of terms indexed for a single data, keeps e.g. free text observations from blowing up the
+     * index.
+     */
+    public static final int MAX_TERMS = 500;
+
+    private static final Pattern SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private static final Pattern XML_MARKUP = Pattern.compile("<[^>]*>");
+
+    private DataSearchUtils() {
+    }
+
+    /**
+     * @param data the queue, error or archive data.
+     * @return the terms to index for the data.
+     * @should return the terms of the metadata and the payload values of the data
+     * @should index the text of xml payloads and the error messages
+     * @should cut long terms at the maximum term length
+     */
+    public static Set<String> getSearchTerms(final AuditableData data) {
+        Set<String> terms = new LinkedHashSet<String>();
+        addTerms(data.getDiscriminator(), terms);
+        addTerms(data.getPatientUuid(), terms);
+        addTerms(data.getFormName(), terms);
+        if (data.getLocation() != null) {
+            addTerms(data.getLocation().getName(), terms);
+        }
+        if (data.getProvider() != null) {
+            addTerms(data.getProvider().getIdentifier(), terms);
+            addTerms(data.getProvider().getName(), terms);
+        }
+        if (data instanceof ErrorData && ((ErrorData) data).getErrorMessages() != null) {
+            for (ErrorMessage errorMessage : ((ErrorData) data).getErrorMessages()) {
+                addTerms(errorMessage.getMessage(), terms);
+            }
+        }
+        addPayloadTerms(data.getPayload(), terms);
+        return terms;
+    }
+
+    /**
+     * @param search the search entered on the admin screens.
+     * @return the terms to look up in the index, empty when the search has no words or numbers.
+     * @should split the search into lower case terms
+     * @should cut long terms at the maximum term length
+     */
+    public static List<String> getSearchTerms(final String search) {
+        Set<String> terms = new LinkedHashSet<String>();
+        if (StringUtils.isNotBlank(search)) {
+            for (String term : SEPARATOR.split(search.toLowerCase())) {
+                if (term.length() > 0) {
+                    terms.add(StringUtils.left(term, MAX_TERM_LENGTH));
+                }
+            }
+        }
+        return new ArrayList<String>(terms);
+    }
+
+    private static void addPayloadTerms(final String payload, final Set<String> terms) {
+        String trimmed = StringUtils.trimToEmpty(payload);
+        if (trimmed.startsWith("{") || trimmed.startsWith("[")) {
+            try {
+                addValueTerms(JsonUtils.parseJson(trimmed), terms);
+                return;
+            } catch (Exception e) {
+                log.debug("Unable to parse the json payload, indexing the payload as text.", e);
+            }
+        } else if (trimmed.startsWith("<")) {
+            addTerms(XML_MARKUP.matcher(trimmed).replaceAll(" "), terms);
+            return;
+        }
+        addTerms(trimmed, terms);
+    }
+
+    private static void addValueTerms(final Object value, final Set<String> terms) {
+        if (value instanceof Map) {
+            for (Object child : ((Map<?, ?>) value).values()) {
+                addValueTerms(child, terms);
+            }
+        } else if (value instanceof Collection) {
+            for (Object child : (Collection<?>) value) {
+                addValueTerms(child, terms);
+            }
+        } else if (value != null) {
+            addTerms(value.toString(), terms);
+        }
+    }
+
+    private static void addTerms(final String text, final Set<String> terms) {
+        if (StringUtils.isBlank(text)) {
+            return;
+        }
+        for (String term : SEPARATOR.split(text.toLowerCase())) {
+            if (terms.size() >= MAX_TERMS) {
+                return;
+            }
+            // longer terms are cut the same way as the terms of a search, so a search for a long word still finds it.
+            if (term.length() > 1) {
+                terms.add(StringUtils.left(term, MAX_TERM_LENGTH));
+            }
+        }
+    }
+}
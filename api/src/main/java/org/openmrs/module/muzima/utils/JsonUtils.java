@@ -14,6 +14,7 @@
 package org.openmrs.module.muzima.utils;
 
 import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.spi.JsonProviderFactory;
 import net.minidev.json.JSONArray;
 import net.minidev.json.JSONObject;
 import org.slf4j.Logger;
@@ -33,6 +34,8 @@ import java.util.Set;
 
 import java.text.DateFormat;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * TODO: Write brief description about the class here.
@@ -43,6 +46,10 @@ public class JsonUtils {
 
     private static final String DATE_PATTERN = "dd-MM-yyyy";
 
+    static final int COMPILED_PATH_CACHE_SIZE = 2048;
+
+    private static final ConcurrentMap<String, JsonPath> compiledPaths = new ConcurrentHashMap<String, JsonPath>();
+
     /**
      * Write boolean value into the json object. The method will only write the boolean value if the object passed
      * as the first argument is an instance of <code>{@link net.minidev.json.JSONObject}</code>.
@@ -61,11 +68,11 @@ public class JsonUtils {
     /**
      * Read boolean value from the json object.
      *
-     * @param jsonObject the json object.
+     * @param jsonObject the json object, either serialized or parsed using {@link #parseJson(String)}.
      * @param path       the path inside the json object.
      * @return the boolean value in the json object. When the path is invalid, by default will return false.
      */
-    public static boolean readAsBoolean(final String jsonObject, final String path) {
+    public static boolean readAsBoolean(final Object jsonObject, final String path) {
         boolean returnedBoolean = false;
         try {
             String value = readAsString(jsonObject, path);
@@ -94,14 +101,14 @@ public class JsonUtils {
     /**
      * Read numeric value from the json object.
      *
-     * @param jsonObject the json object.
+     * @param jsonObject the json object, either serialized or parsed using {@link #parseJson(String)}.
      * @param path       the path inside the json object.
      * @return the numeric value in the json object. When the path is invalid, by default will return 0.
      */
-    public static double readAsNumeric(final String jsonObject, final String path) {
+    public static double readAsNumeric(final Object jsonObject, final String path) {
         double returnedString = 0;
         try {
-            returnedString = (Double)JsonPath.read(jsonObject, path);
+            returnedString = (Double)read(jsonObject, path);
         } catch (Exception e) {
             logger.error("Unable to read string value with path: " + path + " from: " + String.valueOf(jsonObject));
         }
@@ -126,14 +133,14 @@ public class JsonUtils {
     /**
      * Read string value from the json object.
      *
-     * @param jsonObject the json object.
+     * @param jsonObject the json object, either serialized or parsed using {@link #parseJson(String)}.
      * @param path       the path inside the json object.
      * @return the string value in the json object. When the path is invalid, by default will return null.
      */
-    public static String readAsString(final String jsonObject, final String path) {
+    public static String readAsString(final Object jsonObject, final String path) {
         String returnedString = null;
         try {
-            returnedString = JsonPath.read(jsonObject, path);
+            returnedString = read(jsonObject, path);
         } catch (Exception e) {
             logger.error("Unable to read string value with path: " + path + " from: " + String.valueOf(jsonObject));
         }
@@ -183,12 +190,12 @@ public class JsonUtils {
      * Read date value from the json object. The value for the path must conform to the ISO-8601 standard
      * date format.
      *
-     * @param jsonObject the json object.
+     * @param jsonObject the json object, either serialized or parsed using {@link #parseJson(String)}.
      * @param path       the path inside the json object.
      * @return the date value in the json object. When the path is invalid, by default will return null.
      * @see @link <a href="http://en.wikipedia.org/wiki/ISO_8601">ISO-8601 Wikipedia Page</a>
      */
-    public static Date readAsDateTime(final String jsonObject, final String path) {
+    public static Date readAsDateTime(final Object jsonObject, final String path) {
         Date returnedDate = null;
         try {
             String dateAsString = readAsString(jsonObject, path);
@@ -205,14 +212,14 @@ public class JsonUtils {
     /**
      * Read object value from the json object.
      *
-     * @param jsonObject the json object.
+     * @param jsonObject the json object, either serialized or parsed using {@link #parseJson(String)}.
      * @param path       the path inside the json object.
      * @return the object value in the json object. When the path is invalid, by default will return null.
      */
-    public static Object readAsObject(final String jsonObject, final String path) {
+    public static Object readAsObject(final Object jsonObject, final String path) {
         Object object = null;
         try {
-            object = JsonPath.read(jsonObject, path);
+            object = read(jsonObject, path);
         } catch (Exception e) {
             logger.error("Unable to read object value with path: " + path + " from: " + String.valueOf(jsonObject));
         }
@@ -264,14 +271,14 @@ public class JsonUtils {
     /**
      * Read list of object value from the json object.
      *
-     * @param jsonObject the json object.
+     * @param jsonObject the json object, either serialized or parsed using {@link #parseJson(String)}.
      * @param path       the path inside the json object.
      * @return the list of object values in the json object. When the path is invalid, by default will return empty list.
      */
-    public static List<Object> readAsObjectList(final String jsonObject, final String path) {
+    public static List<Object> readAsObjectList(final Object jsonObject, final String path) {
         List<Object> objects = new ArrayList<Object>();
         try {
-            objects = JsonPath.read(jsonObject, path);
+            objects = read(jsonObject, path);
         } catch (Exception e) {
             logger.error("Unable to read object value with path: " + path + " from: " + String.valueOf(jsonObject));
         }
@@ -299,11 +306,11 @@ public class JsonUtils {
      * Read date value from the json object. The value for the path must conform to the "yyyy-MM-dd"
      * date format.
      *
-     * @param serialized the serialized json object.
+     * @param serialized the json object, either serialized or parsed using {@link #parseJson(String)}.
      * @param path       the path inside the json object.
      * @return the date value in the json object. When the path is invalid, by default will return null.
      */
-    public static Date readAsDate(String serialized, String path) {
+    public static Date readAsDate(final Object serialized, final String path) {
         String dateAsString = readAsString(serialized, path);
         if(dateAsString == null || dateAsString.length() == 0) {
             return null;
@@ -321,11 +328,11 @@ public class JsonUtils {
     /**
      * Read date value from the json object.
      *
-     * @param jsonObject the json object.
+     * @param jsonObject the json object, either serialized or parsed using {@link #parseJson(String)}.
      * @param path       the path inside the json object.
      * @return the date Time value in the json object. When the path is invalid, by default will return null.
      */
-    public static Date readAsDateTime(final String jsonObject, final String path, final DateFormat dateFormat, final String jsonPayloadTimezone) {
+    public static Date readAsDateTime(final Object jsonObject, final String path, final DateFormat dateFormat, final String jsonPayloadTimezone) {
         Date returnedDate = null;
         try {
             String dateAsString = readAsString(jsonObject, path);
@@ -343,4 +350,58 @@ public class JsonUtils {
         }
         return returnedDate;
     }
+
+    /**
+     * Parse the json string into the document used by the read methods. Reading several paths from the parsed document
+     * avoids parsing the same string again for every path.
+     *
+     * @param json the serialized json object.
+     * @return the parsed json document.
+     */
+    public static Object parseJson(final String json) {
+        return JsonProviderFactory.createProvider().parse(json);
+    }
+
+    private static <T> T read(final Object jsonObject, final String path) {
+        JsonPath jsonPath = compile(path);
+        if (jsonObject instanceof String) {
+            return jsonPath.<T>read((String) jsonObject);
+        }
+        return jsonPath.<T>read(jsonObject);
+    }
+
+    /**
+     * Get the compiled json path for the path string. The handlers read the same few hundred paths over and over, so
+     * the compiled paths are kept until the cache is full. Paths read after that are compiled on every call.
+     *
+     * @param path the path inside the json object.
+     * @return the compiled json path.
+     */
+    static JsonPath compile(final String path) {
+        JsonPath jsonPath = compiledPaths.get(path);
+        if (jsonPath == null) {
+            jsonPath = JsonPath.compile(path);
+            if (compiledPaths.size() < COMPILED_PATH_CACHE_SIZE) {
+                JsonPath cachedJsonPath = compiledPaths.putIfAbsent(path, jsonPath);
+                if (cachedJsonPath != null) {
+                    jsonPath = cachedJsonPath;
+                }
+            }
+        }
+        return jsonPath;
+    }
+
+    /**
+     * @return the number of compiled json paths in the cache.
+     */
+    static int getCompiledPathCount() {
+        return compiledPaths.size();
+    }
+
+    /**
+     * Remove all compiled json paths from the cache, e.g. after a test which filled it.
+     */
+    static void clearCompiledPaths() {
+        compiledPaths.clear();
+    }
 }
@@ -18,45 +18,213 @@ import org.apache.commons.lang.time.DateUtils;
 import org.openmrs.Patient;
 import org.openmrs.PersonName;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.api.service.CoreService;
 import org.openmrs.module.muzima.api.service.RegistrationDataService;
 import org.openmrs.module.muzima.model.RegistrationData;
+import org.openmrs.module.muzima.task.PatientMatchIndexer;
 
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 /**
+ * Finds the saved patient a submitted patient refers to. Saved patients match when they have the same gender and
+ * birth date, and both their given name and family name are at most {@link #MAX_NAME_EDIT_DISTANCE} edits away from
+ * the names of the submitted patient.
+ * <p/>
+ * The candidates are looked up in the patient match index, which blocks the saved patients by the phonetic key of
+ * their names, their gender and their birth year, see {@link CoreService#getPatientMatchCandidates(Patient)}. Until
+ * the index is built, see {@link PatientMatchIndexer}, the candidates are looked up with the patient search of OpenMRS.
  */
 public class PatientSearchUtils {
+
+    public static final int MAX_NAME_EDIT_DISTANCE = 2;
+
+    // the soundex digit of every letter from A to Z, 0 for the letters which are not coded.
+    private static final String SOUNDEX_CODES = "01230120022455012623010202";
+
     private PatientSearchUtils(){}
+
+    /**
+     * Find the saved patient matching the submitted patient, looking up the candidates in the patient match index.
+     *
+     * @param unsavedPatient the submitted patient.
+     * @return the matching saved patient, or null when no saved patient matches.
+     */
+    public static Patient findSimilarPatient(final Patient unsavedPatient) {
+        List<Patient> patients;
+        if (PatientMatchIndexer.isComplete()) {
+            patients = Context.getService(CoreService.class).getPatientMatchCandidates(unsavedPatient);
+        } else {
+            PersonName personName = unsavedPatient.getPersonName();
+            if (personName == null || StringUtils.isBlank(personName.getFullName())) {
+                return null;
+            }
+            patients = Context.getPatientService().getPatients(personName.getFullName());
+        }
+        return findSimilarPatientByNameAndGender(patients, unsavedPatient);
+    }
+
     public static Patient findSimilarPatientByNameAndGender(final List<Patient> patients, final Patient unsavedPatient) {
+        PersonName unsavedPersonName = unsavedPatient.getPersonName();
+        if (unsavedPersonName == null || StringUtils.isBlank(unsavedPersonName.getFullName())
+                || unsavedPatient.getBirthdate() == null) {
+            return null;
+        }
+        String unsavedGivenName = StringUtils.lowerCase(StringUtils.defaultString(unsavedPersonName.getGivenName()));
+        String unsavedFamilyName = StringUtils.lowerCase(StringUtils.defaultString(unsavedPersonName.getFamilyName()));
         for (Patient patient : patients) {
             // match it using the person name and gender.
             PersonName savedPersonName = patient.getPersonName();
-            PersonName unsavedPersonName = unsavedPatient.getPersonName();
-            if (StringUtils.isNotBlank(savedPersonName.getFullName())
-                    && StringUtils.isNotBlank(unsavedPersonName.getFullName())) {
-                if (StringUtils.equalsIgnoreCase(patient.getGender(), unsavedPatient.getGender())) {
-                    if (patient.getBirthdate() != null && unsavedPatient.getBirthdate() != null
-                            && DateUtils.isSameDay(patient.getBirthdate(), unsavedPatient.getBirthdate())) {
-                        String savedGivenName = savedPersonName.getGivenName();
-                        String unsavedGivenName = unsavedPersonName.getGivenName();
-                        int givenNameEditDistance = StringUtils.getLevenshteinDistance(
-                                StringUtils.lowerCase(savedGivenName),
-                                StringUtils.lowerCase(unsavedGivenName));
-                        String savedFamilyName = savedPersonName.getFamilyName();
-                        String unsavedFamilyName = unsavedPersonName.getFamilyName();
-                        int familyNameEditDistance = StringUtils.getLevenshteinDistance(
-                                StringUtils.lowerCase(savedFamilyName),
-                                StringUtils.lowerCase(unsavedFamilyName));
-                        if (givenNameEditDistance < 3 && familyNameEditDistance < 3) {
-                            return patient;
-                        }
-                    }
+            if (savedPersonName != null && StringUtils.isNotBlank(savedPersonName.getFullName())
+                    && StringUtils.equalsIgnoreCase(patient.getGender(), unsavedPatient.getGender())
+                    && patient.getBirthdate() != null
+                    && DateUtils.isSameDay(patient.getBirthdate(), unsavedPatient.getBirthdate())) {
+                String savedGivenName = StringUtils.lowerCase(StringUtils.defaultString(savedPersonName.getGivenName()));
+                String savedFamilyName = StringUtils.lowerCase(StringUtils.defaultString(savedPersonName.getFamilyName()));
+                if (getLevenshteinDistance(savedGivenName, unsavedGivenName, MAX_NAME_EDIT_DISTANCE) >= 0
+                        && getLevenshteinDistance(savedFamilyName, unsavedFamilyName, MAX_NAME_EDIT_DISTANCE) >= 0) {
+                    return patient;
                 }
             }
         }
         return null;
     }
 
+    /**
+     * Compute the edit distance between two strings, giving up as soon as it exceeds the threshold. Only the cells of
+     * the edit matrix within the threshold of the diagonal are computed.
+     *
+     * @param first     the first string.
+     * @param second    the second string.
+     * @param threshold the highest distance of interest.
+     * @return the edit distance, or -1 when it is greater than the threshold.
+     */
+    public static int getLevenshteinDistance(final String first, final String second, final int threshold) {
+        String shorter = first.length() <= second.length() ? first : second;
+        String longer = first.length() <= second.length() ? second : first;
+        int shorterLength = shorter.length();
+        int longerLength = longer.length();
+        if (longerLength - shorterLength > threshold) {
+            return -1;
+        }
+        // any distance above the threshold is stored as the sentinel, this keeps the arithmetic from overflowing.
+        int sentinel = threshold + 1;
+        int[] previous = new int[shorterLength + 1];
+        int[] current = new int[shorterLength + 1];
+        for (int i = 0; i <= shorterLength; i++) {
+            previous[i] = Math.min(i, sentinel);
+        }
+        for (int j = 1; j <= longerLength; j++) {
+            char character = longer.charAt(j - 1);
+            int from = Math.max(1, j - threshold);
+            int to = Math.min(shorterLength, j + threshold);
+            current[0] = Math.min(j, sentinel);
+            if (from > 1) {
+                current[from - 1] = sentinel;
+            }
+            int rowMinimum = from == 1 ? current[0] : sentinel;
+            for (int i = from; i <= to; i++) {
+                int distance;
+                if (shorter.charAt(i - 1) == character) {
+                    distance = previous[i - 1];
+                } else {
+                    distance = 1 + Math.min(previous[i - 1], Math.min(previous[i], current[i - 1]));
+                }
+                current[i] = Math.min(distance, sentinel);
+                rowMinimum = Math.min(rowMinimum, current[i]);
+            }
+            if (to < shorterLength) {
+                current[to + 1] = sentinel;
+            }
+            if (rowMinimum > threshold) {
+                return -1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[shorterLength] <= threshold ? previous[shorterLength] : -1;
+    }
+
+    /**
+     * Compute the american soundex of a name, e.g. R163 for both Robert and Rupert.
+     *
+     * @param name the name.
+     * @return the soundex, or null when the name has no latin letters.
+     */
+    public static String getSoundex(final String name) {
+        if (name == null) {
+            return null;
+        }
+        String upperCaseName = name.toUpperCase(Locale.ENGLISH);
+        StringBuilder soundex = new StringBuilder(4);
+        char lastCode = 0;
+        for (int i = 0; i < upperCaseName.length() && soundex.length() < 4; i++) {
+            char letter = upperCaseName.charAt(i);
+            if (letter < 'A' || letter > 'Z') {
+                continue;
+            }
+            char code = SOUNDEX_CODES.charAt(letter - 'A');
+            if (soundex.length() == 0) {
+                soundex.append(letter);
+            } else if (code != '0' && code != lastCode) {
+                soundex.append(code);
+            }
+            // letters with the same code separated by h or w are coded once, separated by a vowel they're coded twice.
+            if (letter != 'H' && letter != 'W') {
+                lastCode = code;
+            }
+        }
+        if (soundex.length() == 0) {
+            return null;
+        }
+        while (soundex.length() < 4) {
+            soundex.append('0');
+        }
+        return soundex.toString();
+    }
+
+    /**
+     * Return the keys of the patient in the patient match index, i.e. the soundex of each given and family name.
+     *
+     * @param patient the patient.
+     * @return the name keys of the patient.
+     */
+    public static Set<String> getNameKeys(final Patient patient) {
+        Set<String> nameKeys = new HashSet<String>();
+        for (PersonName personName : patient.getNames()) {
+            if (!personName.isVoided()) {
+                addNameKey(nameKeys, personName.getGivenName());
+                addNameKey(nameKeys, personName.getFamilyName());
+            }
+        }
+        return nameKeys;
+    }
+
+    private static void addNameKey(final Set<String> nameKeys, final String name) {
+        String soundex = getSoundex(name);
+        if (soundex != null) {
+            nameKeys.add(soundex);
+        }
+    }
+
+    /**
+     * @param birthdate the birth date of a patient.
+     * @return the birth year, or null when there is no birth date.
+     */
+    public static Integer getBirthYear(final Date birthdate) {
+        if (birthdate == null) {
+            return null;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(birthdate);
+        return calendar.get(Calendar.YEAR);
+    }
+
     public static Patient findSavedPatient(Patient candidatePatient, boolean searchRegistrationData){
         Patient savedPatient = null;
         if (StringUtils.isNotEmpty(candidatePatient.getUuid())) {
@@ -80,9 +248,7 @@ public class PatientSearchUtils {
 
         if(savedPatient == null && candidatePatient.getPersonName() != null
                 && StringUtils.isNotEmpty(candidatePatient.getPersonName().getFullName())){
-            List<Patient> patients = Context.getPatientService()
-                    .getPatients(candidatePatient.getPersonName().getFullName());
-            savedPatient = PatientSearchUtils.findSimilarPatientByNameAndGender(patients, candidatePatient);
+            savedPatient = PatientSearchUtils.findSimilarPatient(candidatePatient);
         }
 
         return savedPatient;
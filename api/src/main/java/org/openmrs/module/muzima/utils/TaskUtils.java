@@ -0,0 +1,64 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.utils;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.api.service.MuzimaSettingService;
+import org.openmrs.module.muzima.model.MuzimaSetting;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helpers shared by the tasks processing the queue and error data on pools of worker threads.
+ */
+public class TaskUtils {
+
+    private TaskUtils() {
+    }
+
+    /**
+     * Read a numeric setting, see {@link Constants.MuzimaSettings}.
+     *
+     * @param property     the property of the setting.
+     * @param defaultValue the value used when the setting is missing or not a number.
+     * @return the value of the setting.
+     */
+    public static int getSettingValue(final String property, final int defaultValue) {
+        MuzimaSettingService muzimaSettingService = Context.getService(MuzimaSettingService.class);
+        MuzimaSetting muzimaSetting = muzimaSettingService.getMuzimaSettingByProperty(property);
+        return muzimaSetting != null && StringUtils.isNumeric(muzimaSetting.getValueString()) ?
+                NumberUtils.toInt(muzimaSetting.getValueString(), defaultValue) : defaultValue;
+    }
+
+    /**
+     * Create a factory of numbered daemon worker threads, so the workers never keep OpenMRS from shutting down.
+     *
+     * @param namePrefix the prefix of the names of the threads, e.g. muzima-queue-worker-.
+     * @return the thread factory.
+     */
+    public static ThreadFactory createWorkerThreadFactory(final String namePrefix) {
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
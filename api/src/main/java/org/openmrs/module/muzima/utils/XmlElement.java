@@ -0,0 +1,172 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An element of a section read out of an xml payload, see {@link XmlSections}. Only holds what the queue data handlers
+ * read: the name, the attributes, the child elements and the text content of the element.
+ */
+public class XmlElement {
+
+    private final String name;
+
+    // names and values, alternately.
+    private String[] attributes;
+
+    private List<XmlElement> children;
+
+    // the text directly inside the element, without the text of the child elements. A string while the element has a
+    // single text, which is the case of most elements, and a string builder otherwise.
+    private CharSequence text;
+
+    // the length of the text of the parent when the element started, to keep the document order of the text content.
+    private int textOffset;
+
+    private String textContent;
+
+    XmlElement(final String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the value of an attribute of the element.
+     *
+     * @param attributeName the name of the attribute.
+     * @return the value, or an empty string when the element doesn't have the attribute.
+     */
+    public String getAttribute(final String attributeName) {
+        if (attributes != null) {
+            for (int i = 0; i < attributes.length; i += 2) {
+                if (attributes[i].equals(attributeName)) {
+                    return attributes[i + 1];
+                }
+            }
+        }
+        return "";
+    }
+
+    public boolean hasAttributes() {
+        return attributes != null;
+    }
+
+    /**
+     * Flag whether the element has any content, either child elements or text, whitespace included.
+     *
+     * @return false for empty elements.
+     */
+    public boolean hasContent() {
+        return children != null || text != null;
+    }
+
+    /**
+     * @return the child elements, in document order.
+     */
+    public List<XmlElement> getChildren() {
+        return children == null ? Collections.<XmlElement>emptyList() : children;
+    }
+
+    /**
+     * Get the first child element with the given name.
+     *
+     * @param childName the name of the child element.
+     * @return the child element, or null when there is no such child.
+     */
+    public XmlElement getChild(final String childName) {
+        for (XmlElement child : getChildren()) {
+            if (child.name.equals(childName)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the first element with the given name below this element, in document order.
+     *
+     * @param elementName the name of the element.
+     * @return the element, or null when there is no such element.
+     */
+    public XmlElement find(final String elementName) {
+        for (XmlElement child : getChildren()) {
+            if (child.name.equals(elementName)) {
+                return child;
+            }
+            XmlElement element = child.find(elementName);
+            if (element != null) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the text of the element and of all elements below it, in document order.
+     */
+    public String getTextContent() {
+        if (textContent == null) {
+            if (children == null) {
+                textContent = text == null ? "" : text.toString();
+            } else {
+                StringBuilder builder = new StringBuilder();
+                appendTextContent(builder);
+                textContent = builder.toString();
+            }
+        }
+        return textContent;
+    }
+
+    private void appendTextContent(final StringBuilder builder) {
+        int offset = 0;
+        for (XmlElement child : getChildren()) {
+            if (child.textOffset > offset) {
+                builder.append(text, offset, child.textOffset);
+                offset = child.textOffset;
+            }
+            child.appendTextContent(builder);
+        }
+        if (text != null && text.length() > offset) {
+            builder.append(text, offset, text.length());
+        }
+    }
+
+    void setAttributes(final String[] attributes) {
+        this.attributes = attributes;
+    }
+
+    void addChild(final XmlElement child) {
+        if (children == null) {
+            children = new ArrayList<XmlElement>(4);
+        }
+        child.textOffset = text == null ? 0 : text.length();
+        children.add(child);
+    }
+
+    void appendText(final String text) {
+        if (this.text == null) {
+            this.text = text;
+        } else if (this.text instanceof StringBuilder) {
+            ((StringBuilder) this.text).append(text);
+        } else {
+            this.text = new StringBuilder(this.text).append(text);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.utils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The sections of an xml payload, e.g. the patient, encounter and obs sections of an xml form submission. The payload
+ * is read in a single pass with a streaming parser and only the elements of the requested sections are kept, the rest
+ * of the payload is skipped. A section is the first element with the name of the section, wherever it is in the
+ * payload.
+ * <p/>
+ * The payload is still read to the end, so a payload which is not well formed fails to parse like it used to with the
+ * dom parser.
+ */
+public class XmlSections {
+
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private final Map<String, XmlElement> sections;
+
+    private XmlSections(final Map<String, XmlElement> sections) {
+        this.sections = sections;
+    }
+
+    /**
+     * Read the sections out of the payload.
+     *
+     * @param payload      the xml payload.
+     * @param sectionNames the names of the sections.
+     * @return the sections found in the payload.
+     * @throws XMLStreamException when the payload is not well formed xml.
+     */
+    public static XmlSections parse(final String payload, final String... sectionNames) throws XMLStreamException {
+        Set<String> remainingNames = new HashSet<String>(Arrays.asList(sectionNames));
+        Map<String, XmlElement> sections = new HashMap<String, XmlElement>();
+        // the elements of the sections currently open, the innermost last.
+        List<XmlElement> openElements = new ArrayList<XmlElement>();
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(payload));
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        String name = getName(reader.getPrefix(), reader.getLocalName());
+                        boolean isSection = remainingNames.remove(name);
+                        if (isSection || !openElements.isEmpty()) {
+                            XmlElement element = new XmlElement(name);
+                            int attributeCount = reader.getAttributeCount();
+                            if (attributeCount > 0) {
+                                String[] attributes = new String[attributeCount * 2];
+                                for (int i = 0; i < attributeCount; i++) {
+                                    attributes[i * 2] = getName(reader.getAttributePrefix(i),
+                                            reader.getAttributeLocalName(i));
+                                    attributes[i * 2 + 1] = reader.getAttributeValue(i);
+                                }
+                                element.setAttributes(attributes);
+                            }
+                            if (!openElements.isEmpty()) {
+                                openElements.get(openElements.size() - 1).addChild(element);
+                            }
+                            if (isSection) {
+                                sections.put(name, element);
+                            }
+                            openElements.add(element);
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (!openElements.isEmpty()) {
+                            openElements.remove(openElements.size() - 1);
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (!openElements.isEmpty()) {
+                            openElements.get(openElements.size() - 1).appendText(reader.getText());
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new XmlSections(sections);
+    }
+
+    /**
+     * Get a section of the payload.
+     *
+     * @param sectionName the name of the section.
+     * @return the first element with the name of the section, or null when the payload doesn't have the section.
+     */
+    public XmlElement getSection(final String sectionName) {
+        return sections.get(sectionName);
+    }
+
+    private static String getName(final String prefix, final String localName) {
+        return prefix == null || prefix.length() == 0 ? localName : prefix + ":" + localName;
+    }
+
+    /**
+     * The factory is configured once and shared, creating readers out of it is thread safe. Dtds and external entities
+     * are never resolved, form submissions don't use them.
+     */
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.api.service;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.utils.PatientSearchUtils;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Tests the patient match index of {@link CoreService}.
+ */
+public class CoreServiceTest extends BaseModuleContextSensitiveTest {
+
+    private CoreService coreService;
+
+    @Before
+    public void setUp() {
+        coreService = Context.getService(CoreService.class);
+    }
+
+    /**
+     * @verifies return the indexed patients with similar names, gender and birth year
+     * @see CoreService#getPatientMatchCandidates(org.openmrs.Patient)
+     */
+    @Test
+    public void getPatientMatchCandidates_shouldReturnTheIndexedPatientsWithSimilarNamesGenderAndBirthYear() {
+        Assert.assertTrue(coreService.indexPatientMatchKeys(0, coreService.getMaxPatientId()) > 0);
+        Patient savedPatient = Context.getPatientService().getPatient(2);
+
+        Patient unsavedPatient = createUnsavedPatient(savedPatient);
+        List<Patient> candidates = coreService.getPatientMatchCandidates(unsavedPatient);
+        Assert.assertTrue(candidates.contains(savedPatient));
+        Assert.assertEquals(savedPatient,
+                PatientSearchUtils.findSimilarPatientByNameAndGender(candidates, unsavedPatient));
+
+        coreService.deletePatientMatchKeys(savedPatient.getPatientId());
+        Assert.assertFalse(coreService.getPatientMatchCandidates(unsavedPatient).contains(savedPatient));
+
+        coreService.updatePatientMatchKeys(savedPatient);
+        Assert.assertTrue(coreService.getPatientMatchCandidates(unsavedPatient).contains(savedPatient));
+    }
+
+    /**
+     * @verifies return the patients whose names changed since the date
+     * @see CoreService#getPatientIdsChangedSince(java.util.Date, Integer, Integer, int)
+     */
+    @Test
+    public void getPatientIdsChangedSince_shouldReturnThePatientsWhoseNamesChangedSinceTheDate() {
+        Integer maxPatientId = coreService.getMaxPatientId();
+        coreService.indexPatientMatchKeys(0, maxPatientId);
+        Date since = coreService.getLastPatientMatchIndexDate();
+        Assert.assertNotNull(since);
+        Patient savedPatient = Context.getPatientService().getPatient(2);
+        Patient renamedPatient = createUnsavedPatient(savedPatient);
+        renamedPatient.getPersonName().setGivenName("Zebedee");
+        Assert.assertFalse(coreService.getPatientMatchCandidates(renamedPatient).contains(savedPatient));
+
+        savedPatient.getPersonName().setGivenName("Zebedee");
+        Context.getPatientService().savePatient(savedPatient);
+        List<Integer> patientIds = coreService.getPatientIdsChangedSince(since, 0, maxPatientId, 10);
+        Assert.assertTrue(patientIds.contains(savedPatient.getPatientId()));
+
+        coreService.reindexPatientMatchKeys(patientIds);
+        Assert.assertTrue(coreService.getPatientMatchCandidates(renamedPatient).contains(savedPatient));
+    }
+
+    // same gender and birth date, a typo in the given name.
+    private Patient createUnsavedPatient(final Patient savedPatient) {
+        Patient unsavedPatient = new Patient();
+        unsavedPatient.setGender(savedPatient.getGender());
+        unsavedPatient.setBirthdate(savedPatient.getBirthdate());
+        PersonName savedPersonName = savedPatient.getPersonName();
+        unsavedPatient.addName(new PersonName(savedPersonName.getGivenName() + "e", null,
+                savedPersonName.getFamilyName()));
+        return unsavedPatient;
+    }
+}
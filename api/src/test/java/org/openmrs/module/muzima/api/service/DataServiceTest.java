@@ -18,15 +18,30 @@ import org.junit.Before;
 import org.junit.Test;
 import org.openmrs.User;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.exception.QueueProcessorException;
 import org.openmrs.module.muzima.model.ArchiveData;
 import org.openmrs.module.muzima.model.DataSource;
+import org.openmrs.module.muzima.model.DataSummary;
 import org.openmrs.module.muzima.model.ErrorData;
 import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.model.handler.QueueDataContext;
+import org.openmrs.module.muzima.model.handler.QueueDataDispatcher;
+import org.openmrs.module.muzima.model.handler.QueueDataHandler;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  */
@@ -94,6 +109,103 @@ public class DataServiceTest extends BaseModuleContextSensitiveTest {
         queueDataList = dataService.getAllQueueData();
         Assert.assertThat(queueDataList, hasSize(greaterThan(0)));
     }
+
+    /**
+     * @verifies return queue data with id greater than the given id ordered by id.
+     * @see DataService#getQueueDataAfter(Integer, Integer)
+     */
+    @Test
+    public void getQueueDataAfter_shouldReturnQueueDataWithIdGreaterThanTheGivenIdOrderedById() throws Exception {
+        Assert.assertEquals(0, dataService.getQueueDataAfter(null, 10).size());
+        executeDataSet(QUEUE_DATA_XML);
+        queueDataList = dataService.getQueueDataAfter(null, 10);
+        Assert.assertEquals(1, queueDataList.size());
+        Assert.assertEquals(new Integer(1), queueDataList.get(0).getId());
+        Assert.assertEquals(0, dataService.getQueueDataAfter(1, 10).size());
+    }
+
+    /**
+     * @verifies return at most batch size queue data.
+     * @see DataService#getQueueDataAfter(Integer, Integer)
+     */
+    @Test
+    public void getQueueDataAfter_shouldReturnAtMostBatchSizeQueueData() throws Exception {
+        executeDataSet(QUEUE_DATA_XML);
+        QueueData queueData = new QueueData(dataService.getQueueData(1));
+        queueData.setUuid("a7b2c9e4-5d16-4f38-9e0b-2c4d6f8a1b3e");
+        queueData.setCreator(new User(1));
+        queueData.setDateCreated(new Date());
+        dataService.saveQueueData(queueData);
+        Assert.assertEquals(1, dataService.getQueueDataAfter(null, 1).size());
+        Assert.assertEquals(new Integer(1), dataService.getQueueDataAfter(null, 1).get(0).getId());
+        Assert.assertEquals(2, dataService.getQueueDataAfter(null, 10).size());
+    }
+
+    /**
+     * @verifies claim the unclaimed queue data and skip the queue data claimed by another claimant.
+     * @see DataService#claimQueueDataAfter(Integer, Integer, String, java.util.Date)
+     */
+    @Test
+    public void claimQueueDataAfter_shouldSkipTheQueueDataClaimedByAnotherClaimant() throws Exception {
+        executeDataSet(QUEUE_DATA_XML);
+        Date leaseExpiry = new Date(System.currentTimeMillis() + 60000);
+        queueDataList = dataService.claimQueueDataAfter(null, 10, "node-a", leaseExpiry);
+        Assert.assertEquals(1, queueDataList.size());
+        Assert.assertEquals(new Integer(1), queueDataList.get(0).getId());
+        Assert.assertEquals(0, dataService.claimQueueDataAfter(null, 10, "node-b", leaseExpiry).size());
+        Assert.assertEquals(0, dataService.claimQueueData(Arrays.asList(1), "node-b", leaseExpiry).size());
+        Assert.assertEquals(1, dataService.renewQueueDataClaims("node-a", leaseExpiry));
+    }
+
+    /**
+     * @verifies claim the queue data with an expired lease.
+     * @see DataService#claimQueueDataAfter(Integer, Integer, String, java.util.Date)
+     */
+    @Test
+    public void claimQueueDataAfter_shouldClaimTheQueueDataWithAnExpiredLease() throws Exception {
+        executeDataSet(QUEUE_DATA_XML);
+        dataService.claimQueueDataAfter(null, 10, "node-a", new Date(System.currentTimeMillis() - 1000));
+        queueDataList = dataService.claimQueueDataAfter(null, 10, "node-b", new Date(System.currentTimeMillis() + 60000));
+        Assert.assertEquals(1, queueDataList.size());
+        Assert.assertEquals(new Integer(1), queueDataList.get(0).getId());
+    }
+
+    /**
+     * @verifies release the queue data held by the claimant.
+     * @see DataService#releaseQueueDataClaims(String)
+     */
+    @Test
+    public void releaseQueueDataClaims_shouldReleaseTheQueueDataHeldByTheClaimant() throws Exception {
+        executeDataSet(QUEUE_DATA_XML);
+        Date leaseExpiry = new Date(System.currentTimeMillis() + 60000);
+        dataService.claimQueueDataAfter(null, 10, "node-a", leaseExpiry);
+        Assert.assertEquals(0, dataService.releaseQueueDataClaims("node-b"));
+        Assert.assertEquals(1, dataService.releaseQueueDataClaims("node-a"));
+        Assert.assertEquals(1, dataService.claimQueueDataAfter(null, 10, "node-b", leaseExpiry).size());
+    }
+
+    /**
+     * @verifies return queue data after the given id with matching patient uuid and discriminator.
+     * @see DataService#getQueueDataByPatientUuids(Integer, java.util.Collection, java.util.Collection)
+     */
+    @Test
+    public void getQueueDataByPatientUuids_shouldReturnQueueDataAfterTheGivenIdWithMatchingPatientUuidAndDiscriminator() throws Exception {
+        executeDataSet(QUEUE_DATA_XML);
+        QueueData queueData = new QueueData(dataService.getQueueData(1));
+        queueData.setUuid("c3d1e8f2-7a4b-4c19-b6e5-9f2a0d8c7e41");
+        queueData.setDiscriminator("json-registration");
+        queueData.setPatientUuid("5f4c2a7e-1b3d-4e8f-9a6c-0d2e4b6f8a13");
+        queueData.setCreator(new User(1));
+        queueData.setDateCreated(new Date());
+        dataService.saveQueueData(queueData);
+        List<String> patientUuids = Arrays.asList("5f4c2a7e-1b3d-4e8f-9a6c-0d2e4b6f8a13");
+        queueDataList = dataService.getQueueDataByPatientUuids(1, patientUuids, Arrays.asList("json-registration"));
+        Assert.assertEquals(1, queueDataList.size());
+        Assert.assertEquals("c3d1e8f2-7a4b-4c19-b6e5-9f2a0d8c7e41", queueDataList.get(0).getUuid());
+        Assert.assertEquals(0, dataService.getQueueDataByPatientUuids(1, patientUuids, Arrays.asList("json-encounter")).size());
+        Assert.assertEquals(0, dataService.getQueueDataByPatientUuids(queueDataList.get(0).getId(), patientUuids,
+                Arrays.asList("json-registration")).size());
+    }
     /**
      * @verifies save queue data into the database.
      * @see DataService#saveQueueData(org.openmrs.module.muzima.model.QueueData)
@@ -112,6 +224,78 @@ public class DataServiceTest extends BaseModuleContextSensitiveTest {
         QueueData result = dataService.saveQueueData(queueData);
         Assert.assertEquals("Payload not saved", new String("Patient1 registration data"), result.getPayload());
     }
+
+    /**
+     * @verifies save all queue data into the database.
+     * @see DataService#saveQueueDataInBulk(java.util.List)
+     */
+    @Test
+    public void saveQueueDataInBulk_shouldSaveAllQueueDataIntoTheDatabase() throws Exception {
+        List<QueueData> newQueueData = new ArrayList<QueueData>();
+        for (int i = 0; i < 3; i++) {
+            QueueData queueData = new QueueData();
+            queueData.setDiscriminator("json-encounter");
+            queueData.setDataSource(dataService.getDataSource(1));
+            queueData.setPayload("{\"encounter\": " + i + "}");
+            queueData.setPatientUuid("5f4c2a7e-1b3d-4e8f-9a6c-0d2e4b6f8a13");
+            newQueueData.add(queueData);
+        }
+        Map<String, String> failures = dataService.saveQueueDataInBulk(newQueueData);
+        Assert.assertTrue(failures.isEmpty());
+        for (QueueData queueData : newQueueData) {
+            QueueData saved = dataService.getQueueDataByUuid(queueData.getUuid());
+            Assert.assertNotNull(saved);
+            Assert.assertEquals(queueData.getPayload(), saved.getPayload());
+            Assert.assertEquals("5f4c2a7e-1b3d-4e8f-9a6c-0d2e4b6f8a13", saved.getPatientUuid());
+        }
+    }
+
+    /**
+     * @verifies save the other queue data when a queue data can't be saved.
+     * @see DataService#saveQueueDataInBulk(java.util.List)
+     */
+    @Test
+    public void saveQueueDataInBulk_shouldSaveTheOtherQueueDataWhenAQueueDataCantBeSaved() throws Exception {
+        List<QueueData> newQueueData = new ArrayList<QueueData>();
+        for (int i = 0; i < 3; i++) {
+            QueueData queueData = new QueueData();
+            // the discriminator is mandatory, the batch fails and the queue data are saved one by one.
+            queueData.setDiscriminator(i == 1 ? null : "json-encounter");
+            queueData.setDataSource(dataService.getDataSource(1));
+            queueData.setPayload("{\"encounter\": " + i + "}");
+            newQueueData.add(queueData);
+        }
+        Map<String, String> failures = dataService.saveQueueDataInBulk(newQueueData);
+        Assert.assertEquals(1, failures.size());
+        Assert.assertTrue(failures.containsKey(newQueueData.get(1).getUuid()));
+        Assert.assertNotNull(dataService.getQueueDataByUuid(newQueueData.get(0).getUuid()));
+        Assert.assertNull(dataService.getQueueDataByUuid(newQueueData.get(1).getUuid()));
+        Assert.assertNotNull(dataService.getQueueDataByUuid(newQueueData.get(2).getUuid()));
+    }
+
+    /**
+     * @verifies return the form data uuids used by queue, archive or error data
+     * @see DataService#getSubmittedFormDataUuids(java.util.Collection)
+     */
+    @Test
+    public void getSubmittedFormDataUuids_shouldReturnTheFormDataUuidsUsedByQueueArchiveOrErrorData() throws Exception {
+        QueueData queueData = new QueueData();
+        queueData.setDiscriminator("json-encounter");
+        queueData.setDataSource(dataService.getDataSource(1));
+        queueData.setPayload("{\"encounter\": 1}");
+        queueData.setFormDataUuid("8c1f3e5a-7b2d-4a9e-b6c0-3d5f7a9b1e24");
+        dataService.saveQueueData(queueData);
+
+        Set<String> submitted = dataService.getSubmittedFormDataUuids(Arrays.asList(
+                "8c1f3e5a-7b2d-4a9e-b6c0-3d5f7a9b1e24", "1a3c5e7b-9d2f-4b6a-8c0e-2f4a6c8e0b35"));
+        Assert.assertEquals(1, submitted.size());
+        Assert.assertTrue(submitted.contains("8c1f3e5a-7b2d-4a9e-b6c0-3d5f7a9b1e24"));
+        Assert.assertTrue(dataService.getArchivedFormDataUuids(submitted).isEmpty());
+
+        Map<Integer, String> formDataUuids = dataService.getQueueDataFormDataUuidsAfter(null, 100);
+        Assert.assertEquals("8c1f3e5a-7b2d-4a9e-b6c0-3d5f7a9b1e24", formDataUuids.get(queueData.getId()));
+    }
+
     /**
      * @verifies remove queue data from the database
      * @see DataService#purgeQueueData(org.openmrs.module.muzima.model.QueueData)
@@ -128,6 +312,174 @@ public class DataServiceTest extends BaseModuleContextSensitiveTest {
 //        verify that we have queue is empty
         Assert.assertEquals("queue data not purged", 0, dataService.getAllQueueData().size());
     }
+
+    /**
+     * @verifies save the archive data and error data and delete the queue data.
+     * @see DataService#moveQueueData(java.util.Map, java.util.Map, String)
+     */
+    @Test
+    public void moveQueueData_shouldSaveTheArchiveDataAndErrorDataAndDeleteTheQueueData() throws Exception {
+        executeDataSet(QUEUE_DATA_XML);
+        QueueData failedQueueData = new QueueData(dataService.getQueueData(1));
+        failedQueueData.setUuid("c3d8e1f2-6a47-4b59-8d0e-1f2a3b4c5d6e");
+        failedQueueData.setCreator(new User(1));
+        failedQueueData.setDateCreated(new Date());
+        dataService.saveQueueData(failedQueueData);
+
+        ArchiveData archiveData = new ArchiveData(dataService.getQueueData(1));
+        archiveData.setMessage("Queue data processed successfully!");
+        archiveData.setDateArchived(new Date());
+        ErrorData errorData = new ErrorData(failedQueueData);
+        errorData.setMessage("Unable to process queue data");
+        errorData.setDateProcessed(new Date());
+        Map<Integer, ArchiveData> archiveDataMap = new HashMap<Integer, ArchiveData>();
+        archiveDataMap.put(1, archiveData);
+        Map<Integer, ErrorData> errorDataMap = new HashMap<Integer, ErrorData>();
+        errorDataMap.put(failedQueueData.getId(), errorData);
+
+        Assert.assertEquals(0, dataService.moveQueueData(archiveDataMap, errorDataMap, null).size());
+        Assert.assertEquals(0, dataService.getAllQueueData().size());
+        Assert.assertNotNull(dataService.getArchiveDataByUuid(archiveData.getUuid()));
+        Assert.assertNotNull(dataService.getErrorDataByUuid(errorData.getUuid()));
+    }
+
+    /**
+     * @verifies leave out the queue data which are already gone.
+     * @see DataService#moveQueueData(java.util.Map, java.util.Map, String)
+     */
+    @Test
+    public void moveQueueData_shouldLeaveOutTheQueueDataWhichAreAlreadyGone() throws Exception {
+        executeDataSet(QUEUE_DATA_XML);
+        ArchiveData archiveData = new ArchiveData(dataService.getQueueData(1));
+        archiveData.setMessage("Queue data processed successfully!");
+        archiveData.setDateArchived(new Date());
+        ArchiveData goneArchiveData = new ArchiveData(dataService.getQueueData(1));
+        goneArchiveData.setUuid("5e0b8a41-7d2c-4f36-9a15-c6d7e8f90a1b");
+        goneArchiveData.setMessage("Queue data processed successfully!");
+        goneArchiveData.setDateArchived(new Date());
+        Map<Integer, ArchiveData> archiveDataMap = new HashMap<Integer, ArchiveData>();
+        archiveDataMap.put(1, archiveData);
+        archiveDataMap.put(999, goneArchiveData);
+
+        Assert.assertEquals(Arrays.asList(999), dataService.moveQueueData(archiveDataMap,
+                new HashMap<Integer, ErrorData>(), null));
+        Assert.assertNull(dataService.getQueueData(1));
+        Assert.assertNotNull(dataService.getArchiveDataByUuid(archiveData.getUuid()));
+        Assert.assertNull(dataService.getArchiveDataByUuid(goneArchiveData.getUuid()));
+    }
+
+    /**
+     * @verifies leave the queue data held by another claimant in the queue.
+     * @see DataService#moveQueueData(java.util.Map, java.util.Map, String)
+     */
+    @Test
+    public void moveQueueData_shouldLeaveTheQueueDataHeldByAnotherClaimantInTheQueue() throws Exception {
+        executeDataSet(QUEUE_DATA_XML);
+        Date leaseExpiry = new Date(System.currentTimeMillis() + 60000);
+        Assert.assertEquals(1, dataService.claimQueueData(Arrays.asList(1), "other-claimant", leaseExpiry).size());
+        ArchiveData archiveData = new ArchiveData(dataService.getQueueData(1));
+        archiveData.setMessage("Queue data processed successfully!");
+        archiveData.setDateArchived(new Date());
+        Map<Integer, ArchiveData> archiveDataMap = new HashMap<Integer, ArchiveData>();
+        archiveDataMap.put(1, archiveData);
+
+        Assert.assertEquals(Arrays.asList(1), dataService.moveQueueData(archiveDataMap,
+                new HashMap<Integer, ErrorData>(), "expired-claimant"));
+        Assert.assertNotNull(dataService.getQueueData(1));
+        Assert.assertNull(dataService.getArchiveDataByUuid(archiveData.getUuid()));
+    }
+
+    /**
+     * @verifies archive the queue data processed by the handler.
+     * @see DataService#processQueueData(QueueDataHandler, QueueDataContext, String)
+     */
+    @Test
+    public void processQueueData_shouldArchiveTheQueueDataProcessedByTheHandler() throws Exception {
+        executeDataSet(QUEUE_DATA_XML);
+        QueueDataHandler queueDataHandler = mock(QueueDataHandler.class);
+        QueueDataContext context = new QueueDataContext(dataService.getQueueData(1));
+
+        ArchiveData archiveData = dataService.processQueueData(queueDataHandler, context, null);
+
+        verify(queueDataHandler).process(context);
+        Assert.assertNull(dataService.getQueueData(1));
+        Assert.assertNotNull(dataService.getArchiveDataByUuid(archiveData.getUuid()));
+    }
+
+    /**
+     * @verifies leave the queue data in the queue when the handler fails.
+     * @see DataService#processQueueData(QueueDataHandler, QueueDataContext, String)
+     */
+    @Test
+    public void processQueueData_shouldLeaveTheQueueDataInTheQueueWhenTheHandlerFails() throws Exception {
+        executeDataSet(QUEUE_DATA_XML);
+        QueueDataHandler queueDataHandler = mock(QueueDataHandler.class);
+        QueueDataContext context = new QueueDataContext(dataService.getQueueData(1));
+        doThrow(new QueueProcessorException("Unable to find the location")).when(queueDataHandler).process(context);
+
+        try {
+            dataService.processQueueData(queueDataHandler, context, null);
+            Assert.fail("The failure of the handler should be thrown.");
+        } catch (QueueProcessorException e) {
+            Assert.assertEquals("Unable to find the location", e.getMessage());
+        }
+        Assert.assertNotNull(dataService.getQueueData(1));
+        Assert.assertEquals(0, dataService.getAllArchiveData().size());
+    }
+    /**
+     * @verifies archive the queue data processed by their handlers.
+     * @see DataService#processQueueData(QueueDataDispatcher, List, String)
+     */
+    @Test
+    public void processQueueData_shouldArchiveTheQueueDataProcessedByTheirHandlers() throws Exception {
+        executeDataSet(QUEUE_DATA_XML);
+        QueueData secondQueueData = new QueueData(dataService.getQueueData(1));
+        secondQueueData.setUuid("8f4c2b6a-1d3e-4a5b-9c7d-0e1f2a3b4c5d");
+        secondQueueData.setCreator(new User(1));
+        secondQueueData.setDateCreated(new Date());
+        dataService.saveQueueData(secondQueueData);
+        QueueDataHandler queueDataHandler = mock(QueueDataHandler.class);
+        QueueDataDispatcher dispatcher = mock(QueueDataDispatcher.class);
+        when(dispatcher.getHandler(any(QueueData.class))).thenReturn(queueDataHandler);
+        List<QueueDataContext> contexts = Arrays.asList(new QueueDataContext(dataService.getQueueData(1)),
+                new QueueDataContext(secondQueueData));
+
+        Assert.assertEquals(0, dataService.processQueueData(dispatcher, contexts, null).size());
+        verify(queueDataHandler).process(contexts.get(0));
+        verify(queueDataHandler).process(contexts.get(1));
+        Assert.assertEquals(0, dataService.getAllQueueData().size());
+        Assert.assertEquals(2, dataService.getAllArchiveData().size());
+    }
+
+    /**
+     * @verifies leave the queue data whose handler failed in the queue.
+     * @see DataService#processQueueData(QueueDataDispatcher, List, String)
+     */
+    @Test
+    public void processQueueData_shouldLeaveTheQueueDataWhoseHandlerFailedInTheQueue() throws Exception {
+        executeDataSet(QUEUE_DATA_XML);
+        QueueData failedQueueData = new QueueData(dataService.getQueueData(1));
+        failedQueueData.setUuid("8f4c2b6a-1d3e-4a5b-9c7d-0e1f2a3b4c5d");
+        failedQueueData.setCreator(new User(1));
+        failedQueueData.setDateCreated(new Date());
+        dataService.saveQueueData(failedQueueData);
+        QueueDataHandler queueDataHandler = mock(QueueDataHandler.class);
+        QueueDataDispatcher dispatcher = mock(QueueDataDispatcher.class);
+        when(dispatcher.getHandler(any(QueueData.class))).thenReturn(queueDataHandler);
+        QueueDataContext failedContext = new QueueDataContext(failedQueueData);
+        doThrow(new QueueProcessorException("Unable to find the location")).when(queueDataHandler).process(failedContext);
+        List<QueueDataContext> contexts = Arrays.asList(new QueueDataContext(dataService.getQueueData(1)),
+                failedContext);
+
+        Map<Integer, Exception> failures = dataService.processQueueData(dispatcher, contexts, null);
+
+        Assert.assertEquals("Unable to find the location", failures.get(failedQueueData.getId()).getMessage());
+        Assert.assertEquals(1, failures.size());
+        Assert.assertNull(dataService.getQueueData(1));
+        Assert.assertNotNull(dataService.getQueueData(failedQueueData.getId()));
+        Assert.assertEquals(1, dataService.getAllArchiveData().size());
+    }
+
     /**
      * @verifies return error data with matching id.
      * @see DataService#getErrorData(Integer)
@@ -202,6 +554,34 @@ public class DataServiceTest extends BaseModuleContextSensitiveTest {
 //        verify that error data is empty
         Assert.assertEquals("error data not purged", 0, dataService.getAllErrorData().size());
     }
+
+    /**
+     * @verifies move the error data with matching uuid back to the queue.
+     * @see DataService#requeueErrorData(java.util.List)
+     */
+    @Test
+    public void requeueErrorData_shouldMoveTheErrorDataWithMatchingUuidBackToTheQueue() throws Exception {
+        executeDataSet(ERROR_DATA_XML);
+        Assert.assertEquals(0, dataService.getAllQueueData().size());
+        Assert.assertEquals(1, dataService.requeueErrorData(Arrays.asList("48e55acd-b8db-4f0d-862e-c6969250be2b")));
+        Assert.assertEquals(0, dataService.getAllErrorData().size());
+        queueDataList = dataService.getAllQueueData();
+        Assert.assertEquals(1, queueDataList.size());
+        Assert.assertEquals("registration data", queueDataList.get(0).getPayload());
+        Assert.assertEquals("registration", queueDataList.get(0).getDiscriminator());
+    }
+
+    /**
+     * @verifies index the requeued data in the search index right away.
+     * @see DataService#requeueErrorData(java.util.List)
+     */
+    @Test
+    public void requeueErrorData_shouldIndexTheRequeuedDataInTheSearchIndexRightAway() throws Exception {
+        executeDataSet(ERROR_DATA_XML);
+        Assert.assertEquals(1, dataService.requeueErrorData(Arrays.asList("48e55acd-b8db-4f0d-862e-c6969250be2b")));
+        Assert.assertTrue(dataService.indexQueueDataSearchTerms(null, 10).isEmpty());
+    }
+
     /**
      * @verifies return archive data with matching id.
      * @see DataService#getArchiveData(Integer)
@@ -393,6 +773,24 @@ public class DataServiceTest extends BaseModuleContextSensitiveTest {
         Assert.assertTrue(records.size()>1);
     }
 
+    /**
+     * @verifies return the list columns of the queue data without the payload
+     * @see DataService#getPagedQueueDataSummaries(String, Integer, Integer)
+     */
+    @Test
+    public void getPagedQueueDataSummaries_shouldReturnTheListColumnsOfTheQueueDataWithoutThePayload() throws Exception {
+        executeDataSet(QUEUE_DATA_XML);
+        List<DataSummary> summaries = dataService.getPagedQueueDataSummaries(null, 1, 10);
+
+        Assert.assertEquals(1, summaries.size());
+        DataSummary summary = summaries.get(0);
+        Assert.assertEquals("48e55acd-b8db-4f0d-862e-c6969250be2b", summary.getUuid());
+        Assert.assertEquals("registration", summary.getDiscriminator());
+        Assert.assertEquals(dataService.getDataSource(1).getName(), summary.getDataSourceName());
+        Assert.assertEquals("registration data", summary.getPayloadPreview());
+        Assert.assertNotNull(summary.getDateCreated());
+    }
+
     @Test
     public void mergeDuplicatePatient_shouldUpdateThePayloadAndRequeueAsDemographicUpdate() throws Exception {
         executeDataSet(ERROR_DATA_XML2);
@@ -0,0 +1,164 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.handler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.RelationshipType;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.PersonService;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.exception.QueueProcessorException;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.model.handler.QueueDataContext;
+import org.openmrs.module.muzima.model.handler.QueueDataHandler;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs a single instance of the handlers from many threads and checks that the outcome of every queue data only
+ * depends on its own payload.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Context.class)
+public class QueueDataHandlerConcurrencyTest {
+
+    private static final int THREADS = 16;
+
+    private static final int QUEUE_DATA_COUNT = 400;
+
+    @Before
+    public void setUp() throws Exception {
+        PersonService personService = mock(PersonService.class);
+        LocationService locationService = mock(LocationService.class);
+
+        PowerMockito.mockStatic(Context.class);
+        when(Context.getPersonService()).thenReturn(personService);
+        when(Context.getLocationService()).thenReturn(locationService);
+
+        when(personService.getPersonByUuid(startsWith("known"))).thenReturn(new Person());
+        when(personService.getRelationshipTypeByUuid(anyString())).thenReturn(new RelationshipType());
+        when(locationService.getLocation(anyInt())).thenReturn(new Location());
+    }
+
+    /**
+     * @verifies collect errors of each queue data in its own context
+     * @see RelationshipQueueDataHandler#validate(org.openmrs.module.muzima.model.handler.QueueDataContext)
+     */
+    @Test
+    public void validate_shouldCollectErrorsOfEachQueueDataInItsOwnContext() throws Exception {
+        final QueueDataHandler handler = new RelationshipQueueDataHandler();
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < QUEUE_DATA_COUNT; i++) {
+            final QueueData queueData = new QueueData();
+            queueData.setPatientUuid((i % 2 == 0 ? "known-" : "unknown-") + i);
+            queueData.setPayload("{\"uuid\":\"relationship-" + i + "\",\"relationshipType\":{\"uuid\":\"type\"}}");
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    try {
+                        handler.validate(new QueueDataContext(queueData));
+                        return 0;
+                    } catch (QueueProcessorException e) {
+                        return e.getAllException().size();
+                    }
+                }
+            });
+        }
+
+        List<Integer> errorCounts = runConcurrently(tasks);
+        for (int i = 0; i < QUEUE_DATA_COUNT; i++) {
+            assertThat(errorCounts.get(i)).isEqualTo(i % 2 == 0 ? 0 : 1);
+        }
+    }
+
+    /**
+     * @verifies keep the patient built from each queue data in its own context
+     * @see XmlRegistrationQueueDataHandler#validate(org.openmrs.module.muzima.model.handler.QueueDataContext)
+     */
+    @Test
+    public void validate_shouldKeepThePatientBuiltFromEachQueueDataInItsOwnContext() throws Exception {
+        final QueueDataHandler handler = new XmlRegistrationQueueDataHandler();
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        for (int i = 0; i < QUEUE_DATA_COUNT; i++) {
+            final QueueData queueData = new QueueData();
+            queueData.setPayload("<form><patient>"
+                    + "<patient.uuid>temporary-" + i + "</patient.uuid>"
+                    + "<patient.given_name>Given" + i + "</patient.given_name>"
+                    + "<patient.family_name>Family</patient.family_name>"
+                    + "<patient.sex>F</patient.sex>"
+                    + "</patient><encounter><encounter.location_id>1</encounter.location_id></encounter></form>");
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    QueueDataContext context = new QueueDataContext(queueData);
+                    handler.validate(context);
+                    Patient patient = context.getAttribute("unsavedPatient", Patient.class);
+                    return patient.getUuid() + ":" + patient.getGivenName();
+                }
+            });
+        }
+
+        List<String> patients = runConcurrently(tasks);
+        for (int i = 0; i < QUEUE_DATA_COUNT; i++) {
+            assertThat(patients.get(i)).isEqualTo("temporary-" + i + ":Given" + i);
+        }
+    }
+
+    private <T> List<T> runConcurrently(final List<Callable<T>> tasks) throws Exception {
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<T>> futures = new ArrayList<Future<T>>();
+            for (final Callable<T> task : tasks) {
+                futures.add(executorService.submit(new Callable<T>() {
+                    @Override
+                    public T call() throws Exception {
+                        startSignal.await();
+                        return task.call();
+                    }
+                }));
+            }
+            startSignal.countDown();
+            List<T> results = new ArrayList<T>();
+            for (Future<T> future : futures) {
+                results.add(future.get(30, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+}
@@ -40,7 +40,7 @@ import java.util.Date;
 public class XmlRegistrationQueueDataHandlerTest {
     /**
      * @verifies create new patient from well formed registration data
-     * @see XmlRegistrationQueueDataHandler#process(org.openmrs.module.muzima.model.QueueData)
+     * @see XmlRegistrationQueueDataHandler#process(org.openmrs.module.muzima.model.handler.QueueDataContext)
      */
 
     //TODO: This test actually loads and processes JSON and NOT xml
@@ -71,7 +71,7 @@ public class XmlRegistrationQueueDataHandlerTest {
 //
 //        final QueueData queueData = new QueueData();
 //        queueData.setPayload(String.valueOf(registrationFormData));
-//        xmlRegistrationQueueDataHandler.process(queueData);
+//        xmlRegistrationQueueDataHandler.process(new QueueDataContext(queueData));
 //
 //        String identifier = getValueFromJSON(String.valueOf(registrationFormData), "patient.medical_record_number");
 //
@@ -101,7 +101,7 @@ public class XmlRegistrationQueueDataHandlerTest {
 
     /**
      * @verifies skip already processed registration data
-     * @see XmlRegistrationQueueDataHandler#process(org.openmrs.module.muzima.model.QueueData)
+     * @see XmlRegistrationQueueDataHandler#process(org.openmrs.module.muzima.model.handler.QueueDataContext)
      */
     @Test
     public void process_shouldSkipAlreadyProcessedRegistrationData() throws Exception {
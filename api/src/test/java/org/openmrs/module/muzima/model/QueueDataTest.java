@@ -0,0 +1,124 @@
+package org.openmrs.module.muzima.model;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.openmrs.module.muzima.utils.JsonUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class QueueDataTest {
+
+    private static final int OBS_COUNT = 300;
+
+    @Test
+    public void getJsonPayload_shouldParseThePayloadOnlyOnce() {
+        QueueData queueData = new QueueData();
+        queueData.setPayload(createEncounterPayload(OBS_COUNT));
+
+        Object jsonPayload = queueData.getJsonPayload();
+
+        assertThat(jsonPayload).isNotInstanceOf(String.class);
+        assertThat(queueData.getJsonPayload()).isSameAs(jsonPayload);
+    }
+
+    @Test
+    public void getJsonPayload_shouldParseTheNewPayloadAfterThePayloadChanged() {
+        QueueData queueData = new QueueData();
+        queueData.setPayload("{\"patient\":{\"patient.uuid\":\"patient-a\"}}");
+        Object jsonPayload = queueData.getJsonPayload();
+
+        queueData.setPayload("{\"patient\":{\"patient.uuid\":\"patient-b\"}}");
+
+        assertThat(queueData.getJsonPayload()).isNotSameAs(jsonPayload);
+        assertThat(JsonUtils.readAsString(queueData.getJsonPayload(), "$['patient']['patient.uuid']")).isEqualTo("patient-b");
+    }
+
+    @Test
+    public void getJsonPayload_shouldReturnThePayloadWhenThePayloadIsNotJson() {
+        QueueData queueData = new QueueData();
+        queueData.setPayload("<form><patient/></form>");
+
+        assertThat(queueData.getJsonPayload()).isEqualTo("<form><patient/></form>");
+        assertThat(JsonUtils.readAsString(queueData.getJsonPayload(), "$['patient']['patient.uuid']")).isNull();
+    }
+
+    @Test
+    public void getJsonPayload_shouldReadTheSameValuesAsThePayload() {
+        QueueData queueData = new QueueData();
+        queueData.setPayload(createEncounterPayload(OBS_COUNT));
+
+        for (String path : createEncounterPaths(OBS_COUNT)) {
+            assertThat(JsonUtils.readAsString(queueData.getJsonPayload(), path))
+                    .isEqualTo(JsonUtils.readAsString(queueData.getPayload(), path));
+        }
+        assertThat(JsonUtils.readAsDate(queueData.getJsonPayload(), "$['patient']['patient.birth_date']"))
+                .isEqualTo(JsonUtils.readAsDate(queueData.getPayload(), "$['patient']['patient.birth_date']"));
+        assertThat(JsonUtils.readAsBoolean(queueData.getJsonPayload(), "$['patient']['patient.birthdate_estimated']"))
+                .isTrue();
+    }
+
+    @Test
+    public void getJsonPayload_shouldReadEveryValueOfAnEncounterFromTheSameParsedPayload() {
+        QueueData queueData = new QueueData();
+        queueData.setPayload(createEncounterPayload(OBS_COUNT));
+        Object jsonPayload = queueData.getJsonPayload();
+
+        for (int i = 0; i < OBS_COUNT; i++) {
+            String path = "$['observation']['" + (5000 + i) + "^CONCEPT " + i + "^99DCT']";
+            assertThat(JsonUtils.readAsString(queueData.getJsonPayload(), path)).isEqualTo("value " + i);
+        }
+        assertThat(JsonUtils.readAsString(queueData.getJsonPayload(), "$['patient']['patient.middle_name']")).isNull();
+        assertThat(queueData.getJsonPayload()).isSameAs(jsonPayload);
+    }
+
+    private String createEncounterPayload(final int obsCount) {
+        StringBuilder payload = new StringBuilder();
+        payload.append("{\"patient\":{")
+                .append("\"patient.uuid\":\"0b3f1e4c-1f6e-4a8e-9c3a-5d2c8b7a6f10\",")
+                .append("\"patient.medical_record_number\":\"1234-5\",")
+                .append("\"patient.given_name\":\"Given\",")
+                .append("\"patient.family_name\":\"Family\",")
+                .append("\"patient.sex\":\"F\",")
+                .append("\"patient.birth_date\":\"01-01-1980\",")
+                .append("\"patient.birthdate_estimated\":\"true\"},");
+        payload.append("\"encounter\":{")
+                .append("\"encounter.form_uuid\":\"form-uuid\",")
+                .append("\"encounter.location_id\":\"1\",")
+                .append("\"encounter.provider_id\":\"provider\",")
+                .append("\"encounter.user_system_id\":\"admin\",")
+                .append("\"encounter.encounter_datetime\":\"2016-10-16 09:00\"},");
+        payload.append("\"observation\":{");
+        for (int i = 0; i < obsCount; i++) {
+            if (i > 0) {
+                payload.append(",");
+            }
+            payload.append("\"").append(5000 + i).append("^CONCEPT ").append(i).append("^99DCT\":\"value ").append(i).append("\"");
+        }
+        payload.append("}}");
+        return payload.toString();
+    }
+
+    private List<String> createEncounterPaths(final int obsCount) {
+        List<String> paths = new ArrayList<String>();
+        paths.add("$['patient']['patient.uuid']");
+        paths.add("$['patient']['patient.medical_record_number']");
+        paths.add("$['patient']['patient.given_name']");
+        paths.add("$['patient']['patient.middle_name']");
+        paths.add("$['patient']['patient.family_name']");
+        paths.add("$['patient']['patient.sex']");
+        paths.add("$['encounter']['encounter.form_uuid']");
+        paths.add("$['encounter']['encounter.location_id']");
+        paths.add("$['encounter']['encounter.provider_id']");
+        paths.add("$['encounter']['encounter.user_system_id']");
+        paths.add("$['encounter']['encounter.encounter_datetime']");
+        for (int i = 0; i < obsCount; i++) {
+            paths.add("$['observation']['" + (5000 + i) + "^CONCEPT " + i + "^99DCT']");
+        }
+        return paths;
+    }
+}
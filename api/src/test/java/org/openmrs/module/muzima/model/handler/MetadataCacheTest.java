@@ -0,0 +1,129 @@
+package org.openmrs.module.muzima.model.handler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openmrs.Concept;
+import org.openmrs.Location;
+import org.openmrs.Provider;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.ProviderService;
+import org.openmrs.api.context.Context;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Context.class)
+public class MetadataCacheTest {
+
+    private ConceptService conceptService;
+
+    private LocationService locationService;
+
+    private ProviderService providerService;
+
+    private MetadataCache metadataCache;
+
+    @Before
+    public void setUp() {
+        conceptService = mock(ConceptService.class);
+        locationService = mock(LocationService.class);
+        providerService = mock(ProviderService.class);
+
+        PowerMockito.mockStatic(Context.class);
+        when(Context.getConceptService()).thenReturn(conceptService);
+        when(Context.getLocationService()).thenReturn(locationService);
+        when(Context.getProviderService()).thenReturn(providerService);
+
+        when(conceptService.getConcept(5000)).thenReturn(new Concept(5000));
+        when(locationService.getLocation(1)).thenReturn(new Location(1));
+        when(providerService.getProviderByIdentifier("provider-1")).thenReturn(new Provider(7));
+        when(providerService.getProvider(7)).thenReturn(new Provider(7));
+
+        metadataCache = new MetadataCache();
+    }
+
+    /**
+     * @verifies look each provider up by identifier only once
+     * @see MetadataCache#getProviderByIdentifier(String)
+     */
+    @Test
+    public void getProviderByIdentifier_shouldLookEachProviderUpByIdentifierOnlyOnce() {
+        for (int i = 0; i < 300; i++) {
+            assertThat(metadataCache.getProviderByIdentifier("provider-1").getProviderId()).isEqualTo(7);
+        }
+
+        verify(providerService, times(1)).getProviderByIdentifier("provider-1");
+        assertThat(metadataCache.getHits()).isEqualTo(299);
+        assertThat(metadataCache.getMisses()).isEqualTo(1);
+    }
+
+    /**
+     * @verifies load the cached metadata in the session of the caller
+     * @see MetadataCache#getProviderByIdentifier(String)
+     */
+    @Test
+    public void getProviderByIdentifier_shouldLoadTheCachedMetadataInTheSessionOfTheCaller() {
+        Provider sessionProvider = new Provider(7);
+        when(providerService.getProvider(7)).thenReturn(sessionProvider);
+
+        metadataCache.getProviderByIdentifier("provider-1");
+
+        assertThat(metadataCache.getProviderByIdentifier("provider-1")).isSameAs(sessionProvider);
+        verify(providerService, times(1)).getProvider(7);
+    }
+
+    /**
+     * @verifies cache missing metadata
+     * @see MetadataCache#getConcept(int)
+     */
+    @Test
+    public void getConcept_shouldCacheMissingMetadata() {
+        assertThat(metadataCache.getConcept(9999)).isNull();
+        assertThat(metadataCache.getConcept(9999)).isNull();
+
+        verify(conceptService, times(1)).getConcept(9999);
+    }
+
+    /**
+     * @verifies load existing concepts in the session of the caller without counting hits
+     * @see MetadataCache#getConcept(int)
+     */
+    @Test
+    public void getConcept_shouldLoadExistingConceptsInTheSessionOfTheCallerWithoutCountingHits() {
+        assertThat(metadataCache.getConcept(5000).getConceptId()).isEqualTo(5000);
+        assertThat(metadataCache.getConcept(5000).getConceptId()).isEqualTo(5000);
+
+        verify(conceptService, times(2)).getConcept(5000);
+        assertThat(metadataCache.getHits()).isEqualTo(0);
+        assertThat(metadataCache.getMisses()).isEqualTo(0);
+    }
+
+    /**
+     * @verifies load the metadata again after the caches are invalidated
+     * @see MetadataCache#invalidateAll()
+     */
+    @Test
+    public void invalidateAll_shouldLoadTheMetadataAgainAfterTheCachesAreInvalidated() {
+        metadataCache.getConcept(9999);
+        metadataCache.getLocation(9999);
+        metadataCache.getProviderByIdentifier("provider-1");
+
+        MetadataCache.invalidateAll();
+        metadataCache.getConcept(9999);
+        metadataCache.getLocation(9999);
+        metadataCache.getProviderByIdentifier("provider-1");
+
+        verify(conceptService, times(2)).getConcept(9999);
+        verify(locationService, times(2)).getLocation(9999);
+        verify(providerService, times(2)).getProviderByIdentifier("provider-1");
+    }
+}
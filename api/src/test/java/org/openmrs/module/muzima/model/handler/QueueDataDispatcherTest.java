@@ -0,0 +1,55 @@
+package org.openmrs.module.muzima.model.handler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.openmrs.module.muzima.handler.JsonEncounterQueueDataHandler;
+import org.openmrs.module.muzima.handler.JsonRegistrationQueueDataHandler;
+import org.openmrs.module.muzima.handler.RelationshipQueueDataHandler;
+import org.openmrs.module.muzima.model.QueueData;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class QueueDataDispatcherTest {
+
+    private QueueDataHandler registrationHandler;
+
+    private QueueDataHandler encounterHandler;
+
+    private QueueDataHandler relationshipHandler;
+
+    private QueueDataDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        registrationHandler = new JsonRegistrationQueueDataHandler();
+        encounterHandler = new JsonEncounterQueueDataHandler();
+        relationshipHandler = new RelationshipQueueDataHandler();
+        dispatcher = new QueueDataDispatcher(Arrays.asList(registrationHandler, encounterHandler, relationshipHandler));
+    }
+
+    @Test
+    public void getHandler_shouldReturnTheHandlerOfTheDiscriminator() {
+        assertThat(dispatcher.getHandler(createQueueData(1, "json-encounter"))).isSameAs(encounterHandler);
+        assertThat(dispatcher.getHandler(createQueueData(2, "json-relationship"))).isSameAs(relationshipHandler);
+        assertThat(dispatcher.getHandler(createQueueData(3, "json-unknown"))).isNull();
+        assertThat(dispatcher.getHandler(createQueueData(4, null))).isNull();
+    }
+
+    @Test
+    public void getDiscriminators_shouldReturnTheDiscriminatorsInHandlerOrder() {
+        assertThat(dispatcher.getDiscriminators())
+                .containsExactly("json-registration", "json-encounter", "json-relationship");
+    }
+
+    private QueueData createQueueData(final Integer id, final String discriminator) {
+        QueueData queueData = new QueueData();
+        queueData.setId(id);
+        queueData.setDiscriminator(discriminator);
+        return queueData;
+    }
+}
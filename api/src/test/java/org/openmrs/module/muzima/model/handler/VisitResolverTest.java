@@ -0,0 +1,190 @@
+package org.openmrs.module.muzima.model.handler;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openmrs.Encounter;
+import org.openmrs.Location;
+import org.openmrs.Patient;
+import org.openmrs.Visit;
+import org.openmrs.api.VisitService;
+import org.openmrs.api.context.Context;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Context.class)
+public class VisitResolverTest {
+
+    private VisitService visitService;
+
+    private VisitResolver visitResolver;
+
+    private Patient patient;
+
+    private Location parentLocation;
+
+    private Location childLocation;
+
+    private List<Visit> visits;
+
+    @Before
+    public void setUp() {
+        visitService = mock(VisitService.class);
+        PowerMockito.mockStatic(Context.class);
+        when(Context.getVisitService()).thenReturn(visitService);
+
+        visits = new ArrayList<Visit>();
+        when(getVisits(visitService)).thenReturn(visits);
+
+        patient = new Patient(1);
+        parentLocation = new Location(1);
+        childLocation = new Location(2);
+        childLocation.setParentLocation(parentLocation);
+
+        visitResolver = new VisitResolver();
+    }
+
+    /**
+     * @verifies look up the visits of a patient and day only once
+     * @see VisitResolver#getVisit(Encounter)
+     */
+    @Test
+    public void getVisit_shouldLookUpTheVisitsOfAPatientAndDayOnlyOnce() {
+        Visit visit = createVisit(date(10, 8), date(10, 18), parentLocation);
+        visits.add(visit);
+
+        for (int hour = 8; hour < 18; hour++) {
+            assertThat(visitResolver.getVisit(createEncounter(date(10, hour), parentLocation))).isSameAs(visit);
+        }
+
+        assertThat(visitResolver.getQueries()).isEqualTo(1);
+        getVisits(verify(visitService, times(1)));
+    }
+
+    /**
+     * @verifies look up the visits of every day separately
+     * @see VisitResolver#getVisit(Encounter)
+     */
+    @Test
+    public void getVisit_shouldLookUpTheVisitsOfEveryDaySeparately() {
+        visitResolver.getVisit(createEncounter(date(10, 9), parentLocation));
+        visitResolver.getVisit(createEncounter(date(11, 9), parentLocation));
+        visitResolver.getVisit(createEncounter(date(11, 15), parentLocation));
+
+        assertThat(visitResolver.getQueries()).isEqualTo(2);
+    }
+
+    /**
+     * @verifies reuse the visits added earlier in the batch
+     * @see VisitResolver#addVisit(Visit)
+     */
+    @Test
+    public void addVisit_shouldReuseTheVisitsAddedEarlierInTheBatch() {
+        Encounter first = createEncounter(date(10, 9), parentLocation);
+        assertThat(visitResolver.getVisit(first)).isNull();
+
+        Visit visit = createVisit(date(10, 0), date(10, 23), parentLocation);
+        visitResolver.addVisit(visit);
+
+        assertThat(visitResolver.getVisit(createEncounter(date(10, 14), parentLocation))).isSameAs(visit);
+        assertThat(visitResolver.getVisit(createEncounter(date(10, 14), childLocation))).isSameAs(visit);
+        assertThat(visitResolver.getQueries()).isEqualTo(1);
+    }
+
+    /**
+     * @verifies pick the visit started last of overlapping visits
+     * @see VisitResolver#getVisit(Encounter)
+     */
+    @Test
+    public void getVisit_shouldPickTheVisitStartedLastOfOverlappingVisits() {
+        Visit longVisit = createVisit(date(9, 8), null, parentLocation);
+        Visit shortVisit = createVisit(date(10, 8), date(10, 12), parentLocation);
+        visits.addAll(Arrays.asList(longVisit, shortVisit));
+
+        assertThat(visitResolver.getVisit(createEncounter(date(10, 7), parentLocation))).isSameAs(longVisit);
+        assertThat(visitResolver.getVisit(createEncounter(date(10, 10), parentLocation))).isSameAs(shortVisit);
+        assertThat(visitResolver.getVisit(createEncounter(date(10, 13), parentLocation))).isSameAs(longVisit);
+    }
+
+    /**
+     * @verifies skip visits started after or stopped before the encounter
+     * @see VisitResolver#getVisit(Encounter)
+     */
+    @Test
+    public void getVisit_shouldSkipVisitsStartedAfterOrStoppedBeforeTheEncounter() {
+        visits.add(createVisit(date(10, 8), date(10, 10), parentLocation));
+        visits.add(createVisit(date(10, 14), date(10, 16), parentLocation));
+
+        assertThat(visitResolver.getVisit(createEncounter(date(10, 12), parentLocation))).isNull();
+        assertThat(visitResolver.getVisit(createEncounter(date(10, 9), parentLocation))).isNotNull();
+        assertThat(visitResolver.getVisit(createEncounter(date(10, 15), parentLocation))).isNotNull();
+    }
+
+    /**
+     * @verifies only pick visits at the location of the encounter or one of its parents
+     * @see VisitResolver#getVisit(Encounter)
+     */
+    @Test
+    public void getVisit_shouldOnlyPickVisitsAtTheLocationOfTheEncounterOrOneOfItsParents() {
+        Visit childVisit = createVisit(date(10, 8), date(10, 18), childLocation);
+        visits.add(childVisit);
+
+        assertThat(visitResolver.getVisit(createEncounter(date(10, 9), parentLocation))).isNull();
+        assertThat(visitResolver.getVisit(createEncounter(date(10, 9), childLocation))).isSameAs(childVisit);
+
+        Visit parentVisit = createVisit(date(10, 0), date(10, 23), parentLocation);
+        visitResolver.addVisit(parentVisit);
+
+        assertThat(visitResolver.getVisit(createEncounter(date(10, 9), parentLocation))).isSameAs(parentVisit);
+        assertThat(visitResolver.getVisit(createEncounter(date(10, 9), childLocation))).isSameAs(childVisit);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Visit> getVisits(final VisitService visitService) {
+        return visitService.getVisits(any(Collection.class), any(Collection.class), any(Collection.class),
+                any(Collection.class), any(Date.class), any(Date.class), any(Date.class), any(Date.class),
+                any(Map.class), anyBoolean(), anyBoolean());
+    }
+
+    private Encounter createEncounter(final Date encounterDatetime, final Location location) {
+        Encounter encounter = new Encounter();
+        encounter.setPatient(patient);
+        encounter.setEncounterDatetime(encounterDatetime);
+        encounter.setLocation(location);
+        return encounter;
+    }
+
+    private Visit createVisit(final Date startDatetime, final Date stopDatetime, final Location location) {
+        Visit visit = new Visit();
+        visit.setPatient(patient);
+        visit.setStartDatetime(startDatetime);
+        visit.setStopDatetime(stopDatetime);
+        visit.setLocation(location);
+        return visit;
+    }
+
+    private Date date(final int day, final int hour) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2026, Calendar.OCTOBER, day, hour, 0);
+        return calendar.getTime();
+    }
+}
@@ -0,0 +1,130 @@
+package org.openmrs.module.muzima.task;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openmrs.User;
+import org.openmrs.api.UserService;
+import org.openmrs.api.context.Context;
+import org.openmrs.api.context.Daemon;
+import org.openmrs.module.DaemonToken;
+import org.openmrs.module.muzima.api.service.DataService;
+import org.openmrs.module.muzima.api.service.MuzimaSettingService;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Context.class, Daemon.class})
+public class BulkDataJobTest {
+
+    private DataService dataService;
+
+    @Before
+    public void setUp() {
+        dataService = mock(DataService.class);
+        User user = new User();
+        user.setSystemId("admin");
+        UserService userService = mock(UserService.class);
+        PowerMockito.mockStatic(Context.class);
+        when(Context.getAuthenticatedUser()).thenReturn(user);
+        when(Context.getUserService()).thenReturn(userService);
+        when(userService.getUserByUuid(user.getUuid())).thenReturn(user);
+        when(Context.getService(DataService.class)).thenReturn(dataService);
+        when(Context.getService(MuzimaSettingService.class)).thenReturn(mock(MuzimaSettingService.class));
+        when(dataService.requeueErrorData(any(List.class))).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(final InvocationOnMock invocation) {
+                return ((List<?>) invocation.getArguments()[0]).size();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        BulkDataJob.setDaemonToken(null);
+    }
+
+    /**
+     * @verifies requeue small selections right away
+     * @see BulkDataJob#requeueErrorData(List)
+     */
+    @Test
+    public void requeueErrorData_shouldRequeueSmallSelectionsRightAway() {
+        BulkDataJob job = BulkDataJob.requeueErrorData(Arrays.asList("error-a", "error-b"));
+
+        assertThat(job.getStatus()).isEqualTo(BulkDataJob.STATUS_COMPLETED);
+        assertThat(job.getAffected()).isEqualTo(2);
+        assertThat(BulkDataJob.getJob(job.getUuid())).isNull();
+        verify(dataService, times(1)).requeueErrorData(Arrays.asList("error-a", "error-b"));
+    }
+
+    /**
+     * @verifies requeue large selections in chunks in the background
+     * @see BulkDataJob#requeueErrorData(List)
+     */
+    @Test
+    public void requeueErrorData_shouldRequeueLargeSelectionsInChunksInTheBackground() throws Exception {
+        final List<Runnable> daemonRunnables = new ArrayList<Runnable>();
+        PowerMockito.mockStatic(Daemon.class);
+        PowerMockito.doAnswer(new Answer<Thread>() {
+            @Override
+            public Thread answer(final InvocationOnMock invocation) {
+                daemonRunnables.add((Runnable) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(Daemon.class);
+        Daemon.runInDaemonThread(any(Runnable.class), any(DaemonToken.class));
+        BulkDataJob.setDaemonToken(mock(DaemonToken.class));
+        List<String> uuids = createUuids(BulkDataJob.CHUNK_SIZE * 2 + 1);
+
+        BulkDataJob job = BulkDataJob.requeueErrorData(uuids);
+        assertThat(BulkDataJob.getJob(job.getUuid())).isSameAs(job);
+        assertThat(job.getStatus()).isEqualTo(BulkDataJob.STATUS_WAITING);
+        assertThat(daemonRunnables).hasSize(1);
+        daemonRunnables.get(0).run();
+
+        PowerMockito.verifyStatic();
+        Context.becomeUser("admin");
+        assertThat(job.getStatus()).isEqualTo(BulkDataJob.STATUS_COMPLETED);
+        assertThat(job.getProcessed()).isEqualTo(uuids.size());
+        assertThat(job.getAffected()).isEqualTo(uuids.size());
+        verify(dataService, times(3)).requeueErrorData(any(List.class));
+        verify(dataService, never()).purgeQueueData(any(List.class));
+    }
+
+    /**
+     * @verifies fail large selections when the module is not started
+     * @see BulkDataJob#requeueErrorData(List)
+     */
+    @Test
+    public void requeueErrorData_shouldFailLargeSelectionsWhenTheModuleIsNotStarted() {
+        BulkDataJob job = BulkDataJob.requeueErrorData(createUuids(BulkDataJob.CHUNK_SIZE + 1));
+
+        assertThat(job.getStatus()).isEqualTo(BulkDataJob.STATUS_FAILED);
+        verify(dataService, never()).requeueErrorData(any(List.class));
+    }
+
+    private List<String> createUuids(final int count) {
+        List<String> uuids = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            uuids.add("error-" + i);
+        }
+        return uuids;
+    }
+}
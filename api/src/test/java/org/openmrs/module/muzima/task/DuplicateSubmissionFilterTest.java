@@ -0,0 +1,120 @@
+package org.openmrs.module.muzima.task;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.api.service.DataService;
+import org.openmrs.module.muzima.api.service.MuzimaSettingService;
+import org.openmrs.module.muzima.model.MuzimaSetting;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_DATA_SHARED_DATABASE_SETTING_PROPERTY;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Context.class)
+public class DuplicateSubmissionFilterTest {
+
+    private DataService dataService;
+
+    private MuzimaSettingService muzimaSettingService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        dataService = mock(DataService.class);
+        muzimaSettingService = mock(MuzimaSettingService.class);
+        mockStatic(Context.class);
+        when(Context.getService(DataService.class)).thenReturn(dataService);
+        when(Context.getService(MuzimaSettingService.class)).thenReturn(muzimaSettingService);
+        when(dataService.countQueueData(null)).thenReturn(0);
+        when(dataService.countArchiveData(null)).thenReturn(1);
+        when(dataService.countErrorData(null)).thenReturn(0);
+        when(dataService.getArchiveDataFormDataUuidsAfter(null, 10000))
+                .thenReturn(Collections.singletonMap(1, "form-data-1"));
+        when(dataService.getSubmittedFormDataUuids(any(Collection.class)))
+                .thenReturn(new HashSet<String>(Collections.singletonList("form-data-1")));
+    }
+
+    @After
+    public void tearDown() {
+        DuplicateSubmissionFilter.reset();
+    }
+
+    /**
+     * @verifies look up all form data uuids until the filter is loaded
+     * @see DuplicateSubmissionFilter#findSubmitted(Collection)
+     */
+    @Test
+    public void findSubmitted_shouldLookUpAllFormDataUuidsUntilTheFilterIsLoaded() {
+        Set<String> submitted = DuplicateSubmissionFilter.findSubmitted(Arrays.asList("form-data-1", "form-data-2", " "));
+
+        assertThat(submitted).containsOnly("form-data-1");
+        verify(dataService).getSubmittedFormDataUuids(new HashSet<String>(Arrays.asList("form-data-1", "form-data-2")));
+    }
+
+    /**
+     * @verifies only look up the form data uuids the filter might contain
+     * @see DuplicateSubmissionFilter#findSubmitted(Collection)
+     */
+    @Test
+    public void findSubmitted_shouldOnlyLookUpTheFormDataUuidsTheFilterMightContain() {
+        DuplicateSubmissionFilter.load();
+        DuplicateSubmissionFilter.add("form-data-3");
+
+        Set<String> submitted = DuplicateSubmissionFilter.findSubmitted(Arrays.asList("form-data-1", "form-data-2"));
+
+        assertThat(submitted).containsOnly("form-data-1");
+        verify(dataService).getSubmittedFormDataUuids(new HashSet<String>(Collections.singletonList("form-data-1")));
+
+        DuplicateSubmissionFilter.findSubmitted(Collections.singletonList("form-data-3"));
+        verify(dataService).getSubmittedFormDataUuids(new HashSet<String>(Collections.singletonList("form-data-3")));
+    }
+
+    /**
+     * @verifies not look up anything when the filter does not contain the form data uuids
+     * @see DuplicateSubmissionFilter#findSubmitted(Collection)
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void findSubmitted_shouldNotLookUpAnythingWhenTheFilterDoesNotContainTheFormDataUuids() {
+        DuplicateSubmissionFilter.load();
+
+        Set<String> submitted = DuplicateSubmissionFilter.findSubmitted(Collections.singletonList("form-data-2"));
+
+        assertThat(submitted).isEmpty();
+        verify(dataService, never()).getSubmittedFormDataUuids(any(Collection.class));
+    }
+
+    /**
+     * @verifies look up all form data uuids when the database is shared with other instances
+     * @see DuplicateSubmissionFilter#findSubmitted(Collection)
+     */
+    @Test
+    public void findSubmitted_shouldLookUpAllFormDataUuidsWhenTheDatabaseIsSharedWithOtherInstances() {
+        MuzimaSetting sharedDatabase = new MuzimaSetting();
+        sharedDatabase.setValueBoolean(true);
+        when(muzimaSettingService.getMuzimaSettingByProperty(QUEUE_DATA_SHARED_DATABASE_SETTING_PROPERTY))
+                .thenReturn(sharedDatabase);
+        DuplicateSubmissionFilter.load();
+
+        DuplicateSubmissionFilter.findSubmitted(Collections.singletonList("form-data-2"));
+
+        verify(dataService).getSubmittedFormDataUuids(new HashSet<String>(Collections.singletonList("form-data-2")));
+    }
+}
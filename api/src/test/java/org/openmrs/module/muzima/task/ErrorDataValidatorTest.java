@@ -0,0 +1,114 @@
+package org.openmrs.module.muzima.task;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.api.service.DataService;
+import org.openmrs.module.muzima.model.ErrorData;
+import org.openmrs.module.muzima.model.ErrorDataValidation;
+import org.openmrs.module.muzima.model.handler.MetadataCache;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Context.class)
+public class ErrorDataValidatorTest {
+
+    private DataService dataService;
+
+    private List<Collection<Integer>> chunks;
+
+    private Set<MetadataCache> metadataCaches;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        dataService = mock(DataService.class);
+        PowerMockito.mockStatic(Context.class);
+        when(Context.getService(DataService.class)).thenReturn(dataService);
+
+        chunks = Collections.synchronizedList(new ArrayList<Collection<Integer>>());
+        metadataCaches = Collections.newSetFromMap(new ConcurrentHashMap<MetadataCache, Boolean>());
+        when(dataService.validateErrorData(any(Collection.class), any(MetadataCache.class))).thenAnswer(
+                new Answer<List<ErrorDataValidation>>() {
+                    @Override
+                    public List<ErrorDataValidation> answer(final InvocationOnMock invocation) {
+                        Collection<Integer> errorDataIds = (Collection<Integer>) invocation.getArguments()[0];
+                        chunks.add(errorDataIds);
+                        metadataCaches.add((MetadataCache) invocation.getArguments()[1]);
+                        List<ErrorDataValidation> validations = new ArrayList<ErrorDataValidation>();
+                        for (Integer errorDataId : errorDataIds) {
+                            ErrorData errorData = new ErrorData();
+                            errorData.setId(errorDataId);
+                            ErrorDataValidation validation = new ErrorDataValidation(errorData);
+                            if (errorDataId % 2 == 0) {
+                                validation.addMessage("Unable to find the location " + errorDataId);
+                            }
+                            validations.add(validation);
+                        }
+                        return validations;
+                    }
+                });
+    }
+
+    /**
+     * @verifies validate all error data in chunks and return the results ordered by id
+     * @see ErrorDataValidator#validateErrorData()
+     */
+    @Test
+    public void validateErrorData_shouldValidateAllErrorDataInChunksAndReturnTheResultsOrderedById() {
+        when(dataService.getErrorDataIdsAfter(null, 5)).thenReturn(Arrays.asList(1, 2, 3, 4, 5));
+        when(dataService.getErrorDataIdsAfter(5, 5)).thenReturn(Arrays.asList(6, 7));
+        when(dataService.getErrorDataIdsAfter(7, 5)).thenReturn(new ArrayList<Integer>());
+
+        List<ErrorDataValidation> validations = new ErrorDataValidator(3, 5, 2).validateErrorData();
+
+        List<Integer> errorDataIds = new ArrayList<Integer>();
+        for (ErrorDataValidation validation : validations) {
+            errorDataIds.add(validation.getErrorDataId());
+            assertThat(validation.isValid()).isEqualTo(validation.getErrorDataId() % 2 != 0);
+        }
+        assertThat(errorDataIds).containsExactly(1, 2, 3, 4, 5, 6, 7);
+        assertThat(chunks).hasSize(4);
+        for (Collection<Integer> chunk : chunks) {
+            assertThat(chunk.size()).isLessThanOrEqualTo(2);
+        }
+        assertThat(metadataCaches).hasSize(1);
+    }
+
+    /**
+     * @verifies validate the given error data only
+     * @see ErrorDataValidator#validateErrorData(Collection)
+     */
+    @Test
+    public void validateErrorData_shouldValidateTheGivenErrorDataOnly() {
+        List<ErrorDataValidation> validations = new ErrorDataValidator(2, 2, 1)
+                .validateErrorData(Arrays.asList(9, 3, 5));
+
+        assertThat(validations).hasSize(3);
+        assertThat(validations.get(0).getErrorDataId()).isEqualTo(3);
+        assertThat(validations.get(1).getErrorDataId()).isEqualTo(5);
+        assertThat(validations.get(2).getErrorDataId()).isEqualTo(9);
+        verify(dataService, never()).getErrorDataIdsAfter(any(Integer.class), anyInt());
+    }
+}
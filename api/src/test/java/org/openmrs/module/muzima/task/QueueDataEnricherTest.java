@@ -0,0 +1,72 @@
+package org.openmrs.module.muzima.task;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.openmrs.Location;
+import org.openmrs.Provider;
+import org.openmrs.module.muzima.handler.ObsQueueDataHandler;
+import org.openmrs.module.muzima.model.MuzimaForm;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.model.handler.MetadataCache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(JUnit4.class)
+public class QueueDataEnricherTest {
+
+    private static final String PAYLOAD = "{\"patient\":{\"patient.uuid\":\"patient-uuid\"},"
+            + "\"encounter\":{\"encounter.provider_id\":\"provider-1\",\"encounter.location_id\":\"1\","
+            + "\"encounter.form_uuid\":\"form-uuid\"}}";
+
+    /**
+     * @verifies fill the metadata of encounter queue data from the payload
+     * @see QueueDataEnricher#enrich(QueueData, MetadataCache)
+     */
+    @Test
+    public void enrich_shouldFillTheMetadataOfEncounterQueueDataFromThePayload() {
+        Provider provider = new Provider(1);
+        Location location = new Location(1);
+        MuzimaForm muzimaForm = mock(MuzimaForm.class);
+        when(muzimaForm.getName()).thenReturn("Adult Return");
+        MetadataCache metadataCache = mock(MetadataCache.class);
+        when(metadataCache.getProviderByIdentifier("provider-1")).thenReturn(provider);
+        when(metadataCache.getLocation(1)).thenReturn(location);
+        when(metadataCache.getMuzimaFormByUuid("form-uuid")).thenReturn(muzimaForm);
+
+        QueueData queueData = createQueueData("json-encounter");
+        assertThat(QueueDataEnricher.isEnriched(queueData)).isFalse();
+        QueueDataEnricher.enrich(queueData, metadataCache);
+
+        assertThat(QueueDataEnricher.isEnriched(queueData)).isTrue();
+        assertThat(queueData.getPatientUuid()).isEqualTo("patient-uuid");
+        assertThat(queueData.getProvider()).isSameAs(provider);
+        assertThat(queueData.getLocation()).isSameAs(location);
+        assertThat(queueData.getFormName()).isEqualTo("Adult Return");
+    }
+
+    /**
+     * @verifies not look up the location and form of individual obs
+     * @see QueueDataEnricher#enrich(QueueData, MetadataCache)
+     */
+    @Test
+    public void enrich_shouldNotLookUpTheLocationAndFormOfIndividualObs() {
+        MetadataCache metadataCache = mock(MetadataCache.class);
+
+        QueueData queueData = createQueueData(ObsQueueDataHandler.DISCRIMINATOR_VALUE);
+        QueueDataEnricher.enrich(queueData, metadataCache);
+
+        assertThat(queueData.getFormName()).isEqualTo("Individual Obs");
+        assertThat(queueData.getLocation()).isNull();
+        assertThat(queueData.getPatientUuid()).isEqualTo("patient-uuid");
+    }
+
+    private QueueData createQueueData(final String discriminator) {
+        QueueData queueData = new QueueData();
+        queueData.setDiscriminator(discriminator);
+        queueData.setPayload(PAYLOAD);
+        return queueData;
+    }
+}
@@ -0,0 +1,107 @@
+package org.openmrs.module.muzima.task;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.openmrs.module.muzima.model.QueueData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class QueueDataProcessorTest {
+
+    @Test
+    public void partitionByPatient_shouldKeepSubmissionOrderWithinEachPatient() {
+        List<QueueData> queueDataList = new ArrayList<QueueData>();
+        queueDataList.add(createQueueData(1, "patient-a"));
+        queueDataList.add(createQueueData(2, "patient-b"));
+        queueDataList.add(createQueueData(3, "patient-a"));
+        queueDataList.add(createQueueData(4, null));
+        queueDataList.add(createQueueData(5, "patient-b"));
+        queueDataList.add(createQueueData(6, ""));
+
+        Map<String, List<Integer>> partitions = QueueDataProcessor.partitionByPatient(queueDataList);
+
+        assertThat(partitions).hasSize(3);
+        assertThat(new ArrayList<String>(partitions.keySet())).containsExactly("patient-a", "patient-b", "");
+        assertThat(partitions.get("patient-a")).isEqualTo(Arrays.asList(1, 3));
+        assertThat(partitions.get("patient-b")).isEqualTo(Arrays.asList(2, 5));
+        assertThat(partitions.get("")).isEqualTo(Arrays.asList(4, 6));
+    }
+
+    @Test
+    public void partitionByPatient_shouldProcessTheRegistrationBeforeTheQueueDataOfThePatient() {
+        List<QueueData> queueDataList = new ArrayList<QueueData>();
+        queueDataList.add(createQueueData(1, "patient-a", "json-encounter"));
+        queueDataList.add(createQueueData(2, "patient-a", "json-individual-obs"));
+        queueDataList.add(createQueueData(3, "patient-a", "json-registration"));
+        queueDataList.add(createQueueData(4, "patient-a", "json-encounter"));
+
+        Map<String, List<Integer>> partitions = QueueDataProcessor.partitionByPatient(queueDataList);
+
+        assertThat(partitions).hasSize(1);
+        assertThat(partitions.get("patient-a")).isEqualTo(Arrays.asList(3, 1, 2, 4));
+    }
+
+    @Test
+    public void partitionByPatient_shouldProcessTheRelationshipAfterTheRegistrationsOfBothPersons() {
+        List<QueueData> queueDataList = new ArrayList<QueueData>();
+        queueDataList.add(createQueueData(1, "patient-a", "json-relationship",
+                "{\"personA\":{\"uuid\":\"patient-a\"},\"personB\":{\"uuid\":\"patient-b\"}}"));
+        queueDataList.add(createQueueData(2, "patient-c", "json-encounter"));
+        queueDataList.add(createQueueData(3, "patient-b", "json-registration"));
+        queueDataList.add(createQueueData(4, "patient-a", "json-registration"));
+
+        Map<String, List<Integer>> partitions = QueueDataProcessor.partitionByPatient(queueDataList);
+
+        assertThat(new ArrayList<String>(partitions.keySet())).containsExactly("patient-a", "patient-c");
+        assertThat(partitions.get("patient-a")).isEqualTo(Arrays.asList(3, 4, 1));
+        assertThat(partitions.get("patient-c")).isEqualTo(Arrays.asList(2));
+    }
+
+    @Test
+    public void partitionByPatient_shouldProcessTheDemographicsUpdateBeforeTheQueueDataOfTheTemporaryPatient() {
+        List<QueueData> queueDataList = new ArrayList<QueueData>();
+        queueDataList.add(createQueueData(1, "temporary-patient", "json-encounter"));
+        queueDataList.add(createQueueData(2, "patient-a", "json-demographics-update",
+                "{\"demographicsupdate\":{\"demographicsupdate.temporal_patient_uuid\":\"temporary-patient\"}}"));
+
+        Map<String, List<Integer>> partitions = QueueDataProcessor.partitionByPatient(queueDataList);
+
+        assertThat(partitions).hasSize(1);
+        assertThat(partitions.get("temporary-patient")).isEqualTo(Arrays.asList(2, 1));
+    }
+
+    @Test
+    public void getUnresolvedUuids_shouldReturnThePatientsWithoutRegistrationInTheBatch() {
+        List<QueueData> queueDataList = new ArrayList<QueueData>();
+        queueDataList.add(createQueueData(1, "patient-a", "json-encounter"));
+        queueDataList.add(createQueueData(2, "patient-b", "json-encounter"));
+        queueDataList.add(createQueueData(3, "patient-b", "json-registration"));
+
+        assertThat(new QueueDataDependencies(queueDataList).getUnresolvedUuids()).containsExactly("patient-a");
+    }
+
+    private QueueData createQueueData(final Integer id, final String patientUuid) {
+        return createQueueData(id, patientUuid, null);
+    }
+
+    private QueueData createQueueData(final Integer id, final String patientUuid, final String discriminator) {
+        return createQueueData(id, patientUuid, discriminator, null);
+    }
+
+    private QueueData createQueueData(final Integer id, final String patientUuid, final String discriminator,
+                                      final String payload) {
+        QueueData queueData = new QueueData();
+        queueData.setId(id);
+        queueData.setPatientUuid(patientUuid);
+        queueData.setDiscriminator(discriminator);
+        queueData.setPayload(payload);
+        return queueData;
+    }
+}
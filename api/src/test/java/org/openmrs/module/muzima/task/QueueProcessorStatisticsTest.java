@@ -0,0 +1,42 @@
+package org.openmrs.module.muzima.task;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Date;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class QueueProcessorStatisticsTest {
+
+    @Before
+    public void setUp() {
+        QueueProcessorStatistics.reset();
+    }
+
+    @Test
+    public void recordArchived_shouldTrackTheSubmitToArchiveLatency() {
+        QueueProcessorStatistics.recordArchived(new Date(1000), new Date(1400));
+        QueueProcessorStatistics.recordArchived(new Date(1000), new Date(1200));
+        QueueProcessorStatistics.recordArchived(null, new Date(1200));
+
+        assertThat(QueueProcessorStatistics.getArchivedCount()).isEqualTo(2);
+        assertThat(QueueProcessorStatistics.getAverageLatency()).isEqualTo(300);
+        assertThat(QueueProcessorStatistics.getMaxLatency()).isEqualTo(400);
+        assertThat(QueueProcessorStatistics.getLastLatency()).isEqualTo(200);
+    }
+
+    @Test
+    public void recordSubmissions_shouldTrackTheDuplicateRate() {
+        assertThat(QueueProcessorStatistics.getDuplicateRate()).isEqualTo(0.0);
+
+        QueueProcessorStatistics.recordSubmissions(30, 3);
+        QueueProcessorStatistics.recordSubmissions(10, 1);
+
+        assertThat(QueueProcessorStatistics.getDuplicateRate()).isEqualTo(10.0);
+        assertThat(QueueProcessorStatistics.getSnapshot().get("duplicateSubmissions")).isEqualTo(4L);
+    }
+}
@@ -0,0 +1,53 @@
+package org.openmrs.module.muzima.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class BloomFilterTest {
+
+    /**
+     * @verifies never report an added string as missing
+     * @see BloomFilter#mightContain(String)
+     */
+    @Test
+    public void mightContain_shouldNeverReportAnAddedStringAsMissing() {
+        BloomFilter bloomFilter = new BloomFilter(10000, 0.01);
+        List<String> values = new ArrayList<String>();
+        for (int i = 0; i < 10000; i++) {
+            String value = UUID.randomUUID().toString();
+            values.add(value);
+            bloomFilter.put(value);
+        }
+        for (String value : values) {
+            assertThat(bloomFilter.mightContain(value)).isTrue();
+        }
+    }
+
+    /**
+     * @verifies report few strings which were not added
+     * @see BloomFilter#mightContain(String)
+     */
+    @Test
+    public void mightContain_shouldReportFewStringsWhichWereNotAdded() {
+        BloomFilter bloomFilter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            bloomFilter.put(UUID.randomUUID().toString());
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (bloomFilter.mightContain(UUID.randomUUID().toString())) {
+                falsePositives++;
+            }
+        }
+        // the expected rate is 1%, leave plenty of room for randomness.
+        assertThat(falsePositives).isLessThan(300);
+    }
+}
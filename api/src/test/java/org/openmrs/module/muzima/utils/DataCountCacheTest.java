@@ -0,0 +1,114 @@
+package org.openmrs.module.muzima.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class DataCountCacheTest {
+
+    private static class StubCounter implements DataCountCache.Counter {
+
+        private final Map<String, Number> counts = new HashMap<String, Number>();
+
+        private final List<String> searches = new ArrayList<String>();
+
+        private int recounts;
+
+        @Override
+        public Map<String, Number> countByDiscriminator() {
+            recounts++;
+            return new HashMap<String, Number>(counts);
+        }
+
+        @Override
+        public Number count(final String search) {
+            searches.add(search);
+            return searches.size() * 10;
+        }
+    }
+
+    /**
+     * @verifies keep the counts up to date with the adjustments
+     * @see DataCountCache#getCount(String)
+     */
+    @Test
+    public void getCount_shouldKeepTheCountsUpToDateWithTheAdjustments() {
+        StubCounter counter = new StubCounter();
+        counter.counts.put("json-registration", 3);
+        counter.counts.put("json-encounter", 4);
+        DataCountCache cache = new DataCountCache(counter, 60000, 60000);
+
+        assertThat(cache.getCount("")).isEqualTo(7);
+        cache.adjust("json-encounter", 2);
+        cache.adjust("json-registration", -1);
+        cache.adjust(null, 1);
+
+        assertThat(cache.getCount(null)).isEqualTo(9);
+        assertThat(cache.getCountsByDiscriminator().get("json-encounter")).isEqualTo(6L);
+        assertThat(cache.getCountsByDiscriminator().get("json-registration")).isEqualTo(2L);
+        assertThat(counter.recounts).isEqualTo(1);
+
+        assertThat(cache.getExactCount("")).isEqualTo(7);
+        assertThat(counter.recounts).isEqualTo(2);
+    }
+
+    /**
+     * @verifies count the data matching a search again once the count expired
+     * @see DataCountCache#getCount(String)
+     */
+    @Test
+    public void getCount_shouldCountTheDataMatchingASearchAgainOnceTheCountExpired() {
+        StubCounter counter = new StubCounter();
+        DataCountCache cache = new DataCountCache(counter, 60000, 60000);
+        assertThat(cache.getCount("john")).isEqualTo(10);
+        assertThat(cache.getCount("john")).isEqualTo(10);
+        assertThat(counter.searches).containsExactly("john");
+
+        DataCountCache expiringCache = new DataCountCache(counter, 60000, 0);
+        assertThat(expiringCache.getCount("john")).isEqualTo(20);
+        assertThat(expiringCache.getCount("john")).isEqualTo(30);
+        assertThat(counter.searches).containsExactly("john", "john", "john");
+    }
+
+    /**
+     * @verifies keep the total in step with the counts per discriminator while recounting
+     * @see DataCountCache#adjust(String, long)
+     */
+    @Test
+    public void adjust_shouldKeepTheTotalInStepWithTheCountsPerDiscriminatorWhileRecounting() {
+        StubCounter counter = new StubCounter();
+        counter.counts.put("json-encounter", 100);
+        final DataCountCache cache = new DataCountCache(counter, 60000, 60000);
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            final String discriminator = i % 2 == 0 ? "json-encounter" : "json-registration";
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        cache.adjust(discriminator, 1);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        while (done.getCount() > 0) {
+            cache.getExactCount("");
+        }
+
+        long sum = 0;
+        for (Long count : cache.getCountsByDiscriminator().values()) {
+            sum += count;
+        }
+        assertThat(cache.getCount("")).isEqualTo(sum);
+    }
+}
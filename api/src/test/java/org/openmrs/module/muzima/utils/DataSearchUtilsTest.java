@@ -0,0 +1,84 @@
+package org.openmrs.module.muzima.utils;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.openmrs.Location;
+import org.openmrs.Provider;
+import org.openmrs.module.muzima.model.ErrorData;
+import org.openmrs.module.muzima.model.ErrorMessage;
+import org.openmrs.module.muzima.model.QueueData;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class DataSearchUtilsTest {
+
+    /**
+     * @verifies return the terms of the metadata and the payload values of the data
+     * @see DataSearchUtils#getSearchTerms(org.openmrs.module.muzima.model.AuditableData)
+     */
+    @Test
+    public void getSearchTerms_shouldReturnTheTermsOfTheMetadataAndThePayloadValuesOfTheData() {
+        Location location = new Location();
+        location.setName("Moi Teaching Hospital");
+        Provider provider = new Provider();
+        provider.setIdentifier("PRV-77");
+        QueueData queueData = new QueueData();
+        queueData.setDiscriminator("json-registration");
+        queueData.setPatientUuid("2f5b3b5e-1a2b");
+        queueData.setFormName("Registration Form");
+        queueData.setLocation(location);
+        queueData.setProvider(provider);
+        queueData.setPayload("{\"patient\": {\"patient.given_name\": \"John\", \"patient.family_name\": \"O'Neil\", "
+                + "\"patient.identifier\": [\"AMRS-123\"]}, \"encounter\": {\"encounter.form_uuid\": null}}");
+
+        assertThat(DataSearchUtils.getSearchTerms(queueData)).containsOnly("json", "registration", "2f5b3b5e", "1a2b",
+                "form", "moi", "teaching", "hospital", "prv", "77", "john", "neil", "amrs", "123");
+    }
+
+    /**
+     * @verifies index the text of xml payloads and the error messages
+     * @see DataSearchUtils#getSearchTerms(org.openmrs.module.muzima.model.AuditableData)
+     */
+    @Test
+    public void getSearchTerms_shouldIndexTheTextOfXmlPayloadsAndTheErrorMessages() {
+        ErrorData errorData = new ErrorData();
+        errorData.setDiscriminator("xml-encounter");
+        errorData.setPayload("<form><patient><patient.given_name>Jane</patient.given_name></patient></form>");
+        errorData.setErrorMessages(Collections.singleton(new ErrorMessage("Unable to find location")));
+
+        assertThat(DataSearchUtils.getSearchTerms(errorData)).containsOnly("xml", "encounter", "jane", "unable", "to",
+                "find", "location");
+    }
+
+    /**
+     * @verifies split the search into lower case terms
+     * @see DataSearchUtils#getSearchTerms(String)
+     */
+    @Test
+    public void getSearchTerms_shouldSplitTheSearchIntoLowerCaseTerms() {
+        assertThat(DataSearchUtils.getSearchTerms("John  AMRS-12 john")).containsExactly("john", "amrs", "12");
+        assertThat(DataSearchUtils.getSearchTerms(" -- ")).isEmpty();
+        assertThat(DataSearchUtils.getSearchTerms((String) null)).isEmpty();
+    }
+
+    /**
+     * @verifies cut long terms at the maximum term length
+     * @see DataSearchUtils#getSearchTerms(org.openmrs.module.muzima.model.AuditableData)
+     */
+    @Test
+    public void getSearchTerms_shouldCutLongTermsAtTheMaximumTermLength() {
+        String longWord = StringUtils.repeat("a", DataSearchUtils.MAX_TERM_LENGTH + 10);
+        QueueData queueData = new QueueData();
+        queueData.setPayload("{\"obs\": \"" + longWord + "\"}");
+
+        assertThat(DataSearchUtils.getSearchTerms(queueData))
+                .containsOnly(StringUtils.left(longWord, DataSearchUtils.MAX_TERM_LENGTH));
+        assertThat(DataSearchUtils.getSearchTerms(longWord))
+                .containsExactly(StringUtils.left(longWord, DataSearchUtils.MAX_TERM_LENGTH));
+    }
+}
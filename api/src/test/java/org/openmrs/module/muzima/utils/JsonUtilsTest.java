@@ -5,6 +5,7 @@ import net.minidev.json.JSONObject;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.assertj.core.api.Assertions;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -49,6 +50,11 @@ public class JsonUtilsTest {
                 "}";
     }
 
+    @After
+    public void tearDown() throws Exception {
+        JsonUtils.clearCompiledPaths();
+    }
+
     @Test
     @Ignore
     public void writeAsBooleanTest() throws Exception {
@@ -387,4 +393,28 @@ public class JsonUtilsTest {
         logger.debug("Expected to read value of parsed value ,1984-04-16 06:15:00 has returned " + JsonUtils.readAsDate(datePayload, "key"));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void compileTest() throws Exception {
+        logger.debug("Executing Compile Test");
+        assertThat(JsonUtils.compile("$['patient']['patient.uuid']")).isSameAs(JsonUtils.compile("$['patient']['patient.uuid']"));
+        for (int i = 0; i < JsonUtils.COMPILED_PATH_CACHE_SIZE + 10; i++) {
+            assertThat(JsonUtils.compile("$['patient']['patient.uuid" + i + "']")).isNotNull();
+        }
+        assertThat(JsonUtils.getCompiledPathCount()).isEqualTo(JsonUtils.COMPILED_PATH_CACHE_SIZE);
+        assertThat(JsonUtils.readAsString(mockPayload, "$['payload']['patient.uuid']")).isEqualTo("6e698d66-9f59-4a3b-b3d7-91efb7b297d3");
+    }
+
+    @Test
+    public void readFromParsedJsonTest() throws Exception {
+        logger.debug("Executing Read from Parsed Json Test");
+        Object parsedPayload = JsonUtils.parseJson(mockPayload);
+        assertThat(JsonUtils.readAsString(parsedPayload, "$['payload']['patient.uuid']"))
+                .isEqualTo(JsonUtils.readAsString(mockPayload, "$['payload']['patient.uuid']"));
+        assertThat(JsonUtils.readAsString(parsedPayload, "$['payload']['patient.given_name']")).isEqualTo("Example");
+        assertThat(JsonUtils.readAsString(parsedPayload, "$['payload']['patient.unknown']")).isNull();
+        assertThat(JsonUtils.readAsBoolean(parsedPayload, "$['payload']['patient.birthdate_estimated']")).isFalse();
+        assertThat(JsonUtils.readAsNumeric(JsonUtils.parseJson("{\"key\":1.0}"), "$.key")).isEqualTo(1.0);
+        assertThat(JsonUtils.readAsDate(JsonUtils.parseJson("{\"key\":\"04-06-1994\"}"), "key")).hasYear(1994);
+    }
+
+}
@@ -0,0 +1,166 @@
+package org.openmrs.module.muzima.utils;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.openmrs.Patient;
+import org.openmrs.PersonName;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class PatientSearchUtilsTest {
+
+    private static final String[] GIVEN_NAMES = {"john", "mary", "peter", "grace", "joseph", "esther", "david",
+            "faith", "samuel", "mercy", "daniel", "ruth", "james", "sarah", "paul", "ann"};
+
+    private static final String[] FAMILY_NAMES = {"otieno", "wanjiku", "kamau", "achieng", "mwangi", "njeri", "odhiambo",
+            "chebet", "kiprop", "wafula", "mutua", "nyambura", "omondi", "kariuki", "atieno", "barasa"};
+
+    /**
+     * @verifies return the same distance as the unbounded edit distance within the threshold
+     * @see PatientSearchUtils#getLevenshteinDistance(String, String, int)
+     */
+    @Test
+    public void getLevenshteinDistance_shouldReturnTheSameDistanceAsTheUnboundedEditDistanceWithinTheThreshold() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String first = randomName(random);
+            String second = mutate(random.nextBoolean() ? first : randomName(random), random);
+            int distance = StringUtils.getLevenshteinDistance(first, second);
+            int boundedDistance = PatientSearchUtils.getLevenshteinDistance(first, second, 2);
+            assertThat(boundedDistance).isEqualTo(distance <= 2 ? distance : -1);
+        }
+        assertThat(PatientSearchUtils.getLevenshteinDistance("", "ab", 2)).isEqualTo(2);
+        assertThat(PatientSearchUtils.getLevenshteinDistance("", "abc", 2)).isEqualTo(-1);
+    }
+
+    /**
+     * @verifies compute the american soundex
+     * @see PatientSearchUtils#getSoundex(String)
+     */
+    @Test
+    public void getSoundex_shouldComputeTheAmericanSoundex() {
+        assertThat(PatientSearchUtils.getSoundex("Robert")).isEqualTo("R163");
+        assertThat(PatientSearchUtils.getSoundex("Rupert")).isEqualTo("R163");
+        assertThat(PatientSearchUtils.getSoundex("Ashcraft")).isEqualTo("A261");
+        assertThat(PatientSearchUtils.getSoundex("Tymczak")).isEqualTo("T522");
+        assertThat(PatientSearchUtils.getSoundex("Pfister")).isEqualTo("P236");
+        assertThat(PatientSearchUtils.getSoundex("Lee")).isEqualTo("L000");
+        assertThat(PatientSearchUtils.getSoundex("--")).isNull();
+    }
+
+    /**
+     * @verifies return the patient with the same gender and birth date and similar names
+     * @see PatientSearchUtils#findSimilarPatientByNameAndGender(java.util.List, org.openmrs.Patient)
+     */
+    @Test
+    public void findSimilarPatientByNameAndGender_shouldReturnThePatientWithTheSameGenderAndBirthDateAndSimilarNames() {
+        Date birthdate = new Date(100000000000L);
+        Patient otherGender = createPatient("John", "Otieno", "F", birthdate);
+        Patient otherName = createPatient("John", "Kamau", "M", birthdate);
+        Patient similar = createPatient("Jon", "Otieno", "M", birthdate);
+        Patient unsavedPatient = createPatient("John", "Otienno", "M", birthdate);
+
+        assertThat(PatientSearchUtils.findSimilarPatientByNameAndGender(
+                Arrays.asList(otherGender, otherName, similar), unsavedPatient)).isSameAs(similar);
+        assertThat(PatientSearchUtils.findSimilarPatientByNameAndGender(
+                Arrays.asList(otherGender, otherName), unsavedPatient)).isNull();
+    }
+
+    /**
+     * @verifies return the soundex of the given and family names of the names which are not voided
+     * @see PatientSearchUtils#getNameKeys(org.openmrs.Patient)
+     */
+    @Test
+    public void getNameKeys_shouldReturnTheSoundexOfTheGivenAndFamilyNamesOfTheNamesWhichAreNotVoided() {
+        Patient patient = createPatient("Peter", "Kamau", "M", new Date(100000000000L));
+        PersonName voidedName = new PersonName("Mary", null, "Otieno");
+        voidedName.setVoided(true);
+        patient.addName(voidedName);
+
+        assertThat(PatientSearchUtils.getNameKeys(patient)).containsOnly("P360", "K500");
+    }
+
+    /**
+     * @verifies find patients with a misspelled name through the key of their other name
+     * @see PatientSearchUtils#getNameKeys(org.openmrs.Patient)
+     */
+    @Test
+    public void getNameKeys_shouldFindPatientsWithAMisspelledNameThroughTheKeyOfTheirOtherName() {
+        Date birthdate = new Date(100000000000L);
+        Patient savedPatient = createPatient("Peter", "Kamau", "M", birthdate);
+        Patient otherPatient = createPatient("Mary", "Otieno", "M", birthdate);
+        Map<String, List<Patient>> blocks = new HashMap<String, List<Patient>>();
+        for (Patient patient : Arrays.asList(savedPatient, otherPatient)) {
+            for (String nameKey : PatientSearchUtils.getNameKeys(patient)) {
+                addToBlock(blocks, nameKey, patient);
+            }
+        }
+        Patient unsavedPatient = createPatient("Beter", "Kamau", "M", birthdate);
+
+        Set<Patient> candidates = new LinkedHashSet<Patient>();
+        for (String nameKey : PatientSearchUtils.getNameKeys(unsavedPatient)) {
+            if (blocks.containsKey(nameKey)) {
+                candidates.addAll(blocks.get(nameKey));
+            }
+        }
+        assertThat(candidates).containsOnly(savedPatient);
+        assertThat(PatientSearchUtils.findSimilarPatientByNameAndGender(new ArrayList<Patient>(candidates),
+                unsavedPatient)).isSameAs(savedPatient);
+    }
+
+    private Patient createPatient(final String givenName, final String familyName, final String gender,
+                                  final Date birthdate) {
+        Patient patient = new Patient();
+        patient.addName(new PersonName(givenName, null, familyName));
+        patient.setGender(gender);
+        patient.setBirthdate(birthdate);
+        return patient;
+    }
+
+    private String randomName(final Random random) {
+        return random.nextBoolean() ? GIVEN_NAMES[random.nextInt(GIVEN_NAMES.length)] + random.nextInt(100)
+                : FAMILY_NAMES[random.nextInt(FAMILY_NAMES.length)] + (char) ('a' + random.nextInt(26));
+    }
+
+    // apply up to three random edits.
+    private String mutate(final String name, final Random random) {
+        StringBuilder mutated = new StringBuilder(name);
+        int edits = random.nextInt(4);
+        for (int i = 0; i < edits && mutated.length() > 0; i++) {
+            int position = random.nextInt(mutated.length());
+            switch (random.nextInt(3)) {
+                case 0:
+                    mutated.deleteCharAt(position);
+                    break;
+                case 1:
+                    mutated.insert(position, (char) ('a' + random.nextInt(26)));
+                    break;
+                default:
+                    mutated.setCharAt(position, (char) ('a' + random.nextInt(26)));
+            }
+        }
+        return mutated.toString();
+    }
+
+    private void addToBlock(final Map<String, List<Patient>> blocks, final String key, final Patient patient) {
+        List<Patient> block = blocks.get(key);
+        if (block == null) {
+            block = new ArrayList<Patient>();
+            blocks.put(key, block);
+        }
+        block.add(patient);
+    }
+}
@@ -0,0 +1,65 @@
+package org.openmrs.module.muzima.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.api.service.MuzimaSettingService;
+import org.openmrs.module.muzima.model.MuzimaSetting;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.concurrent.ThreadFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Context.class)
+public class TaskUtilsTest {
+
+    /**
+     * @verifies return the default value when the setting is missing or not a number
+     * @see TaskUtils#getSettingValue(String, int)
+     */
+    @Test
+    public void getSettingValue_shouldReturnTheDefaultValueWhenTheSettingIsMissingOrNotANumber() {
+        MuzimaSettingService muzimaSettingService = mock(MuzimaSettingService.class);
+        mockStatic(Context.class);
+        when(Context.getService(MuzimaSettingService.class)).thenReturn(muzimaSettingService);
+        when(muzimaSettingService.getMuzimaSettingByProperty("workers")).thenReturn(createSetting("4"));
+        when(muzimaSettingService.getMuzimaSettingByProperty("batch")).thenReturn(createSetting("many"));
+
+        assertThat(TaskUtils.getSettingValue("workers", 1)).isEqualTo(4);
+        assertThat(TaskUtils.getSettingValue("batch", 500)).isEqualTo(500);
+        assertThat(TaskUtils.getSettingValue("chunk", 50)).isEqualTo(50);
+    }
+
+    /**
+     * @verifies create numbered daemon threads
+     * @see TaskUtils#createWorkerThreadFactory(String)
+     */
+    @Test
+    public void createWorkerThreadFactory_shouldCreateNumberedDaemonThreads() {
+        ThreadFactory threadFactory = TaskUtils.createWorkerThreadFactory("muzima-test-worker-");
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        Thread first = threadFactory.newThread(runnable);
+        Thread second = threadFactory.newThread(runnable);
+
+        assertThat(first.getName()).isEqualTo("muzima-test-worker-1");
+        assertThat(second.getName()).isEqualTo("muzima-test-worker-2");
+        assertThat(first.isDaemon()).isTrue();
+    }
+
+    private MuzimaSetting createSetting(final String value) {
+        MuzimaSetting muzimaSetting = new MuzimaSetting();
+        muzimaSetting.setValueString(value);
+        return muzimaSetting;
+    }
+}
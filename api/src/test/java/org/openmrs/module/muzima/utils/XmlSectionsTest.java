@@ -0,0 +1,133 @@
+package org.openmrs.module.muzima.utils;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(JUnit4.class)
+public class XmlSectionsTest {
+
+    private static final String PAYLOAD = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<form id=\"1\">"
+            + "  <header><patient>not the patient section</patient></header>"
+            + "  <patient>"
+            + "    <patient.given_name>John</patient.given_name>"
+            + "    <patient.family_name>Doe &amp; Sons</patient.family_name>"
+            + "    <patient.uuid><![CDATA[a-b-c]]></patient.uuid>"
+            + "    <ccc_identifier_type><ccc_value>123</ccc_value><ccc_confirm>123</ccc_confirm></ccc_identifier_type>"
+            + "  </patient>"
+            + "  <encounter><encounter.location_id>1</encounter.location_id></encounter>"
+            + "  <obs>"
+            + "    <weight concept=\"5089^WEIGHT^99DCT\"><value> 60 </value></weight>"
+            + "    <empty concept=\"1234^EMPTY^99DCT\"/>"
+            + "    <blank concept=\"1235^BLANK^99DCT\"> </blank>"
+            + "    <temporary>skipped</temporary>"
+            + "  </obs>"
+            + "</form>";
+
+    /**
+     * @verifies read the first element of every section
+     * @see XmlSections#parse(String, String...)
+     */
+    @Test
+    public void parse_shouldReadTheFirstElementOfEverySection() throws Exception {
+        XmlSections xmlSections = XmlSections.parse(PAYLOAD, "patient", "encounter", "obs", "missing");
+
+        assertThat(xmlSections.getSection("patient").getTextContent()).isEqualTo("not the patient section");
+        assertThat(xmlSections.getSection("encounter").getChild("encounter.location_id").getTextContent())
+                .isEqualTo("1");
+        assertThat(xmlSections.getSection("obs").getChildren()).hasSize(4);
+        assertThat(xmlSections.getSection("missing")).isNull();
+        assertThat(xmlSections.getSection("header")).isNull();
+    }
+
+    /**
+     * @verifies read the text, the attributes and the children of the elements like the dom parser
+     * @see XmlSections#parse(String, String...)
+     */
+    @Test
+    public void parse_shouldReadTheTextTheAttributesAndTheChildrenOfTheElementsLikeTheDomParser() throws Exception {
+        String payload = PAYLOAD.replace("<header><patient>not the patient section</patient></header>", "");
+        XmlSections xmlSections = XmlSections.parse(payload, "patient", "obs");
+        Document document = parse(payload);
+
+        XmlElement patient = xmlSections.getSection("patient");
+        Element patientNode = (Element) document.getElementsByTagName("patient").item(0);
+        assertThat(patient.getTextContent()).isEqualTo(patientNode.getTextContent());
+        assertThat(patient.getChild("patient.family_name").getTextContent()).isEqualTo("Doe & Sons");
+        assertThat(patient.getChild("patient.uuid").getTextContent()).isEqualTo("a-b-c");
+        assertThat(patient.find("ccc_value").getTextContent()).isEqualTo("123");
+        assertThat(patient.getChild("ccc_value")).isNull();
+
+        XmlElement obs = xmlSections.getSection("obs");
+        NodeList obsNodes = document.getElementsByTagName("obs").item(0).getChildNodes();
+        int index = 0;
+        for (int i = 0; i < obsNodes.getLength(); i++) {
+            Node obsNode = obsNodes.item(i);
+            if (obsNode.getNodeType() == Node.ELEMENT_NODE) {
+                XmlElement obsElement = obs.getChildren().get(index++);
+                assertThat(obsElement.getName()).isEqualTo(obsNode.getNodeName());
+                assertThat(obsElement.hasAttributes()).isEqualTo(obsNode.hasAttributes());
+                assertThat(obsElement.hasContent()).isEqualTo(obsNode.hasChildNodes());
+                assertThat(obsElement.getAttribute("concept")).isEqualTo(((Element) obsNode).getAttribute("concept"));
+                assertThat(obsElement.getTextContent()).isEqualTo(obsNode.getTextContent());
+            }
+        }
+        assertThat(index).isEqualTo(obs.getChildren().size());
+    }
+
+    /**
+     * @verifies fail on payloads which are not well formed
+     * @see XmlSections#parse(String, String...)
+     */
+    @Test(expected = XMLStreamException.class)
+    public void parse_shouldFailOnPayloadsWhichAreNotWellFormed() throws Exception {
+        XmlSections.parse(PAYLOAD.replace("</form>", "</forms>"), "patient");
+    }
+
+    /**
+     * @verifies read every element of the sections of large payloads
+     * @see XmlSections#parse(String, String...)
+     */
+    @Test
+    public void parse_shouldReadEveryElementOfTheSectionsOfLargePayloads() throws Exception {
+        StringBuilder builder = new StringBuilder("<form><patient><patient.given_name>John</patient.given_name>"
+                + "</patient><obs>");
+        for (int i = 0; i < 20000; i++) {
+            builder.append("<obs_").append(i).append(" concept=\"").append(i).append("^CONCEPT^99DCT\"><value>")
+                    .append(i).append("</value></obs_").append(i).append(">");
+        }
+        builder.append("</obs><meta>");
+        for (int i = 0; i < 20000; i++) {
+            builder.append("<audit_").append(i).append(">skipped</audit_").append(i).append(">");
+        }
+        XmlSections xmlSections = XmlSections.parse(builder.append("</meta></form>").toString(), "patient", "obs");
+
+        assertThat(xmlSections.getSection("patient").getChild("patient.given_name").getTextContent())
+                .isEqualTo("John");
+        assertThat(xmlSections.getSection("meta")).isNull();
+        List<XmlElement> obsElements = xmlSections.getSection("obs").getChildren();
+        assertThat(obsElements).hasSize(20000);
+        XmlElement lastObs = obsElements.get(19999);
+        assertThat(lastObs.getName()).isEqualTo("obs_19999");
+        assertThat(lastObs.getAttribute("concept")).isEqualTo("19999^CONCEPT^99DCT");
+        assertThat(lastObs.getChild("value").getTextContent()).isEqualTo("19999");
+    }
+
+    private Document parse(final String payload) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new ByteArrayInputStream(payload.getBytes("utf-8"))));
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.web.controller;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.task.BulkDataJob;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Exposes the progress of the requeue and delete jobs started from the admin screens, see {@link BulkDataJob}.
+ */
+@Controller
+@RequestMapping(value = "/module/muzimacore/bulkDataJob.json")
+public class BulkDataJobController {
+
+    @RequestMapping(method = RequestMethod.GET)
+    @ResponseBody
+    public Map<String, Object> getJob(final @RequestParam(value = "uuid") String uuid) {
+        Map<String, Object> response = new HashMap<String, Object>();
+        if (Context.isAuthenticated()) {
+            BulkDataJob job = BulkDataJob.getJob(uuid);
+            if (job != null) {
+                response.putAll(job.getSnapshot());
+            }
+        }
+        return response;
+    }
+}
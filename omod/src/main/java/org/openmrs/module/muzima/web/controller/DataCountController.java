@@ -0,0 +1,58 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.web.controller;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.api.service.DataService;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the queue, error or archive data matching a search in the database, for the admin screens which show the
+ * approximate count by default and the exact count on demand.
+ */
+@Controller
+@RequestMapping(value = "/module/muzimacore/dataCount.json")
+public class DataCountController {
+
+    @RequestMapping(method = RequestMethod.GET)
+    @ResponseBody
+    public Map<String, Object> getDataCount(final @RequestParam(value = "type") String type,
+                                            final @RequestParam(value = "search", required = false) String search,
+                                            final HttpServletResponse response) {
+        Map<String, Object> count = new HashMap<String, Object>();
+        if (Context.isAuthenticated()) {
+            DataService dataService = Context.getService(DataService.class);
+            if ("queue".equals(type)) {
+                count.put("count", dataService.countQueueData(search).intValue());
+            } else if ("error".equals(type)) {
+                count.put("count", dataService.countErrorData(search).intValue());
+            } else if ("archive".equals(type)) {
+                count.put("count", dataService.countArchiveData(search).intValue());
+            } else {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                return count;
+            }
+            count.put("approximateCount", false);
+        }
+        return count;
+    }
+}
@@ -18,6 +18,7 @@ import org.openmrs.module.muzima.api.service.DataService;
 import org.openmrs.module.muzima.model.ErrorData;
 import org.openmrs.module.muzima.model.ErrorMessage;
 import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.task.ContinuousQueueDataProcessor;
 import org.openmrs.module.muzima.web.utils.WebConverter;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
@@ -71,6 +72,7 @@ public class ErrorController {
             String payload = data.get("payload");
             DataService dataService = Context.getService(DataService.class);
             List<QueueData> queuedData = dataService.mergeDuplicatePatient(errorDataUuid, patientUuid, payload);
+            submitQueueDatas(queuedData);
             map.put("results", convertQueueDatas(queuedData));
         }
         return map;
@@ -92,18 +94,25 @@ public class ErrorController {
             queueDataList.add(queueData);
             dataService.purgeErrorData(toRequeue);
 
-            List<ErrorData> toRequeueErrors = getErrorDataWithAPatientUuid(submittedPatientUuid);
+            List<ErrorData> toRequeueErrors = dataService.getErrorDataByPatientUuid(submittedPatientUuid);
             for(ErrorData errorData: toRequeueErrors) {
                 queueData = dataService.saveQueueData(new QueueData(errorData));
                 dataService.purgeErrorData(errorData);
                 queueDataList.add(queueData);
             }
+            submitQueueDatas(queueDataList);
             map.put("results", convertQueueDatas(queueDataList));
         }
         return map;
 
     }
 
+    private void submitQueueDatas(final List<QueueData> queueDatas) {
+        for (QueueData queueData : queueDatas) {
+            ContinuousQueueDataProcessor.submit(queueData.getId());
+        }
+    }
+
     private List<Map<String, Object>> convertQueueDatas(final List<QueueData> queueDatas) {
         List<Map<String, Object>> converted = new ArrayList<Map<String, Object>>();
         for(QueueData queueData: queueDatas) {
@@ -111,11 +120,4 @@ public class ErrorController {
         }
         return converted;
     }
-
-    private List<ErrorData> getErrorDataWithAPatientUuid(final String patientUuid) {
-        // Fetch all ErrorData associated with the patient UUID (the one determined to be of a duplicate patient).
-        DataService dataService = Context.getService(DataService.class);
-        int countOfErrors = dataService.countErrorData(patientUuid).intValue();
-        return dataService.getPagedErrorData(patientUuid, 1, countOfErrors);
-    }
 }
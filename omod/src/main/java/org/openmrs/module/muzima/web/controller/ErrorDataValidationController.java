@@ -0,0 +1,128 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.web.controller;
+
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.api.service.DataService;
+import org.openmrs.module.muzima.model.ErrorData;
+import org.openmrs.module.muzima.model.ErrorDataValidation;
+import org.openmrs.module.muzima.task.ErrorDataValidator;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Validates the error data again without touching them, e.g. after a metadata fix to see which error data would now
+ * be processed, see {@link ErrorDataValidator}.
+ * <p/>
+ * The body is optional. Without a body all error data are validated, otherwise the body is a json object whose
+ * "uuids" property lists the error data to validate. The "invalidOnly" property leaves the error data which would
+ * now pass the validation out of the results. The response holds the number of valid and invalid error data and a
+ * result for every error data, ordered by id.
+ */
+@Controller
+@RequestMapping(value = "/rest/" + MuzimaConstants.MUZIMA_NAMESPACE + "/errordata/validate")
+public class ErrorDataValidationController {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @RequestMapping(method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, Object> validate(final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException {
+        Map<String, Object> results = new LinkedHashMap<String, Object>();
+        if (!Context.isAuthenticated()) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            return results;
+        }
+        Map<String, Object> options = readOptions(request);
+        boolean invalidOnly = Boolean.TRUE.equals(options.get("invalidOnly"));
+
+        List<String> notFound = new ArrayList<String>();
+        List<ErrorDataValidation> validations;
+        if (options.get("uuids") instanceof Collection) {
+            List<Integer> errorDataIds = getErrorDataIds((Collection<?>) options.get("uuids"), notFound);
+            validations = errorDataIds.isEmpty() ? new ArrayList<ErrorDataValidation>()
+                    : new ErrorDataValidator().validateErrorData(errorDataIds);
+        } else {
+            validations = new ErrorDataValidator().validateErrorData();
+        }
+
+        int valid = 0;
+        List<Map<String, Object>> itemResults = new ArrayList<Map<String, Object>>();
+        for (ErrorDataValidation validation : validations) {
+            if (validation.isValid()) {
+                valid++;
+                if (invalidOnly) {
+                    continue;
+                }
+            }
+            Map<String, Object> itemResult = new LinkedHashMap<String, Object>();
+            itemResult.put("uuid", validation.getUuid());
+            itemResult.put("discriminator", validation.getDiscriminator());
+            itemResult.put("patientUuid", validation.getPatientUuid());
+            itemResult.put("formName", validation.getFormName());
+            itemResult.put("valid", validation.isValid());
+            itemResult.put("messages", validation.getMessages());
+            itemResults.add(itemResult);
+        }
+
+        results.put("validated", validations.size());
+        results.put("valid", valid);
+        results.put("invalid", validations.size() - valid);
+        results.put("notFound", notFound);
+        results.put("results", itemResults);
+        return results;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readOptions(final HttpServletRequest request) throws IOException {
+        StringBuilder body = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = request.getReader().read(buffer)) != -1) {
+            body.append(buffer, 0, read);
+        }
+        if (StringUtils.isBlank(body.toString())) {
+            return new LinkedHashMap<String, Object>();
+        }
+        return objectMapper.readValue(body.toString(), Map.class);
+    }
+
+    private List<Integer> getErrorDataIds(final Collection<?> uuids, final List<String> notFound) {
+        DataService dataService = Context.getService(DataService.class);
+        List<Integer> errorDataIds = new ArrayList<Integer>();
+        for (Object uuid : uuids) {
+            ErrorData errorData = uuid == null ? null : dataService.getErrorDataByUuid(uuid.toString());
+            if (errorData == null) {
+                notFound.add(String.valueOf(uuid));
+            } else {
+                errorDataIds.add(errorData.getId());
+            }
+        }
+        return errorDataIds;
+    }
+}
@@ -15,8 +15,8 @@ package org.openmrs.module.muzima.web.controller;
 
 import org.openmrs.api.context.Context;
 import org.openmrs.module.muzima.api.service.DataService;
-import org.openmrs.module.muzima.model.ErrorData;
-import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.model.DataSummary;
+import org.openmrs.module.muzima.task.BulkDataJob;
 import org.openmrs.module.muzima.web.utils.WebConverter;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -25,7 +25,6 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -45,28 +44,29 @@ public class ErrorsController {
         Map<String, Object> response = new HashMap<String, Object>();
         if (Context.isAuthenticated()) {
             DataService dataService = Context.getService(DataService.class);
-            List<Object> objects = new ArrayList<Object>();
-            for (ErrorData errorData : dataService.getPagedErrorData(search, pageNumber, pageSize)) {
-                objects.add(WebConverter.convertErrorData(errorData));
-            }
-            response.put("totalItems", dataService.countErrorData(search).intValue());
+            List<DataSummary> summaries = dataService.getPagedErrorDataSummaries(search, pageNumber, pageSize);
+            List<Object> objects = WebConverter.convertErrorDataSummaries(summaries);
+            response.put("totalItems", dataService.getApproximateErrorDataCount(search).intValue());
+            response.put("approximateCount", true);
             response.put("objects", objects);
         }
         return response;
     }
 
+    /**
+     * Move the selected error data back to the queue, in the background for large selections.
+     *
+     * @return the progress of the job, see {@link BulkDataJob}.
+     */
     @SuppressWarnings("unchecked")
     @RequestMapping(method = RequestMethod.POST)
-    public void reQueue(final @RequestBody Map<String, Object> map) {
+    @ResponseBody
+    public Map<String, Object> reQueue(final @RequestBody Map<String, Object> map) {
+        Map<String, Object> response = new HashMap<String, Object>();
         if (Context.isAuthenticated()) {
             List<String> uuidList = (List<String>) map.get("uuidList");
-            DataService dataService = Context.getService(DataService.class);
-            for (String uuid : uuidList) {
-                ErrorData errorData = dataService.getErrorDataByUuid(uuid);
-                QueueData queueData = new QueueData(errorData);
-                dataService.saveQueueData(queueData);
-                dataService.purgeErrorData(errorData);
-            }
+            response.putAll(BulkDataJob.requeueErrorData(uuidList).getSnapshot());
         }
+        return response;
     }
 }
@@ -0,0 +1,278 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.muzima.web.controller;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.api.service.DataService;
+import org.openmrs.module.muzima.model.DataSource;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.model.handler.MetadataCache;
+import org.openmrs.module.muzima.task.ContinuousQueueDataProcessor;
+import org.openmrs.module.muzima.task.DuplicateSubmissionFilter;
+import org.openmrs.module.muzima.task.QueueDataEnricher;
+import org.openmrs.module.muzima.task.QueueProcessorStatistics;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Queues many form submissions in a single request, e.g. when a device syncs after being offline for a while.
+ * <p/>
+ * The body is either a json array of queue data or a stream of queue data objects, one per line (ndjson). Each queue
+ * data has the same properties as the ones posted to the queuedata resource. The queue data are validated one by one
+ * and the valid ones are saved together in a single transaction. The response holds a result for every queue data of
+ * the request, in the order they were sent. Form data which were submitted before, see
+ * {@link DuplicateSubmissionFilter}, or which are sent twice in the same request are not queued again and get the
+ * duplicate status.
+ * <p/>
+ * A request holds up to {@link #MAX_QUEUE_DATA} queue data. Larger requests are turned down as a whole with the
+ * request entity too large status as soon as the limit is crossed, before any queue data is validated or saved.
+ * Requests which are not valid json, or with a queue data which is not a json object, are turned down as a whole with
+ * the bad request status.
+ */
+@Controller
+@RequestMapping(value = "/rest/" + MuzimaConstants.MUZIMA_NAMESPACE + "/queuedata/bulk")
+public class QueueDataBulkController {
+
+    private static final Log log = LogFactory.getLog(QueueDataBulkController.class);
+
+    static final int MAX_QUEUE_DATA = 5000;
+
+    static final String STATUS_QUEUED = "queued";
+
+    static final String STATUS_REJECTED = "rejected";
+
+    static final String STATUS_FAILED = "failed";
+
+    static final String STATUS_DUPLICATE = "duplicate";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    @RequestMapping(method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, Object> create(final HttpServletRequest request, final HttpServletResponse response)
+            throws IOException {
+        Map<String, Object> results = new LinkedHashMap<String, Object>();
+        if (!Context.isAuthenticated()) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            return results;
+        }
+        DataService dataService = Context.getService(DataService.class);
+        MetadataCache metadataCache = new MetadataCache();
+        Map<String, DataSource> dataSources = new HashMap<String, DataSource>();
+
+        List<Map<String, Object>> envelopes = new ArrayList<Map<String, Object>>();
+        JsonParser parser = objectMapper.getJsonFactory().createJsonParser(request.getReader());
+        try {
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+            while (token != null && !(array && token == JsonToken.END_ARRAY)) {
+                if (token != JsonToken.START_OBJECT) {
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    results.put("index", envelopes.size());
+                    results.put("message", "The queue data at index " + envelopes.size() + " is not a json object.");
+                    return results;
+                }
+                if (envelopes.size() >= MAX_QUEUE_DATA) {
+                    // turn the whole request down before reading the rest of it or validating anything.
+                    response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                    results.put("message", "Too many queue data in a single request, the limit is " + MAX_QUEUE_DATA
+                            + ".");
+                    return results;
+                }
+                @SuppressWarnings("unchecked")
+                Map<String, Object> envelope = objectMapper.readValue(parser, Map.class);
+                envelopes.add(envelope);
+                token = parser.nextToken();
+            }
+        } catch (JsonProcessingException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            results.put("index", envelopes.size());
+            results.put("message", "The request is not valid json: " + e.getMessage());
+            return results;
+        } finally {
+            parser.close();
+        }
+
+        List<Map<String, Object>> itemResults = new ArrayList<Map<String, Object>>();
+        List<QueueData> queueDataList = new ArrayList<QueueData>();
+        Map<String, Map<String, Object>> queuedResults = new HashMap<String, Map<String, Object>>();
+        for (int index = 0; index < envelopes.size(); index++) {
+            Map<String, Object> itemResult = new LinkedHashMap<String, Object>();
+            itemResult.put("index", index);
+            itemResults.add(itemResult);
+            QueueData queueData = createQueueData(envelopes.get(index), itemResult, dataService, dataSources,
+                    metadataCache);
+            if (queueData != null) {
+                itemResult.put("uuid", queueData.getUuid());
+                queueDataList.add(queueData);
+                queuedResults.put(queueData.getUuid(), itemResult);
+            }
+        }
+
+        int duplicates = removeDuplicates(queueDataList, queuedResults);
+
+        Map<String, String> failures = dataService.saveQueueDataInBulk(queueDataList);
+        int queued = 0;
+        for (QueueData queueData : queueDataList) {
+            if (!failures.containsKey(queueData.getUuid())) {
+                DuplicateSubmissionFilter.add(queueData.getFormDataUuid());
+            }
+        }
+        for (Map.Entry<String, Map<String, Object>> queuedResult : queuedResults.entrySet()) {
+            String failure = failures.get(queuedResult.getKey());
+            if (failure == null) {
+                queuedResult.getValue().put("status", STATUS_QUEUED);
+                queued++;
+            } else {
+                queuedResult.getValue().put("status", STATUS_FAILED);
+                queuedResult.getValue().put("message", failure);
+            }
+        }
+        if (queued > 0) {
+            ContinuousQueueDataProcessor.submitAll();
+        }
+        log.info("Queued " + queued + " of " + itemResults.size() + " queue data in bulk, " + duplicates
+                + " duplicate(s).");
+
+        results.put("queued", queued);
+        results.put("notQueued", itemResults.size() - queued);
+        results.put("duplicates", duplicates);
+        results.put("results", itemResults);
+        return results;
+    }
+
+    /**
+     * Validate the envelope of the queue data and create the queue data out of it, the same way the queuedata resource
+     * does.
+     *
+     * @return the queue data, or null when the envelope is not valid.
+     */
+    private QueueData createQueueData(final Map<String, Object> envelope, final Map<String, Object> itemResult,
+                                      final DataService dataService, final Map<String, DataSource> dataSources,
+                                      final MetadataCache metadataCache) throws IOException {
+        Object payloadObject = envelope.get("payload");
+        if (payloadObject == null || StringUtils.isBlank(payloadObject.toString())) {
+            reject(itemResult, "The payload property is missing!");
+            return null;
+        }
+        Object discriminatorObject = envelope.get("discriminator");
+        if (discriminatorObject == null || StringUtils.isBlank(discriminatorObject.toString())) {
+            reject(itemResult, "The discriminator property is missing!");
+            return null;
+        }
+        Object dataSourceObject = envelope.get("dataSource");
+        if (dataSourceObject == null) {
+            reject(itemResult, "The data source property is missing!");
+            return null;
+        }
+        DataSource dataSource = getDataSource(dataSourceObject.toString(), dataService, dataSources);
+        if (dataSource == null) {
+            reject(itemResult, "Unable to find any data source object.");
+            return null;
+        }
+
+        String payload = payloadObject instanceof Map ? objectMapper.writeValueAsString(payloadObject)
+                : payloadObject.toString();
+
+        QueueData queueData = new QueueData();
+        queueData.setDataSource(dataSource);
+        queueData.setPayload(payload);
+        queueData.setDiscriminator(discriminatorObject.toString());
+        if (!QueueDataEnricher.isEnrichmentDeferred()) {
+            QueueDataEnricher.enrich(queueData, metadataCache);
+        }
+        Object formDataUuid = envelope.get("formDataUuid");
+        if (formDataUuid != null) {
+            queueData.setFormDataUuid(formDataUuid.toString());
+        }
+        return queueData;
+    }
+
+    /**
+     * Remove the queue data whose form data were submitted before or earlier in the same request.
+     *
+     * @return the number of removed queue data.
+     */
+    private int removeDuplicates(final List<QueueData> queueDataList,
+                                 final Map<String, Map<String, Object>> queuedResults) {
+        List<String> formDataUuids = new ArrayList<String>();
+        for (QueueData queueData : queueDataList) {
+            formDataUuids.add(queueData.getFormDataUuid());
+        }
+        Set<String> submitted = DuplicateSubmissionFilter.findSubmitted(formDataUuids);
+        Set<String> seen = new HashSet<String>();
+        int checked = 0;
+        int duplicates = 0;
+        Iterator<QueueData> iterator = queueDataList.iterator();
+        while (iterator.hasNext()) {
+            QueueData queueData = iterator.next();
+            String formDataUuid = queueData.getFormDataUuid();
+            if (StringUtils.isBlank(formDataUuid)) {
+                continue;
+            }
+            checked++;
+            if (submitted.contains(formDataUuid) || !seen.add(formDataUuid)) {
+                iterator.remove();
+                Map<String, Object> itemResult = queuedResults.remove(queueData.getUuid());
+                itemResult.put("status", STATUS_DUPLICATE);
+                itemResult.put("message", "The form data " + formDataUuid + " was already submitted.");
+                duplicates++;
+            }
+        }
+        QueueProcessorStatistics.recordSubmissions(checked, duplicates);
+        return duplicates;
+    }
+
+    private DataSource getDataSource(final String uuid, final DataService dataService,
+                                     final Map<String, DataSource> dataSources) {
+        if (!dataSources.containsKey(uuid)) {
+            DataSource dataSource = dataService.getDataSourceByUuid(uuid);
+            if (dataSource == null) {
+                List<DataSource> allDataSources = dataService.getAllDataSource();
+                dataSource = allDataSources.isEmpty() ? null : allDataSources.get(0);
+            }
+            dataSources.put(uuid, dataSource);
+        }
+        return dataSources.get(uuid);
+    }
+
+    private void reject(final Map<String, Object> itemResult, final String message) {
+        itemResult.put("status", STATUS_REJECTED);
+        itemResult.put("message", message);
+    }
+}
@@ -17,7 +17,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.muzima.api.service.DataService;
-import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.model.DataSummary;
+import org.openmrs.module.muzima.task.BulkDataJob;
 import org.openmrs.module.muzima.web.utils.WebConverter;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -49,29 +50,35 @@ public class QueuesController {
 
         if (Context.isAuthenticated()) {
             DataService dataService = Context.getService(DataService.class);
-            int pages = (dataService.countQueueData(search).intValue() + pageSize - 1) / pageSize;
+            int totalItems = dataService.getApproximateQueueDataCount(search).intValue();
+            int pages = (totalItems + pageSize - 1) / pageSize;
             List<Object> objects = new ArrayList<Object>();
-            for (QueueData queueData : dataService.getPagedQueueData(search, pageNumber, pageSize)) {
-                objects.add(WebConverter.convertQueueData(queueData));
+            for (DataSummary summary : dataService.getPagedQueueDataSummaries(search, pageNumber, pageSize)) {
+                objects.add(WebConverter.convertQueueDataSummary(summary));
             }
 
             response.put("pages", pages);
-            response.put("totalItems", dataService.countQueueData(search).intValue());
+            response.put("totalItems", totalItems);
+            response.put("approximateCount", true);
             response.put("objects", objects);
         }
         return response;
     }
 
+    /**
+     * Delete the selected queue data, in the background for large selections.
+     *
+     * @return the progress of the job, see {@link BulkDataJob}.
+     */
     @SuppressWarnings("unchecked")
     @RequestMapping(method = RequestMethod.POST)
-    public void deleteQueue(final @RequestBody Map<String, Object> map) {
+    @ResponseBody
+    public Map<String, Object> deleteQueue(final @RequestBody Map<String, Object> map) {
+        Map<String, Object> response = new HashMap<String, Object>();
         if (Context.isAuthenticated()) {
             List<String> uuidList = (List<String>) map.get("uuidList");
-            DataService dataService = Context.getService(DataService.class);
-            for (String uuid : uuidList) {
-                QueueData queueData = dataService.getQueueDataByUuid(uuid);
-                dataService.purgeQueueData(queueData);
-            }
+            response.putAll(BulkDataJob.purgeQueueData(uuidList).getSnapshot());
         }
+        return response;
     }
 }
\ No newline at end of file
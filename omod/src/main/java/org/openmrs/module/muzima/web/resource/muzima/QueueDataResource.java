@@ -15,20 +15,18 @@ package org.openmrs.module.muzima.web.resource.muzima;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang.math.NumberUtils;
 import org.codehaus.jackson.map.ObjectMapper;
-import org.openmrs.Location;
-import org.openmrs.Provider;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.muzima.api.service.DataService;
-import org.openmrs.module.muzima.api.service.MuzimaFormService;
-import org.openmrs.module.muzima.handler.ObsQueueDataHandler;
-import org.openmrs.module.muzima.handler.RelationshipQueueDataHandler;
 import org.openmrs.module.muzima.model.DataSource;
-import org.openmrs.module.muzima.model.MuzimaForm;
+import org.openmrs.module.muzima.model.FormDataStatus;
 import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.model.handler.MetadataCache;
+import org.openmrs.module.muzima.task.ContinuousQueueDataProcessor;
+import org.openmrs.module.muzima.task.DuplicateSubmissionFilter;
+import org.openmrs.module.muzima.task.QueueDataEnricher;
+import org.openmrs.module.muzima.task.QueueProcessorStatistics;
 import org.openmrs.module.muzima.web.controller.MuzimaConstants;
-import org.openmrs.module.muzima.web.resource.utils.JsonUtils;
 import org.openmrs.module.webservices.rest.SimpleObject;
 import org.openmrs.module.webservices.rest.web.ConversionUtil;
 import org.openmrs.module.webservices.rest.web.RequestContext;
@@ -46,10 +44,11 @@ import org.openmrs.module.webservices.rest.web.response.ResourceDoesNotSupportOp
 import org.openmrs.module.webservices.rest.web.response.ResponseException;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * TODO: Write brief description about the class here.
@@ -58,6 +57,8 @@ import java.util.Map;
         supportedClass = QueueData.class, supportedOpenmrsVersions = {"1.8.*", "1.9.*","1.10.*","1.11.*","1.12.*","2.0.*","2.1.*"})
 public class QueueDataResource extends DataDelegatingCrudResource<QueueData> {
 
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
     /**
      * Gets the delegate object with the given unique id. Implementations may decide whether
      * "unique id" means a uuid, or if they also want to retrieve delegates based on a unique
@@ -120,7 +121,10 @@ public class QueueDataResource extends DataDelegatingCrudResource<QueueData> {
     @Override
     public QueueData save(final QueueData delegate) {
         DataService dataService = Context.getService(DataService.class);
-        return dataService.saveQueueData(delegate);
+        QueueData queueData = dataService.saveQueueData(delegate);
+        DuplicateSubmissionFilter.add(queueData.getFormDataUuid());
+        ContinuousQueueDataProcessor.submit(queueData.getId());
+        return queueData;
     }
 
     /**
@@ -235,16 +239,28 @@ public class QueueDataResource extends DataDelegatingCrudResource<QueueData> {
             throw new ConversionException("The payload property is missing!");
         }
 
+        // a device resubmits form data when it didn't get the response, acknowledge them again without queueing them.
+        Object formDataUuid = propertiesToCreate.get("formDataUuid");
+        if (formDataUuid != null && StringUtils.isNotBlank(formDataUuid.toString())) {
+            Set<String> submitted = DuplicateSubmissionFilter.findSubmitted(Collections.singleton(formDataUuid.toString()));
+            QueueProcessorStatistics.recordSubmissions(1, submitted.size());
+            if (!submitted.isEmpty()) {
+                FormDataStatus formDataStatus = dataService.getFormDataStatusByFormDataUuid(formDataUuid.toString());
+                SimpleObject duplicate = new SimpleObject();
+                duplicate.add("formDataUuid", formDataUuid.toString());
+                duplicate.add("status", formDataStatus.getStatus());
+                duplicate.add("duplicate", true);
+                return duplicate;
+            }
+        }
+
         String payload;
         if (payloadObject instanceof Map) {
-            StringWriter stringWriter = new StringWriter();
-            ObjectMapper objectMapper = new ObjectMapper();
             try {
-                objectMapper.writeValue(stringWriter, payloadObject);
+                payload = objectMapper.writeValueAsString(payloadObject);
             } catch (IOException e) {
                 throw new ConversionException("Unable to convert payload property!", e);
             }
-            payload = stringWriter.toString();
         } else {
             payload = payloadObject.toString();
         }
@@ -254,67 +270,24 @@ public class QueueDataResource extends DataDelegatingCrudResource<QueueData> {
             discriminator = propertiesToCreate.get("discriminator").toString();
         }
 
-        String formName;
-        Location location = null;
-
         QueueData queueData = new QueueData();
-        String patientUuid = extractPatientUuidFromPayload(payload);
-        Provider provider = extractProviderFromPayload(payload);
-
-        if(StringUtils.equals(discriminator, ObsQueueDataHandler.DISCRIMINATOR_VALUE)){
-            formName = "Individual Obs";
-        } else if (StringUtils.equals(discriminator, RelationshipQueueDataHandler.DISCRIMINATOR_VALUE)) {
-            formName = "Relationship";
-        } else {
-            location = extractLocationFromPayload(payload);
-            formName = extractFormNameFromPayload(payload);
-        }
-
         queueData.setDataSource(dataSource);
         queueData.setPayload(payload);
-        queueData.setFormName(formName);
-        queueData.setLocation(location);
-        queueData.setProvider(provider);
-        queueData.setPatientUuid(patientUuid);
+        queueData.setDiscriminator(discriminator);
+        // when the enrichment is deferred the processor fills these in before processing the queue data.
+        if (!QueueDataEnricher.isEnrichmentDeferred()) {
+            QueueDataEnricher.enrich(queueData, new MetadataCache());
+        }
 
-        Object formDataUuid = propertiesToCreate.get("formDataUuid");
         if(formDataUuid != null) queueData.setFormDataUuid(formDataUuid.toString());
 
-        propertiesToCreate.put("location",location);
-        propertiesToCreate.put("provider",provider);
-        propertiesToCreate.put("formName",formName);
-        propertiesToCreate.put("patientUuid", patientUuid);
+        propertiesToCreate.put("location", queueData.getLocation());
+        propertiesToCreate.put("provider", queueData.getProvider());
+        propertiesToCreate.put("formName", queueData.getFormName());
+        propertiesToCreate.put("patientUuid", queueData.getPatientUuid());
 
         setConvertedProperties(queueData, propertiesToCreate, getCreatableProperties(), true);
         queueData = save(queueData);
         return ConversionUtil.convertToRepresentation(queueData, Representation.DEFAULT);
     }
-
-    private Provider extractProviderFromPayload(String payload) {
-        String providerString = JsonUtils.readAsString(payload, "$['encounter']['encounter.provider_id']");
-        Provider provider = Context.getProviderService().getProviderByIdentifier(providerString);
-        return provider;
-    }
-
-    private Location extractLocationFromPayload(String payload) {
-        String locationString = JsonUtils.readAsString(payload, "$['encounter']['encounter.location_id']");
-        int locationId = NumberUtils.toInt(locationString, -999);
-        Location location = Context.getLocationService().getLocation(locationId);
-        return location;
-    }
-
-    private String extractFormNameFromPayload(String payload) {
-        String formUuid = JsonUtils.readAsString(payload, "$['encounter']['encounter.form_uuid']");
-        MuzimaFormService muzimaFormService = Context.getService(MuzimaFormService.class);
-        MuzimaForm muzimaForm = muzimaFormService.getFormByUuid(formUuid);
-        if(muzimaForm != null) {
-            return muzimaForm.getName();
-        }
-        return "Unknown name";
-    }
-
-    private String extractPatientUuidFromPayload(String payload){
-        String patientUuid = JsonUtils.readAsString(payload, "$['patient']['patient.uuid']");
-        return patientUuid;
-    }
-}
\ No newline at end of file
+}
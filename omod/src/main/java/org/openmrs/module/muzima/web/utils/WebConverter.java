@@ -27,6 +27,7 @@ import org.openmrs.module.muzima.api.service.DataService;
 import org.openmrs.module.muzima.api.service.MuzimaFormService;
 import org.openmrs.module.muzima.model.CohortDefinitionData;
 import org.openmrs.module.muzima.model.DataSource;
+import org.openmrs.module.muzima.model.DataSummary;
 import org.openmrs.module.muzima.model.ErrorData;
 import org.openmrs.module.muzima.model.ErrorMessage;
 import org.openmrs.module.muzima.model.MuzimaConfig;
@@ -40,9 +41,12 @@ import org.openmrs.module.reporting.report.ReportDesign;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * TODO: Write brief description about the class here.
@@ -81,7 +85,96 @@ public class WebConverter {
         return map;
     }
 
+    /**
+     * Convert the summary of a queue data for the queue list, with the first characters of the payload only.
+     */
+    public static Map<String, Object> convertQueueDataSummary(final DataSummary summary) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        if (summary != null) {
+            map.put("uuid", summary.getUuid());
+            map.put("discriminator", summary.getDiscriminator());
+            map.put("source", summary.getDataSourceName());
+            map.put("payloadPreview", summary.getPayloadPreview());
+            map.put("submitted", Context.getDateFormat().format(summary.getDateCreated()));
+
+            if(summary.getPatientUuid() == null){
+                map.put("patientUuid", emptyString);
+            } else {
+                map.put("patientUuid", summary.getPatientUuid());
+            }
+        }
+        return map;
+    }
+
     public static Map<String, Object> convertErrorData(final ErrorData errorData) {
+        String regErrorUuid = null;
+        if (errorData != null && isRegErrorDataNeeded(errorData.getPatientUuid(), errorData.getDiscriminator())) {
+            ErrorData regErrorData = getRegErrorData(errorData.getPatientUuid());
+            if (regErrorData != null) {
+                regErrorUuid = regErrorData.getUuid();
+            }
+        }
+        return convertErrorData(errorData, regErrorUuid);
+    }
+
+    /**
+     * Convert the summaries of a page of error data for the error list, looking up the registration error data of all
+     * patients on the page at once instead of once per error data.
+     */
+    public static List<Object> convertErrorDataSummaries(final List<DataSummary> summaries) {
+        Set<String> patientUuids = new HashSet<String>();
+        for (DataSummary summary : summaries) {
+            if (isRegErrorDataNeeded(summary.getPatientUuid(), summary.getDiscriminator())) {
+                patientUuids.add(summary.getPatientUuid());
+            }
+        }
+        Map<String, String> regErrorUuids = new HashMap<String, String>();
+        if (!patientUuids.isEmpty() && Context.isAuthenticated()) {
+            DataService dataService = Context.getService(DataService.class);
+            regErrorUuids = dataService.getRegistrationErrorDataUuids(patientUuids);
+        }
+        List<Object> objects = new ArrayList<Object>();
+        for (DataSummary summary : summaries) {
+            String regErrorUuid = isRegErrorDataNeeded(summary.getPatientUuid(), summary.getDiscriminator())
+                    ? regErrorUuids.get(summary.getPatientUuid()) : null;
+            objects.add(convertErrorDataSummary(summary, regErrorUuid));
+        }
+        return objects;
+    }
+
+    private static boolean isRegErrorDataNeeded(final String patientUuid, final String discriminator) {
+        return patientUuid != null && !StringUtils.equals("json-registration", discriminator);
+    }
+
+    private static Map<String, Object> convertErrorDataSummary(final DataSummary summary, final String regErrorUuid) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("uuid", summary.getUuid());
+        map.put("discriminator", summary.getDiscriminator());
+        map.put("source", summary.getDataSourceName());
+        map.put("message", summary.getMessage());
+        if(summary.getLocationId() == null){
+            map.put("locationId", emptyString);
+            map.put("locationName", emptyString);
+        }else{
+            map.put("locationId", summary.getLocationId());
+            map.put("locationName", summary.getLocationName());
+        }
+        if(summary.getProviderIdentifier() == null && summary.getProviderName() == null){
+            map.put("providerId", emptyString);
+            map.put("providerName", emptyString);
+        }else{
+            map.put("providerId", summary.getProviderIdentifier());
+            map.put("providerName", summary.getProviderName());
+        }
+        map.put("formName", summary.getFormName() == null ? emptyString : summary.getFormName());
+        map.put("submitted", Context.getDateFormat().format(summary.getDateCreated()));
+        map.put("processed", Context.getDateFormat().format(summary.getDateProcessed()));
+        map.put("patientUuid", summary.getPatientUuid() == null ? emptyString : summary.getPatientUuid());
+        map.put("regErrorUuid", regErrorUuid == null ? emptyString : regErrorUuid);
+        return map;
+    }
+
+    private static Map<String, Object> convertErrorData(final ErrorData errorData, final String regErrorUuid) {
         Map<String, Object> map = new HashMap<String, Object>();
         if (errorData != null) {
             map.put("uuid", errorData.getUuid());
@@ -115,12 +208,9 @@ public class WebConverter {
                 map.put("patientUuid", emptyString);
             } else {
                 map.put("patientUuid", errorData.getPatientUuid());
-                //get the registration errordata uuid if any for this patient
-                if(!StringUtils.equals("json-registration",errorData.getDiscriminator())){
-                    ErrorData regErrorData = getRegErrorData(errorData.getPatientUuid());
-                    if(regErrorData != null){
-                        map.put("regErrorUuid", regErrorData.getUuid());
-                    }
+                //the registration errordata uuid if any for this patient
+                if(regErrorUuid != null){
+                    map.put("regErrorUuid", regErrorUuid);
                 }
             }
 
@@ -2,25 +2,22 @@ package org.openmrs.module.muzima.web.utils;
 
 import com.jayway.jsonpath.JsonPath;
 import org.openmrs.module.muzima.exception.QueueProcessorException;
+import org.openmrs.module.muzima.utils.XmlElement;
+import org.openmrs.module.muzima.utils.XmlSections;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import java.io.ByteArrayInputStream;
 import java.io.StringWriter;
 import java.util.Map;
 
@@ -36,97 +33,69 @@ public class XmlJsonUtil {
 
     public static Map<String, Object> createPatientValuesFromPayload(Map<String, Object> map, final String payload) {
         try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document document = db.parse(new InputSource(new ByteArrayInputStream(payload.getBytes("utf-8"))));
-            Element element = document.getDocumentElement();
-            element.normalize();
+            XmlSections xmlPayload = XmlSections.parse(payload, "patient", "other_identifier_type_group", "encounter");
             String other_identifier_type = "";
-            Node patientNode = document.getElementsByTagName("patient").item(0);
-            NodeList patientElementNodes = patientNode.getChildNodes();
-            for (int i = 0; i < patientElementNodes.getLength(); i++) {
-                Node patientElementNode = patientElementNodes.item(i);
-                if (patientElementNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element patientElement = (Element) patientElementNode;
-                    if (patientElement.getTagName().equals("patient.middle_name")) {
-                        map.put("middle_name", patientElement.getTextContent());
-                    } else if (patientElement.getTagName().equals("patient.given_name")) {
-                        map.put("given_name", patientElement.getTextContent());
-                    } else if (patientElement.getTagName().equals("patient.family_name")) {
-                        map.put("family_name", patientElement.getTextContent());
-                    } else if (patientElement.getTagName().equals("patient_identifier.identifier_type_id")) {
-                        int identifierTypeId = Integer.parseInt(patientElement.getTextContent());
-                        map.put("identifier_type_id", "" + identifierTypeId);
-                    } else if (patientElement.getTagName().equals("patient.medical_record_number")) {
-                        map.put("medical_record_number", patientElement.getTextContent());
-                    } else if (patientElement.getTagName().equals("patient.sex")) {
-                        map.put("sex", patientElement.getTextContent());
-                    } else if (patientElement.getTagName().equals("patient.birthdate")) {
-                        map.put("birth_date", patientElement.getTextContent());
-                    } else if (patientElement.getTagName().equals("patient.birthdate_estimated")) {
-                        map.put("birthdate_estimated", patientElement.getTextContent());
-                    } else if (patientElement.getTagName().equals("patient.phone_number")) {
-                        map.put("phone_number", patientElement.getTextContent());
-                    } else if (patientElement.getTagName().equals("person_attribute4")) {
-                        map.put("person_attribute4", patientElement.getTextContent());
-                    } else if (patientElement.getTagName().equals("patient.uuid")) {
-                        map.put("patient_uuid", patientElement.getTextContent());
-                    }
+            XmlElement patientSection = xmlPayload.getSection("patient");
+            for (XmlElement patientElement : patientSection.getChildren()) {
+                if (patientElement.getName().equals("patient.middle_name")) {
+                    map.put("middle_name", patientElement.getTextContent());
+                } else if (patientElement.getName().equals("patient.given_name")) {
+                    map.put("given_name", patientElement.getTextContent());
+                } else if (patientElement.getName().equals("patient.family_name")) {
+                    map.put("family_name", patientElement.getTextContent());
+                } else if (patientElement.getName().equals("patient_identifier.identifier_type_id")) {
+                    int identifierTypeId = Integer.parseInt(patientElement.getTextContent());
+                    map.put("identifier_type_id", "" + identifierTypeId);
+                } else if (patientElement.getName().equals("patient.medical_record_number")) {
+                    map.put("medical_record_number", patientElement.getTextContent());
+                } else if (patientElement.getName().equals("patient.sex")) {
+                    map.put("sex", patientElement.getTextContent());
+                } else if (patientElement.getName().equals("patient.birthdate")) {
+                    map.put("birth_date", patientElement.getTextContent());
+                } else if (patientElement.getName().equals("patient.birthdate_estimated")) {
+                    map.put("birthdate_estimated", patientElement.getTextContent());
+                } else if (patientElement.getName().equals("patient.phone_number")) {
+                    map.put("phone_number", patientElement.getTextContent());
+                } else if (patientElement.getName().equals("person_attribute4")) {
+                    map.put("person_attribute4", patientElement.getTextContent());
+                } else if (patientElement.getName().equals("patient.uuid")) {
+                    map.put("patient_uuid", patientElement.getTextContent());
                 }
             }
 
-            Node otherIdentityNode = document.getElementsByTagName("other_identifier_type_group").item(0);
-            NodeList otherIdentityElementNodes = otherIdentityNode.getChildNodes();
-            for (int i = 0; i < otherIdentityElementNodes.getLength(); i++) {
-                Node elementNode = otherIdentityElementNodes.item(i);
-                if (elementNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element elements = (Element) elementNode;
-                    if (elements.getTagName().equals("other_identifier_type")) {
-                        other_identifier_type = elements.getTextContent();
-                        map.put("other_identifier_type", elements.getTextContent());
-                        map.put("other_identifier_type_name", other_identifier_type);
-                    }
+            XmlElement otherIdentitySection = xmlPayload.getSection("other_identifier_type_group");
+            for (XmlElement elements : otherIdentitySection.getChildren()) {
+                if (elements.getName().equals("other_identifier_type")) {
+                    other_identifier_type = elements.getTextContent();
+                    map.put("other_identifier_type", elements.getTextContent());
+                    map.put("other_identifier_type_name", other_identifier_type);
                 }
             }
 
-            Node otherIdentityTypeNode = document.getElementsByTagName(other_identifier_type + "_identifier_type").item(0);
-            NodeList otherIdentityTypeElementNodes = otherIdentityTypeNode.getChildNodes();
-            for (int i = 0; i < otherIdentityTypeElementNodes.getLength(); i++) {
-                Node elementNode = otherIdentityTypeElementNodes.item(i);
-                if (elementNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element elements = (Element) elementNode;
-                    if (elements.getTagName().equals(other_identifier_type + "_value")) {
-                        map.put("other_identifier_type_value", elements.getTextContent());
+            // the name of the section depends on the identifier type, it is written next to the group in the patient.
+            XmlElement otherIdentityTypeElement = patientSection.find(other_identifier_type + "_identifier_type");
+            for (XmlElement elements : otherIdentityTypeElement.getChildren()) {
+                if (elements.getName().equals(other_identifier_type + "_value")) {
+                    map.put("other_identifier_type_value", elements.getTextContent());
 
-                    }
                 }
             }
 
-            Node encounterNode = document.getElementsByTagName("encounter").item(0);
-            NodeList encounterElementNodes = encounterNode.getChildNodes();
+            for (XmlElement encounterElement : xmlPayload.getSection("encounter").getChildren()) {
+                if (encounterElement.getName().equals("encounter.location_id")) {
 
-            for (int i = 0; i < encounterElementNodes.getLength(); i++) {
-                Node encounterElementNode = encounterElementNodes.item(i);
-                if (encounterElementNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element encounterElement = (Element) encounterElementNode;
-                    if (encounterElement.getTagName().equals("encounter.location_id")) {
+                    map.put("location_id", encounterElement.getTextContent());
+                } else if (encounterElement.getName().equals("encounter.provider_id")) {
 
-                        map.put("location_id", encounterElement.getTextContent());
-                    } else if (encounterElement.getTagName().equals("encounter.provider_id")) {
+                    map.put("provider_id", encounterElement.getTextContent());
 
-                        map.put("provider_id", encounterElement.getTextContent());
+                } else if (encounterElement.getName().equals("encounter.encounter_datetime")) {
 
-                    } else if (encounterElement.getTagName().equals("encounter.encounter_datetime")) {
-
-                        map.put("encounter_datetime", encounterElement.getTextContent());
-                    }
+                    map.put("encounter_datetime", encounterElement.getTextContent());
                 }
             }
-        } catch (ParserConfigurationException e) {
-            logger.error("ParserConfigurationException" + map.toString());
-            throw new QueueProcessorException(e);
-        } catch (SAXException e) {
-            logger.error("SAXException" + map.toString());
+        } catch (XMLStreamException e) {
+            logger.error("XMLStreamException" + map.toString());
             throw new QueueProcessorException(e);
         } catch (Exception e) {
             logger.error("QueueProcessorException" + map.toString());
@@ -37,7 +37,7 @@ muzimaCoreModule.
     }]
 );
 
-muzimaCoreModule.factory('$data', function ($http) {
+muzimaCoreModule.factory('$data', function ($http, $q, $timeout) {
     var getQueues = function (search, pageNumber, pageSize) {
         if (search === undefined) {
             // replace undefined search term with empty string
@@ -48,9 +48,27 @@ muzimaCoreModule.factory('$data', function ($http) {
     var deleteQueues = function (uuidList) {
         return $http.post("queues.json", {"uuidList": uuidList});
     };
+    var waitForBulkDataJob = function (job) {
+        // large selections are requeued or deleted in the background, poll the job until it is done.
+        if (job.status !== 'waiting' && job.status !== 'running') {
+            return $q.when(job);
+        }
+        return $timeout(function () {
+            return $http.get("bulkDataJob.json?uuid=" + job.uuid);
+        }, 1000).then(function (response) {
+            return waitForBulkDataJob(response.data);
+        });
+    };
     var getQueue = function (uuid) {
         return $http.get("queue.json?uuid=" + uuid);
     };
+    var getDataCount = function (type, search) {
+        if (search === undefined) {
+            // replace undefined search term with empty string
+            search = '';
+        }
+        return $http.get("dataCount.json?type=" + type + "&search=" + search);
+    };
 
     var getErrors = function (search, pageNumber, pageSize) {
         if (search === undefined) {
@@ -114,6 +132,8 @@ muzimaCoreModule.factory('$data', function ($http) {
         getErrors: getErrors,
         getError: getError,
         reQueueErrors: reQueueErrors,
+        waitForBulkDataJob: waitForBulkDataJob,
+        getDataCount: getDataCount,
 
         getSources: getSources,
         getSource: getSource,
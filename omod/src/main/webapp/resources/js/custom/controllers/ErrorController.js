@@ -211,11 +211,13 @@ function ErrorsCtrl($scope, $location, $data) {
     $scope.pageSize = 10;
     $scope.currentPage = 1;
     $scope.totalItems = 0;
+    $scope.approximateCount = false;
     $data.getErrors($scope.search, $scope.currentPage, $scope.pageSize).
     then(function (response) {
         var serverData = response.data;
         $scope.errors = serverData.objects;
         $scope.totalItems = serverData.totalItems;
+        $scope.approximateCount = serverData.approximateCount;
 
         $scope.isErrorLoadingCompleted = true;
         $('#wait').hide();
@@ -230,18 +232,31 @@ function ErrorsCtrl($scope, $location, $data) {
             }
         });
         $data.reQueueErrors(uuidList).
+        then(function (response) {
+            return $data.waitForBulkDataJob(response.data);
+        }).
         then(function () {
             $data.getErrors($scope.search, $scope.currentPage, $scope.pageSize).
             then(function (response) {
                 var serverData = response.data;
                 $scope.errors = serverData.objects;
                 $scope.totalItems = serverData.totalItems;
+                $scope.approximateCount = serverData.approximateCount;
                 $scope.allErrorsSelected = false;
                 $('#wait').hide();
             });
         })
     };
 
+    $scope.getExactCount = function () {
+        // the total shown is approximate, count the error data matching the search in the database.
+        $data.getDataCount('error', $scope.search).
+        then(function (response) {
+            $scope.totalItems = response.data.count;
+            $scope.approximateCount = response.data.approximateCount;
+        });
+    };
+
     $scope.$watch('currentPage', function (newValue, oldValue) {
         if (newValue != oldValue) {
             $('#wait').show();
@@ -250,6 +265,7 @@ function ErrorsCtrl($scope, $location, $data) {
                 var serverData = response.data;
                 $scope.errors = serverData.objects;
                 $scope.totalItems = serverData.totalItems;
+                $scope.approximateCount = serverData.approximateCount;
                 $('#wait').hide();
             });
         }
@@ -263,6 +279,7 @@ function ErrorsCtrl($scope, $location, $data) {
                 var serverData = response.data;
                 $scope.errors = serverData.objects;
                 $scope.totalItems = serverData.totalItems;
+                $scope.approximateCount = serverData.approximateCount;
             });
         }
     }, true);
@@ -29,12 +29,14 @@ function QueuesCtrl($scope, $location, $data) {
     $scope.pageSize = 10;
     $scope.currentPage = 1;
     $scope.totalItems = 0;
+    $scope.approximateCount = false;
     $data.getQueues($scope.search, $scope.currentPage, $scope.pageSize).
     then(function (response) {
         var serverData = response.data;
         $scope.queues = serverData.objects;
         $scope.noOfPages = serverData.pages;
         $scope.totalItems = serverData.totalItems;
+        $scope.approximateCount = serverData.approximateCount;
         $('#wait').hide();
     });
 
@@ -46,6 +48,9 @@ function QueuesCtrl($scope, $location, $data) {
             }
         });
         $data.deleteQueue(uuidList).
+        then(function (response) {
+            return $data.waitForBulkDataJob(response.data);
+        }).
         then(function () {
             $data.getQueues($scope.search, $scope.currentPage, $scope.pageSize).
             then(function (response) {
@@ -53,10 +58,21 @@ function QueuesCtrl($scope, $location, $data) {
                 $scope.queues = serverData.objects;
                 $scope.noOfPages = serverData.pages;
                 $scope.totalItems = serverData.totalItems;
+                $scope.approximateCount = serverData.approximateCount;
             });
         })
     };
 
+    $scope.getExactCount = function () {
+        // the total shown is approximate, count the queue data matching the search in the database.
+        $data.getDataCount('queue', $scope.search).
+        then(function (response) {
+            $scope.totalItems = response.data.count;
+            $scope.noOfPages = Math.ceil($scope.totalItems / $scope.pageSize);
+            $scope.approximateCount = response.data.approximateCount;
+        });
+    };
+
     $scope.$watch('currentPage', function (newValue, oldValue) {
         if (newValue != oldValue) {
             $data.getQueues($scope.search, $scope.currentPage, $scope.pageSize).
@@ -65,6 +81,7 @@ function QueuesCtrl($scope, $location, $data) {
                 $scope.queues = serverData.objects;
                 $scope.noOfPages = serverData.pages;
                 $scope.totalItems = serverData.totalItems;
+                $scope.approximateCount = serverData.approximateCount;
             });
         }
     }, true);
@@ -78,6 +95,7 @@ function QueuesCtrl($scope, $location, $data) {
                 $scope.queues = serverData.objects;
                 $scope.noOfPages = serverData.pages;
                 $scope.totalItems = serverData.totalItems;
+                $scope.approximateCount = serverData.approximateCount;
             });
         }
     }, true);
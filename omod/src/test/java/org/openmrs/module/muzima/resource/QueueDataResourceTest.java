@@ -0,0 +1,66 @@
+package org.openmrs.module.muzima.resource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.api.service.DataService;
+import org.openmrs.module.muzima.model.DataSource;
+import org.openmrs.module.muzima.model.FormDataStatus;
+import org.openmrs.module.muzima.model.QueueData;
+import org.openmrs.module.muzima.web.resource.muzima.QueueDataResource;
+import org.openmrs.module.webservices.rest.SimpleObject;
+import org.openmrs.module.webservices.rest.web.RequestContext;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Context.class)
+public class QueueDataResourceTest {
+
+    private DataService dataService;
+
+    private QueueDataResource resource;
+
+    @Before
+    public void setUp() throws Exception {
+        dataService = mock(DataService.class);
+        resource = new QueueDataResource();
+        mockStatic(Context.class);
+        when(Context.getService(DataService.class)).thenReturn(dataService);
+        when(dataService.getDataSourceByUuid("data-source")).thenReturn(new DataSource());
+    }
+
+    @Test
+    public void create_shouldAcknowledgeResubmittedFormDataWithoutQueueingThem() throws Exception {
+        FormDataStatus formDataStatus = new FormDataStatus("form-data-1");
+        formDataStatus.setStatus("archived");
+        when(dataService.getSubmittedFormDataUuids(Collections.singleton("form-data-1")))
+                .thenReturn(new HashSet<String>(Collections.singletonList("form-data-1")));
+        when(dataService.getFormDataStatusByFormDataUuid("form-data-1")).thenReturn(formDataStatus);
+        SimpleObject properties = new SimpleObject();
+        properties.add("dataSource", "data-source");
+        properties.add("payload", "{}");
+        properties.add("discriminator", "json-encounter");
+        properties.add("formDataUuid", "form-data-1");
+
+        SimpleObject response = (SimpleObject) resource.create(properties, mock(RequestContext.class));
+
+        assertThat(response.get("duplicate"), is((Object) true));
+        assertThat(response.get("formDataUuid"), is((Object) "form-data-1"));
+        assertThat(response.get("status"), is((Object) "archived"));
+        verify(dataService, never()).saveQueueData(any(QueueData.class));
+    }
+}
@@ -0,0 +1,174 @@
+package org.openmrs.module.muzima.web.controller;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.muzima.api.service.DataService;
+import org.openmrs.module.muzima.api.service.MuzimaSettingService;
+import org.openmrs.module.muzima.model.DataSource;
+import org.openmrs.module.muzima.model.MuzimaSetting;
+import org.openmrs.module.muzima.model.QueueData;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.openmrs.module.muzima.utils.Constants.MuzimaSettings.QUEUE_DATA_DEFERRED_ENRICHMENT_SETTING_PROPERTY;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(Context.class)
+public class QueueDataBulkControllerTest {
+
+    private QueueDataBulkController controller;
+
+    private DataService dataService;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        controller = new QueueDataBulkController();
+        dataService = mock(DataService.class);
+        MuzimaSettingService muzimaSettingService = mock(MuzimaSettingService.class);
+        MuzimaSetting deferredEnrichment = new MuzimaSetting();
+        deferredEnrichment.setValueBoolean(true);
+        mockStatic(Context.class);
+        when(Context.isAuthenticated()).thenReturn(true);
+        when(Context.getService(DataService.class)).thenReturn(dataService);
+        when(Context.getService(MuzimaSettingService.class)).thenReturn(muzimaSettingService);
+        when(muzimaSettingService.getMuzimaSettingByProperty(QUEUE_DATA_DEFERRED_ENRICHMENT_SETTING_PROPERTY))
+                .thenReturn(deferredEnrichment);
+        when(dataService.getDataSourceByUuid(anyString())).thenReturn(new DataSource());
+        when(dataService.getSubmittedFormDataUuids(any(Collection.class))).thenReturn(new HashSet<String>());
+        when(dataService.saveQueueDataInBulk(anyList())).thenReturn(Collections.<String, String>emptyMap());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void create_shouldTurnDownRequestsOverTheLimitBeforeValidatingAnyQueueData() throws Exception {
+        StringBuilder body = new StringBuilder("[");
+        for (int i = 0; i <= QueueDataBulkController.MAX_QUEUE_DATA; i++) {
+            body.append(i == 0 ? "" : ",").append(createEnvelope("json-encounter", null));
+        }
+        body.append("]");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        Map<String, Object> results = controller.create(createRequest(body.toString()), response);
+
+        assertThat(response.getStatus(), is(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE));
+        assertThat(results.containsKey("results"), is(false));
+        verify(dataService, never()).getDataSourceByUuid(anyString());
+        verify(dataService, never()).saveQueueDataInBulk(anyList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void create_shouldRejectTheInvalidQueueDataAndQueueTheOthers() throws Exception {
+        String body = "[" + createEnvelope("json-encounter", null) + ","
+                + "{\"payload\":\"{}\",\"dataSource\":\"data-source\"},"
+                + "{\"discriminator\":\"json-encounter\",\"dataSource\":\"data-source\"}]";
+
+        Map<String, Object> results = controller.create(createRequest(body), new MockHttpServletResponse());
+
+        List<Map<String, Object>> itemResults = (List<Map<String, Object>>) results.get("results");
+        assertThat(results.get("queued"), is((Object) 1));
+        assertThat(results.get("notQueued"), is((Object) 2));
+        assertThat(itemResults.get(0).get("status"), is((Object) QueueDataBulkController.STATUS_QUEUED));
+        assertThat(itemResults.get(1).get("status"), is((Object) QueueDataBulkController.STATUS_REJECTED));
+        assertThat(itemResults.get(1).get("message"), is((Object) "The discriminator property is missing!"));
+        assertThat(itemResults.get(2).get("status"), is((Object) QueueDataBulkController.STATUS_REJECTED));
+        assertThat(itemResults.get(2).get("message"), is((Object) "The payload property is missing!"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void create_shouldReportTheQueueDataWhichCouldNotBeSaved() throws Exception {
+        String body = createEnvelope("json-encounter", null) + "\n" + createEnvelope("json-registration", null);
+        when(dataService.saveQueueDataInBulk(anyList())).thenAnswer(new Answer<Map<String, String>>() {
+            @Override
+            public Map<String, String> answer(final InvocationOnMock invocation) {
+                QueueData failed = ((List<QueueData>) invocation.getArguments()[0]).get(1);
+                return Collections.singletonMap(failed.getUuid(), "Column 'discriminator' cannot be null");
+            }
+        });
+
+        Map<String, Object> results = controller.create(createRequest(body), new MockHttpServletResponse());
+
+        List<Map<String, Object>> itemResults = (List<Map<String, Object>>) results.get("results");
+        assertThat(results.get("queued"), is((Object) 1));
+        assertThat(itemResults.get(0).get("status"), is((Object) QueueDataBulkController.STATUS_QUEUED));
+        assertThat(itemResults.get(1).get("status"), is((Object) QueueDataBulkController.STATUS_FAILED));
+        assertThat(itemResults.get(1).get("message"), is((Object) "Column 'discriminator' cannot be null"));
+    }
+
+    @Test
+    public void create_shouldNotQueueFormDataSubmittedBefore() throws Exception {
+        when(dataService.getSubmittedFormDataUuids(any(Collection.class)))
+                .thenReturn(new HashSet<String>(Collections.singletonList("form-data-1")));
+        String body = "[" + createEnvelope("json-encounter", "form-data-1") + ","
+                + createEnvelope("json-encounter", "form-data-2") + ","
+                + createEnvelope("json-encounter", "form-data-2") + "]";
+
+        Map<String, Object> results = controller.create(createRequest(body), new MockHttpServletResponse());
+
+        assertThat(results.get("queued"), is((Object) 1));
+        assertThat(results.get("duplicates"), is((Object) 2));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void create_shouldTurnDownRequestsWithAQueueDataWhichIsNotAnObject() throws Exception {
+        String body = "[" + createEnvelope("json-encounter", null) + ",null," + createEnvelope("json-encounter", null)
+                + "]";
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        Map<String, Object> results = controller.create(createRequest(body), response);
+
+        assertThat(response.getStatus(), is(HttpServletResponse.SC_BAD_REQUEST));
+        assertThat(results.get("index"), is((Object) 1));
+        verify(dataService, never()).saveQueueDataInBulk(anyList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void create_shouldTurnDownRequestsWhichAreNotValidJson() throws Exception {
+        String body = "[" + createEnvelope("json-encounter", null) + ",{\"payload\":";
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        controller.create(createRequest(body), response);
+
+        assertThat(response.getStatus(), is(HttpServletResponse.SC_BAD_REQUEST));
+        verify(dataService, never()).saveQueueDataInBulk(anyList());
+    }
+
+    private String createEnvelope(final String discriminator, final String formDataUuid) {
+        return "{\"payload\":{\"patient\":{\"patient.uuid\":\"patient-a\"}},\"discriminator\":\"" + discriminator
+                + "\",\"dataSource\":\"data-source\"" + (formDataUuid == null ? "" : ",\"formDataUuid\":\""
+                + formDataUuid + "\"") + "}";
+    }
+
+    private MockHttpServletRequest createRequest(final String body) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/rest/v1/muzima/queuedata/bulk");
+        request.setContent(body.getBytes("UTF-8"));
+        return request;
+    }
+}